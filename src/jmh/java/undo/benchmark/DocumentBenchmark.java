@@ -0,0 +1,136 @@
+package undo.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import undo.Document;
+import undo.DocumentType;
+import undo.impl.GapBufferDocument;
+import undo.impl.PieceTableDocument;
+import undo.impl.RopeDocument;
+import undo.impl.StringDocument;
+
+/**
+ * Latency of the document edit operations that undo and redo are built on, for every
+ * document implementation and different document sizes. Each operation is an insertion
+ * and a deletion of the same text, so the document keeps its size.
+ *
+ * @author Nemanja
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DocumentBenchmark {
+
+    /**
+     * Text inserted by a paste.
+     */
+    private static final String PASTE = "The quick brown fox jumps over the lazy dog. ".repeat(6);
+
+    /**
+     * Number of prepared edit positions, a power of two.
+     */
+    private static final int POSITIONS = 1024;
+
+    /**
+     * Document implementation.
+     */
+    @Param
+    public DocumentType type;
+
+    /**
+     * Size of the document.
+     */
+    @Param({"1000", "100000"})
+    public int documentSize;
+
+    /**
+     * Document under test.
+     */
+    private Document document;
+
+    /**
+     * Random edit positions.
+     */
+    private int[] positions;
+
+    /**
+     * Index of the next edit position.
+     */
+    private int next;
+
+    /**
+     * Creates a document of the benchmarked size and the edit positions.
+     */
+    @Setup
+    public void setup() {
+        var text = "x".repeat(this.documentSize);
+        switch (this.type) {
+            case GAP_BUFFER:
+                this.document = new GapBufferDocument(this.documentSize + PASTE.length());
+                this.document.insert(0, text);
+                break;
+            case PIECE_TABLE:
+                this.document = new PieceTableDocument(text);
+                break;
+            case ROPE:
+                this.document = new RopeDocument(text);
+                break;
+            default:
+                this.document = new StringDocument(this.documentSize + PASTE.length());
+                this.document.insert(0, text);
+                break;
+        }
+        var random = new Random(42);
+        this.positions = new int[POSITIONS];
+        for (int i = 0; i < POSITIONS; i++) {
+            this.positions[i] = random.nextInt(this.documentSize);
+        }
+    }
+
+    /**
+     * Inserts and deletes a single character.
+     */
+    @Benchmark
+    public void typing() {
+        var pos = nextPosition();
+        this.document.insert(pos, "a");
+        this.document.delete(pos, "a");
+    }
+
+    /**
+     * Inserts and deletes a block of text.
+     */
+    @Benchmark
+    public void paste() {
+        var pos = nextPosition();
+        this.document.insert(pos, PASTE);
+        this.document.delete(pos, PASTE);
+    }
+
+    /**
+     * Gets the next random edit position.
+     *
+     * @return The position
+     */
+    private int nextPosition() {
+        var pos = this.positions[this.next];
+        this.next = (this.next + 1) & (POSITIONS - 1);
+        return pos;
+    }
+
+}
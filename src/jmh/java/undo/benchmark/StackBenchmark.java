@@ -0,0 +1,112 @@
+package undo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import util.FixedSizeStack;
+import util.RingBufferStack;
+
+/**
+ * Cost of pushing into a full history stack, comparing the ring buffer with the
+ * {@link java.util.Stack} based implementation it replaced.
+ *
+ * @author Nemanja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StackBenchmark {
+
+    /**
+     * Capacity of the stacks.
+     */
+    @Param({"10", "100", "1000"})
+    public int capacity;
+
+    /**
+     * Full ring buffer stack.
+     */
+    private RingBufferStack<Integer> ringBufferStack;
+
+    /**
+     * Full fixed size stack.
+     */
+    private FixedSizeStack<Integer> fixedSizeStack;
+
+    /**
+     * Value pushed to the stacks.
+     */
+    private Integer value;
+
+    /**
+     * Creates and fills the stacks.
+     */
+    @Setup
+    public void setup() {
+        this.ringBufferStack = new RingBufferStack<>(this.capacity);
+        this.fixedSizeStack = new FixedSizeStack<>(this.capacity);
+        this.value = 42;
+        for (int i = 0; i < this.capacity; i++) {
+            this.ringBufferStack.push(i);
+            this.fixedSizeStack.push(i);
+        }
+    }
+
+    /**
+     * Pushes into the full ring buffer stack.
+     *
+     * @return Evicted value
+     */
+    @Benchmark
+    public Integer ringBufferPush() {
+        return this.ringBufferStack.push(this.value);
+    }
+
+    /**
+     * Pushes into the full fixed size stack.
+     *
+     * @return Pushed value
+     */
+    @Benchmark
+    public Integer fixedSizeStackPush() {
+        return this.fixedSizeStack.push(this.value);
+    }
+
+    /**
+     * Pops from and pushes back into the full ring buffer stack.
+     *
+     * @return Popped value
+     */
+    @Benchmark
+    public Integer ringBufferPopPush() {
+        var top = this.ringBufferStack.pop();
+        this.ringBufferStack.push(top);
+        return top;
+    }
+
+    /**
+     * Pops from and pushes back into the full fixed size stack.
+     *
+     * @return Popped value
+     */
+    @Benchmark
+    public Integer fixedSizeStackPopPush() {
+        var top = this.fixedSizeStack.pop();
+        this.fixedSizeStack.push(top);
+        return top;
+    }
+
+}
@@ -0,0 +1,174 @@
+package undo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import undo.Change;
+import undo.ChangeFactory;
+import undo.Document;
+import undo.UndoManager;
+import undo.impl.ChangeFactoryImpl;
+import undo.impl.StringDocument;
+import undo.impl.UndoManagerFactoryImpl;
+
+/**
+ * Throughput of the undo manager under typical editing workloads, for different buffer
+ * sizes, document sizes and history stores. Run with the <code>gc</code> profiler to also
+ * get the allocation rate per operation.
+ *
+ * @author Nemanja
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class UndoManagerBenchmark {
+
+    /**
+     * Text inserted by a paste.
+     */
+    private static final String PASTE = "The quick brown fox jumps over the lazy dog. ".repeat(6);
+
+    /**
+     * Number of prepared changes for the eviction workload, a power of two.
+     */
+    private static final int PREPARED_CHANGES = 1024;
+
+    /**
+     * Capacity of the undo manager.
+     */
+    @Param({"10", "100", "1000"})
+    public int bufferSize;
+
+    /**
+     * Size of the document.
+     */
+    @Param({"1000", "100000"})
+    public int documentSize;
+
+    /**
+     * History store, either <code>RING</code> for the default stack or <code>COMPACT</code>
+     * for the columnar change log.
+     */
+    @Param({"RING", "COMPACT"})
+    public String history;
+
+    /**
+     * Document being edited.
+     */
+    private Document document;
+
+    /**
+     * Undo manager under test.
+     */
+    private UndoManager undoManager;
+
+    /**
+     * Factory of registered changes.
+     */
+    private ChangeFactory changeFactory;
+
+    /**
+     * Single letter strings typed into the document.
+     */
+    private String[] letters;
+
+    /**
+     * Changes registered by the eviction workload.
+     */
+    private Change[] prepared;
+
+    /**
+     * Position of the next edit.
+     */
+    private int pos;
+
+    /**
+     * Index of the next prepared change.
+     */
+    private int next;
+
+    /**
+     * Creates the document and fills the undo buffer with typed letters.
+     */
+    @Setup
+    public void setup() {
+        this.document = new StringDocument(this.documentSize);
+        var undoFactory = new UndoManagerFactoryImpl();
+        this.undoManager = "COMPACT".equals(this.history)
+                ? undoFactory.createCompactUndoManager(this.document, this.bufferSize)
+                : undoFactory.createUndoManager(this.document, this.bufferSize);
+        this.changeFactory = new ChangeFactoryImpl();
+        this.letters = new String[26];
+        for (int i = 0; i < this.letters.length; i++) {
+            this.letters[i] = String.valueOf((char) ('a' + i));
+        }
+        this.prepared = new Change[PREPARED_CHANGES];
+        for (int i = 0; i < PREPARED_CHANGES; i++) {
+            this.prepared[i] = this.changeFactory.createInsertion(i, this.letters[i % 26], i, i + 1);
+        }
+        for (int i = 0; i < Math.min(this.bufferSize, this.documentSize); i++) {
+            typing();
+        }
+    }
+
+    /**
+     * Types a single letter, registering it with the undo manager.
+     */
+    @Benchmark
+    public void typing() {
+        var letter = this.letters[this.pos % 26];
+        this.undoManager.registerChange(this.changeFactory.createInsertion(this.pos, letter, this.pos, this.pos + 1));
+        this.document.insert(this.pos, letter);
+        this.pos = this.pos + 1 < this.documentSize ? this.pos + 1 : 0;
+    }
+
+    /**
+     * Pastes a block of text, registering it with the undo manager.
+     */
+    @Benchmark
+    public void paste() {
+        if (this.pos + PASTE.length() > this.documentSize) {
+            this.pos = 0;
+        }
+        this.undoManager.registerChange(
+                this.changeFactory.createInsertion(this.pos, PASTE, this.pos, this.pos + PASTE.length()));
+        this.document.insert(this.pos, PASTE);
+        this.pos += PASTE.length();
+    }
+
+    /**
+     * Undoes the whole buffer and redoes it again.
+     */
+    @Benchmark
+    public void undoAllRedoAll() {
+        while (this.undoManager.canUndo()) {
+            this.undoManager.undo();
+        }
+        while (this.undoManager.canRedo()) {
+            this.undoManager.redo();
+        }
+    }
+
+    /**
+     * Registers a change into a full buffer, which evicts the oldest change.
+     */
+    @Benchmark
+    public void eviction() {
+        this.undoManager.registerChange(this.prepared[this.next]);
+        this.next = (this.next + 1) & (PREPARED_CHANGES - 1);
+    }
+
+}
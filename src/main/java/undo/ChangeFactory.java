@@ -29,4 +29,64 @@ public interface ChangeFactory {
 	 * @return The insertion {@link Change}.
 	 */
 	public Change createInsertion(int pos, String s, int oldDot, int newDot);
+
+	/**
+	 * Creates a deletion change from a character sequence, such as a buffer
+	 * reused for streamed input.
+	 *
+	 * @param pos The position to start the deletion.
+	 * @param s The characters to delete, copied by the change.
+	 * @param oldDot The dot (cursor) position before the deletion.
+	 * @param newDot The dot (cursor) position after the deletion.
+	 * @return The deletion {@link Change}.
+	 */
+	public default Change createDeletion(int pos, CharSequence s, int oldDot, int newDot) {
+		return createDeletion(pos, s.toString(), oldDot, newDot);
+	}
+
+	/**
+	 * Creates a deletion change from a range of a character array.
+	 *
+	 * @param pos The position to start the deletion.
+	 * @param chars Array holding the characters to delete, copied by the change.
+	 * @param offset Index of the first character in <code>chars</code>.
+	 * @param length Number of characters to delete.
+	 * @param oldDot The dot (cursor) position before the deletion.
+	 * @param newDot The dot (cursor) position after the deletion.
+	 * @return The deletion {@link Change}.
+	 * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+	 */
+	public default Change createDeletion(int pos, char[] chars, int offset, int length, int oldDot, int newDot) {
+		return createDeletion(pos, new String(chars, offset, length), oldDot, newDot);
+	}
+
+	/**
+	 * Creates an insertion change from a character sequence, such as a buffer
+	 * reused for streamed input.
+	 *
+	 * @param pos The position at which to insert.
+	 * @param s The characters to insert, copied by the change.
+	 * @param oldDot The dot (cursor) position before the insertion.
+	 * @param newDot The dot (cursor) position after the insertion.
+	 * @return The insertion {@link Change}.
+	 */
+	public default Change createInsertion(int pos, CharSequence s, int oldDot, int newDot) {
+		return createInsertion(pos, s.toString(), oldDot, newDot);
+	}
+
+	/**
+	 * Creates an insertion change from a range of a character array.
+	 *
+	 * @param pos The position at which to insert.
+	 * @param chars Array holding the characters to insert, copied by the change.
+	 * @param offset Index of the first character in <code>chars</code>.
+	 * @param length Number of characters to insert.
+	 * @param oldDot The dot (cursor) position before the insertion.
+	 * @param newDot The dot (cursor) position after the insertion.
+	 * @return The insertion {@link Change}.
+	 * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+	 */
+	public default Change createInsertion(int pos, char[] chars, int offset, int length, int oldDot, int newDot) {
+		return createInsertion(pos, new String(chars, offset, length), oldDot, newDot);
+	}
 }
@@ -26,6 +26,68 @@ public interface Document {
 	 * 			(that is, if document is shorter than that). 
 	 */
 	public void insert(int pos, String s);
+
+	/**
+	 * Deletes a character sequence from the document. The default
+	 * implementation copies it into a string, documents that can compare
+	 * it in place should override it.
+	 *
+	 * @param pos The position to start deletion.
+	 * @param s The characters to delete.
+	 * @throws IllegalStateException If the document doesn't have <code>s</code>
+	 * 			as <code>pos</code>.
+	 */
+	public default void delete(int pos, CharSequence s) {
+		delete(pos, s.toString());
+	}
+
+	/**
+	 * Deletes a range of a character array from the document. The default
+	 * implementation copies it into a string, documents that can compare
+	 * it in place should override it.
+	 *
+	 * @param pos The position to start deletion.
+	 * @param chars Array holding the characters to delete.
+	 * @param offset Index of the first character in <code>chars</code>.
+	 * @param length Number of characters to delete.
+	 * @throws IllegalStateException If the document doesn't have the characters
+	 * 			as <code>pos</code>.
+	 * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+	 */
+	public default void delete(int pos, char[] chars, int offset, int length) {
+		delete(pos, new String(chars, offset, length));
+	}
+
+	/**
+	 * Inserts a character sequence into the document. The default
+	 * implementation copies it into a string, documents that can copy it
+	 * directly into their storage should override it.
+	 *
+	 * @param pos The position to insert the characters at.
+	 * @param s The characters to insert.
+	 * @throws IllegalStateException If <code>pos</code> is an illegal position
+	 * 			(that is, if document is shorter than that).
+	 */
+	public default void insert(int pos, CharSequence s) {
+		insert(pos, s.toString());
+	}
+
+	/**
+	 * Inserts a range of a character array into the document. The default
+	 * implementation copies it into a string, documents that can copy it
+	 * directly into their storage should override it.
+	 *
+	 * @param pos The position to insert the characters at.
+	 * @param chars Array holding the characters to insert.
+	 * @param offset Index of the first character in <code>chars</code>.
+	 * @param length Number of characters to insert.
+	 * @throws IllegalStateException If <code>pos</code> is an illegal position
+	 * 			(that is, if document is shorter than that).
+	 * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+	 */
+	public default void insert(int pos, char[] chars, int offset, int length) {
+		insert(pos, new String(chars, offset, length));
+	}
 	
 	/**
 	 * Sets the dot (cursor) position of the document. 
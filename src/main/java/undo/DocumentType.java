@@ -0,0 +1,29 @@
+package undo;
+
+/**
+ * Enum of the {@link Document} implementations an {@link UndoManagerFactory} can create.
+ *
+ * @author Nemanja
+ */
+public enum DocumentType {
+
+	/**
+	 * A fixed size document where insertions overwrite the text.
+	 */
+	STRING,
+
+	/**
+	 * A growable document backed by a gap buffer.
+	 */
+	GAP_BUFFER,
+
+	/**
+	 * A growable document backed by a piece table.
+	 */
+	PIECE_TABLE,
+
+	/**
+	 * A growable document backed by a balanced rope, for very large texts.
+	 */
+	ROPE
+}
@@ -0,0 +1,70 @@
+package undo;
+
+/**
+ * An optional capability of a {@link Document} to hash its text incrementally, so
+ * that documents which should hold the same text can be compared without reading
+ * it. Fingerprints are polynomial hashes with a fixed base, comparable between
+ * documents of any class and between processes.
+ *
+ * @author Nemanja
+ */
+public interface Fingerprinted {
+
+	/**
+	 * Gets length of the document.
+	 *
+	 * @return Number of characters in the document.
+	 */
+	public int length();
+
+	/**
+	 * Gets fingerprint of the whole text. Equal texts have equal fingerprints,
+	 * different ones differ with overwhelming probability.
+	 *
+	 * @return Fingerprint of the document.
+	 */
+	public default long fingerprint() {
+		return fingerprint(0, length());
+	}
+
+	/**
+	 * Gets fingerprint of a range of the text, in <code>O(log n)</code> for a
+	 * document of <code>n</code> characters, plus the length of a chunk of the
+	 * text the document keeps together.
+	 *
+	 * @param start Index of the first character.
+	 * @param end Index after the last character.
+	 * @return Fingerprint of the range.
+	 * @throws IllegalStateException If the range is outside of the document.
+	 */
+	public long fingerprint(int start, int end);
+
+	/**
+	 * Finds the first character where the text differs from the text of
+	 * another document, bisecting on fingerprints of prefixes instead of
+	 * comparing characters.
+	 *
+	 * @param other The other document.
+	 * @return Index of the first differing character, the length of the
+	 * 			shorter document if it is a prefix of the longer one, or
+	 * 			<code>-1</code> if the texts are equal.
+	 */
+	public default int mismatch(Fingerprinted other) {
+		var length = Math.min(length(), other.length());
+		if (fingerprint(0, length) == other.fingerprint(0, length)) {
+			return length() == other.length() ? -1 : length;
+		}
+		var equal = 0;
+		var different = length;
+		while (different - equal > 1) {
+			var middle = (equal + different) >>> 1;
+			if (fingerprint(0, middle) == other.fingerprint(0, middle)) {
+				equal = middle;
+			} else {
+				different = middle;
+			}
+		}
+		return equal;
+	}
+
+}
@@ -0,0 +1,22 @@
+package undo;
+
+/**
+ * An optional capability of a {@link Document} to delete a range of its text
+ * given only by its length, returning the deleted text, so that callers don't
+ * have to copy it out of the document first.
+ *
+ * @author Nemanja
+ */
+public interface RangeDeletable {
+
+	/**
+	 * Deletes a range of the document and returns the deleted text.
+	 *
+	 * @param pos The position to start deletion.
+	 * @param length Number of characters to delete.
+	 * @return The deleted text.
+	 * @throws IllegalStateException If the range is outside of the document.
+	 */
+	public String delete(int pos, int length);
+
+}
@@ -0,0 +1,25 @@
+package undo;
+
+/**
+ * An optional capability of a {@link Document} to replace a range of its
+ * text with another text, shifting the text after it. Documents with this
+ * capability can be given the net effect of many changes at once, one
+ * replacement per edited region.
+ *
+ * @author Nemanja
+ */
+public interface Replaceable {
+
+	/**
+	 * Replaces a text of the document with another one.
+	 *
+	 * @param pos The position of the replaced text.
+	 * @param deleted The text to delete.
+	 * @param inserted The text to insert in its place.
+	 * @throws IllegalStateException If the document doesn't have
+	 * 			<code>deleted</code> at <code>pos</code>, in which case the
+	 * 			document is left unchanged.
+	 */
+	public void replace(int pos, String deleted, String inserted);
+
+}
@@ -0,0 +1,29 @@
+package undo;
+
+/**
+ * An optional capability of a {@link Document} to take cheap immutable
+ * snapshots of its text and to return to them later.
+ *
+ * @author Nemanja
+ */
+public interface Snapshottable {
+
+	/**
+	 * Creates an immutable view of the current text. Later changes to the
+	 * document don't affect the snapshot.
+	 *
+	 * @return Snapshot of the document.
+	 */
+	public CharSequence snapshot();
+
+	/**
+	 * Replaces the text of the document with a snapshot. Snapshots taken from
+	 * a document of the same class are restored without copying the text,
+	 * other character sequences are copied. The dot is kept if it is still
+	 * inside the document, and moved to its end otherwise.
+	 *
+	 * @param snapshot The snapshot to restore.
+	 */
+	public void restore(CharSequence snapshot);
+
+}
@@ -0,0 +1,74 @@
+package undo;
+
+/**
+ * A listener notified of the operations of an {@link UndoManager}, for
+ * collecting metrics. All methods do nothing by default, so implementations
+ * only override the ones they are interested in.
+ * <p>
+ * Methods are called on the thread performing the operation, right after it,
+ * so they should return quickly.
+ *
+ * @author Nemanja
+ */
+public interface UndoListener {
+
+	/**
+	 * Called after a change is registered.
+	 *
+	 * @param nanos Time spent registering the change, in nanoseconds.
+	 */
+	public default void registered(long nanos) {
+	}
+
+	/**
+	 * Called when a registered change is merged into the previous one.
+	 */
+	public default void coalesced() {
+	}
+
+	/**
+	 * Called after changes are undone.
+	 *
+	 * @param count Number of changes undone.
+	 * @param nanos Time spent undoing them, in nanoseconds.
+	 */
+	public default void undone(int count, long nanos) {
+	}
+
+	/**
+	 * Called after changes are redone.
+	 *
+	 * @param count Number of changes redone.
+	 * @param nanos Time spent redoing them, in nanoseconds.
+	 */
+	public default void redone(int count, long nanos) {
+	}
+
+	/**
+	 * Called when a change is dropped from the history to stay within its
+	 * size or memory budget.
+	 *
+	 * @param change The evicted change.
+	 */
+	public default void evicted(Change change) {
+	}
+
+	/**
+	 * Called when an undo or redo fails, before the exception is rethrown.
+	 *
+	 * @param e The exception.
+	 */
+	public default void failed(RuntimeException e) {
+	}
+
+	/**
+	 * Called after every operation that may have changed the history.
+	 *
+	 * @param undoDepth Number of changes that can be undone.
+	 * @param redoDepth Number of changes that can be redone.
+	 * @param retainedBytes Estimated heap retained by the history, in bytes.
+	 */
+	public default void historyChanged(int undoDepth, int redoDepth, long retainedBytes) {
+	}
+
+}
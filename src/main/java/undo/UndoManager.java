@@ -50,5 +50,90 @@ public interface UndoManager {
 	 *  		of the change failed).
 	 */
 	public void redo();
-	
+
+	/**
+	 * Undoes the latest <code>n</code> changes, as if {@link #undo()} was
+	 * called <code>n</code> times.
+	 * 
+	 * @param n The number of changes to undo.
+	 * @throws IllegalArgumentException If <code>n</code> is negative.
+	 * @throws IllegalStateException If fewer than <code>n</code> changes
+	 * 			can be undone, or the application of a change failed.
+	 */
+	public default void undo(int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException();
+		}
+		for (int i = 0; i < n; i++) {
+			undo();
+		}
+	}
+
+	/**
+	 * Redoes the latest <code>n</code> undone changes, as if {@link #redo()}
+	 * was called <code>n</code> times.
+	 * 
+	 * @param n The number of changes to redo.
+	 * @throws IllegalArgumentException If <code>n</code> is negative.
+	 * @throws IllegalStateException If fewer than <code>n</code> changes
+	 * 			can be redone, or the application of a change failed.
+	 */
+	public default void redo(int n) {
+		if (n < 0) {
+			throw new IllegalArgumentException();
+		}
+		for (int i = 0; i < n; i++) {
+			redo();
+		}
+	}
+
+	/**
+	 * Opens a compound. All changes registered until the matching
+	 * {@link #endCompound()} are stored as a single change that is undone
+	 * and redone as a whole. Compounds may be nested, in which case only the
+	 * outermost one is stored.
+	 */
+	public void beginCompound();
+
+	/**
+	 * Closes the compound opened by the matching {@link #beginCompound()}.
+	 *
+	 * @throws IllegalStateException If there is no compound open.
+	 */
+	public void endCompound();
+
+	/**
+	 * Opens a compound that is closed by the returned handle, to be used in
+	 * a try-with-resources statement.
+	 *
+	 * @return The handle closing the compound.
+	 */
+	public default Compound compound() {
+		beginCompound();
+		return new Compound() {
+
+			private boolean closed;
+
+			@Override
+			public void close() {
+				if (!this.closed) {
+					this.closed = true;
+					endCompound();
+				}
+			}
+		};
+	}
+
+	/**
+	 * A handle of an open compound.
+	 */
+	public interface Compound extends AutoCloseable {
+
+		/**
+		 * Closes the compound. Closing it again has no effect.
+		 */
+		@Override
+		public void close();
+	}
+
 }
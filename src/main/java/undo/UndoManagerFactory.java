@@ -15,5 +15,26 @@ public interface UndoManagerFactory {
 	 * @return The {@link UndoManager} created.
 	 */
 	public UndoManager createUndoManager(Document doc, int bufferSize);
+
+	/**
+	 * Creates an undo manager for a {@link Document} with a memory budget.
+	 * Once the stored {@link Change}es are estimated to retain more heap than
+	 * the budget, the oldest ones are evicted.
+	 *
+	 * @param doc The document to create the {@link UndoManager} for.
+	 * @param bufferSize The number of {@link Change}es stored.
+	 * @param maxRetainedBytes The estimated heap the stored {@link Change}es may retain, in bytes.
+	 * @return The {@link UndoManager} created.
+	 */
+	public UndoManager createUndoManager(Document doc, int bufferSize, long maxRetainedBytes);
+
+	/**
+	 * Creates an empty {@link Document} to be managed by the {@link UndoManager}s
+	 * of this factory.
+	 *
+	 * @param type The implementation of the document.
+	 * @return The {@link Document} created.
+	 */
+	public Document createDocument(DocumentType type);
 	
 }
@@ -0,0 +1,409 @@
+package undo.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import undo.Change;
+import undo.UndoManager;
+
+import util.SerialExecutor;
+
+/**
+ * An undo manager running the operations of another one off the calling thread. All
+ * operations run one at a time in submission order, so the wrapped manager and its document
+ * are only ever touched by one thread at a time.
+ * <p>
+ * Undo and redo requests that are still queued are coalesced: pressing undo five times
+ * while a slow change is being reverted queues a single {@link UndoManager#undo(int)} of
+ * five changes, and a redo request cancels out a queued undo. Queued requests can be
+ * dropped with {@link #cancelPending()}. If fewer changes can be undone than were
+ * requested, the ones available are undone and only the requests in excess fail.
+ * <p>
+ * By default the operations run on virtual threads when the JVM supports them, and on a
+ * shared pool of daemon threads otherwise. Setting the system property
+ * <code>undo.virtualThreads</code> to <code>true</code> makes virtual threads required,
+ * so the class fails to initialize on a JVM without them instead of falling back.
+ *
+ * @author Nemanja
+ */
+public class AsyncUndoManager implements UndoManager {
+
+    /**
+     * System property requiring the default executor to start virtual threads.
+     */
+    private static final String VIRTUAL_THREADS_PROPERTY = "undo.virtualThreads";
+
+    /**
+     * Executor shared by managers created without one.
+     */
+    private static final Executor DEFAULT_EXECUTOR = createDefaultExecutor();
+
+    /**
+     * Manager doing the work.
+     */
+    private final UndoManager delegate;
+
+    /**
+     * Executor running the operations in order.
+     */
+    private final SerialExecutor executor;
+
+    /**
+     * Undo or redo request waiting to run, or <code>null</code> if there is none.
+     * Guarded by <code>this</code>.
+     */
+    private Batch queued;
+
+    /**
+     * If undo was possible after the last finished operation.
+     */
+    private volatile boolean canUndo;
+
+    /**
+     * If redo was possible after the last finished operation.
+     */
+    private volatile boolean canRedo;
+
+    /**
+     * Constructor running the operations on the default executor.
+     *
+     * @param delegate Manager doing the work, not used by anyone else afterwards
+     */
+    public AsyncUndoManager(UndoManager delegate) {
+        this(delegate, DEFAULT_EXECUTOR);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param delegate Manager doing the work, not used by anyone else afterwards
+     * @param executor Executor running the operations
+     */
+    public AsyncUndoManager(UndoManager delegate, Executor executor) {
+        if (delegate == null || executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.delegate = delegate;
+        this.executor = new SerialExecutor(executor);
+        this.canUndo = delegate.canUndo();
+        this.canRedo = delegate.canRedo();
+    }
+
+    /**
+     * Queues an undo, merging it with an undo or redo request that is still queued.
+     *
+     * @return Future completed once the undo is done, or exceptionally with an
+     *          {@link IllegalStateException} if it wasn't possible
+     */
+    public CompletableFuture<Void> undoAsync() {
+        return request(1);
+    }
+
+    /**
+     * Queues a redo, merging it with an undo or redo request that is still queued.
+     *
+     * @return Future completed once the redo is done, or exceptionally with an
+     *          {@link IllegalStateException} if it wasn't possible
+     */
+    public CompletableFuture<Void> redoAsync() {
+        return request(-1);
+    }
+
+    /**
+     * Drops the queued undo or redo request. Operations already running are not interrupted.
+     *
+     * @return If a request was dropped, in which case its futures are cancelled
+     */
+    public boolean cancelPending() {
+        Batch batch;
+        synchronized (this) {
+            batch = this.queued;
+            this.queued = null;
+            if (batch == null || batch.cancelled) {
+                return false;
+            }
+            batch.cancelled = true;
+        }
+        for (var future : batch.futures) {
+            future.cancel(false);
+        }
+        return true;
+    }
+
+    /**
+     * Queues a change to be registered.
+     *
+     * @param change The change to register.
+     * @return Future completed once the change is registered
+     */
+    public CompletableFuture<Void> registerChangeAsync(Change change) {
+        return submit(() -> this.delegate.registerChange(change));
+    }
+
+    /**
+     * Queues a change to be registered, without waiting for it.
+     *
+     * @param change The change to register.
+     */
+    @Override
+    public void registerChange(Change change) {
+        registerChangeAsync(change);
+    }
+
+    /**
+     * Check if undo was possible after the last finished operation, without waiting for
+     * the queued ones.
+     *
+     * @return If manager could undo action.
+     */
+    @Override
+    public boolean canUndo() {
+        return this.canUndo;
+    }
+
+    /**
+     * Undo latest action, waiting for it and all operations queued before it.
+     */
+    @Override
+    public void undo() {
+        join(undoAsync());
+    }
+
+    /**
+     * Check if redo was possible after the last finished operation, without waiting for
+     * the queued ones.
+     *
+     * @return If manager could redo action.
+     */
+    @Override
+    public boolean canRedo() {
+        return this.canRedo;
+    }
+
+    /**
+     * Redo latest action, waiting for it and all operations queued before it.
+     */
+    @Override
+    public void redo() {
+        join(redoAsync());
+    }
+
+    /**
+     * Queues opening a compound.
+     */
+    @Override
+    public void beginCompound() {
+        submit(this.delegate::beginCompound);
+    }
+
+    /**
+     * Queues closing a compound.
+     */
+    @Override
+    public void endCompound() {
+        submit(this.delegate::endCompound);
+    }
+
+    /**
+     * Queues an undo or redo step, merging it into the queued request if there is one.
+     *
+     * @param steps <code>1</code> for an undo, <code>-1</code> for a redo
+     * @return Future of the step
+     */
+    private synchronized CompletableFuture<Void> request(int steps) {
+        if (this.queued == null) {
+            var batch = new Batch();
+            this.queued = batch;
+            this.executor.execute(() -> run(batch));
+        }
+        var future = new CompletableFuture<Void>();
+        this.queued.steps += steps;
+        this.queued.futures.add(future);
+        this.queued.directions.add(steps);
+        return future.copy();
+    }
+
+    /**
+     * Runs a batch of undo or redo steps.
+     *
+     * @param batch The batch
+     */
+    private void run(Batch batch) {
+        int steps;
+        synchronized (this) {
+            if (this.queued == batch) {
+                this.queued = null;
+            }
+            if (batch.cancelled) {
+                return;
+            }
+            steps = batch.steps;
+        }
+        var done = 0;
+        RuntimeException failure = null;
+        try {
+            done = perform(steps);
+        } catch (RuntimeException e) {
+            failure = e;
+        } finally {
+            published();
+        }
+        var excess = Math.abs(steps) - done;
+        var direction = Integer.signum(steps);
+        for (int i = batch.futures.size() - 1; i >= 0; i--) {
+            var future = batch.futures.get(i);
+            if (excess > 0 && batch.directions.get(i) == direction) {
+                excess--;
+                future.completeExceptionally(failure != null ? failure : new IllegalStateException());
+            } else {
+                future.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Undoes or redoes changes, as many of them as possible if not all can be done in one go.
+     *
+     * @param steps Number of undo steps, negative for redo steps
+     * @return Number of changes undone or redone
+     * @throws RuntimeException If not even a single step could be done
+     */
+    private int perform(int steps) {
+        var count = Math.abs(steps);
+        try {
+            if (steps > 0) {
+                this.delegate.undo(count);
+            } else if (steps < 0) {
+                this.delegate.redo(count);
+            }
+            return count;
+        } catch (IllegalStateException e) {
+            if (count == 1) {
+                throw e;
+            }
+            var done = 0;
+            try {
+                while (done < count && (steps > 0 ? this.delegate.canUndo() : this.delegate.canRedo())) {
+                    if (steps > 0) {
+                        this.delegate.undo();
+                    } else {
+                        this.delegate.redo();
+                    }
+                    done++;
+                }
+            } catch (RuntimeException stepFailure) {
+                if (done == 0) {
+                    throw stepFailure;
+                }
+            }
+            if (done == 0) {
+                throw e;
+            }
+            return done;
+        }
+    }
+
+    /**
+     * Queues an operation other than undo or redo. Undo and redo requests queued before it
+     * are no longer merged with later ones.
+     *
+     * @param operation The operation
+     * @return Future completed once the operation is done
+     */
+    private CompletableFuture<Void> submit(Runnable operation) {
+        var future = new CompletableFuture<Void>();
+        synchronized (this) {
+            this.queued = null;
+            this.executor.execute(() -> {
+                try {
+                    operation.run();
+                    future.complete(null);
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    published();
+                }
+            });
+        }
+        return future;
+    }
+
+    /**
+     * Publishes the state of the manager after an operation.
+     */
+    private void published() {
+        this.canUndo = this.delegate.canUndo();
+        this.canRedo = this.delegate.canRedo();
+    }
+
+    /**
+     * Waits for a future, rethrowing its failure.
+     *
+     * @param future The future
+     */
+    private static void join(CompletableFuture<Void> future) {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task if the JVM supports them,
+     * and a pool of daemon threads otherwise.
+     *
+     * @return The executor
+     * @throws IllegalStateException If virtual threads are required but not supported
+     */
+    private static Executor createDefaultExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            if (Boolean.getBoolean(VIRTUAL_THREADS_PROPERTY)) {
+                throw new IllegalStateException(e);
+            }
+            return Executors.newCachedThreadPool(task -> {
+                var thread = new Thread(task, "undo-worker");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Undo and redo steps merged into one request.
+     */
+    private static final class Batch {
+
+        /**
+         * Futures of the merged requests, in the order they were made. Guarded by the manager.
+         */
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        /**
+         * Direction of each merged request, <code>1</code> for an undo and <code>-1</code>
+         * for a redo. Guarded by the manager.
+         */
+        private final List<Integer> directions = new ArrayList<>();
+
+        /**
+         * Number of undo steps, negative for redo steps. Guarded by the manager.
+         */
+        private int steps;
+
+        /**
+         * If the batch was dropped before it ran. Guarded by the manager.
+         */
+        private boolean cancelled;
+    }
+
+}
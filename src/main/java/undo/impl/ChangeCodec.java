@@ -0,0 +1,325 @@
+package undo.impl;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+import undo.Change;
+
+/**
+ * Binary encoding of {@link ChangeImpl}s and {@link CompoundChange}s, used to move
+ * changes out of the heap. An applied {@link RangeDeletion} is encoded as the deletion of
+ * its captured text, and decoded as a {@link ChangeImpl}.
+ * <p>
+ * A change starts with a tag byte holding its kind and, for insertions and deletions, the
+ * text encoding. Positions, dots, lengths and counts follow as unsigned LEB128 varints.
+ * Texts without surrogates are stored as UTF-8 when that is shorter than raw UTF-16 chars,
+ * otherwise as big-endian chars.
+ *
+ * @author Nemanja
+ */
+final class ChangeCodec {
+
+    /**
+     * Tag of an insertion.
+     */
+    private static final byte INSERT = 0;
+
+    /**
+     * Tag of a deletion.
+     */
+    private static final byte DELETE = 1;
+
+    /**
+     * Tag of a compound.
+     */
+    private static final byte COMPOUND = 2;
+
+    /**
+     * Tag bit marking a text stored as UTF-8.
+     */
+    private static final byte UTF8 = 0x10;
+
+    /**
+     * Utility class.
+     */
+    private ChangeCodec() {
+    }
+
+    /**
+     * Checks if a change can be encoded.
+     *
+     * @param change The change
+     * @return If the change and all changes it groups are of a supported class, and range
+     *          deletions among them are applied
+     */
+    static boolean canEncode(Change change) {
+        if (change instanceof ChangeImpl || change instanceof CompressedChange) {
+            return true;
+        }
+        if (change instanceof RangeDeletion) {
+            return ((RangeDeletion) change).isApplied();
+        }
+        if (!(change instanceof CompoundChange)) {
+            return false;
+        }
+        for (var child : ((CompoundChange) change).getChanges()) {
+            if (!canEncode(child)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Computes number of bytes needed to encode a change.
+     *
+     * @param change The change, which has to be encodable
+     * @return Encoded size in bytes
+     */
+    static int encodedSize(Change change) {
+        change = plain(change);
+        if (change instanceof ChangeImpl) {
+            var impl = (ChangeImpl) change;
+            var text = impl.getString();
+            var utf8 = utf8Length(text);
+            var payload = utf8 >= 0 ? utf8 : 2 * text.length();
+            return 1 + varintSize(impl.getPos()) + varintSize(impl.getOldDot()) + varintSize(impl.getNewDot())
+                    + varintSize(payload) + payload;
+        }
+        var changes = ((CompoundChange) change).getChanges();
+        var size = 1 + varintSize(changes.size());
+        for (var child : changes) {
+            size += encodedSize(child);
+        }
+        return size;
+    }
+
+    /**
+     * Encodes a change into a buffer.
+     *
+     * @param change The change, which has to be encodable
+     * @param buffer Buffer with at least {@link #encodedSize(Change)} bytes remaining
+     */
+    static void encode(Change change, ByteBuffer buffer) {
+        change = plain(change);
+        if (change instanceof ChangeImpl) {
+            var impl = (ChangeImpl) change;
+            var text = impl.getString();
+            var utf8 = utf8Length(text);
+            var tag = impl.getChangeType() == ChangeType.INSERT ? INSERT : DELETE;
+            buffer.put((byte) (utf8 >= 0 ? tag | UTF8 : tag));
+            putVarint(buffer, impl.getPos());
+            putVarint(buffer, impl.getOldDot());
+            putVarint(buffer, impl.getNewDot());
+            if (utf8 >= 0) {
+                putVarint(buffer, utf8);
+                putUtf8(buffer, text);
+            } else {
+                putVarint(buffer, 2 * text.length());
+                for (int i = 0; i < text.length(); i++) {
+                    buffer.putChar(text.charAt(i));
+                }
+            }
+            return;
+        }
+        var changes = ((CompoundChange) change).getChanges();
+        buffer.put(COMPOUND);
+        putVarint(buffer, changes.size());
+        for (var child : changes) {
+            encode(child, buffer);
+        }
+    }
+
+    /**
+     * Gets the plain change a change is encoded as.
+     *
+     * @param change The change, which has to be encodable
+     * @return The decompressed change, the deletion of the text captured by a range
+     *          deletion, or the change itself
+     */
+    private static Change plain(Change change) {
+        change = CompressedChange.expand(change);
+        return change instanceof RangeDeletion ? ((RangeDeletion) change).toChange() : change;
+    }
+
+    /**
+     * Decodes a change from a buffer.
+     *
+     * @param buffer Buffer positioned at an encoded change
+     * @return The decoded change
+     * @throws IllegalStateException If the buffer doesn't hold a valid change
+     */
+    static Change decode(ByteBuffer buffer) {
+        var tag = buffer.get();
+        if (tag == COMPOUND) {
+            var count = getLength(buffer);
+            if (count > buffer.remaining()) {
+                throw new IllegalStateException();
+            }
+            var changes = new ArrayList<Change>(count);
+            for (int i = 0; i < count; i++) {
+                changes.add(decode(buffer));
+            }
+            return new CompoundChange(changes);
+        }
+        var kind = tag & ~UTF8;
+        if (kind != INSERT && kind != DELETE) {
+            throw new IllegalStateException();
+        }
+        var pos = getLength(buffer);
+        var oldDot = getVarint(buffer);
+        var newDot = getVarint(buffer);
+        var length = getLength(buffer);
+        if (length > buffer.remaining() || (tag & UTF8) == 0 && length % 2 != 0) {
+            throw new IllegalStateException();
+        }
+        String text;
+        if ((tag & UTF8) != 0) {
+            text = getUtf8(buffer, length);
+        } else {
+            var chars = new char[length / 2];
+            buffer.asCharBuffer().get(chars);
+            buffer.position(buffer.position() + length);
+            text = new String(chars);
+        }
+        return new ChangeImpl(pos, text, oldDot, newDot, kind == INSERT ? ChangeType.INSERT : ChangeType.DELETE);
+    }
+
+    /**
+     * Computes number of bytes of an unsigned varint.
+     *
+     * @param value Non-negative value
+     * @return Encoded size in bytes
+     */
+    static int varintSize(int value) {
+        var size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Writes an unsigned varint.
+     *
+     * @param buffer Buffer to write to
+     * @param value Value to write, negative values taking five bytes
+     */
+    static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Reads an unsigned varint.
+     *
+     * @param buffer Buffer to read from
+     * @return Read value
+     * @throws IllegalStateException If the varint is longer than five bytes
+     */
+    static int getVarint(ByteBuffer buffer) {
+        var value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            var b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Reads an unsigned varint holding a position, length or count.
+     *
+     * @param buffer Buffer to read from
+     * @return Read value
+     * @throws IllegalStateException If the varint is longer than five bytes or negative
+     */
+    static int getLength(ByteBuffer buffer) {
+        var value = getVarint(buffer);
+        if (value < 0) {
+            throw new IllegalStateException();
+        }
+        return value;
+    }
+
+    /**
+     * Computes the UTF-8 length of a text, if storing it as UTF-8 is worthwhile.
+     *
+     * @param text The text
+     * @return Number of UTF-8 bytes, or <code>-1</code> if the text has surrogates or
+     *          is shorter as UTF-16
+     */
+    private static int utf8Length(String text) {
+        var length = 0;
+        for (int i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isSurrogate(c)) {
+                return -1;
+            } else {
+                length += 3;
+            }
+        }
+        return length <= 2 * text.length() ? length : -1;
+    }
+
+    /**
+     * Writes a text without surrogates as UTF-8.
+     *
+     * @param buffer Buffer to write to
+     * @param text The text
+     */
+    private static void putUtf8(ByteBuffer buffer, String text) {
+        for (int i = 0; i < text.length(); i++) {
+            var c = text.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xC0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            } else {
+                buffer.put((byte) (0xE0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3F));
+                buffer.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * Reads a UTF-8 text written by {@link #putUtf8(ByteBuffer, String)}.
+     *
+     * @param buffer Buffer to read from
+     * @param length Number of bytes of the text
+     * @return The text
+     * @throws IllegalStateException If the last character doesn't end with the text
+     */
+    private static String getUtf8(ByteBuffer buffer, int length) {
+        var chars = new char[length];
+        var count = 0;
+        var end = buffer.position() + length;
+        while (buffer.position() < end) {
+            var b = buffer.get() & 0xFF;
+            if (b < 0x80) {
+                chars[count++] = (char) b;
+            } else if (b < 0xE0) {
+                chars[count++] = (char) ((b & 0x1F) << 6 | buffer.get() & 0x3F);
+            } else {
+                chars[count++] = (char) ((b & 0x0F) << 12 | (buffer.get() & 0x3F) << 6 | buffer.get() & 0x3F);
+            }
+        }
+        if (buffer.position() != end) {
+            throw new IllegalStateException();
+        }
+        return new String(chars, 0, count);
+    }
+
+}
@@ -12,6 +12,17 @@ import undo.Document;
  */
 public class ChangeFactoryImpl implements ChangeFactory {
 
+    /**
+     * Strings of single ASCII characters, shared by changes of typed characters.
+     */
+    private static final String[] ASCII = new String[128];
+
+    static {
+        for (int i = 0; i < ASCII.length; i++) {
+            ASCII[i] = String.valueOf((char) i);
+        }
+    }
+
     /**
      * Creates a deletion change.
      *
@@ -40,4 +51,107 @@ public class ChangeFactoryImpl implements ChangeFactory {
         return new ChangeImpl(pos, s, oldDot, newDot, ChangeType.INSERT);
     }
 
+    /**
+     * Creates a deletion change from a character sequence.
+     *
+     * @param pos The position to start the deletion.
+     * @param s The characters to delete, copied by the change.
+     * @param oldDot The dot (cursor) position before the deletion.
+     * @param newDot The dot (cursor) position after the deletion.
+     * @return The deletion {@link Change}.
+     */
+    @Override
+    public Change createDeletion(int pos, CharSequence s, int oldDot, int newDot) {
+        return new ChangeImpl(pos, text(s), oldDot, newDot, ChangeType.DELETE);
+    }
+
+    /**
+     * Creates a deletion change from a range of a character array.
+     *
+     * @param pos The position to start the deletion.
+     * @param chars Array holding the characters to delete, copied by the change.
+     * @param offset Index of the first character in <code>chars</code>.
+     * @param length Number of characters to delete.
+     * @param oldDot The dot (cursor) position before the deletion.
+     * @param newDot The dot (cursor) position after the deletion.
+     * @return The deletion {@link Change}.
+     */
+    @Override
+    public Change createDeletion(int pos, char[] chars, int offset, int length, int oldDot, int newDot) {
+        return new ChangeImpl(pos, text(chars, offset, length), oldDot, newDot, ChangeType.DELETE);
+    }
+
+    /**
+     * Creates an insertion change from a character sequence.
+     *
+     * @param pos The position at which to insert.
+     * @param s The characters to insert, copied by the change.
+     * @param oldDot The dot (cursor) position before the insertion.
+     * @param newDot The dot (cursor) position after the insertion.
+     * @return The insertion {@link Change}.
+     */
+    @Override
+    public Change createInsertion(int pos, CharSequence s, int oldDot, int newDot) {
+        return new ChangeImpl(pos, text(s), oldDot, newDot, ChangeType.INSERT);
+    }
+
+    /**
+     * Creates an insertion change from a range of a character array.
+     *
+     * @param pos The position at which to insert.
+     * @param chars Array holding the characters to insert, copied by the change.
+     * @param offset Index of the first character in <code>chars</code>.
+     * @param length Number of characters to insert.
+     * @param oldDot The dot (cursor) position before the insertion.
+     * @param newDot The dot (cursor) position after the insertion.
+     * @return The insertion {@link Change}.
+     */
+    @Override
+    public Change createInsertion(int pos, char[] chars, int offset, int length, int oldDot, int newDot) {
+        return new ChangeImpl(pos, text(chars, offset, length), oldDot, newDot, ChangeType.INSERT);
+    }
+
+    /**
+     * Creates a deletion of a range, whose text is captured from the document when the
+     * change is applied and compressed if it is large.
+     *
+     * @param pos The position to start the deletion.
+     * @param length Number of characters to delete.
+     * @param oldDot The dot (cursor) position before the deletion.
+     * @param newDot The dot (cursor) position after the deletion.
+     * @return The deletion {@link Change}.
+     */
+    public Change createRangeDeletion(int pos, int length, int oldDot, int newDot) {
+        return new RangeDeletion(pos, length, oldDot, newDot, CompressedText.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Copies a character sequence into a string, sharing strings of single ASCII characters.
+     *
+     * @param s The characters
+     * @return The string
+     */
+    private static String text(CharSequence s) {
+        if (s.length() == 1 && s.charAt(0) < ASCII.length) {
+            return ASCII[s.charAt(0)];
+        }
+        return s.toString();
+    }
+
+    /**
+     * Copies a range of a character array into a string, sharing strings of single
+     * ASCII characters.
+     *
+     * @param chars Array holding the characters
+     * @param offset Index of the first character
+     * @param length Number of characters
+     * @return The string
+     */
+    private static String text(char[] chars, int offset, int length) {
+        if (length == 1 && chars[offset] < ASCII.length) {
+            return ASCII[chars[offset]];
+        }
+        return new String(chars, offset, length);
+    }
+
 }
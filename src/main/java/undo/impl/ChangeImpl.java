@@ -11,7 +11,7 @@ import undo.UndoManager;
  *
  * @author Nemanja
  */
-public class ChangeImpl implements Change {
+public class ChangeImpl implements Change, MemoryFootprint {
 
     /**
      * Type of the change
@@ -74,11 +74,7 @@ public class ChangeImpl implements Change {
      */
     @Override
     public void apply(Document doc) {
-        if (this.type == ChangeType.INSERT) {
-            doc.insert(this.pos, this.string);
-        } else {
-            doc.delete(this.pos, this.string);
-        }
+        applyText(doc);
         doc.setDot(this.newDot);
     }
 
@@ -91,12 +87,104 @@ public class ChangeImpl implements Change {
      */
     @Override
     public void revert(Document doc) {
+        revertText(doc);
+        doc.setDot(this.oldDot);
+    }
+
+    /**
+     * Estimates heap retained by this change, including its string.
+     *
+     * @return Estimated size in bytes
+     */
+    @Override
+    public long retainedBytes() {
+        return 32 + MemoryFootprint.stringBytes(this.string);
+    }
+
+    /**
+     * Gets kind of change.
+     *
+     * @return Kind of change
+     */
+    public ChangeType getChangeType() {
+        return this.type;
+    }
+
+    /**
+     * Gets position to start the change.
+     *
+     * @return Position of the change
+     */
+    public int getPos() {
+        return this.pos;
+    }
+
+    /**
+     * Gets string to change.
+     *
+     * @return Inserted or deleted string
+     */
+    public String getString() {
+        return this.string;
+    }
+
+    /**
+     * Gets dot (cursor) position before the change.
+     *
+     * @return Dot before the change
+     */
+    public int getOldDot() {
+        return this.oldDot;
+    }
+
+    /**
+     * Gets dot (cursor) position after the change.
+     *
+     * @return Dot after the change
+     */
+    public int getNewDot() {
+        return this.newDot;
+    }
+
+    /**
+     * Applies the text of this change without moving the dot.
+     *
+     * @param doc The document to apply the change to.
+     */
+    void applyText(Document doc) {
+        if (this.type == ChangeType.INSERT) {
+            doc.insert(this.pos, this.string);
+        } else {
+            doc.delete(this.pos, this.string);
+        }
+    }
+
+    /**
+     * Reverts the text of this change without moving the dot.
+     *
+     * @param doc The document to revert the change in.
+     */
+    void revertText(Document doc) {
         if (this.type == ChangeType.INSERT) {
             doc.delete(this.pos, this.string);
         } else {
             doc.insert(this.pos, this.string);
         }
-        doc.setDot(this.oldDot);
+    }
+
+    /**
+     * Fuses this change with the one applied right after it into a single change
+     * with the same effect. Possible when the second change inserts into or right
+     * after inserted text, deletes inside inserted text, or continues a deletion
+     * backwards or forwards. Fusing a longer run of changes is cheaper with a
+     * {@link ChangeRun}, which doesn't copy the text for every change.
+     *
+     * @param next The change applied after this one.
+     * @return The fused change, or <code>null</code> if the changes can't be fused.
+     */
+    ChangeImpl merge(ChangeImpl next) {
+        var run = new ChangeRun(this);
+        return run.add(next) ? run.toChange() : null;
     }
 
 }
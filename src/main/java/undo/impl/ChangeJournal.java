@@ -0,0 +1,688 @@
+package undo.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+import undo.Change;
+import undo.Document;
+import undo.UndoManager;
+
+/**
+ * An append-only journal of the operations of an {@link UndoManagerImpl}, from which the
+ * document and its history can be recovered after a crash with {@link #replay(Path, Document, UndoManager)}.
+ * <p>
+ * Operations are encoded on the calling thread and queued without locking, so journaling never
+ * blocks editing. A background writer appends them to the current segment file and forces it
+ * to disk once the oldest unforced record is older than the commit interval, or once enough
+ * bytes are waiting, so a burst of keystrokes costs a single <code>fsync</code>.
+ * {@link #flush()} waits until everything journaled so far is on disk.
+ * <p>
+ * Segments are files named after their sequence number in the journal directory. Each starts
+ * with the magic bytes <code>UJNL</code>, a version byte and a byte telling if the segment
+ * starts a session of the journal, followed by records of a length, a CRC-32C checksum and a
+ * payload: an operation type and, for registered changes, the change in the
+ * {@link ChangeCodec} encoding. A new segment is started once the current one is full, and
+ * on every start of a journal, so a journal reopened after a crash doesn't append after a
+ * torn record. Only the last segment of a session can end with a torn record; replay stops
+ * at a damaged record anywhere else.
+ * <p>
+ * The journal has to be attached to a manager of an empty document with no history. Changes
+ * a {@link CoalescingPolicy} merged into the previous one are journaled as merged, so replay
+ * into an {@link UndoManagerImpl} rebuilds the same history whatever the policy decides then.
+ *
+ * @author Nemanja
+ */
+public class ChangeJournal implements Closeable {
+
+    /**
+     * Default size from which a new segment is started.
+     */
+    public static final long DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    /**
+     * Default time after which journaled records are forced to disk, in milliseconds.
+     */
+    public static final long DEFAULT_COMMIT_MILLIS = 20;
+
+    /**
+     * Default number of waiting bytes from which they are forced to disk right away.
+     */
+    public static final int DEFAULT_COMMIT_BYTES = 1 << 16;
+
+    /**
+     * Magic bytes at the start of a segment.
+     */
+    private static final int MAGIC = 0x554A4E4C;
+
+    /**
+     * Current version of the format.
+     */
+    private static final byte VERSION = 1;
+
+    /**
+     * Size of the segment header.
+     */
+    private static final int HEADER_SIZE = Integer.BYTES + 2;
+
+    /**
+     * Size of the length and checksum before each record.
+     */
+    private static final int RECORD_HEADER_SIZE = 2 * Integer.BYTES;
+
+    /**
+     * Size of the write buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Extension of segment files.
+     */
+    private static final String SUFFIX = ".journal";
+
+    /**
+     * Record of a registered change.
+     */
+    private static final byte REGISTER = 0;
+
+    /**
+     * Record of undone changes.
+     */
+    private static final byte UNDO = 1;
+
+    /**
+     * Record of redone changes.
+     */
+    private static final byte REDO = 2;
+
+    /**
+     * Record of an opened compound.
+     */
+    private static final byte BEGIN_COMPOUND = 3;
+
+    /**
+     * Record of a closed compound.
+     */
+    private static final byte END_COMPOUND = 4;
+
+    /**
+     * Record of a registered change merged into the previous one.
+     */
+    private static final byte COALESCE = 5;
+
+    /**
+     * Directory of the segment files.
+     */
+    private final Path directory;
+
+    /**
+     * Size from which a new segment is started.
+     */
+    private final long segmentSize;
+
+    /**
+     * Time after which journaled records are forced to disk, in nanoseconds.
+     */
+    private final long commitNanos;
+
+    /**
+     * Number of waiting bytes from which they are forced to disk right away.
+     */
+    private final int commitBytes;
+
+    /**
+     * Encoded records waiting for the writer.
+     */
+    private final ConcurrentLinkedQueue<byte[]> queue;
+
+    /**
+     * Number of bytes in the queue.
+     */
+    private final AtomicLong queuedBytes;
+
+    /**
+     * Number of records journaled so far.
+     */
+    private final AtomicLong appended;
+
+    /**
+     * Buffer of records written by the writer but not yet passed to the channel.
+     */
+    private final ByteBuffer buffer;
+
+    /**
+     * Thread writing the records.
+     */
+    private final Thread writer;
+
+    /**
+     * Channel of the current segment. Only used by the writer once it is started.
+     */
+    private FileChannel channel;
+
+    /**
+     * Sequence number of the current segment.
+     */
+    private long segment;
+
+    /**
+     * Number of bytes in the current segment, including buffered ones.
+     */
+    private long segmentBytes;
+
+    /**
+     * Number of records written by the writer. Only used by the writer.
+     */
+    private long written;
+
+    /**
+     * Number of records forced to disk. Guarded by <code>this</code>.
+     */
+    private long durable;
+
+    /**
+     * If a caller waits for the records to be forced to disk.
+     */
+    private volatile boolean flushRequested;
+
+    /**
+     * If the journal is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Failure that stopped the journal, or <code>null</code> if it works.
+     */
+    private volatile IOException failure;
+
+    /**
+     * Constructor with default segment size and commit thresholds.
+     *
+     * @param directory Directory of the segment files, created if it doesn't exist
+     * @throws IOException If the first segment can't be created
+     */
+    public ChangeJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_COMMIT_MILLIS, DEFAULT_COMMIT_BYTES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param directory Directory of the segment files, created if it doesn't exist
+     * @param segmentSize Size from which a new segment is started
+     * @param commitMillis Time after which journaled records are forced to disk, in milliseconds
+     * @param commitBytes Number of waiting bytes from which they are forced to disk right away
+     * @throws IOException If the first segment can't be created
+     */
+    public ChangeJournal(Path directory, long segmentSize, long commitMillis, int commitBytes) throws IOException {
+        if (directory == null || segmentSize <= HEADER_SIZE || commitMillis <= 0 || commitBytes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.commitNanos = TimeUnit.MILLISECONDS.toNanos(commitMillis);
+        this.commitBytes = commitBytes;
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.queuedBytes = new AtomicLong();
+        this.appended = new AtomicLong();
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        var segments = segments(directory);
+        this.segment = segments.isEmpty() ? 0 : number(segments.get(segments.size() - 1)) + 1;
+        openSegment(true);
+        this.writer = new Thread(this::write, "undo-journal");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Journals a registered change.
+     *
+     * @param change The change. If {@link ChangeCodec} can't encode it, the journal stops
+     *          and the failure is reported by {@link #flush()} and {@link #close()}
+     */
+    public void registered(Change change) {
+        if (!ChangeCodec.canEncode(change)) {
+            fail(new IOException("Change can't be journaled: " + change.getType()));
+            return;
+        }
+        append(REGISTER, change, 0);
+    }
+
+    /**
+     * Journals a registered change merged into the previous one by a {@link CoalescingPolicy}.
+     *
+     * @param change The change as registered. If {@link ChangeCodec} can't encode it, the
+     *          journal stops and the failure is reported by {@link #flush()} and {@link #close()}
+     */
+    public void coalesced(Change change) {
+        if (!ChangeCodec.canEncode(change)) {
+            fail(new IOException("Change can't be journaled: " + change.getType()));
+            return;
+        }
+        append(COALESCE, change, 0);
+    }
+
+    /**
+     * Journals undone changes.
+     *
+     * @param count Number of changes undone
+     */
+    public void undone(int count) {
+        append(UNDO, null, count);
+    }
+
+    /**
+     * Journals redone changes.
+     *
+     * @param count Number of changes redone
+     */
+    public void redone(int count) {
+        append(REDO, null, count);
+    }
+
+    /**
+     * Journals an opened compound.
+     */
+    public void compoundBegun() {
+        append(BEGIN_COMPOUND, null, 0);
+    }
+
+    /**
+     * Journals a closed compound.
+     */
+    public void compoundEnded() {
+        append(END_COMPOUND, null, 0);
+    }
+
+    /**
+     * Waits until all operations journaled so far are forced to disk.
+     *
+     * @throws IOException If the journal failed, or the thread was interrupted
+     */
+    public void flush() throws IOException {
+        var target = this.appended.get();
+        this.flushRequested = true;
+        LockSupport.unpark(this.writer);
+        synchronized (this) {
+            while (this.durable < target && this.failure == null && this.writer.isAlive()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Forces all journaled operations to disk and stops the writer. Operations journaled
+     * afterwards are an error.
+     *
+     * @throws IOException If the journal failed, or the thread was interrupted
+     */
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            LockSupport.unpark(this.writer);
+            try {
+                this.writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            this.channel.close();
+        }
+        if (this.failure != null) {
+            throw this.failure;
+        }
+    }
+
+    /**
+     * Replays a journal into a fresh document and manager. Replay stops at the first damaged
+     * record, which a crash leaves at the end of the last segment of a session. The sessions
+     * after it are replayed too, since they were started from the document recovered up to it.
+     * Damage anywhere else ends the replay there.
+     *
+     * @param directory Directory of the segment files
+     * @param doc Empty document to apply the journaled changes to
+     * @param manager Manager of the document, with no history
+     * @return Number of replayed operations
+     * @throws IOException If the journal can't be read, or holds records that don't replay
+     */
+    public static long replay(Path directory, Document doc, UndoManager manager) throws IOException {
+        var count = 0L;
+        var segments = segments(directory);
+        for (int i = 0; i < segments.size(); i++) {
+            var bytes = ByteBuffer.wrap(Files.readAllBytes(segments.get(i)));
+            if (bytes.remaining() < HEADER_SIZE) {
+                if (!endsSession(segments, i)) {
+                    break;
+                }
+                continue;
+            }
+            checkHeader(bytes);
+            var damaged = false;
+            while (bytes.hasRemaining()) {
+                if (bytes.remaining() < RECORD_HEADER_SIZE) {
+                    damaged = true;
+                    break;
+                }
+                var size = bytes.getInt();
+                var checksum = bytes.getInt();
+                if (size <= 0 || size > bytes.remaining()) {
+                    damaged = true;
+                    break;
+                }
+                var crc = new CRC32C();
+                crc.update(bytes.array(), bytes.position(), size);
+                if ((int) crc.getValue() != checksum) {
+                    damaged = true;
+                    break;
+                }
+                var record = bytes.slice().limit(size);
+                bytes.position(bytes.position() + size);
+                try {
+                    replay(record, doc, manager);
+                } catch (IllegalStateException | IllegalArgumentException | IndexOutOfBoundsException
+                        | BufferUnderflowException e) {
+                    throw new StreamCorruptedException("Undo journal doesn't replay");
+                }
+                count++;
+            }
+            if (damaged && !endsSession(segments, i)) {
+                break;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Checks the header of a segment.
+     *
+     * @param bytes Buffer positioned at the start of the segment, with a whole header
+     * @return If the segment starts a session of the journal
+     * @throws StreamCorruptedException If the segment isn't a supported journal segment
+     */
+    private static boolean checkHeader(ByteBuffer bytes) throws StreamCorruptedException {
+        if (bytes.getInt() != MAGIC) {
+            throw new StreamCorruptedException("Not an undo journal");
+        }
+        var version = bytes.get();
+        if (version != VERSION) {
+            throw new StreamCorruptedException("Unsupported undo journal version " + version);
+        }
+        return bytes.get() != 0;
+    }
+
+    /**
+     * Checks if a segment is the last one of its session, so it can end with a torn record.
+     *
+     * @param segments The segment files, in sequence order
+     * @param index Index of the segment
+     * @return If the segment is the last one, or the next one starts a session
+     * @throws IOException If the next segment can't be read
+     */
+    private static boolean endsSession(List<Path> segments, int index) throws IOException {
+        if (index + 1 == segments.size()) {
+            return true;
+        }
+        var header = new byte[HEADER_SIZE];
+        try (var in = Files.newInputStream(segments.get(index + 1))) {
+            if (in.readNBytes(header, 0, HEADER_SIZE) < HEADER_SIZE) {
+                return false;
+            }
+        }
+        return checkHeader(ByteBuffer.wrap(header));
+    }
+
+    /**
+     * Replays a record.
+     *
+     * @param record Buffer holding the record
+     * @param doc Document to apply journaled changes to
+     * @param manager Manager of the document
+     * @throws IllegalStateException If the record isn't valid or can't be replayed
+     */
+    private static void replay(ByteBuffer record, Document doc, UndoManager manager) {
+        var type = record.get();
+        switch (type) {
+        case REGISTER:
+        case COALESCE:
+            var change = ChangeCodec.decode(record);
+            change.apply(doc);
+            if (manager instanceof UndoManagerImpl) {
+                ((UndoManagerImpl) manager).replayChange(change, type == COALESCE);
+            } else {
+                manager.registerChange(change);
+            }
+            break;
+        case UNDO:
+            manager.undo(ChangeCodec.getLength(record));
+            break;
+        case REDO:
+            manager.redo(ChangeCodec.getLength(record));
+            break;
+        case BEGIN_COMPOUND:
+            manager.beginCompound();
+            break;
+        case END_COMPOUND:
+            manager.endCompound();
+            break;
+        default:
+            throw new IllegalStateException();
+        }
+        if (record.hasRemaining()) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Encodes a record and queues it for the writer.
+     *
+     * @param type Type of the record
+     * @param change Registered change, or <code>null</code>
+     * @param count Number of undone or redone changes
+     * @throws IllegalStateException If the journal is closed
+     */
+    private void append(byte type, Change change, int count) {
+        if (this.closed) {
+            throw new IllegalStateException();
+        }
+        if (this.failure != null) {
+            return;
+        }
+        var size = 1;
+        if (change != null) {
+            size += ChangeCodec.encodedSize(change);
+        } else if (type == UNDO || type == REDO) {
+            size += ChangeCodec.varintSize(count);
+        }
+        var bytes = new byte[RECORD_HEADER_SIZE + size];
+        var payload = ByteBuffer.wrap(bytes, RECORD_HEADER_SIZE, size);
+        payload.put(type);
+        if (change != null) {
+            ChangeCodec.encode(change, payload);
+        } else if (type == UNDO || type == REDO) {
+            ChangeCodec.putVarint(payload, count);
+        }
+        var crc = new CRC32C();
+        crc.update(bytes, RECORD_HEADER_SIZE, size);
+        ByteBuffer.wrap(bytes).putInt(size).putInt((int) crc.getValue());
+        this.appended.incrementAndGet();
+        this.queue.add(bytes);
+        if (this.queuedBytes.addAndGet(bytes.length) >= this.commitBytes) {
+            LockSupport.unpark(this.writer);
+        }
+    }
+
+    /**
+     * Body of the writer thread: writes queued records and forces them to disk in groups.
+     */
+    private void write() {
+        var lastCommit = System.nanoTime();
+        var committed = 0L;
+        var uncommittedBytes = 0L;
+        while (true) {
+            var closing = this.closed;
+            for (var record = this.queue.poll(); record != null; record = this.queue.poll()) {
+                this.queuedBytes.addAndGet(-record.length);
+                if (this.failure == null) {
+                    try {
+                        writeRecord(record);
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+                this.written++;
+                uncommittedBytes += record.length;
+            }
+            var now = System.nanoTime();
+            if (closing || (this.written > committed && (this.flushRequested || uncommittedBytes >= this.commitBytes
+                    || now - lastCommit >= this.commitNanos))) {
+                this.flushRequested = false;
+                if (this.failure == null) {
+                    try {
+                        flushBuffer();
+                        this.channel.force(false);
+                    } catch (IOException e) {
+                        fail(e);
+                    }
+                }
+                committed = this.written;
+                lastCommit = now;
+                uncommittedBytes = 0;
+                synchronized (this) {
+                    this.durable = committed;
+                    notifyAll();
+                }
+            }
+            if (closing) {
+                return;
+            }
+            if (this.queue.isEmpty()) {
+                var wait = this.written > committed ? this.commitNanos - (now - lastCommit) : this.commitNanos;
+                LockSupport.parkNanos(this, Math.max(wait, 1));
+            }
+        }
+    }
+
+    /**
+     * Writes a record to the current segment, starting a new one if it is full.
+     *
+     * @param record The encoded record
+     * @throws IOException If the segment can't be written
+     */
+    private void writeRecord(byte[] record) throws IOException {
+        if (this.segmentBytes > HEADER_SIZE && this.segmentBytes + record.length > this.segmentSize) {
+            flushBuffer();
+            this.channel.force(false);
+            this.channel.close();
+            this.segment++;
+            openSegment(false);
+        }
+        if (record.length > this.buffer.remaining()) {
+            flushBuffer();
+        }
+        if (record.length > this.buffer.remaining()) {
+            var wrapped = ByteBuffer.wrap(record);
+            while (wrapped.hasRemaining()) {
+                this.channel.write(wrapped);
+            }
+        } else {
+            this.buffer.put(record);
+        }
+        this.segmentBytes += record.length;
+    }
+
+    /**
+     * Creates the segment with the current sequence number and writes its header.
+     *
+     * @param sessionStart If the segment starts a session of the journal
+     * @throws IOException If the segment can't be created
+     */
+    private void openSegment(boolean sessionStart) throws IOException {
+        var file = this.directory.resolve(String.format("%020d%s", this.segment, SUFFIX));
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        this.buffer.putInt(MAGIC);
+        this.buffer.put(VERSION);
+        this.buffer.put((byte) (sessionStart ? 1 : 0));
+        this.segmentBytes = HEADER_SIZE;
+    }
+
+    /**
+     * Passes the buffered bytes to the channel of the current segment.
+     *
+     * @throws IOException If the segment can't be written
+     */
+    private void flushBuffer() throws IOException {
+        this.buffer.flip();
+        while (this.buffer.hasRemaining()) {
+            this.channel.write(this.buffer);
+        }
+        this.buffer.clear();
+    }
+
+    /**
+     * Stops the journal after a failure, waking up callers waiting for a flush.
+     *
+     * @param e The failure
+     */
+    private void fail(IOException e) {
+        synchronized (this) {
+            if (this.failure == null) {
+                this.failure = e;
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * Lists the segment files of a journal.
+     *
+     * @param directory Directory of the segment files
+     * @return The segment files, in sequence order
+     * @throws IOException If the directory can't be listed
+     */
+    private static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return new ArrayList<>();
+        }
+        try (var files = Files.list(directory)) {
+            return files.filter(file -> file.getFileName().toString().matches("\\d{20}" + SUFFIX.replace(".", "\\.")))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Gets the sequence number of a segment file.
+     *
+     * @param file The segment file
+     * @return The sequence number
+     */
+    private static long number(Path file) {
+        var name = file.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+}
@@ -0,0 +1,355 @@
+package undo.impl;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import undo.Change;
+import util.HistoryStack;
+
+/**
+ * A history stack storing {@link ChangeImpl}s in columns instead of as objects. Positions,
+ * dots and types live in parallel primitive arrays and all strings are copied into one
+ * shared character arena, so a stored change costs no object headers or pointers.
+ * {@link Change} objects are only created when a change is read from the stack.
+ * <p>
+ * Since changes are pushed and popped in stack order, their texts are laid out in the arena
+ * in the same order and the arena never fragments. Changes of other classes are stored
+ * as objects.
+ * <p>
+ * The newest change is also kept as an object, so peeking at or popping the top of the stack,
+ * which undo and coalescing do all the time, doesn't copy its text out of the arena again.
+ *
+ * @author Nemanja
+ */
+public class ChangeLog implements HistoryStack<Change> {
+
+    /**
+     * Type column value of a change stored as an object.
+     */
+    private static final byte OBJECT = -1;
+
+    /**
+     * Change types by ordinal.
+     */
+    private static final ChangeType[] CHANGE_TYPES = ChangeType.values();
+
+    /**
+     * Initial capacity of the character arena.
+     */
+    private static final int INITIAL_ARENA_CAPACITY = 256;
+
+    /**
+     * Positions of the changes.
+     */
+    private final int[] positions;
+
+    /**
+     * Dot positions before the changes.
+     */
+    private final int[] oldDots;
+
+    /**
+     * Dot positions after the changes.
+     */
+    private final int[] newDots;
+
+    /**
+     * Offsets of the change texts in the arena.
+     */
+    private final int[] offsets;
+
+    /**
+     * Lengths of the change texts.
+     */
+    private final int[] lengths;
+
+    /**
+     * Ordinals of the change types, or {@link #OBJECT}.
+     */
+    private final byte[] types;
+
+    /**
+     * Changes stored as objects, allocated when the first one is pushed.
+     */
+    private Change[] objects;
+
+    /**
+     * Shared storage of all change texts.
+     */
+    private char[] arena;
+
+    /**
+     * Offset of the text of the oldest change.
+     */
+    private int arenaStart;
+
+    /**
+     * Offset after the text of the newest change.
+     */
+    private int arenaEnd;
+
+    /**
+     * Slot of the oldest change.
+     */
+    private int head;
+
+    /**
+     * Number of changes currently in the stack.
+     */
+    private int size;
+
+    /**
+     * The newest change, or <code>null</code> if it wasn't created since it was pushed or the
+     * stack is empty.
+     */
+    private Change top;
+
+    /**
+     * Constructor with given capacity.
+     *
+     * @param capacity Given capacity
+     */
+    public ChangeLog(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.positions = new int[capacity];
+        this.oldDots = new int[capacity];
+        this.newDots = new int[capacity];
+        this.offsets = new int[capacity];
+        this.lengths = new int[capacity];
+        this.types = new byte[capacity];
+        this.arena = new char[INITIAL_ARENA_CAPACITY];
+    }
+
+    /**
+     * Pushes change to top of the stack, evicting the oldest change if the stack is full.
+     *
+     * @param change Change to be pushed
+     * @return Evicted change, or <code>null</code> if nothing was evicted
+     */
+    @Override
+    public Change push(Change change) {
+        if (capacity() == 0) {
+            return change;
+        }
+        var evicted = this.size == capacity() ? removeOldest() : null;
+        var slot = slot(this.size);
+        if (change instanceof ChangeImpl) {
+            var impl = (ChangeImpl) change;
+            var text = impl.getString();
+            reserve(text.length());
+            text.getChars(0, text.length(), this.arena, this.arenaEnd);
+            this.positions[slot] = impl.getPos();
+            this.oldDots[slot] = impl.getOldDot();
+            this.newDots[slot] = impl.getNewDot();
+            this.lengths[slot] = text.length();
+            this.types[slot] = (byte) impl.getChangeType().ordinal();
+        } else {
+            if (this.objects == null) {
+                this.objects = new Change[capacity()];
+            }
+            this.objects[slot] = change;
+            this.lengths[slot] = 0;
+            this.types[slot] = OBJECT;
+        }
+        this.offsets[slot] = this.arenaEnd;
+        this.arenaEnd += this.lengths[slot];
+        this.size++;
+        this.top = change;
+        return evicted;
+    }
+
+    /**
+     * Removes change from top of the stack.
+     *
+     * @return Removed change
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public Change pop() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        var change = peek();
+        var slot = slot(this.size - 1);
+        release(slot);
+        this.arenaEnd = this.offsets[slot];
+        this.size--;
+        this.top = null;
+        return change;
+    }
+
+    /**
+     * Gets change from top of the stack without removing it.
+     *
+     * @return Top change
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public Change peek() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        if (this.top == null) {
+            this.top = materialize(slot(this.size - 1));
+        }
+        return this.top;
+    }
+
+    /**
+     * Removes the oldest change from the bottom of the stack.
+     *
+     * @return Removed change
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public Change removeOldest() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        var slot = this.head;
+        var change = materialize(slot);
+        release(slot);
+        this.arenaStart = this.offsets[slot] + this.lengths[slot];
+        this.head = slot(1);
+        this.size--;
+        if (this.size == 0) {
+            this.top = null;
+        }
+        return change;
+    }
+
+    /**
+     * Gets change at given position, counting from the oldest one.
+     *
+     * @param i Position of the change, <code>0</code> being the oldest
+     * @return Change at the position
+     * @throws IndexOutOfBoundsException If there is no change at the position
+     */
+    @Override
+    public Change get(int i) {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return i == this.size - 1 ? peek() : materialize(slot(i));
+    }
+
+    /**
+     * Removes all changes from the stack, shrinking the arena back to its initial capacity.
+     */
+    @Override
+    public void clear() {
+        if (this.objects != null) {
+            Arrays.fill(this.objects, null);
+        }
+        if (this.arena.length > INITIAL_ARENA_CAPACITY) {
+            this.arena = new char[INITIAL_ARENA_CAPACITY];
+        }
+        this.head = 0;
+        this.size = 0;
+        this.top = null;
+        this.arenaStart = 0;
+        this.arenaEnd = 0;
+    }
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return If there are no changes in the stack
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Gets number of changes in the stack.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets capacity of the stack.
+     *
+     * @return Maximal number of changes
+     */
+    @Override
+    public int capacity() {
+        return this.positions.length;
+    }
+
+    /**
+     * Gets number of characters currently stored in the arena.
+     *
+     * @return Number of characters of all stored texts
+     */
+    public int textLength() {
+        return this.arenaEnd - this.arenaStart;
+    }
+
+    /**
+     * Creates a change object from a slot.
+     *
+     * @param slot Slot of the change
+     * @return The change
+     */
+    private Change materialize(int slot) {
+        var type = this.types[slot];
+        if (type == OBJECT) {
+            return this.objects[slot];
+        }
+        return new ChangeImpl(this.positions[slot], new String(this.arena, this.offsets[slot], this.lengths[slot]),
+                this.oldDots[slot], this.newDots[slot], CHANGE_TYPES[type]);
+    }
+
+    /**
+     * Drops the reference held by a slot.
+     *
+     * @param slot Slot of the change
+     */
+    private void release(int slot) {
+        if (this.types[slot] == OBJECT) {
+            this.objects[slot] = null;
+        }
+    }
+
+    /**
+     * Makes room for given number of characters at the end of the arena, first by moving
+     * the stored texts to its start, and only then by growing it.
+     *
+     * @param count Number of characters to append
+     */
+    private void reserve(int count) {
+        if (this.arenaEnd + count <= this.arena.length) {
+            return;
+        }
+        var live = this.arenaEnd - this.arenaStart;
+        var target = live + count <= this.arena.length / 2
+                ? this.arena
+                : new char[Math.max(this.arena.length * 2, live + count)];
+        System.arraycopy(this.arena, this.arenaStart, target, 0, live);
+        for (int i = 0; i < this.size; i++) {
+            this.offsets[slot(i)] -= this.arenaStart;
+        }
+        this.arena = target;
+        this.arenaStart = 0;
+        this.arenaEnd = live;
+    }
+
+    /**
+     * Translates position relative to the oldest change into array index.
+     *
+     * @param offset Position relative to the oldest change
+     * @return Array index
+     */
+    private int slot(int offset) {
+        var i = this.head + offset;
+        return i >= capacity() ? i - capacity() : i;
+    }
+
+}
@@ -0,0 +1,208 @@
+package undo.impl;
+
+/**
+ * A run of {@link ChangeImpl}s fused into one, kept open while more changes are fused into
+ * it. The text is accumulated in builders instead of being concatenated into a new string
+ * for every fused change, so typing, backspacing or deleting forward costs amortized
+ * <code>O(1)</code> per character. Characters deleted backwards are kept in a reversed
+ * builder in front of the rest of the text.
+ * <p>
+ * The text is only copied into the builders once the first change is fused, so opening a run
+ * that is never extended costs nothing.
+ *
+ * @author Nemanja
+ */
+final class ChangeRun {
+
+    /**
+     * Change the run starts with.
+     */
+    private final ChangeImpl first;
+
+    /**
+     * Type of the fused change.
+     */
+    private final ChangeType type;
+
+    /**
+     * Position of the fused change.
+     */
+    private int pos;
+
+    /**
+     * Dot position after the last fused change.
+     */
+    private int newDot;
+
+    /**
+     * Characters before {@link #tail}, in reverse order, or <code>null</code> if no change
+     * was fused yet.
+     */
+    private StringBuilder head;
+
+    /**
+     * Characters after {@link #head}, or <code>null</code> if no change was fused yet.
+     */
+    private StringBuilder tail;
+
+    /**
+     * Constructor.
+     *
+     * @param first Change the run starts with
+     */
+    ChangeRun(ChangeImpl first) {
+        this.first = first;
+        this.type = first.getChangeType();
+        this.pos = first.getPos();
+        this.newDot = first.getNewDot();
+    }
+
+    /**
+     * Gets type of the fused change.
+     *
+     * @return Type of change
+     */
+    ChangeType getChangeType() {
+        return this.type;
+    }
+
+    /**
+     * Gets position of the fused change.
+     *
+     * @return Position of the change
+     */
+    int getPos() {
+        return this.pos;
+    }
+
+    /**
+     * Gets length of the text of the fused change.
+     *
+     * @return Number of characters
+     */
+    int length() {
+        return this.head == null ? this.first.getString().length() : this.head.length() + this.tail.length();
+    }
+
+    /**
+     * Gets a character of the text of the fused change.
+     *
+     * @param index Index of the character
+     * @return The character
+     */
+    char charAt(int index) {
+        if (this.head == null) {
+            return this.first.getString().charAt(index);
+        }
+        var headLength = this.head.length();
+        return index < headLength ? this.head.charAt(headLength - 1 - index) : this.tail.charAt(index - headLength);
+    }
+
+    /**
+     * Fuses the change applied right after the run into it. Possible when the change inserts
+     * into or right after inserted text, deletes inside inserted text, or continues a deletion
+     * backwards or forwards.
+     *
+     * @param next The change applied after the run
+     * @return If the change was fused, the run being unchanged otherwise
+     */
+    boolean add(ChangeImpl next) {
+        var length = length();
+        var text = next.getString();
+        if (this.type == ChangeType.INSERT) {
+            var offset = next.getPos() - this.pos;
+            if (offset < 0 || offset > length) {
+                return false;
+            }
+            if (next.getChangeType() == ChangeType.INSERT) {
+                open();
+                if (offset == length) {
+                    this.tail.append(text);
+                } else {
+                    flatten();
+                    this.tail.insert(offset, text);
+                }
+            } else {
+                if (offset + text.length() > length || !matches(offset, text)) {
+                    return false;
+                }
+                open();
+                if (offset + text.length() == length && text.length() <= this.tail.length()) {
+                    this.tail.setLength(this.tail.length() - text.length());
+                } else {
+                    flatten();
+                    this.tail.delete(offset, offset + text.length());
+                }
+            }
+        } else if (next.getChangeType() != ChangeType.DELETE) {
+            return false;
+        } else if (next.getPos() + text.length() == this.pos) {
+            open();
+            for (int i = text.length() - 1; i >= 0; i--) {
+                this.head.append(text.charAt(i));
+            }
+            this.pos = next.getPos();
+        } else if (next.getPos() == this.pos) {
+            open();
+            this.tail.append(text);
+        } else {
+            return false;
+        }
+        this.newDot = next.getNewDot();
+        return true;
+    }
+
+    /**
+     * Creates the fused change.
+     *
+     * @return The change, the first one itself if nothing was fused into it
+     */
+    ChangeImpl toChange() {
+        if (this.head == null) {
+            return this.first;
+        }
+        var text = new StringBuilder(length());
+        for (int i = this.head.length() - 1; i >= 0; i--) {
+            text.append(this.head.charAt(i));
+        }
+        text.append(this.tail);
+        return new ChangeImpl(this.pos, text.toString(), this.first.getOldDot(), this.newDot, this.type);
+    }
+
+    /**
+     * Checks if the text of the fused change has a string at an offset.
+     *
+     * @param offset The offset
+     * @param s The string
+     * @return If the characters match
+     */
+    private boolean matches(int offset, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            if (charAt(offset + i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the text of the first change into the builders, if not done yet.
+     */
+    private void open() {
+        if (this.head == null) {
+            this.head = new StringBuilder();
+            this.tail = new StringBuilder(this.first.getString());
+        }
+    }
+
+    /**
+     * Moves all characters into {@link #tail}, for an edit in the middle of the text.
+     */
+    private void flatten() {
+        if (this.head.length() > 0) {
+            this.tail.insert(0, this.head.reverse());
+            this.head.setLength(0);
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package undo.impl;
+
+import undo.Snapshottable;
+
+/**
+ * A policy deciding when an undo manager takes a snapshot of a {@link Snapshottable}
+ * document. A checkpoint is due after a number of registered changes or once the
+ * registered changes have touched a number of characters, whichever comes first, so that
+ * large pastes are checkpointed sooner than typing. Only a limited number of snapshots is
+ * kept, the oldest ones being dropped first.
+ *
+ * @author Nemanja
+ */
+public class CheckpointPolicy {
+
+    /**
+     * Default maximal number of snapshots kept.
+     */
+    public static final int DEFAULT_MAX_CHECKPOINTS = 8;
+
+    /**
+     * Number of changes between two checkpoints.
+     */
+    private final int changeInterval;
+
+    /**
+     * Number of changed characters between two checkpoints.
+     */
+    private final long charInterval;
+
+    /**
+     * Maximal number of snapshots kept.
+     */
+    private final int maxCheckpoints;
+
+    /**
+     * Constructor keeping at most {@value #DEFAULT_MAX_CHECKPOINTS} snapshots.
+     *
+     * @param changeInterval Number of changes between two checkpoints
+     * @param charInterval Number of changed characters between two checkpoints
+     */
+    public CheckpointPolicy(int changeInterval, long charInterval) {
+        this(changeInterval, charInterval, DEFAULT_MAX_CHECKPOINTS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param changeInterval Number of changes between two checkpoints
+     * @param charInterval Number of changed characters between two checkpoints
+     * @param maxCheckpoints Maximal number of snapshots kept
+     */
+    public CheckpointPolicy(int changeInterval, long charInterval, int maxCheckpoints) {
+        if (changeInterval <= 0 || charInterval <= 0 || maxCheckpoints <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.changeInterval = changeInterval;
+        this.charInterval = charInterval;
+        this.maxCheckpoints = maxCheckpoints;
+    }
+
+    /**
+     * Gets maximal number of snapshots kept.
+     *
+     * @return Number of snapshots
+     */
+    public int getMaxCheckpoints() {
+        return this.maxCheckpoints;
+    }
+
+    /**
+     * Checks if a checkpoint is due.
+     *
+     * @param changes Number of changes registered since the last checkpoint
+     * @param chars Number of characters changed since the last checkpoint
+     * @return If a snapshot should be taken
+     */
+    public boolean isDue(int changes, long chars) {
+        return changes >= this.changeInterval || chars >= this.charInterval;
+    }
+
+}
@@ -0,0 +1,93 @@
+package undo.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import undo.UndoManager;
+
+/**
+ * A policy deciding when consecutive typing changes registered with an
+ * {@link UndoManager} are merged into a single change. Insertions continuing right
+ * after the previous insertion and deletions continuing a backspace or forward delete
+ * run are merged if they are registered within the time window.
+ *
+ * @author Nemanja
+ */
+public class CoalescingPolicy {
+
+    /**
+     * Maximal time between two merged changes, in nanoseconds.
+     */
+    private final long windowNanos;
+
+    /**
+     * If a run is broken where a new word starts.
+     */
+    private final boolean breakAtWordBoundary;
+
+    /**
+     * Constructor.
+     *
+     * @param windowMillis Maximal time between two merged changes, in milliseconds
+     * @param breakAtWordBoundary If a run is broken where a new word starts, so that
+     *          each word is undone separately
+     */
+    public CoalescingPolicy(long windowMillis, boolean breakAtWordBoundary) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.breakAtWordBoundary = breakAtWordBoundary;
+    }
+
+    /**
+     * Checks if a change can be merged into the previously registered one.
+     *
+     * @param previous The previously registered change
+     * @param next The change being registered
+     * @param elapsedNanos Time since the previous change was registered, in nanoseconds
+     * @return If the changes should be merged
+     */
+    public boolean canMerge(ChangeImpl previous, ChangeImpl next, long elapsedNanos) {
+        return canMerge(new ChangeRun(previous), next, elapsedNanos);
+    }
+
+    /**
+     * Checks if a change can be merged into an open run of merged changes.
+     *
+     * @param previous The run
+     * @param next The change being registered
+     * @param elapsedNanos Time since the last change of the run was registered, in nanoseconds
+     * @return If the change should be merged
+     */
+    boolean canMerge(ChangeRun previous, ChangeImpl next, long elapsedNanos) {
+        if (elapsedNanos > this.windowNanos || previous.getChangeType() != next.getChangeType()) {
+            return false;
+        }
+        var previousLength = previous.length();
+        var nextText = next.getString();
+        if (previousLength == 0 || nextText.isEmpty()) {
+            return false;
+        }
+        if (previous.getChangeType() == ChangeType.INSERT) {
+            return next.getPos() == previous.getPos() + previousLength
+                    && !isWordStart(previous.charAt(previousLength - 1), nextText.charAt(0));
+        }
+        if (next.getPos() + nextText.length() == previous.getPos()) {
+            return !isWordStart(previous.charAt(0), nextText.charAt(nextText.length() - 1));
+        }
+        return next.getPos() == previous.getPos()
+                && !isWordStart(previous.charAt(previousLength - 1), nextText.charAt(0));
+    }
+
+    /**
+     * Checks if a word starts between two characters, in the order they were typed or deleted.
+     *
+     * @param last The last character of the previous change
+     * @param first The first character of the next change
+     * @return If the run has to be broken between the characters
+     */
+    private boolean isWordStart(char last, char first) {
+        return this.breakAtWordBoundary && Character.isWhitespace(last) && !Character.isWhitespace(first);
+    }
+
+}
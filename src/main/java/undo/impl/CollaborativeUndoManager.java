@@ -0,0 +1,703 @@
+package undo.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import undo.Change;
+import undo.Document;
+import undo.UndoManager;
+
+import util.HistoryStack;
+import util.PositionIndex;
+import util.RingBufferStack;
+
+/**
+ * A manager for undo and redo operations to a {@link Document} that other users edit as well.
+ * Edits made by others are reported through {@link #remoteInsert(int, int)} and
+ * {@link #remoteDelete(int, int)}, and the positions of the stored changes are transformed
+ * against them, so undo and redo only ever touch the text of the local user.
+ * <p>
+ * The start and end of every stored change are kept in a {@link PositionIndex}, which shifts
+ * them lazily, so every edit of the document, local or remote, costs <code>O(log n)</code>
+ * for a history of <code>n</code> changes. Positions are only resolved when a change is undone
+ * or redone. Markers of changes that were undone, redone or dropped from the history are
+ * removed from the index once they outnumber the live ones.
+ * <p>
+ * Positions a deletion collapses remember where they were inside the deleted text, so that
+ * undoing or redoing the change that deleted it puts them back exactly. They remember it for
+ * every deletion collapsing them again, so undoing the deletions one by one puts them back
+ * through each of them. This keeps changes editing each other's text undoable, as long as
+ * they are undone in order. Edits are numbered
+ * by a version, which deletions are recognized by.
+ * <p>
+ * A change whose text was edited by someone else can no longer be undone or redone. Such a
+ * history entry is dropped when it is reached, and undo or redo moves on to the next one. An
+ * edit that changes the length of the text is seen from the positions alone; one that keeps
+ * it, such as a deletion and an insertion of as many characters inside the text, is seen when
+ * the text is checked against the document before it is removed.
+ * Dots are restored relative to the transformed changes.
+ * <p>
+ * {@link #undoInRange(int, int)} undoes the latest change touching a range of the document,
+ * keeping the changes made after it, and stores the undo as a new change on top of the history.
+ * Markers of changes that can be undone are weighted by how recent they are, so the index
+ * finds that change without going through the history.
+ * <p>
+ * Changes have to be registered right after they are applied, before any remote edit made
+ * after them is reported. Only documents that shift the text after an insertion or deletion
+ * are supported, so {@link StringDocument} can't be used.
+ *
+ * @author Nemanja
+ */
+public class CollaborativeUndoManager implements UndoManager {
+
+    /**
+     * Number of markers in the index below which it isn't compacted.
+     */
+    private static final int MIN_COMPACTION_SIZE = 64;
+
+    /**
+     * Document manager is managing.
+     */
+    private final Document doc;
+
+    /**
+     * Stack for undo actions.
+     */
+    private final HistoryStack<Item> undoStack;
+
+    /**
+     * Stack for redo actions.
+     */
+    private final HistoryStack<Item> redoStack;
+
+    /**
+     * Index of the start and end positions of the entries.
+     */
+    private final PositionIndex<Entry> index;
+
+    /**
+     * Number of items pushed to the undo stack so far, weighting the markers of the latest item.
+     */
+    private long sequence;
+
+    /**
+     * Number of edits of the document reported so far.
+     */
+    private long version;
+
+    /**
+     * Number of markers in the index from which it is compacted.
+     */
+    private int compactionSize;
+
+    /**
+     * Entries of the open compound, or <code>null</code> if none is open.
+     */
+    private List<Entry> compound;
+
+    /**
+     * Number of nested compounds currently open.
+     */
+    private int compoundDepth;
+
+    /**
+     * Constructor.
+     *
+     * @param doc Document to be managed.
+     * @param bufferSize Size of buffer
+     */
+    public CollaborativeUndoManager(Document doc, int bufferSize) {
+        if (doc == null || doc instanceof StringDocument || bufferSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.doc = doc;
+        this.undoStack = new RingBufferStack<>(bufferSize);
+        this.redoStack = new RingBufferStack<>(bufferSize);
+        this.index = new PositionIndex<>();
+        this.compactionSize = MIN_COMPACTION_SIZE;
+    }
+
+    /**
+     * Register change to the manager. The change has to be applied to the document already.
+     *
+     * @param change The change to register.
+     * @throws IllegalArgumentException If the change isn't a {@link ChangeImpl}, an applied
+     *          {@link RangeDeletion} taken as a plain deletion, or a compound of them
+     */
+    @Override
+    public void registerChange(Change change) {
+        compact();
+        var entries = new ArrayList<Entry>();
+        add(change, entries);
+        if (this.compound != null) {
+            this.compound.addAll(entries);
+        } else {
+            pushUndo(new Item(entries.toArray(new Entry[0]), false));
+        }
+    }
+
+    /**
+     * Reports text another user inserted into the document.
+     *
+     * @param pos The position the text was inserted at
+     * @param length Length of the inserted text
+     * @throws IllegalArgumentException If the position or length is negative
+     */
+    public void remoteInsert(int pos, int length) {
+        if (pos < 0 || length < 0) {
+            throw new IllegalArgumentException();
+        }
+        compact();
+        append(pos, length, -1);
+    }
+
+    /**
+     * Reports text another user deleted from the document.
+     *
+     * @param pos The position the deleted text started at
+     * @param length Length of the deleted text
+     * @throws IllegalArgumentException If the position or length is negative
+     */
+    public void remoteDelete(int pos, int length) {
+        if (pos < 0 || length < 0) {
+            throw new IllegalArgumentException();
+        }
+        compact();
+        append(pos, -length, -1);
+    }
+
+    /**
+     * Check if undo is possible. Entries whose text was edited by someone else are only
+     * detected when they are reached, so undo may still fail.
+     *
+     * @return If manager can undo action.
+     */
+    @Override
+    public boolean canUndo() {
+        return !this.undoStack.isEmpty() || (this.compound != null && !this.compound.isEmpty());
+    }
+
+    /**
+     * Undo latest action that can still be undone, dropping the ones that can't.
+     *
+     * @throws IllegalStateException If no action can be undone
+     */
+    @Override
+    public void undo() {
+        compact();
+        finishCompound();
+        while (!this.undoStack.isEmpty()) {
+            var item = this.undoStack.pop();
+            if (item.dropped) {
+                continue;
+            }
+            weigh(item, -1);
+            var starts = plan(item.entries, !item.inverted);
+            if (starts != null && perform(item.entries, starts, !item.inverted)) {
+                this.redoStack.push(item);
+                return;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Undo latest action touching a range of the document, keeping the actions made after it.
+     * An action touches the range if its text, or the position its text was deleted from,
+     * is in the range or next to it. The undo is stored as a new action, so undoing that
+     * brings the text back. Actions that can't be undone are skipped but kept.
+     *
+     * @param start Start of the range
+     * @param end End of the range
+     * @throws IllegalArgumentException If the range is invalid
+     * @throws IllegalStateException If no action touching the range can be undone
+     */
+    public void undoInRange(int start, int end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException();
+        }
+        compact();
+        finishCompound();
+        var skipped = new ArrayList<Item>();
+        try {
+            for (var item = find(start, end); item != null; item = find(start, end)) {
+                weigh(item, -1);
+                var starts = plan(item.entries, !item.inverted);
+                if (starts == null || !perform(item.entries, starts, !item.inverted)) {
+                    skipped.add(item);
+                    continue;
+                }
+                item.dropped = true;
+                pushUndo(new Item(item.entries, !item.inverted));
+                return;
+            }
+        } finally {
+            for (var item : skipped) {
+                weigh(item, item.weight);
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Check if redo is possible. Entries whose text was edited by someone else are only
+     * detected when they are reached, so redo may still fail.
+     *
+     * @return If manager can redo action.
+     */
+    @Override
+    public boolean canRedo() {
+        return !this.redoStack.isEmpty();
+    }
+
+    /**
+     * Redo latest undone action that can still be redone, dropping the ones that can't.
+     *
+     * @throws IllegalStateException If no action can be redone
+     */
+    @Override
+    public void redo() {
+        compact();
+        finishCompound();
+        while (!this.redoStack.isEmpty()) {
+            var item = this.redoStack.pop();
+            var starts = plan(item.entries, item.inverted);
+            if (starts != null && perform(item.entries, starts, item.inverted)) {
+                pushUndo(item);
+                return;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    /**
+     * Opens a compound, nesting it in the one already open.
+     */
+    @Override
+    public void beginCompound() {
+        if (this.compoundDepth++ == 0) {
+            this.compound = new ArrayList<>();
+        }
+    }
+
+    /**
+     * Closes a compound, storing it as a single change once the outermost one is closed.
+     */
+    @Override
+    public void endCompound() {
+        if (this.compoundDepth == 0) {
+            throw new IllegalStateException();
+        }
+        if (--this.compoundDepth == 0) {
+            finishCompound();
+        }
+    }
+
+    /**
+     * Gets the version of the document, which is the number of edits of it reported so far.
+     *
+     * @return The version
+     */
+    public long getVersion() {
+        return this.version;
+    }
+
+    /**
+     * Pushes an item to the undo stack, making it the heaviest one in the index.
+     *
+     * @param item The item
+     */
+    private void pushUndo(Item item) {
+        item.weight = ++this.sequence;
+        for (var entry : item.entries) {
+            entry.item = item;
+        }
+        weigh(item, item.weight);
+        var evicted = this.undoStack.push(item);
+        if (evicted != null && !evicted.dropped) {
+            weigh(evicted, -1);
+        }
+    }
+
+    /**
+     * Sets the weight of the markers of an item.
+     *
+     * @param item The item
+     * @param weight The weight, negative for leaving the item out of searches
+     */
+    private void weigh(Item item, long weight) {
+        for (var entry : item.entries) {
+            this.index.setWeight(entry.start, weight);
+            this.index.setWeight(entry.end, weight);
+        }
+    }
+
+    /**
+     * Finds the latest item in the undo stack touching a range of the document. Besides the
+     * items with a marker in the range, only one item can have unedited text around the whole
+     * range, and it is the one whose text starts last before the range.
+     *
+     * @param start Start of the range
+     * @param end End of the range
+     * @return The item, or <code>null</code> if none touches the range
+     */
+    private Item find(int start, int end) {
+        var marker = this.index.heaviest(start, end);
+        var opening = this.index.lastOpening(start);
+        if (opening != null && opening.getValue().end.getPosition() > end
+                && (marker == null || opening.getWeight() > marker.getWeight())) {
+            marker = opening;
+        }
+        return marker == null ? null : marker.getValue().item;
+    }
+
+    /**
+     * Adds entries for a registered change, appending its shifts to the timeline.
+     *
+     * @param change The change
+     * @param entries List to add the entries to
+     * @throws IllegalArgumentException If the change isn't a {@link ChangeImpl}, an applied
+     *          {@link RangeDeletion} taken as a plain deletion, or a compound of them
+     */
+    private void add(Change change, List<Entry> entries) {
+        change = CompressedChange.expand(change);
+        if (change instanceof RangeDeletion) {
+            if (((RangeDeletion) change).getString() == null) {
+                throw new IllegalArgumentException();
+            }
+            change = ((RangeDeletion) change).toChange();
+        }
+        if (change instanceof CompoundChange) {
+            for (var child : ((CompoundChange) change).getChanges()) {
+                add(child, entries);
+            }
+            return;
+        }
+        if (!(change instanceof ChangeImpl)) {
+            throw new IllegalArgumentException();
+        }
+        var impl = (ChangeImpl) change;
+        var length = impl.getString().length();
+        var insert = impl.getChangeType() == ChangeType.INSERT;
+        var version = getVersion();
+        append(impl.getPos(), insert ? length : -length, -1);
+        var entry = new Entry(impl, version);
+        place(entry, impl.getPos());
+        entries.add(entry);
+    }
+
+    /**
+     * Finds where the entries of a history entry have to be reverted or applied, as if the
+     * ones before had been already.
+     *
+     * @param entries The entries, in the order they were applied
+     * @param revert If the entries are reverted, last one first, instead of applied
+     * @return Start positions of the entries, in the order they have to be processed, or
+     *          <code>null</code> if the text of an entry was edited by someone else
+     */
+    private int[] plan(Entry[] entries, boolean revert) {
+        var count = entries.length;
+        var starts = new int[count];
+        var shifts = new int[count];
+        var restores = new long[count];
+        for (int k = 0; k < count; k++) {
+            var entry = entries[revert ? count - 1 - k : k];
+            var start = new Point(entry.start);
+            var end = new Point(entry.end);
+            for (int j = 0; j < k; j++) {
+                var version = getVersion() + j;
+                start.shift(version, starts[j], shifts[j], restores[j], false);
+                end.shift(version, starts[j], shifts[j], restores[j], entry.present);
+            }
+            var length = entry.text.length();
+            if (entry.present && end.x - start.x != length) {
+                return null;
+            }
+            starts[k] = start.x;
+            shifts[k] = entry.present ? -length : length;
+            restores[k] = entry.present ? -1 : entry.deleted;
+        }
+        return starts;
+    }
+
+    /**
+     * Reverts or applies the entries of a history entry, appending their shifts to the timeline.
+     * Text removed by an entry is checked against the document first, since someone else may
+     * have replaced part of it with text of the same length. If it doesn't match, the entries
+     * already processed are processed back and nothing is changed.
+     *
+     * @param entries The entries, in the order they were applied
+     * @param starts Start positions of the entries, in the order they are processed
+     * @param revert If the entries are reverted, last one first, instead of applied
+     * @return If the entries were processed, <code>false</code> if the text of one was edited
+     */
+    private boolean perform(Entry[] entries, int[] starts, boolean revert) {
+        var count = entries.length;
+        for (int k = 0; k < count; k++) {
+            try {
+                step(entries[revert ? count - 1 - k : k], starts[k], revert);
+            } catch (IllegalStateException e) {
+                for (int j = k - 1; j >= 0; j--) {
+                    step(entries[revert ? count - 1 - j : j], starts[j], !revert);
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reverts or applies an entry, appending its shift to the timeline.
+     *
+     * @param entry The entry
+     * @param start Start position of the entry
+     * @param revert If the entry is reverted instead of applied
+     * @throws IllegalStateException If the entry removes text the document doesn't have at its start
+     */
+    private void step(Entry entry, int start, boolean revert) {
+        var length = entry.text.length();
+        var change = new ChangeImpl(start, entry.text, start + entry.oldDot, start + entry.newDot, entry.type);
+        if (revert) {
+            change.revert(this.doc);
+        } else {
+            change.apply(this.doc);
+        }
+        var version = getVersion();
+        append(start, entry.present ? -length : length, entry.present ? -1 : entry.deleted);
+        if (entry.present) {
+            entry.deleted = version;
+        }
+        entry.present = !entry.present;
+        place(entry, start);
+    }
+
+    /**
+     * Adds markers for the text of an entry to the index.
+     *
+     * @param entry The entry
+     * @param start Start of the text
+     */
+    private void place(Entry entry, int start) {
+        entry.start = this.index.add(start, false, entry.present, entry);
+        entry.end = entry.present ? this.index.add(start + entry.text.length(), true, false, entry) : entry.start;
+    }
+
+    /**
+     * Shifts the positions in the index after an edit of the document.
+     *
+     * @param pos Position of the edit
+     * @param delta Length of inserted text, or negative length of deleted text
+     * @param restores Version of the deletion the edit puts the text of back, or <code>-1</code>
+     */
+    private void append(int pos, int delta, long restores) {
+        if (delta < 0) {
+            this.index.delete(pos, -delta, this.version);
+        } else {
+            this.index.insert(pos, delta, restores);
+        }
+        this.version++;
+    }
+
+    /**
+     * Removes the markers of entries no longer in the history from the index, once they
+     * outnumber the live ones. Called before operations, while no entry is being processed.
+     */
+    private void compact() {
+        if (this.index.size() < this.compactionSize) {
+            return;
+        }
+        var live = new ArrayList<PositionIndex.Marker<Entry>>();
+        for (var stack : List.of(this.undoStack, this.redoStack)) {
+            for (int i = 0; i < stack.size(); i++) {
+                for (var entry : stack.get(i).entries) {
+                    live.add(entry.start);
+                    live.add(entry.end);
+                }
+            }
+        }
+        if (this.compound != null) {
+            for (var entry : this.compound) {
+                live.add(entry.start);
+                live.add(entry.end);
+            }
+        }
+        this.index.retain(live);
+        this.compactionSize = Math.max(2 * this.index.size(), MIN_COMPACTION_SIZE);
+    }
+
+    /**
+     * Stores the open compound, if any. If it is finished before the outermost level is
+     * closed, the nesting levels stay open and collect later changes into a new compound.
+     */
+    private void finishCompound() {
+        if (this.compound == null) {
+            return;
+        }
+        var entries = this.compound;
+        this.compound = this.compoundDepth > 0 ? new ArrayList<>() : null;
+        if (!entries.isEmpty()) {
+            pushUndo(new Item(entries.toArray(new Entry[0]), false));
+        }
+    }
+
+    /**
+     * An action in the history, made of entries in the order they were applied.
+     */
+    private static final class Item {
+
+        /**
+         * Entries of the action.
+         */
+        private final Entry[] entries;
+
+        /**
+         * If the action undid the entries, so that undoing it applies them again.
+         */
+        private final boolean inverted;
+
+        /**
+         * If the action was undone out of order and replaced by its undo.
+         */
+        private boolean dropped;
+
+        /**
+         * Weight of the markers of the entries while the action is in the undo stack.
+         */
+        private long weight;
+
+        /**
+         * Constructor.
+         *
+         * @param entries Entries of the action
+         * @param inverted If the action undid the entries
+         */
+        private Item(Entry[] entries, boolean inverted) {
+            this.entries = entries;
+            this.inverted = inverted;
+        }
+    }
+
+    /**
+     * A registered text change, with its positions kept in the index.
+     */
+    private static final class Entry {
+
+        /**
+         * Type of the change.
+         */
+        private final ChangeType type;
+
+        /**
+         * Inserted or deleted text.
+         */
+        private final String text;
+
+        /**
+         * Dot before the change, relative to its start.
+         */
+        private final int oldDot;
+
+        /**
+         * Dot after the change, relative to its start.
+         */
+        private final int newDot;
+
+        /**
+         * Start of the text, or the position it would be inserted at if it isn't present.
+         */
+        private PositionIndex.Marker<Entry> start;
+
+        /**
+         * End of the text, the same marker as the start if it isn't present.
+         */
+        private PositionIndex.Marker<Entry> end;
+
+        /**
+         * Latest action in the undo stack the entry belongs to.
+         */
+        private Item item;
+
+        /**
+         * If the text is in the document.
+         */
+        private boolean present;
+
+        /**
+         * Version of the deletion that last removed the text from the document, or
+         * <code>-1</code> if it never was.
+         */
+        private long deleted;
+
+        /**
+         * Constructor of an entry for a change just applied.
+         *
+         * @param change The change
+         * @param version Version of the change
+         */
+        private Entry(ChangeImpl change, long version) {
+            var length = change.getString().length();
+            var pos = change.getPos();
+            this.type = change.getChangeType();
+            this.text = change.getString();
+            this.present = this.type == ChangeType.INSERT;
+            var dotWithText = Math.max(0, Math.min(length, (this.present ? change.getNewDot() : change.getOldDot()) - pos));
+            this.oldDot = this.present ? 0 : dotWithText;
+            this.newDot = this.present ? dotWithText : 0;
+            this.deleted = this.present ? -1 : version;
+        }
+    }
+
+    /**
+     * A copy of a position in the index, shifted through edits that are only planned. Follows the
+     * same rules as the index.
+     */
+    private static final class Point {
+
+        /**
+         * The position.
+         */
+        private int x;
+
+        /**
+         * Latest deletion the position is still collapsed by, or <code>null</code> if there is none.
+         */
+        private PositionIndex.Collapse collapse;
+
+        /**
+         * Constructor of a copy of a position in the index.
+         *
+         * @param marker Marker of the position
+         */
+        private Point(PositionIndex.Marker<Entry> marker) {
+            this.x = marker.getPosition();
+            this.collapse = marker.getCollapse();
+        }
+
+        /**
+         * Maps the position through an edit of the document.
+         *
+         * @param version Version of the edit
+         * @param pos Position of the edit
+         * @param delta Length of inserted text, or negative length of deleted text
+         * @param restores Version of the deletion the edit puts the text of back, or <code>-1</code>
+         * @param end If the position ends a text, so that new text inserted right at it goes after it
+         */
+        private void shift(long version, int pos, int delta, long restores, boolean end) {
+            if (delta < 0) {
+                if (this.x >= pos && this.x <= pos - delta) {
+                    this.collapse = new PositionIndex.Collapse(version, this.x - pos, this.collapse);
+                    this.x = pos;
+                } else if (this.x > pos) {
+                    this.x += delta;
+                }
+            } else if (restores >= 0 && this.collapse != null && this.collapse.getVersion() == restores
+                    && this.x == pos) {
+                this.x += this.collapse.getOffset();
+                this.collapse = this.collapse.getEarlier();
+            } else if (this.x > pos || (this.x == pos && !end)) {
+                this.x += delta;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,166 @@
+package undo.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import undo.Change;
+import undo.Document;
+import undo.UndoManager;
+
+/**
+ * A change grouping several changes that are registered with an {@link UndoManager}
+ * as one history entry. Adjacent text changes are fused while they are added, so
+ * typing or pasting inside a compound ends up as a single document operation.
+ *
+ * @author Nemanja
+ */
+public class CompoundChange implements Change, MemoryFootprint {
+
+    /**
+     * Type of the change.
+     */
+    public static final String TYPE = "COMPOUND";
+
+    /**
+     * Grouped changes, in the order they were applied.
+     */
+    private final List<Change> changes;
+
+    /**
+     * Run the last change is being fused in, or <code>null</code> if there is none.
+     */
+    private ChangeRun run;
+
+    /**
+     * Default constructor.
+     */
+    public CompoundChange() {
+        this.changes = new ArrayList<>();
+    }
+
+    /**
+     * Constructor with given changes, which are kept as they are.
+     *
+     * @param changes Grouped changes, in the order they were applied
+     */
+    CompoundChange(List<Change> changes) {
+        this.changes = new ArrayList<>(changes);
+    }
+
+    /**
+     * Adds a change applied after all changes of the compound, fusing it with the
+     * last change if possible.
+     *
+     * @param change The change to add.
+     */
+    public void add(Change change) {
+        var last = this.changes.size() - 1;
+        if (change instanceof ChangeImpl) {
+            if (this.run == null && last >= 0 && this.changes.get(last) instanceof ChangeImpl) {
+                this.run = new ChangeRun((ChangeImpl) this.changes.get(last));
+            }
+            if (this.run != null && this.run.add((ChangeImpl) change)) {
+                return;
+            }
+        }
+        closeRun();
+        this.changes.add(change);
+    }
+
+    /**
+     * Gets the grouped changes.
+     *
+     * @return Unmodifiable list of changes, in the order they were applied
+     */
+    public List<Change> getChanges() {
+        closeRun();
+        return Collections.unmodifiableList(this.changes);
+    }
+
+    /**
+     * Checks if the compound has no changes.
+     *
+     * @return If no changes were added
+     */
+    public boolean isEmpty() {
+        return this.changes.isEmpty();
+    }
+
+    /**
+     * Estimates heap retained by this compound, including all grouped changes.
+     *
+     * @return Estimated size in bytes
+     */
+    @Override
+    public long retainedBytes() {
+        closeRun();
+        long bytes = 56 + 4L * this.changes.size();
+        for (var change : this.changes) {
+            bytes += MemoryFootprint.of(change);
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets type of change.
+     *
+     * @return Type of change
+     */
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    /**
+     * Applies all changes in order, moving the dot only once at the end.
+     *
+     * @param doc The document to apply the change to.
+     * @throws IllegalStateException If the change cannot be applied to <code>doc</code>
+     * 			(that is if the document refuses the application of the change).
+     */
+    @Override
+    public void apply(Document doc) {
+        closeRun();
+        var last = this.changes.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            var change = this.changes.get(i);
+            if (i < last && change instanceof ChangeImpl) {
+                ((ChangeImpl) change).applyText(doc);
+            } else {
+                change.apply(doc);
+            }
+        }
+    }
+
+    /**
+     * Reverts all changes in reverse order, moving the dot only once at the end.
+     *
+     * @param doc The document to revert the change in.
+     * @throws IllegalStateException If the change cannot be reverted in <code>doc</code>
+     * 			(that is if the document refuses the reversion of the change).
+     */
+    @Override
+    public void revert(Document doc) {
+        closeRun();
+        for (int i = this.changes.size() - 1; i >= 0; i--) {
+            var change = this.changes.get(i);
+            if (i > 0 && change instanceof ChangeImpl) {
+                ((ChangeImpl) change).revertText(doc);
+            } else {
+                change.revert(doc);
+            }
+        }
+    }
+
+    /**
+     * Replaces the last change with the run fused from it, if any.
+     */
+    private void closeRun() {
+        if (this.run != null) {
+            this.changes.set(this.changes.size() - 1, this.run.toChange());
+            this.run = null;
+        }
+    }
+
+}
@@ -0,0 +1,141 @@
+package undo.impl;
+
+import java.util.Map;
+
+import undo.Change;
+import undo.Document;
+
+/**
+ * A {@link ChangeImpl} stored with its text compressed. The text is only decompressed when
+ * the change is applied or reverted, and the decompressed change is kept in a small cache
+ * shared with other compressed changes, so undoing and redoing the same change repeatedly
+ * decompresses it once.
+ *
+ * @author Nemanja
+ */
+public class CompressedChange implements Change, MemoryFootprint {
+
+    /**
+     * Type of the change.
+     */
+    private final ChangeType type;
+
+    /**
+     * The position to start the change.
+     */
+    private final int pos;
+
+    /**
+     * The dot (cursor) position before the change.
+     */
+    private final int oldDot;
+
+    /**
+     * The dot (cursor) position after the change.
+     */
+    private final int newDot;
+
+    /**
+     * The compressed text.
+     */
+    private final CompressedText text;
+
+    /**
+     * Recently decompressed changes.
+     */
+    private final Map<CompressedChange, ChangeImpl> cache;
+
+    /**
+     * Constructor.
+     *
+     * @param change The change to compress
+     * @param text The text of the change, compressed
+     * @param cache Recently decompressed changes
+     */
+    CompressedChange(ChangeImpl change, CompressedText text, Map<CompressedChange, ChangeImpl> cache) {
+        this.type = change.getChangeType();
+        this.pos = change.getPos();
+        this.oldDot = change.getOldDot();
+        this.newDot = change.getNewDot();
+        this.text = text;
+        this.cache = cache;
+    }
+
+    /**
+     * Gets type of change.
+     *
+     * @return Type of change
+     */
+    @Override
+    public String getType() {
+        return this.type.toString();
+    }
+
+    /**
+     * Apply this change to the given document, decompressing it if it isn't cached.
+     *
+     * @param doc The document to apply the change to.
+     * @throws IllegalStateException If the change cannot be applied to <code>doc</code>
+     * 			(that is if the document refuses the application of the change).
+     */
+    @Override
+    public void apply(Document doc) {
+        expand().apply(doc);
+    }
+
+    /**
+     * Reverts this change in the given document, decompressing it if it isn't cached.
+     *
+     * @param doc The document to revert the change in.
+     * @throws IllegalStateException If the change cannot be reverted in <code>doc</code>
+     * 			(that is if the document refuses the reversion of the change).
+     */
+    @Override
+    public void revert(Document doc) {
+        expand().revert(doc);
+    }
+
+    /**
+     * Estimates heap retained by this change, including its compressed text but not the cache.
+     *
+     * @return Estimated size in bytes
+     */
+    @Override
+    public long retainedBytes() {
+        return 32 + this.text.retainedBytes();
+    }
+
+    /**
+     * Gets number of characters of the text of the change.
+     *
+     * @return Length of the text
+     */
+    public int getLength() {
+        return this.text.length();
+    }
+
+    /**
+     * Decompresses a change if it is a compressed one.
+     *
+     * @param change The change
+     * @return The decompressed change, or the change itself if it isn't compressed
+     */
+    static Change expand(Change change) {
+        return change instanceof CompressedChange ? ((CompressedChange) change).expand() : change;
+    }
+
+    /**
+     * Gets the change with its text decompressed, from the cache if it is there.
+     *
+     * @return The decompressed change
+     */
+    ChangeImpl expand() {
+        var change = this.cache.get(this);
+        if (change == null) {
+            change = new ChangeImpl(this.pos, this.text.toString(), this.oldDot, this.newDot, this.type);
+            this.cache.put(this, change);
+        }
+        return change;
+    }
+
+}
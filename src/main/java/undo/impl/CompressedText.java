@@ -0,0 +1,148 @@
+package undo.impl;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * An immutable text kept deflated when it is large enough for compression to pay off.
+ * Small texts, and texts that don't compress, are kept as plain strings.
+ *
+ * @author Nemanja
+ */
+public final class CompressedText {
+
+    /**
+     * Length from which texts are compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 4096;
+
+    /**
+     * The text, or <code>null</code> if it is compressed.
+     */
+    private final String plain;
+
+    /**
+     * Deflated UTF-8 bytes of the text, or <code>null</code> if it isn't compressed.
+     */
+    private final byte[] deflated;
+
+    /**
+     * Number of characters of the text.
+     */
+    private final int length;
+
+    /**
+     * Constructor.
+     *
+     * @param plain The text, or <code>null</code> if it is compressed
+     * @param deflated Deflated UTF-8 bytes of the text, or <code>null</code> if it isn't compressed
+     * @param length Number of characters of the text
+     */
+    private CompressedText(String plain, byte[] deflated, int length) {
+        this.plain = plain;
+        this.deflated = deflated;
+        this.length = length;
+    }
+
+    /**
+     * Stores a text, compressing it if it is at least {@link #DEFAULT_THRESHOLD} characters long.
+     *
+     * @param s The text
+     * @return The stored text
+     */
+    public static CompressedText of(String s) {
+        return of(s, DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * Stores a text, compressing it if it is long enough and gets smaller.
+     *
+     * @param s The text
+     * @param threshold Length from which the text is compressed
+     * @return The stored text
+     */
+    public static CompressedText of(String s, int threshold) {
+        if (s.length() < threshold) {
+            return new CompressedText(s, null, s.length());
+        }
+        var bytes = s.getBytes(StandardCharsets.UTF_8);
+        var deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(bytes.length / 4 + 16);
+            var chunk = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(chunk, 0, deflater.deflate(chunk));
+                if (out.size() >= 2L * s.length()) {
+                    return new CompressedText(s, null, s.length());
+                }
+            }
+            return new CompressedText(null, out.toByteArray(), s.length());
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * Gets the number of characters of the text.
+     *
+     * @return Length of the text
+     */
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Checks if the text is kept compressed.
+     *
+     * @return If the text is compressed
+     */
+    public boolean isCompressed() {
+        return this.deflated != null;
+    }
+
+    /**
+     * Estimates heap retained by the stored text.
+     *
+     * @return Estimated size in bytes
+     */
+    public long retainedBytes() {
+        return this.deflated != null ? 32 + 16 + this.deflated.length : 16 + MemoryFootprint.stringBytes(this.plain);
+    }
+
+    /**
+     * Gets the text, inflating it if it is compressed.
+     *
+     * @return The text
+     * @throws IllegalStateException If the compressed bytes are corrupted
+     */
+    @Override
+    public String toString() {
+        if (this.deflated == null) {
+            return this.plain;
+        }
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(this.deflated);
+            var out = new ByteArrayOutputStream(this.length * 2);
+            var chunk = new byte[8192];
+            while (!inflater.finished()) {
+                var count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException();
+                }
+                out.write(chunk, 0, count);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+}
@@ -0,0 +1,250 @@
+package undo.impl;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import undo.Change;
+import util.HistoryStack;
+
+/**
+ * A history stack compressing the text of large changes before storing them in another stack.
+ * Changes whose text is at least the threshold long, including the ones grouped in compounds,
+ * are stored as {@link CompressedChange}s, which are decompressed only when they are applied
+ * or reverted. The most recently decompressed changes are cached, so repeated undo and redo
+ * of the same changes don't decompress them again.
+ * <p>
+ * Stacks can share a cache, so that a change moving between the undo and redo stacks is
+ * cached once. The footprint of the stack counts the changes as they are stored, compressed.
+ *
+ * @author Nemanja
+ */
+public class CompressingHistoryStack implements HistoryStack<Change>, MemoryFootprint {
+
+    /**
+     * Stack storing the changes.
+     */
+    private final HistoryStack<Change> stack;
+
+    /**
+     * Text length from which changes are compressed.
+     */
+    private final int threshold;
+
+    /**
+     * Recently decompressed changes, the least recently used one first.
+     */
+    private final Map<CompressedChange, ChangeImpl> cache;
+
+    /**
+     * Estimated heap retained by the stored changes, in bytes.
+     */
+    private long retainedBytes;
+
+    /**
+     * Constructor.
+     *
+     * @param stack Empty stack storing the changes
+     * @param threshold Text length from which changes are compressed
+     * @param cacheSize Number of decompressed changes to cache
+     */
+    public CompressingHistoryStack(HistoryStack<Change> stack, int threshold, int cacheSize) {
+        this(stack, threshold, createCache(cacheSize));
+    }
+
+    /**
+     * Constructor sharing the cache of another stack.
+     *
+     * @param stack Empty stack storing the changes
+     * @param other Stack whose threshold and cache of decompressed changes are shared
+     */
+    public CompressingHistoryStack(HistoryStack<Change> stack, CompressingHistoryStack other) {
+        this(stack, other.threshold, other.cache);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param stack Empty stack storing the changes
+     * @param threshold Text length from which changes are compressed
+     * @param cache Recently decompressed changes
+     */
+    private CompressingHistoryStack(HistoryStack<Change> stack, int threshold,
+                                    Map<CompressedChange, ChangeImpl> cache) {
+        if (stack == null || threshold < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.stack = stack;
+        this.threshold = threshold;
+        this.cache = cache;
+    }
+
+    /**
+     * Pushes a change to top of the stack, compressing it if it is large.
+     *
+     * @param change Change to be pushed
+     * @return Evicted change, or <code>null</code> if nothing was evicted
+     */
+    @Override
+    public Change push(Change change) {
+        var stored = compress(change);
+        var evicted = this.stack.push(stored);
+        this.retainedBytes += MemoryFootprint.of(stored);
+        return removed(evicted);
+    }
+
+    /**
+     * Removes change from top of the stack.
+     *
+     * @return Removed change
+     */
+    @Override
+    public Change pop() {
+        return removed(this.stack.pop());
+    }
+
+    /**
+     * Gets change from top of the stack without removing it.
+     *
+     * @return Top change
+     */
+    @Override
+    public Change peek() {
+        return this.stack.peek();
+    }
+
+    /**
+     * Removes the oldest change from the bottom of the stack.
+     *
+     * @return Removed change
+     */
+    @Override
+    public Change removeOldest() {
+        return removed(this.stack.removeOldest());
+    }
+
+    /**
+     * Gets change at given position, counting from the oldest one.
+     *
+     * @param i Position of the change, <code>0</code> being the oldest
+     * @return Change at the position
+     */
+    @Override
+    public Change get(int i) {
+        return this.stack.get(i);
+    }
+
+    /**
+     * Removes all changes from the stack.
+     */
+    @Override
+    public void clear() {
+        this.stack.clear();
+        this.retainedBytes = 0;
+    }
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return If there are no changes in the stack
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.stack.isEmpty();
+    }
+
+    /**
+     * Gets number of changes in the stack.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public int size() {
+        return this.stack.size();
+    }
+
+    /**
+     * Gets capacity of the stack.
+     *
+     * @return Maximal number of changes
+     */
+    @Override
+    public int capacity() {
+        return this.stack.capacity();
+    }
+
+    /**
+     * Estimates heap retained by the changes in the stack as they are stored. If the stack
+     * storing them estimates its own footprint, its estimate is used instead.
+     *
+     * @return Estimated size in bytes
+     */
+    @Override
+    public long retainedBytes() {
+        if (this.stack instanceof MemoryFootprint) {
+            return ((MemoryFootprint) this.stack).retainedBytes();
+        }
+        return this.retainedBytes;
+    }
+
+    /**
+     * Accounts for a change removed from the stack.
+     *
+     * @param change The stored change, or <code>null</code> if nothing was removed
+     * @return The change
+     */
+    private Change removed(Change change) {
+        if (change != null) {
+            this.retainedBytes -= MemoryFootprint.of(change);
+        }
+        return change;
+    }
+
+    /**
+     * Compresses the text of a change and of the changes it groups, if they are large.
+     *
+     * @param change The change
+     * @return The change with large texts compressed, or the change itself if none was
+     */
+    private Change compress(Change change) {
+        if (change instanceof ChangeImpl) {
+            var impl = (ChangeImpl) change;
+            if (impl.getString().length() < this.threshold) {
+                return change;
+            }
+            var text = CompressedText.of(impl.getString(), this.threshold);
+            return text.isCompressed() ? new CompressedChange(impl, text, this.cache) : change;
+        }
+        if (!(change instanceof CompoundChange)) {
+            return change;
+        }
+        var changes = ((CompoundChange) change).getChanges();
+        var compressed = new ArrayList<Change>(changes.size());
+        var modified = false;
+        for (var child : changes) {
+            var stored = compress(child);
+            modified |= stored != child;
+            compressed.add(stored);
+        }
+        return modified ? new CompoundChange(compressed) : change;
+    }
+
+    /**
+     * Creates a cache of decompressed changes.
+     *
+     * @param maxSize Number of changes to cache
+     * @return The cache
+     */
+    private static Map<CompressedChange, ChangeImpl> createCache(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CompressedChange, ChangeImpl> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,313 @@
+package undo.impl;
+
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import undo.Change;
+import undo.Document;
+import undo.UndoManager;
+
+import util.PersistentStack;
+
+/**
+ * A thread-safe manager for undo and redo operations to {@link Document}s.
+ * <p>
+ * The undo and redo stacks are kept in an immutable {@link History} published through a
+ * volatile field. Operations changing the history, and with it the document, are serialized
+ * by a lock and take effect atomically when their new history is published, so every
+ * operation is linearizable. If applying or reverting a change fails, nothing is published
+ * and the history stays as it was. Reads such as {@link #canUndo()} and {@link #getHistory()}
+ * never block, which lets other threads inspect the history while changes are registered.
+ * <p>
+ * The manager only serializes its own access to the document. Threads reading the document
+ * directly have to synchronize with its writers themselves.
+ *
+ * @author Nemanja
+ */
+public class ConcurrentUndoManager implements UndoManager {
+
+    /**
+     * Document manager is managing.
+     */
+    private final Document doc;
+
+    /**
+     * Lock serializing operations that change the history.
+     */
+    private final ReentrantLock writeLock;
+
+    /**
+     * Current history.
+     */
+    private volatile History history;
+
+    /**
+     * Compound collecting registered changes, or <code>null</code> if none is open.
+     * Guarded by {@link #writeLock}.
+     */
+    private CompoundChange compound;
+
+    /**
+     * Number of nested compounds currently open. Guarded by {@link #writeLock}.
+     */
+    private int compoundDepth;
+
+    /**
+     * Constructor.
+     *
+     * @param doc Document to be managed.
+     * @param bufferSize Size of buffer
+     */
+    public ConcurrentUndoManager(Document doc, int bufferSize) {
+        if (doc == null || bufferSize < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.doc = doc;
+        this.writeLock = new ReentrantLock();
+        this.history = new History(PersistentStack.empty(bufferSize), PersistentStack.empty(bufferSize), false, 0);
+    }
+
+    /**
+     * Register change to the manager.
+     *
+     * @param change The change to register.
+     */
+    @Override
+    public void registerChange(Change change) {
+        this.writeLock.lock();
+        try {
+            var current = this.history;
+            if (this.compound != null) {
+                this.compound.add(change);
+                if (!current.pending) {
+                    publish(current.undoStack, current.redoStack, true);
+                }
+                return;
+            }
+            publish(current.undoStack.push(change), current.redoStack, false);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Check if undo is possible.
+     *
+     * @return If manager can undo action.
+     */
+    @Override
+    public boolean canUndo() {
+        return this.history.canUndo();
+    }
+
+    /**
+     * Undo latest action.
+     */
+    @Override
+    public void undo() {
+        this.writeLock.lock();
+        try {
+            finishCompound();
+            var current = this.history;
+            if (current.undoStack.isEmpty()) {
+                throw new IllegalStateException();
+            }
+            var change = current.undoStack.peek();
+            change.revert(this.doc);
+            publish(current.undoStack.pop(), current.redoStack.push(change), false);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Check if redo is possible.
+     *
+     * @return If manager can redo action.
+     */
+    @Override
+    public boolean canRedo() {
+        return this.history.canRedo();
+    }
+
+    /**
+     * Redo latest action.
+     */
+    @Override
+    public void redo() {
+        this.writeLock.lock();
+        try {
+            finishCompound();
+            var current = this.history;
+            if (current.redoStack.isEmpty()) {
+                throw new IllegalStateException();
+            }
+            var change = current.redoStack.peek();
+            change.apply(this.doc);
+            publish(current.undoStack.push(change), current.redoStack.pop(), false);
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Opens a compound, nesting it in the one already open.
+     */
+    @Override
+    public void beginCompound() {
+        this.writeLock.lock();
+        try {
+            if (this.compoundDepth++ == 0) {
+                this.compound = new CompoundChange();
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Closes a compound, storing it as a single change once the outermost one is closed.
+     */
+    @Override
+    public void endCompound() {
+        this.writeLock.lock();
+        try {
+            if (this.compoundDepth == 0) {
+                throw new IllegalStateException();
+            }
+            if (--this.compoundDepth == 0) {
+                finishCompound();
+            }
+        } finally {
+            this.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Gets the current history without blocking. The returned history never changes, so it
+     * can be read at leisure while the manager moves on.
+     *
+     * @return The history
+     */
+    public History getHistory() {
+        return this.history;
+    }
+
+    /**
+     * Publishes a new history. Has to be called holding {@link #writeLock}.
+     *
+     * @param undoStack Stack for undo actions
+     * @param redoStack Stack for redo actions
+     * @param pending If an open compound holds changes
+     */
+    private void publish(PersistentStack<Change> undoStack, PersistentStack<Change> redoStack, boolean pending) {
+        this.history = new History(undoStack, redoStack, pending, this.history.revision + 1);
+    }
+
+    /**
+     * Stores the open compound, if any. If it is finished before the outermost level is
+     * closed, the nesting levels stay open and collect later changes into a new compound.
+     * Has to be called holding {@link #writeLock}.
+     */
+    private void finishCompound() {
+        if (this.compound == null) {
+            return;
+        }
+        var changes = this.compound.getChanges();
+        var current = this.history;
+        if (changes.size() == 1) {
+            publish(current.undoStack.push(changes.get(0)), current.redoStack, false);
+        } else if (!changes.isEmpty()) {
+            publish(current.undoStack.push(this.compound), current.redoStack, false);
+        }
+        this.compound = this.compoundDepth > 0 ? new CompoundChange() : null;
+    }
+
+    /**
+     * An immutable state of the undo and redo stacks.
+     */
+    public static final class History {
+
+        /**
+         * Stack for undo actions.
+         */
+        private final PersistentStack<Change> undoStack;
+
+        /**
+         * Stack for redo actions.
+         */
+        private final PersistentStack<Change> redoStack;
+
+        /**
+         * If an open compound holds changes, which can be undone as well.
+         */
+        private final boolean pending;
+
+        /**
+         * Number of histories published before this one.
+         */
+        private final long revision;
+
+        /**
+         * Constructor.
+         *
+         * @param undoStack Stack for undo actions
+         * @param redoStack Stack for redo actions
+         * @param pending If an open compound holds changes
+         * @param revision Number of histories published before this one
+         */
+        private History(PersistentStack<Change> undoStack, PersistentStack<Change> redoStack, boolean pending,
+                        long revision) {
+            this.undoStack = undoStack;
+            this.redoStack = redoStack;
+            this.pending = pending;
+            this.revision = revision;
+        }
+
+        /**
+         * Check if undo was possible in this history.
+         *
+         * @return If there was a change that could be undone
+         */
+        public boolean canUndo() {
+            return !this.undoStack.isEmpty() || this.pending;
+        }
+
+        /**
+         * Check if redo was possible in this history.
+         *
+         * @return If there was a change that could be redone
+         */
+        public boolean canRedo() {
+            return !this.redoStack.isEmpty();
+        }
+
+        /**
+         * Gets the changes that could be undone, not counting an open compound.
+         *
+         * @return Unmodifiable list of the changes, the oldest one first
+         */
+        public List<Change> getUndoChanges() {
+            return this.undoStack.toList();
+        }
+
+        /**
+         * Gets the changes that could be redone.
+         *
+         * @return Unmodifiable list of the changes, the oldest one first
+         */
+        public List<Change> getRedoChanges() {
+            return this.redoStack.toList();
+        }
+
+        /**
+         * Gets the revision of this history, which grows with every change of the history.
+         *
+         * @return Number of histories published before this one
+         */
+        public long getRevision() {
+            return this.revision;
+        }
+    }
+
+}
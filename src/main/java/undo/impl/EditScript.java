@@ -0,0 +1,550 @@
+package undo.impl;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import undo.Change;
+import undo.Document;
+import undo.Replaceable;
+
+/**
+ * The net effect of a sequence of insertions and deletions, applied to a {@link Document}
+ * in a single pass.
+ * <p>
+ * The edited document is described as a sequence of pieces: ranges kept from the original
+ * document, inserted texts, and markers of deleted original text. The pieces are kept in a
+ * treap ordered by position, so an edit finds its place in <code>O(log n)</code> expected
+ * time for <code>n</code> pieces. Inserting into inserted text or deleting it only changes
+ * the pieces, so edits that cancel each other never reach the document. Inserted texts are
+ * appended to a single buffer and pieces refer to ranges of it, so neither extending nor
+ * splitting an inserted piece copies its text. Applying the script
+ * replaces each changed region of the document once, from right to left so that positions
+ * stay valid, and sets the dot once.
+ * <p>
+ * Only {@link Replaceable} documents, which shift the text after a replaced range, can be
+ * edited this way.
+ *
+ * @author Nemanja
+ */
+final class EditScript {
+
+    /**
+     * Kind of a range kept from the original document.
+     */
+    private static final int KEEP = 0;
+
+    /**
+     * Kind of an inserted text.
+     */
+    private static final int INSERT = 1;
+
+    /**
+     * Kind of a marker of deleted original text.
+     */
+    private static final int DELETED = 2;
+
+    /**
+     * Root of the treap of pieces of the edited document, ordered by position.
+     */
+    private Piece root;
+
+    /**
+     * State of the generator of treap priorities.
+     */
+    private long seed;
+
+    /**
+     * All inserted texts, in the order they were inserted.
+     */
+    private final StringBuilder added;
+
+    /**
+     * Constructor of a script with no edits.
+     */
+    private EditScript() {
+        this.seed = 0x9E3779B97F4A7C15L;
+        this.added = new StringBuilder();
+        this.root = new Piece(KEEP, 0, Integer.MAX_VALUE, null, nextPriority());
+    }
+
+    /**
+     * Builds the script reverting changes in the given order.
+     *
+     * @param doc Document the changes would be reverted in
+     * @param changes Changes to revert, the first one being reverted first
+     * @return The script, or <code>null</code> if the changes or the document aren't supported
+     * @throws IllegalStateException If a change deletes text other than the one an earlier
+     *          change inserted
+     */
+    static EditScript revert(Document doc, List<Change> changes) {
+        return build(doc, changes, List.of());
+    }
+
+    /**
+     * Builds the script applying changes in the given order.
+     *
+     * @param doc Document the changes would be applied to
+     * @param changes Changes to apply, the first one being applied first
+     * @return The script, or <code>null</code> if the changes or the document aren't supported
+     * @throws IllegalStateException If a change deletes text other than the one an earlier
+     *          change inserted
+     */
+    static EditScript apply(Document doc, List<Change> changes) {
+        return build(doc, List.of(), changes);
+    }
+
+    /**
+     * Builds the script reverting changes and then applying others, as when moving between
+     * branches of a history.
+     *
+     * @param doc Document the changes would be performed in
+     * @param reverted Changes to revert, the first one being reverted first
+     * @param applied Changes to apply afterwards, the first one being applied first
+     * @return The script, or <code>null</code> if the changes or the document aren't supported
+     * @throws IllegalStateException If a change deletes text other than the one an earlier
+     *          change inserted
+     */
+    static EditScript path(Document doc, List<Change> reverted, List<Change> applied) {
+        return build(doc, reverted, applied);
+    }
+
+    /**
+     * Checks if a change can be part of a script, so that its first and last changes can be
+     * found.
+     *
+     * @param change The change
+     * @return If the change is a {@link ChangeImpl}, a {@link CompressedChange} or a non-empty
+     *          {@link CompoundChange} of them
+     */
+    static boolean supports(Change change) {
+        if (change instanceof CompoundChange) {
+            var changes = ((CompoundChange) change).getChanges();
+            for (var child : changes) {
+                if (!supports(child)) {
+                    return false;
+                }
+            }
+            return !changes.isEmpty();
+        }
+        return change instanceof ChangeImpl || change instanceof CompressedChange;
+    }
+
+    /**
+     * Finds the change reverted last when reverting a change.
+     *
+     * @param change A {@link ChangeImpl}, a {@link CompressedChange} or a {@link CompoundChange} of them
+     * @return The first change
+     */
+    static ChangeImpl firstChange(Change change) {
+        while (change instanceof CompoundChange) {
+            change = ((CompoundChange) change).getChanges().get(0);
+        }
+        return (ChangeImpl) CompressedChange.expand(change);
+    }
+
+    /**
+     * Finds the change applied last when applying a change.
+     *
+     * @param change A {@link ChangeImpl}, a {@link CompressedChange} or a {@link CompoundChange} of them
+     * @return The last change
+     */
+    static ChangeImpl lastChange(Change change) {
+        while (change instanceof CompoundChange) {
+            var changes = ((CompoundChange) change).getChanges();
+            change = changes.get(changes.size() - 1);
+        }
+        return (ChangeImpl) CompressedChange.expand(change);
+    }
+
+    /**
+     * Applies the net effect of the script to a document, replacing each changed region of it
+     * once. If the document rejects a replacement, the ones already made are reverted.
+     *
+     * @param doc The document, which has to be {@link Replaceable}
+     * @param dot Dot position to set afterwards
+     * @return If the script was applied, or <code>false</code> if the document was left as it was
+     */
+    boolean applyTo(Document doc, int dot) {
+        var pieces = new ArrayList<Piece>();
+        collect(this.root, pieces);
+        var positions = new ArrayList<Integer>();
+        var deletions = new ArrayList<String>();
+        var insertions = new ArrayList<String>();
+        var original = 0;
+        StringBuilder deleted = null;
+        StringBuilder inserted = null;
+        for (var piece : pieces) {
+            if (piece.kind == KEEP) {
+                if (deleted != null) {
+                    positions.add(original);
+                    deletions.add(deleted.toString());
+                    insertions.add(inserted.toString());
+                    deleted = null;
+                    inserted = null;
+                }
+                original = piece.start + (int) piece.length;
+                continue;
+            }
+            if (deleted == null) {
+                deleted = new StringBuilder();
+                inserted = new StringBuilder();
+            }
+            if (piece.kind == DELETED) {
+                deleted.append(piece.text);
+            } else {
+                inserted.append(this.added, piece.start, piece.start + (int) piece.length);
+            }
+        }
+        var replaceable = (Replaceable) doc;
+        for (int i = positions.size() - 1; i >= 0; i--) {
+            try {
+                replaceable.replace(positions.get(i), deletions.get(i), insertions.get(i));
+            } catch (IllegalStateException e) {
+                for (int j = i + 1; j < positions.size(); j++) {
+                    replaceable.replace(positions.get(j), insertions.get(j), deletions.get(j));
+                }
+                return false;
+            }
+        }
+        doc.setDot(dot);
+        return true;
+    }
+
+    /**
+     * Builds a script.
+     *
+     * @param doc Document the changes would be performed in
+     * @param reverted Changes to revert, in order
+     * @param applied Changes to apply afterwards, in order
+     * @return The script, or <code>null</code> if the changes or the document aren't supported
+     */
+    private static EditScript build(Document doc, List<Change> reverted, List<Change> applied) {
+        if (!(doc instanceof Replaceable)) {
+            return null;
+        }
+        var script = new EditScript();
+        for (var change : reverted) {
+            if (!script.add(change, true)) {
+                return null;
+            }
+        }
+        for (var change : applied) {
+            if (!script.add(change, false)) {
+                return null;
+            }
+        }
+        return script;
+    }
+
+    /**
+     * Adds a change to the script.
+     *
+     * @param change The change
+     * @param revert If the change is reverted instead of applied
+     * @return If the change is supported
+     */
+    private boolean add(Change change, boolean revert) {
+        if (change instanceof CompoundChange) {
+            var changes = ((CompoundChange) change).getChanges();
+            for (int i = 0; i < changes.size(); i++) {
+                if (!add(changes.get(revert ? changes.size() - 1 - i : i), revert)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        change = CompressedChange.expand(change);
+        if (!(change instanceof ChangeImpl)) {
+            return false;
+        }
+        var impl = (ChangeImpl) change;
+        if ((impl.getChangeType() == ChangeType.INSERT) != revert) {
+            insert(impl.getPos(), impl.getString());
+        } else {
+            delete(impl.getPos(), impl.getString());
+        }
+        return true;
+    }
+
+    /**
+     * Inserts a text, extending an inserted text that ends at the position if it was the last
+     * one added to the buffer.
+     *
+     * @param pos Position in the edited document
+     * @param s The text
+     */
+    private void insert(int pos, String s) {
+        if (s.isEmpty()) {
+            return;
+        }
+        var parts = split(this.root, pos);
+        var previous = last(parts[0]);
+        var offset = this.added.length();
+        this.added.append(s);
+        if (previous != null && previous.kind == INSERT && previous.start + previous.length == offset) {
+            extend(parts[0], s.length());
+            this.root = merge(parts[0], parts[1]);
+        } else {
+            this.root = merge(merge(parts[0], new Piece(INSERT, offset, s.length(), null, nextPriority())), parts[1]);
+        }
+    }
+
+    /**
+     * Deletes a text, dropping inserted text and marking original text as deleted.
+     *
+     * @param pos Position in the edited document
+     * @param s The text, which has to match any inserted text it covers
+     * @throws IllegalStateException If the text doesn't match the inserted text
+     */
+    private void delete(int pos, String s) {
+        if (s.isEmpty()) {
+            return;
+        }
+        var head = split(this.root, pos);
+        var tail = split(head[1], s.length());
+        var pieces = new ArrayList<Piece>();
+        collect(tail[0], pieces);
+        var offset = 0;
+        Piece result = null;
+        for (var piece : pieces) {
+            offset += piece.length;
+            if (piece.kind == KEEP) {
+                var text = s.substring(offset - (int) piece.length, offset);
+                result = merge(result, new Piece(DELETED, piece.start, 0, text, nextPriority()));
+            } else if (piece.kind == DELETED) {
+                result = merge(result, new Piece(DELETED, piece.start, 0, piece.text, nextPriority()));
+            } else if (!matches(piece, s, offset - (int) piece.length)) {
+                throw new IllegalStateException();
+            }
+        }
+        this.root = merge(merge(head[0], result), tail[1]);
+    }
+
+    /**
+     * Checks if an inserted piece holds a part of a text.
+     *
+     * @param piece The inserted piece
+     * @param s The text
+     * @param offset Offset of the part in the text
+     * @return If the characters match
+     */
+    private boolean matches(Piece piece, String s, int offset) {
+        for (int i = 0; i < piece.length; i++) {
+            if (this.added.charAt(piece.start + i) != s.charAt(offset + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Generates a treap priority.
+     *
+     * @return The priority
+     */
+    private int nextPriority() {
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 7;
+        this.seed ^= this.seed << 17;
+        return (int) (this.seed >>> 32);
+    }
+
+    /**
+     * Splits a subtree by position, cutting the piece containing it in two. Deleted text at
+     * the position goes to the second subtree.
+     *
+     * @param node Root of the subtree
+     * @param pos Position relative to the start of the subtree
+     * @return Roots of the subtrees of pieces before <code>pos</code> and of the ones after it
+     * @throws IllegalStateException If the position is outside of the subtree
+     */
+    private Piece[] split(Piece node, long pos) {
+        if (pos < 0 || pos > length(node)) {
+            throw new IllegalStateException();
+        }
+        if (node == null) {
+            return new Piece[2];
+        }
+        var start = length(node.left);
+        if (pos <= start) {
+            var parts = split(node.left, pos);
+            node.left = parts[1];
+            pull(node);
+            parts[1] = node;
+            return parts;
+        }
+        if (pos >= start + node.length) {
+            var parts = split(node.right, pos - start - node.length);
+            node.right = parts[0];
+            pull(node);
+            parts[0] = node;
+            return parts;
+        }
+        var head = (int) (pos - start);
+        var tail = new Piece(node.kind, node.start + head, node.length - head, null, nextPriority());
+        var right = node.right;
+        node.length = head;
+        node.right = null;
+        pull(node);
+        return new Piece[] {node, merge(tail, right)};
+    }
+
+    /**
+     * Merges two subtrees, all pieces of the first one being before the ones of the second.
+     *
+     * @param a Root of the first subtree
+     * @param b Root of the second subtree
+     * @return Root of the merged subtree
+     */
+    private static Piece merge(Piece a, Piece b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a.right = merge(a.right, b);
+            pull(a);
+            return a;
+        }
+        b.left = merge(a, b.left);
+        pull(b);
+        return b;
+    }
+
+    /**
+     * Finds the last piece of a subtree.
+     *
+     * @param node Root of the subtree, or <code>null</code>
+     * @return The last piece, or <code>null</code> if the subtree is empty
+     */
+    private static Piece last(Piece node) {
+        while (node != null && node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Extends the last piece of a subtree, which has to be an inserted text ending where the
+     * buffer of inserted texts ended, over text just appended to the buffer.
+     *
+     * @param node Root of the subtree
+     * @param length Number of appended characters
+     */
+    private static void extend(Piece node, int length) {
+        if (node.right != null) {
+            extend(node.right, length);
+        } else {
+            node.length += length;
+        }
+        pull(node);
+    }
+
+    /**
+     * Lists the pieces of a subtree in order.
+     *
+     * @param node Root of the subtree, or <code>null</code>
+     * @param pieces List to add the pieces to
+     */
+    private static void collect(Piece node, List<Piece> pieces) {
+        var stack = new ArrayDeque<Piece>();
+        while (node != null || !stack.isEmpty()) {
+            while (node != null) {
+                stack.push(node);
+                node = node.left;
+            }
+            node = stack.pop();
+            pieces.add(node);
+            node = node.right;
+        }
+    }
+
+    /**
+     * Recomputes the length of a subtree from its piece and its children.
+     *
+     * @param node Root of the subtree
+     */
+    private static void pull(Piece node) {
+        node.size = length(node.left) + node.length + length(node.right);
+    }
+
+    /**
+     * Gets length of a subtree in the edited document.
+     *
+     * @param node Root of the subtree, or <code>null</code>
+     * @return Number of characters
+     */
+    private static long length(Piece node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * A piece of the edited document and the root of the subtree of the pieces around it.
+     */
+    private static final class Piece {
+
+        /**
+         * Kind of the piece.
+         */
+        private final int kind;
+
+        /**
+         * Position in the original document of a kept range or deleted text, or offset in
+         * the buffer of inserted texts of an inserted text.
+         */
+        private final int start;
+
+        /**
+         * Priority of the node in the treap.
+         */
+        private final int priority;
+
+        /**
+         * Length in the edited document, <code>0</code> for deleted text.
+         */
+        private long length;
+
+        /**
+         * Deleted text, <code>null</code> for other pieces.
+         */
+        private final String text;
+
+        /**
+         * Length of the subtree in the edited document.
+         */
+        private long size;
+
+        /**
+         * Pieces before this one, or <code>null</code>.
+         */
+        private Piece left;
+
+        /**
+         * Pieces after this one, or <code>null</code>.
+         */
+        private Piece right;
+
+        /**
+         * Constructor.
+         *
+         * @param kind Kind of the piece
+         * @param start Position in the original document, or offset in the buffer of
+         *          inserted texts
+         * @param length Length in the edited document
+         * @param text Deleted text
+         * @param priority Priority of the node in the treap
+         */
+        private Piece(int kind, int start, long length, String text, int priority) {
+            this.kind = kind;
+            this.start = start;
+            this.length = length;
+            this.text = text;
+            this.priority = priority;
+            this.size = length;
+        }
+    }
+
+}
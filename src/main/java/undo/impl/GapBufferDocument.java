@@ -0,0 +1,558 @@
+package undo.impl;
+
+import java.util.Arrays;
+
+import undo.Document;
+import undo.Fingerprinted;
+import undo.RangeDeletable;
+import undo.Replaceable;
+import undo.Snapshottable;
+import undo.UndoManager;
+
+import util.CharArrays;
+import util.TextHashTree;
+
+/**
+ * A growable gap buffer implementation of a document to be used with the {@link UndoManager}.
+ * The text is kept in a single array with a movable gap at the last edit position, so
+ * consecutive inserts and deletes near the dot are amortized O(1).
+ *
+ * @author Nemanja
+ */
+public class GapBufferDocument implements Document, Snapshottable, Fingerprinted, RangeDeletable, Replaceable {
+
+    /**
+     * Default initial capacity of the buffer.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Buffer where document is stored, text before the gap followed by text after the gap.
+     */
+    private char[] buffer;
+
+    /**
+     * First index of the gap.
+     */
+    private int gapStart;
+
+    /**
+     * First index after the gap.
+     */
+    private int gapEnd;
+
+    /**
+     * Current dot position at the document.
+     */
+    private int currentDot;
+
+    /**
+     * If the buffer is referenced by a snapshot and has to be copied before the next change.
+     */
+    private boolean shared;
+
+    /**
+     * Hashes of the text, or <code>null</code> until a fingerprint is first asked for.
+     */
+    private TextHashTree hashes;
+
+    /**
+     * Default constructor.
+     */
+    public GapBufferDocument() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with given initial capacity.
+     *
+     * @param capacity Initial capacity of the buffer
+     */
+    public GapBufferDocument(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.buffer = new char[capacity];
+        this.gapStart = 0;
+        this.gapEnd = capacity;
+    }
+
+    /**
+     * Deletes a string from the document.
+     *
+     * @param pos The position to start deletion.
+     * @param s The string to delete.
+     * @throws IllegalStateException If the document doesn't have <code>s</code>
+     * 			as <code>pos</code>.
+     */
+    @Override
+    public void delete(int pos, String s) {
+        delete(pos, (CharSequence) s);
+    }
+
+    /**
+     * Deletes a character sequence from the document, comparing strings and builders in bulk.
+     *
+     * @param pos The position to start deletion.
+     * @param s The characters to delete.
+     * @throws IllegalStateException If the document doesn't have <code>s</code>
+     * 			as <code>pos</code>.
+     */
+    @Override
+    public void delete(int pos, CharSequence s) {
+        var length = s.length();
+        if (pos < 0 || pos + length > length()) {
+            throw new IllegalStateException();
+        }
+        var before = Math.max(0, Math.min(length, this.gapStart - pos));
+        var after = pos + before + this.gapEnd - this.gapStart;
+        if (!CharArrays.regionMatches(this.buffer, pos, s, 0, before)
+                || !CharArrays.regionMatches(this.buffer, after, s, before, length - before)) {
+            throw new IllegalStateException();
+        }
+        removeRange(pos, length);
+    }
+
+    /**
+     * Deletes a range of a character array from the document, comparing it in bulk.
+     *
+     * @param pos The position to start deletion.
+     * @param chars Array holding the characters to delete.
+     * @param offset Index of the first character in <code>chars</code>.
+     * @param length Number of characters to delete.
+     * @throws IllegalStateException If the document doesn't have the characters
+     * 			as <code>pos</code>.
+     * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+     */
+    @Override
+    public void delete(int pos, char[] chars, int offset, int length) {
+        if (pos < 0 || length < 0 || pos + length > length()) {
+            throw new IllegalStateException();
+        }
+        var before = Math.max(0, Math.min(length, this.gapStart - pos));
+        var after = pos + before + this.gapEnd - this.gapStart;
+        if (Arrays.mismatch(this.buffer, pos, pos + before, chars, offset, offset + before) >= 0
+                || Arrays.mismatch(this.buffer, after, after + length - before,
+                        chars, offset + before, offset + length) >= 0) {
+            throw new IllegalStateException();
+        }
+        removeRange(pos, length);
+    }
+
+    /**
+     * Deletes a range of the document, copying the deleted text out of the buffer in bulk.
+     *
+     * @param pos The position to start deletion.
+     * @param length Number of characters to delete.
+     * @return The deleted text.
+     * @throws IllegalStateException If the range is outside of the document.
+     */
+    @Override
+    public String delete(int pos, int length) {
+        if (pos < 0 || length < 0 || pos + length > length()) {
+            throw new IllegalStateException();
+        }
+        unshare(0);
+        moveGap(pos);
+        var removed = new String(this.buffer, this.gapEnd, length);
+        removeRange(pos, length);
+        return removed;
+    }
+
+    /**
+     * Inserts a string into the document.
+     *
+     * @param pos The position to insert the string at.
+     * @param s The string to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void insert(int pos, String s) {
+        openGap(pos, s.length());
+        s.getChars(0, s.length(), this.buffer, this.gapStart);
+        inserted(pos, s.length());
+    }
+
+    /**
+     * Replaces a string of the document with another one.
+     *
+     * @param pos The position of the replaced string.
+     * @param deleted The string to delete.
+     * @param inserted The string to insert in its place.
+     * @throws IllegalStateException If the document doesn't have <code>deleted</code>
+     * 			at <code>pos</code>.
+     */
+    @Override
+    public void replace(int pos, String deleted, String inserted) {
+        delete(pos, deleted);
+        insert(pos, inserted);
+    }
+
+    /**
+     * Inserts a character sequence into the document, copying it straight into the gap.
+     *
+     * @param pos The position to insert the characters at.
+     * @param s The characters to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void insert(int pos, CharSequence s) {
+        var length = s.length();
+        openGap(pos, length);
+        CharArrays.copy(s, 0, length, this.buffer, this.gapStart);
+        inserted(pos, length);
+    }
+
+    /**
+     * Inserts a range of a character array into the document, copying it straight into the gap.
+     *
+     * @param pos The position to insert the characters at.
+     * @param chars Array holding the characters to insert.
+     * @param offset Index of the first character in <code>chars</code>.
+     * @param length Number of characters to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+     */
+    @Override
+    public void insert(int pos, char[] chars, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > chars.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        openGap(pos, length);
+        System.arraycopy(chars, offset, this.buffer, this.gapStart, length);
+        inserted(pos, length);
+    }
+
+    /**
+     * Sets the dot (cursor) position of the document.
+     *
+     * @param pos The dot position to set.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void setDot(int pos) {
+        if (pos < 0 || pos > length()) {
+            throw new IllegalStateException();
+        }
+        this.currentDot = pos;
+    }
+
+    /**
+     * Gets current position of the dot.
+     *
+     * @return Position of the dot
+     */
+    public int getDot() {
+        return this.currentDot;
+    }
+
+    /**
+     * Gets length of the document.
+     *
+     * @return Number of characters in the document
+     */
+    @Override
+    public int length() {
+        return this.buffer.length - (this.gapEnd - this.gapStart);
+    }
+
+    /**
+     * Gets character at given position.
+     *
+     * @param pos Position of the character
+     * @return Character at the position
+     */
+    public char charAt(int pos) {
+        return pos < this.gapStart ? this.buffer[pos] : this.buffer[pos + this.gapEnd - this.gapStart];
+    }
+
+    /**
+     * Gets fingerprint of a range of the text. The hashes are built on the first call and
+     * kept up to date by every change afterwards.
+     *
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return Fingerprint of the range
+     * @throws IllegalStateException If the range is outside of the document
+     */
+    @Override
+    public long fingerprint(int start, int end) {
+        if (start < 0 || start > end || end > length()) {
+            throw new IllegalStateException();
+        }
+        var text = new Snapshot(this.buffer, this.gapStart, this.gapEnd);
+        if (this.hashes == null) {
+            this.hashes = new TextHashTree(text);
+        }
+        return this.hashes.hash(start, end, text);
+    }
+
+    /**
+     * Creates an immutable view of the current text. The buffer is not copied; instead
+     * the next change to the document copies it once. The snapshot keeps a copy of the
+     * hashes, if any, sharing their nodes until either side changes.
+     *
+     * @return Snapshot of the document
+     */
+    @Override
+    public CharSequence snapshot() {
+        this.shared = true;
+        var hashes = this.hashes == null ? null : this.hashes.copy();
+        return new Snapshot(this.buffer, this.gapStart, this.gapEnd, hashes);
+    }
+
+    /**
+     * Replaces the text with a snapshot. The buffer and the hashes of a gap buffer snapshot
+     * are shared until the next change, like the ones of {@link #snapshot()}, so restoring
+     * one copies neither.
+     *
+     * @param snapshot The snapshot to restore
+     */
+    @Override
+    public void restore(CharSequence snapshot) {
+        if (snapshot instanceof Snapshot) {
+            var restored = (Snapshot) snapshot;
+            this.buffer = restored.buffer;
+            this.gapStart = restored.gapStart;
+            this.gapEnd = restored.gapEnd;
+            this.shared = true;
+            this.hashes = restored.hashes == null ? null : restored.hashes.copy();
+        } else {
+            var text = snapshot.toString();
+            this.buffer = new char[text.length() + DEFAULT_CAPACITY];
+            text.getChars(0, text.length(), this.buffer, 0);
+            this.gapStart = text.length();
+            this.gapEnd = this.buffer.length;
+            this.shared = false;
+            this.hashes = null;
+        }
+        this.currentDot = Math.min(this.currentDot, length());
+    }
+
+    /**
+     * Creates string from document.
+     *
+     * @return String representation of the document
+     */
+    @Override
+    public String toString() {
+        return Snapshot.toString(this.buffer, this.gapStart, this.gapEnd);
+    }
+
+    /**
+     * Moves the gap to a position and makes room for an insertion there.
+     *
+     * @param pos The position to insert at
+     * @param length Number of characters to insert
+     * @throws IllegalStateException If the position is outside of the document
+     */
+    private void openGap(int pos, int length) {
+        if (pos < 0 || pos > length()) {
+            throw new IllegalStateException();
+        }
+        unshare(length);
+        moveGap(pos);
+        ensureGap(length);
+    }
+
+    /**
+     * Closes the gap over inserted characters and moves the dot after them.
+     *
+     * @param pos The position characters were inserted at
+     * @param length Number of inserted characters
+     */
+    private void inserted(int pos, int length) {
+        this.gapStart += length;
+        this.currentDot = pos + length;
+        if (this.hashes != null) {
+            this.hashes.inserted(pos, length, new Snapshot(this.buffer, this.gapStart, this.gapEnd));
+        }
+    }
+
+    /**
+     * Removes a verified range by widening the gap over it.
+     *
+     * @param pos The position to start deletion
+     * @param length Number of characters to delete
+     */
+    private void removeRange(int pos, int length) {
+        unshare(0);
+        moveGap(pos);
+        this.gapEnd += length;
+        if (this.currentDot > length()) {
+            this.currentDot = length();
+        }
+        if (this.hashes != null) {
+            this.hashes.deleted(pos, length, new Snapshot(this.buffer, this.gapStart, this.gapEnd));
+        }
+    }
+
+    /**
+     * Copies the buffer if it is referenced by a snapshot.
+     *
+     * @param extra Number of characters about to be inserted
+     */
+    private void unshare(int extra) {
+        if (this.shared) {
+            this.shared = false;
+            resize(Math.max(this.buffer.length, length() + extra));
+        }
+    }
+
+    /**
+     * Moves the gap so it starts at given position.
+     *
+     * @param pos Position to move the gap to
+     */
+    private void moveGap(int pos) {
+        if (pos < this.gapStart) {
+            var count = this.gapStart - pos;
+            System.arraycopy(this.buffer, pos, this.buffer, this.gapEnd - count, count);
+            this.gapStart -= count;
+            this.gapEnd -= count;
+        } else if (pos > this.gapStart) {
+            var count = pos - this.gapStart;
+            System.arraycopy(this.buffer, this.gapEnd, this.buffer, this.gapStart, count);
+            this.gapStart += count;
+            this.gapEnd += count;
+        }
+    }
+
+    /**
+     * Grows the buffer if the gap is smaller than required.
+     *
+     * @param required Required size of the gap
+     */
+    private void ensureGap(int required) {
+        if (this.gapEnd - this.gapStart < required) {
+            resize(Math.max(this.buffer.length * 2, length() + required));
+        }
+    }
+
+    /**
+     * Moves the text into a new buffer of given capacity.
+     *
+     * @param capacity Capacity of the new buffer
+     */
+    private void resize(int capacity) {
+        var tail = this.buffer.length - this.gapEnd;
+        var resized = new char[capacity];
+        System.arraycopy(this.buffer, 0, resized, 0, this.gapStart);
+        System.arraycopy(this.buffer, this.gapEnd, resized, capacity - tail, tail);
+        this.buffer = resized;
+        this.gapEnd = capacity - tail;
+    }
+
+    /**
+     * An immutable view of the gap buffer at the time it was taken.
+     */
+    private static class Snapshot implements CharSequence, MemoryFootprint {
+
+        /**
+         * Buffer shared with the document.
+         */
+        private final char[] buffer;
+
+        /**
+         * First index of the gap.
+         */
+        private final int gapStart;
+
+        /**
+         * First index after the gap.
+         */
+        private final int gapEnd;
+
+        /**
+         * Hashes of the text, or <code>null</code> if the document had none.
+         */
+        private final TextHashTree hashes;
+
+        /**
+         * Constructor of a view without hashes.
+         *
+         * @param buffer Buffer shared with the document
+         * @param gapStart First index of the gap
+         * @param gapEnd First index after the gap
+         */
+        Snapshot(char[] buffer, int gapStart, int gapEnd) {
+            this(buffer, gapStart, gapEnd, null);
+        }
+
+        /**
+         * Constructor.
+         *
+         * @param buffer Buffer shared with the document
+         * @param gapStart First index of the gap
+         * @param gapEnd First index after the gap
+         * @param hashes Hashes of the text, or <code>null</code>
+         */
+        Snapshot(char[] buffer, int gapStart, int gapEnd, TextHashTree hashes) {
+            this.buffer = buffer;
+            this.gapStart = gapStart;
+            this.gapEnd = gapEnd;
+            this.hashes = hashes;
+        }
+
+        /**
+         * Estimates heap retained by the snapshot once the document has moved on, the whole
+         * buffer including its gap.
+         *
+         * @return Estimated size in bytes
+         */
+        @Override
+        public long retainedBytes() {
+            return 40 + 2L * this.buffer.length;
+        }
+
+        @Override
+        public int length() {
+            return this.buffer.length - (this.gapEnd - this.gapStart);
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length()) {
+                throw new IndexOutOfBoundsException();
+            }
+            return index < this.gapStart ? this.buffer[index] : this.buffer[index + this.gapEnd - this.gapStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > length()) {
+                throw new IndexOutOfBoundsException();
+            }
+            var builder = new StringBuilder(end - start);
+            for (int i = start; i < end; i++) {
+                builder.append(charAt(i));
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return toString(this.buffer, this.gapStart, this.gapEnd);
+        }
+
+        /**
+         * Creates string from a gap buffer.
+         *
+         * @param buffer The buffer
+         * @param gapStart First index of the gap
+         * @param gapEnd First index after the gap
+         * @return Text of the buffer without the gap
+         */
+        static String toString(char[] buffer, int gapStart, int gapEnd) {
+            var builder = new StringBuilder(buffer.length - (gapEnd - gapStart));
+            builder.append(buffer, 0, gapStart);
+            builder.append(buffer, gapEnd, buffer.length - gapEnd);
+            return builder.toString();
+        }
+    }
+
+}
@@ -0,0 +1,246 @@
+package undo.impl;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import undo.Change;
+import util.HistoryStack;
+
+/**
+ * Versioned binary format of an undo history, streamed through NIO channels.
+ * <p>
+ * A history starts with the magic bytes <code>UNDO</code> and a version byte, followed by
+ * the undo stack and the redo stack. Each stack is a varint count and that many records,
+ * oldest first. A record is a varint length followed by a change in the
+ * {@link ChangeCodec} encoding.
+ *
+ * @author Nemanja
+ */
+final class HistoryFormat {
+
+    /**
+     * Magic bytes at the start of a history.
+     */
+    private static final int MAGIC = 0x554E444F;
+
+    /**
+     * Current version of the format.
+     */
+    private static final byte VERSION = 1;
+
+    /**
+     * Size of the I/O buffer.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Maximal size of a varint.
+     */
+    private static final int MAX_VARINT_SIZE = 5;
+
+    /**
+     * Utility class.
+     */
+    private HistoryFormat() {
+    }
+
+    /**
+     * Writes the undo and redo stacks to a channel.
+     *
+     * @param undoStack Stack for undo actions
+     * @param redoStack Stack for redo actions
+     * @param channel Channel to write to
+     * @throws IOException If the channel can't be written to
+     * @throws IllegalStateException If a stack holds a change that can't be encoded, in
+     *          which case the channel may already hold a part of the history
+     */
+    static void write(HistoryStack<Change> undoStack, HistoryStack<Change> redoStack, WritableByteChannel channel)
+            throws IOException {
+        var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        buffer.putInt(MAGIC);
+        buffer.put(VERSION);
+        writeStack(undoStack, buffer, channel);
+        writeStack(redoStack, buffer, channel);
+        flush(buffer, channel);
+    }
+
+    /**
+     * Reads undo and redo stacks from a channel, replacing the content of the given stacks.
+     * Stacks that can't hold all the changes read keep the newest ones.
+     *
+     * @param channel Channel to read from
+     * @param undoStack Stack for undo actions
+     * @param redoStack Stack for redo actions
+     * @throws IOException If the channel can't be read or doesn't hold a valid history, in
+     *          which case both stacks are empty afterwards
+     */
+    static void read(ReadableByteChannel channel, HistoryStack<Change> undoStack, HistoryStack<Change> redoStack)
+            throws IOException {
+        undoStack.clear();
+        redoStack.clear();
+        var complete = false;
+        try {
+            var buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            buffer.flip();
+            buffer = require(buffer, channel, Integer.BYTES + 1);
+            if (buffer.getInt() != MAGIC) {
+                throw new StreamCorruptedException("Not an undo history");
+            }
+            var version = buffer.get();
+            if (version != VERSION) {
+                throw new StreamCorruptedException("Unsupported undo history version " + version);
+            }
+            buffer = readStack(channel, buffer, undoStack);
+            readStack(channel, buffer, redoStack);
+            complete = true;
+        } catch (IllegalStateException | IndexOutOfBoundsException | BufferUnderflowException e) {
+            throw new StreamCorruptedException("Corrupted undo history");
+        } finally {
+            if (!complete) {
+                undoStack.clear();
+                redoStack.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes a stack, oldest change first.
+     *
+     * @param stack The stack
+     * @param buffer Buffer for encoding
+     * @param channel Channel to write to
+     * @throws IOException If the channel can't be written to
+     */
+    private static void writeStack(HistoryStack<Change> stack, ByteBuffer buffer, WritableByteChannel channel)
+            throws IOException {
+        if (buffer.remaining() < MAX_VARINT_SIZE) {
+            flush(buffer, channel);
+        }
+        ChangeCodec.putVarint(buffer, stack.size());
+        for (int i = 0; i < stack.size(); i++) {
+            var change = stack.get(i);
+            if (!ChangeCodec.canEncode(change)) {
+                throw new IllegalStateException("Change can't be encoded: " + change.getType());
+            }
+            var size = ChangeCodec.encodedSize(change);
+            if (buffer.remaining() < MAX_VARINT_SIZE + size) {
+                flush(buffer, channel);
+            }
+            if (buffer.remaining() < MAX_VARINT_SIZE + size) {
+                var record = ByteBuffer.allocate(MAX_VARINT_SIZE + size);
+                ChangeCodec.putVarint(record, size);
+                ChangeCodec.encode(change, record);
+                flush(record, channel);
+            } else {
+                ChangeCodec.putVarint(buffer, size);
+                ChangeCodec.encode(change, buffer);
+            }
+        }
+    }
+
+    /**
+     * Reads a stack, pushing the changes oldest first.
+     *
+     * @param channel Channel to read from
+     * @param buffer Buffer with unread bytes
+     * @param stack Stack to push to
+     * @return Buffer with the bytes after the stack
+     * @throws IOException If the channel can't be read, or holds fewer bytes than a count
+     *          or a length read from it promises
+     */
+    private static ByteBuffer readStack(ReadableByteChannel channel, ByteBuffer buffer, HistoryStack<Change> stack)
+            throws IOException {
+        buffer = require(buffer, channel, MAX_VARINT_SIZE);
+        var count = ChangeCodec.getLength(buffer);
+        if (count > available(channel, buffer) / 2) {
+            throw new StreamCorruptedException("Undo history stack larger than the history");
+        }
+        for (int i = 0; i < count; i++) {
+            buffer = require(buffer, channel, MAX_VARINT_SIZE);
+            var size = ChangeCodec.getLength(buffer);
+            if (size > available(channel, buffer)) {
+                throw new StreamCorruptedException("Undo history record larger than the history");
+            }
+            buffer = require(buffer, channel, size);
+            if (buffer.remaining() < size) {
+                throw new StreamCorruptedException("Truncated undo history");
+            }
+            var end = buffer.position() + size;
+            var limit = buffer.limit();
+            buffer.limit(end);
+            stack.push(ChangeCodec.decode(buffer));
+            if (buffer.position() != end) {
+                throw new IllegalStateException();
+            }
+            buffer.limit(limit);
+        }
+        return buffer;
+    }
+
+    /**
+     * Gets an upper bound of the number of unread bytes.
+     *
+     * @param channel Channel to read from
+     * @param buffer Buffer with unread bytes
+     * @return Bytes left in the buffer and the channel, or {@link Long#MAX_VALUE} if the
+     *          channel doesn't know its size
+     * @throws IOException If the size of the channel can't be read
+     */
+    private static long available(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+        if (!(channel instanceof SeekableByteChannel)) {
+            return Long.MAX_VALUE;
+        }
+        var seekable = (SeekableByteChannel) channel;
+        return buffer.remaining() + Math.max(0, seekable.size() - seekable.position());
+    }
+
+    /**
+     * Makes sure a buffer has at least given number of unread bytes, reading more from the
+     * channel and growing the buffer if needed. Fewer bytes remain only at the end of the channel.
+     * A full buffer only doubles, so a count the channel can't back doesn't allocate more than
+     * twice the bytes actually read.
+     *
+     * @param buffer Buffer with unread bytes
+     * @param channel Channel to read from
+     * @param count Required number of bytes
+     * @return Buffer with the unread bytes
+     * @throws IOException If the channel can't be read
+     */
+    private static ByteBuffer require(ByteBuffer buffer, ReadableByteChannel channel, int count) throws IOException {
+        if (buffer.remaining() >= count) {
+            return buffer;
+        }
+        buffer.compact();
+        while (buffer.position() < count) {
+            if (!buffer.hasRemaining()) {
+                var capacity = (int) Math.min(count, 2L * buffer.capacity());
+                buffer = ByteBuffer.allocate(capacity).put(buffer.flip());
+            }
+            if (channel.read(buffer) < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * Writes all buffered bytes to a channel and empties the buffer.
+     *
+     * @param buffer Buffer with written bytes
+     * @param channel Channel to write to
+     * @throws IOException If the channel can't be written to
+     */
+    private static void flush(ByteBuffer buffer, WritableByteChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
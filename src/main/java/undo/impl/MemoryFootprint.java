@@ -0,0 +1,68 @@
+package undo.impl;
+
+import undo.Change;
+
+/**
+ * A {@link Change} that can estimate how much heap it retains while it is stored in the history.
+ * A history stack storing changes in another form than they are pushed in implements it too,
+ * estimating the heap retained by all of its changes as it stores them.
+ *
+ * @author Nemanja
+ */
+public interface MemoryFootprint {
+
+    /**
+     * Estimated heap retained by a change that can't estimate it itself.
+     */
+    long DEFAULT_RETAINED_BYTES = 64;
+
+    /**
+     * Estimated heap retained by a fingerprint recorded for a revision, a tree map entry with
+     * a boxed key and value.
+     */
+    long FINGERPRINT_BYTES = 72;
+
+    /**
+     * Estimates heap retained by this object, including objects only it references.
+     *
+     * @return Estimated size in bytes
+     */
+    long retainedBytes();
+
+    /**
+     * Estimates heap retained by a string.
+     *
+     * @param s The string
+     * @return Estimated size in bytes, assuming two bytes per character
+     */
+    static long stringBytes(String s) {
+        return 40 + 2L * s.length();
+    }
+
+    /**
+     * Estimates heap retained by a snapshot of a document, assuming it keeps its own copy of
+     * the text once the document has moved on unless it estimates that itself.
+     *
+     * @param snapshot The snapshot
+     * @return Estimated size in bytes, assuming two bytes per character
+     */
+    static long snapshotBytes(CharSequence snapshot) {
+        if (snapshot instanceof MemoryFootprint) {
+            return ((MemoryFootprint) snapshot).retainedBytes();
+        }
+        return 40 + 2L * snapshot.length();
+    }
+
+    /**
+     * Estimates heap retained by a change.
+     *
+     * @param change The change
+     * @return Estimated size in bytes
+     */
+    static long of(Change change) {
+        return change instanceof MemoryFootprint
+                ? ((MemoryFootprint) change).retainedBytes()
+                : DEFAULT_RETAINED_BYTES;
+    }
+
+}
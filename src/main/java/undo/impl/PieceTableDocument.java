@@ -0,0 +1,609 @@
+package undo.impl;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import undo.Document;
+import undo.Fingerprinted;
+import undo.RangeDeletable;
+import undo.Replaceable;
+import undo.Snapshottable;
+import undo.UndoManager;
+
+import util.TextHashTree;
+
+/**
+ * A piece table implementation of a document to be used with the {@link UndoManager}.
+ * Inserted text is appended to an add buffer that is never overwritten, and the document
+ * is described by a list of pieces pointing into it. Typing at the dot extends the last
+ * piece in place, and snapshots only copy the piece list.
+ *
+ * @author Nemanja
+ */
+public class PieceTableDocument implements Document, Snapshottable, Fingerprinted, RangeDeletable, Replaceable {
+
+    /**
+     * Default initial capacity of the add buffer.
+     */
+    private static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Number of pieces walked from the most recently located piece before searching instead.
+     */
+    private static final int LOCAL_STEPS = 8;
+
+    /**
+     * Pieces of the document, in document order.
+     */
+    private final List<Piece> pieces;
+
+    /**
+     * Append-only buffer with all inserted text.
+     */
+    private char[] addBuffer;
+
+    /**
+     * Used part of the add buffer.
+     */
+    private int addLength;
+
+    /**
+     * Length of the document.
+     */
+    private int length;
+
+    /**
+     * Current dot position at the document.
+     */
+    private int currentDot;
+
+    /**
+     * Index of the most recently located piece.
+     */
+    private int cachedPiece;
+
+    /**
+     * Document position where the most recently located piece starts.
+     */
+    private int cachedStart;
+
+    /**
+     * Document positions where the pieces start, valid for the first {@link #validStarts}
+     * pieces and recomputed from there when a search needs them.
+     */
+    private int[] starts;
+
+    /**
+     * Number of pieces whose entry in {@link #starts} is valid.
+     */
+    private int validStarts;
+
+    /**
+     * Hashes of the text, or <code>null</code> until a fingerprint is first asked for.
+     */
+    private TextHashTree hashes;
+
+    /**
+     * Default constructor.
+     */
+    public PieceTableDocument() {
+        this("");
+    }
+
+    /**
+     * Constructor with given initial text. The text is copied once into the original
+     * buffer, which edits never copy again.
+     *
+     * @param text Initial text of the document
+     */
+    public PieceTableDocument(String text) {
+        this.pieces = new ArrayList<>();
+        this.addBuffer = new char[DEFAULT_CAPACITY];
+        this.starts = new int[16];
+        if (!text.isEmpty()) {
+            this.pieces.add(new Piece(text.toCharArray(), 0, text.length()));
+            this.length = text.length();
+        }
+    }
+
+    /**
+     * Deletes a string from the document.
+     *
+     * @param pos The position to start deletion.
+     * @param s The string to delete.
+     * @throws IllegalStateException If the document doesn't have <code>s</code>
+     * 			as <code>pos</code>.
+     */
+    @Override
+    public void delete(int pos, String s) {
+        var count = s.length();
+        if (pos < 0 || pos + count > this.length) {
+            throw new IllegalStateException();
+        }
+        if (count == 0) {
+            return;
+        }
+        var first = locate(pos);
+        var start = this.cachedStart;
+        for (int i = first, j = 0, offset = pos - start; j < count; i++, offset = 0) {
+            var piece = this.pieces.get(i);
+            for (int k = piece.start + offset; k < piece.start + piece.length && j < count; k++, j++) {
+                if (piece.buffer[k] != s.charAt(j)) {
+                    throw new IllegalStateException();
+                }
+            }
+        }
+        var index = split(pos);
+        var end = split(pos + count);
+        this.pieces.subList(index, end).clear();
+        this.validStarts = Math.min(this.validStarts, index);
+        this.length -= count;
+        this.cachedPiece = index;
+        this.cachedStart = pos;
+        if (this.currentDot > this.length) {
+            this.currentDot = this.length;
+        }
+        if (this.hashes != null) {
+            this.hashes.deleted(pos, count, new Text());
+        }
+    }
+
+    /**
+     * Deletes a range of the document, copying the deleted text out of its pieces.
+     *
+     * @param pos The position to start deletion.
+     * @param length Number of characters to delete.
+     * @return The deleted text.
+     * @throws IllegalStateException If the range is outside of the document.
+     */
+    @Override
+    public String delete(int pos, int length) {
+        if (pos < 0 || length < 0 || pos + length > this.length) {
+            throw new IllegalStateException();
+        }
+        if (length == 0) {
+            return "";
+        }
+        var index = split(pos);
+        var end = split(pos + length);
+        var range = this.pieces.subList(index, end);
+        var removed = new StringBuilder(length);
+        for (var piece : range) {
+            removed.append(piece.buffer, piece.start, piece.length);
+        }
+        range.clear();
+        this.validStarts = Math.min(this.validStarts, index);
+        this.length -= length;
+        this.cachedPiece = index;
+        this.cachedStart = pos;
+        if (this.currentDot > this.length) {
+            this.currentDot = this.length;
+        }
+        if (this.hashes != null) {
+            this.hashes.deleted(pos, length, new Text());
+        }
+        return removed.toString();
+    }
+
+    /**
+     * Inserts a string into the document.
+     *
+     * @param pos The position to insert the string at.
+     * @param s The string to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void insert(int pos, String s) {
+        if (pos < 0 || pos > this.length) {
+            throw new IllegalStateException();
+        }
+        var count = s.length();
+        if (count == 0) {
+            this.currentDot = pos;
+            return;
+        }
+        var start = this.addLength;
+        append(s);
+        var index = locate(pos);
+        if (index > 0 && pos == this.cachedStart) {
+            var previous = this.pieces.get(index - 1);
+            if (previous.buffer == this.addBuffer && previous.start + previous.length == start) {
+                this.pieces.set(index - 1, new Piece(this.addBuffer, previous.start, previous.length + count));
+                this.validStarts = Math.min(this.validStarts, index);
+                this.length += count;
+                this.cachedStart += count;
+                this.currentDot = pos + count;
+                if (this.hashes != null) {
+                    this.hashes.inserted(pos, count, new Text());
+                }
+                return;
+            }
+        }
+        index = split(pos);
+        this.pieces.add(index, new Piece(this.addBuffer, start, count));
+        this.validStarts = Math.min(this.validStarts, index + 1);
+        this.length += count;
+        this.cachedPiece = index + 1;
+        this.cachedStart = pos + count;
+        this.currentDot = pos + count;
+        if (this.hashes != null) {
+            this.hashes.inserted(pos, count, new Text());
+        }
+    }
+
+    /**
+     * Replaces a string of the document with another one.
+     *
+     * @param pos The position of the replaced string.
+     * @param deleted The string to delete.
+     * @param inserted The string to insert in its place.
+     * @throws IllegalStateException If the document doesn't have <code>deleted</code>
+     * 			at <code>pos</code>.
+     */
+    @Override
+    public void replace(int pos, String deleted, String inserted) {
+        delete(pos, deleted);
+        insert(pos, inserted);
+    }
+
+    /**
+     * Sets the dot (cursor) position of the document.
+     *
+     * @param pos The dot position to set.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void setDot(int pos) {
+        if (pos < 0 || pos > this.length) {
+            throw new IllegalStateException();
+        }
+        this.currentDot = pos;
+    }
+
+    /**
+     * Gets current position of the dot.
+     *
+     * @return Position of the dot
+     */
+    public int getDot() {
+        return this.currentDot;
+    }
+
+    /**
+     * Gets length of the document.
+     *
+     * @return Number of characters in the document
+     */
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    /**
+     * Gets fingerprint of a range of the text. The hashes are built on the first call and
+     * kept up to date by every change afterwards.
+     *
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return Fingerprint of the range
+     * @throws IllegalStateException If the range is outside of the document
+     */
+    @Override
+    public long fingerprint(int start, int end) {
+        if (start < 0 || start > end || end > this.length) {
+            throw new IllegalStateException();
+        }
+        if (this.hashes == null) {
+            this.hashes = new TextHashTree(new Text());
+        }
+        return this.hashes.hash(start, end, new Text());
+    }
+
+    /**
+     * Creates an immutable view of the current text. Only the piece list is copied, the
+     * buffers are shared with the document.
+     *
+     * @return Snapshot of the document
+     */
+    @Override
+    public CharSequence snapshot() {
+        return new Snapshot(this.pieces.toArray(new Piece[0]), this.length);
+    }
+
+    /**
+     * Replaces the text with a snapshot. The pieces of a piece table snapshot are reused,
+     * since the buffers they point into are never overwritten.
+     *
+     * @param snapshot The snapshot to restore
+     */
+    @Override
+    public void restore(CharSequence snapshot) {
+        this.pieces.clear();
+        if (snapshot instanceof Snapshot) {
+            var restored = (Snapshot) snapshot;
+            Collections.addAll(this.pieces, restored.pieces);
+            this.length = restored.length;
+        } else {
+            var text = snapshot.toString();
+            if (!text.isEmpty()) {
+                this.pieces.add(new Piece(text.toCharArray(), 0, text.length()));
+            }
+            this.length = text.length();
+        }
+        this.cachedPiece = 0;
+        this.cachedStart = 0;
+        this.validStarts = 0;
+        this.hashes = null;
+        this.currentDot = Math.min(this.currentDot, this.length);
+    }
+
+    /**
+     * Creates string from document.
+     *
+     * @return String representation of the document
+     */
+    @Override
+    public String toString() {
+        var builder = new StringBuilder(this.length);
+        for (var piece : this.pieces) {
+            builder.append(piece.buffer, piece.start, piece.length);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Appends text to the add buffer, growing it if needed. Pieces keep referencing the
+     * previous buffer, which still holds their text.
+     *
+     * @param s Text to append
+     */
+    private void append(String s) {
+        var count = s.length();
+        if (this.addLength + count > this.addBuffer.length) {
+            var grown = new char[Math.max(this.addBuffer.length * 2, this.addLength + count)];
+            System.arraycopy(this.addBuffer, 0, grown, 0, this.addLength);
+            this.addBuffer = grown;
+        }
+        s.getChars(0, count, this.addBuffer, this.addLength);
+        this.addLength += count;
+    }
+
+    /**
+     * Finds the piece containing given position. Edits near the dot walk a few pieces from
+     * the most recently located one, other positions are found by binary search over the
+     * start positions of the pieces. Afterwards {@link #cachedStart} holds the document
+     * position where the piece starts.
+     *
+     * @param pos Document position
+     * @return Index of the piece, or number of pieces if <code>pos</code> is the end of document
+     */
+    private int locate(int pos) {
+        var index = Math.min(this.cachedPiece, this.pieces.size());
+        var start = index == this.cachedPiece ? this.cachedStart : this.length;
+        var steps = 0;
+        while (index > 0 && start > pos && steps++ < LOCAL_STEPS) {
+            index--;
+            start -= this.pieces.get(index).length;
+        }
+        while (index < this.pieces.size() && start + this.pieces.get(index).length <= pos && steps++ < LOCAL_STEPS) {
+            start += this.pieces.get(index).length;
+            index++;
+        }
+        if (start > pos || (index < this.pieces.size() && start + this.pieces.get(index).length <= pos)) {
+            index = search(pos);
+            start = index < this.pieces.size() ? this.starts[index] : this.length;
+        }
+        this.cachedPiece = index;
+        this.cachedStart = start;
+        return index;
+    }
+
+    /**
+     * Finds the piece containing given position by binary search, bringing the start
+     * positions of the pieces up to date first.
+     *
+     * @param pos Document position
+     * @return Index of the piece, or number of pieces if <code>pos</code> is the end of document
+     */
+    private int search(int pos) {
+        var count = this.pieces.size();
+        if (pos >= this.length) {
+            return count;
+        }
+        if (this.starts.length < count) {
+            this.starts = Arrays.copyOf(this.starts, Math.max(count, this.starts.length * 2));
+        }
+        for (int i = this.validStarts; i < count; i++) {
+            this.starts[i] = i == 0 ? 0 : this.starts[i - 1] + this.pieces.get(i - 1).length;
+        }
+        this.validStarts = count;
+        return findPiece(this.starts, count, pos);
+    }
+
+    /**
+     * Finds the last piece starting at or before a position.
+     *
+     * @param starts Start positions of the pieces
+     * @param count Number of pieces
+     * @param pos Document position, inside the document
+     * @return Index of the piece
+     */
+    private static int findPiece(int[] starts, int count, int pos) {
+        var low = 0;
+        var high = count - 1;
+        while (low < high) {
+            var middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= pos) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Makes sure a piece boundary exists at given position.
+     *
+     * @param pos Document position
+     * @return Index of the piece starting at <code>pos</code>
+     */
+    private int split(int pos) {
+        var index = locate(pos);
+        var offset = pos - this.cachedStart;
+        if (offset == 0) {
+            return index;
+        }
+        var piece = this.pieces.get(index);
+        this.pieces.set(index, new Piece(piece.buffer, piece.start, offset));
+        this.pieces.add(index + 1, new Piece(piece.buffer, piece.start + offset, piece.length - offset));
+        this.validStarts = Math.min(this.validStarts, index + 1);
+        this.cachedPiece = index + 1;
+        this.cachedStart = pos;
+        return index + 1;
+    }
+
+    /**
+     * An immutable part of the document, pointing into one of the buffers.
+     */
+    private static class Piece {
+
+        /**
+         * Buffer holding the text.
+         */
+        private final char[] buffer;
+
+        /**
+         * Index of the first character in the buffer.
+         */
+        private final int start;
+
+        /**
+         * Number of characters.
+         */
+        private final int length;
+
+        /**
+         * Constructor.
+         *
+         * @param buffer Buffer holding the text
+         * @param start Index of the first character in the buffer
+         * @param length Number of characters
+         */
+        Piece(char[] buffer, int start, int length) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A view of the current text for hashing it. Characters are read through
+     * {@link #locate(int)}, so reading them in order doesn't walk the piece list.
+     */
+    private class Text implements CharSequence {
+
+        @Override
+        public int length() {
+            return PieceTableDocument.this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= PieceTableDocument.this.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            var piece = PieceTableDocument.this.pieces.get(locate(index));
+            return piece.buffer[piece.start + index - PieceTableDocument.this.cachedStart];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return PieceTableDocument.this.toString().substring(start, end);
+        }
+
+        @Override
+        public String toString() {
+            return PieceTableDocument.this.toString();
+        }
+    }
+
+    /**
+     * An immutable view of the piece table at the time it was taken.
+     */
+    private static class Snapshot implements CharSequence {
+
+        /**
+         * Pieces of the document.
+         */
+        private final Piece[] pieces;
+
+        /**
+         * Length of the document.
+         */
+        private final int length;
+
+        /**
+         * Document positions where the pieces start.
+         */
+        private final int[] starts;
+
+        /**
+         * Constructor.
+         *
+         * @param pieces Pieces of the document
+         * @param length Length of the document
+         */
+        Snapshot(Piece[] pieces, int length) {
+            this.pieces = pieces;
+            this.length = length;
+            this.starts = new int[pieces.length];
+            for (int i = 1; i < pieces.length; i++) {
+                this.starts[i] = this.starts[i - 1] + pieces[i - 1].length;
+            }
+        }
+
+        @Override
+        public int length() {
+            return this.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= this.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            var i = findPiece(this.starts, this.pieces.length, index);
+            var piece = this.pieces[i];
+            return piece.buffer[piece.start + index - this.starts[i]];
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > this.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            var builder = new StringBuilder(end - start);
+            var offset = 0;
+            for (var piece : this.pieces) {
+                var from = Math.max(start - offset, 0);
+                var to = Math.min(end - offset, piece.length);
+                if (from < to) {
+                    builder.append(piece.buffer, piece.start + from, to - from);
+                }
+                offset += piece.length;
+            }
+            return builder.toString();
+        }
+
+        @Override
+        public String toString() {
+            return subSequence(0, this.length).toString();
+        }
+    }
+
+}
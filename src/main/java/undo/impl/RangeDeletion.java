@@ -0,0 +1,191 @@
+package undo.impl;
+
+import undo.Change;
+import undo.Document;
+import undo.RangeDeletable;
+import undo.UndoManager;
+
+/**
+ * A deletion of a range of a {@link Document}, given by its length instead of its text. The
+ * deleted text is captured from the document when the change is first applied, and kept
+ * compressed if it is large, so big cuts neither copy the text out of the document beforehand
+ * nor retain it uncompressed in the history.
+ * <p>
+ * The change has to be applied before it is registered with an {@link UndoManager}, so that
+ * the history accounts for the captured text. It is first applied to a {@link RangeDeletable}
+ * document, later applies check the captured text against the document like a
+ * {@link ChangeImpl} does. {@link CollaborativeUndoManager} and {@link ChangeCodec}, which
+ * only know plain changes, take an applied range deletion as the deletion of its captured
+ * text, see {@link #toChange()}.
+ *
+ * @author Nemanja
+ */
+public class RangeDeletion implements Change, MemoryFootprint {
+
+    /**
+     * The position to start the deletion.
+     */
+    private final int pos;
+
+    /**
+     * Number of characters to delete.
+     */
+    private final int length;
+
+    /**
+     * The dot (cursor) position before the deletion.
+     */
+    private final int oldDot;
+
+    /**
+     * The dot (cursor) position after the deletion.
+     */
+    private final int newDot;
+
+    /**
+     * Length from which the captured text is compressed.
+     */
+    private final int threshold;
+
+    /**
+     * Deleted text, or <code>null</code> until the change is first applied.
+     */
+    private CompressedText text;
+
+    /**
+     * Constructor.
+     *
+     * @param pos The position to start the deletion.
+     * @param length Number of characters to delete.
+     * @param oldDot The dot (cursor) position before the deletion.
+     * @param newDot The dot (cursor) position after the deletion.
+     * @param threshold Length from which the captured text is compressed.
+     */
+    public RangeDeletion(int pos, int length, int oldDot, int newDot, int threshold) {
+        if (pos < 0 || length < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.pos = pos;
+        this.length = length;
+        this.oldDot = oldDot;
+        this.newDot = newDot;
+        this.threshold = threshold;
+    }
+
+    /**
+     * Gets type of change.
+     *
+     * @return Type of change
+     */
+    @Override
+    public String getType() {
+        return ChangeType.DELETE.toString();
+    }
+
+    /**
+     * Deletes the range from the given document. The first time the deleted text is captured,
+     * afterwards the document has to hold the captured text at the position.
+     *
+     * @param doc The document to apply the change to.
+     * @throws IllegalStateException If the range is outside of <code>doc</code>, or the
+     * 			document doesn't hold the captured text there.
+     * @throws UnsupportedOperationException If the change is first applied to a document
+     * 			that isn't {@link RangeDeletable}.
+     */
+    @Override
+    public void apply(Document doc) {
+        if (this.text != null) {
+            doc.delete(this.pos, this.text.toString());
+        } else if (doc instanceof RangeDeletable) {
+            this.text = CompressedText.of(((RangeDeletable) doc).delete(this.pos, this.length), this.threshold);
+        } else {
+            throw new UnsupportedOperationException();
+        }
+        doc.setDot(this.newDot);
+    }
+
+    /**
+     * Inserts the deleted text back into the given document.
+     *
+     * @param doc The document to revert the change in.
+     * @throws IllegalStateException If the change was never applied, or the document
+     * 			refuses the reversion of the change.
+     */
+    @Override
+    public void revert(Document doc) {
+        if (this.text == null) {
+            throw new IllegalStateException();
+        }
+        doc.insert(this.pos, this.text.toString());
+        doc.setDot(this.oldDot);
+    }
+
+    /**
+     * Estimates heap retained by this change, including its captured text.
+     *
+     * @return Estimated size in bytes
+     */
+    @Override
+    public long retainedBytes() {
+        return 40 + (this.text == null ? 0 : this.text.retainedBytes());
+    }
+
+    /**
+     * Gets position to start the deletion.
+     *
+     * @return Position of the deletion
+     */
+    public int getPos() {
+        return this.pos;
+    }
+
+    /**
+     * Gets number of characters to delete.
+     *
+     * @return Length of the deleted range
+     */
+    public int getLength() {
+        return this.length;
+    }
+
+    /**
+     * Gets the deleted text, decompressing it if needed.
+     *
+     * @return The deleted text, or <code>null</code> if the change was never applied
+     */
+    public String getString() {
+        return this.text == null ? null : this.text.toString();
+    }
+
+    /**
+     * Checks if the deleted text was captured.
+     *
+     * @return If the change was ever applied
+     */
+    public boolean isApplied() {
+        return this.text != null;
+    }
+
+    /**
+     * Gets the applied deletion as a plain deletion of the captured text.
+     *
+     * @return The deletion
+     * @throws IllegalStateException If the change was never applied
+     */
+    public ChangeImpl toChange() {
+        if (this.text == null) {
+            throw new IllegalStateException();
+        }
+        return new ChangeImpl(this.pos, this.text.toString(), this.oldDot, this.newDot, ChangeType.DELETE);
+    }
+
+    /**
+     * Checks if the captured text is kept compressed.
+     *
+     * @return If the deleted text is compressed
+     */
+    public boolean isCompressed() {
+        return this.text != null && this.text.isCompressed();
+    }
+
+}
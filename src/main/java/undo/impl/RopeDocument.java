@@ -0,0 +1,621 @@
+package undo.impl;
+
+import undo.Document;
+import undo.Fingerprinted;
+import undo.RangeDeletable;
+import undo.Replaceable;
+import undo.Snapshottable;
+import undo.UndoManager;
+
+import util.TextHash;
+
+/**
+ * A rope implementation of a document to be used with the {@link UndoManager}.
+ * The text is kept in a height balanced tree of immutable leaf chunks, so inserts and
+ * deletes anywhere in the document are O(log n) and never copy more than a chunk.
+ * Since nodes are never modified, snapshots share the whole tree and are O(1).
+ * For the same reason every node hashes its text at most once, so fingerprints are a
+ * Merkle tree over the chunks that snapshots and restored snapshots share as well.
+ *
+ * @author Nemanja
+ */
+public class RopeDocument implements Document, Snapshottable, Fingerprinted, RangeDeletable, Replaceable {
+
+    /**
+     * Maximal number of characters in a leaf chunk.
+     */
+    private static final int MAX_LEAF_LENGTH = 512;
+
+    /**
+     * Empty rope.
+     */
+    private static final Node EMPTY = new Leaf(new char[0]);
+
+    /**
+     * Root of the rope.
+     */
+    private Node root;
+
+    /**
+     * Current dot position at the document.
+     */
+    private int currentDot;
+
+    /**
+     * Default constructor.
+     */
+    public RopeDocument() {
+        this("");
+    }
+
+    /**
+     * Constructor with given initial text.
+     *
+     * @param text Initial text of the document
+     */
+    public RopeDocument(String text) {
+        this.root = build(text, 0, text.length());
+    }
+
+    /**
+     * Deletes a string from the document.
+     *
+     * @param pos The position to start deletion.
+     * @param s The string to delete.
+     * @throws IllegalStateException If the document doesn't have <code>s</code>
+     * 			as <code>pos</code>.
+     */
+    @Override
+    public void delete(int pos, String s) {
+        var count = s.length();
+        if (pos < 0 || pos + count > this.root.length) {
+            throw new IllegalStateException();
+        }
+        if (!this.root.matches(pos, s, 0, count)) {
+            throw new IllegalStateException();
+        }
+        var left = split(this.root, pos);
+        var right = split(left[1], count);
+        this.root = join(left[0], right[1]);
+        if (this.currentDot > this.root.length) {
+            this.currentDot = this.root.length;
+        }
+    }
+
+    /**
+     * Deletes a range of the document, copying the deleted text out of the split rope.
+     *
+     * @param pos The position to start deletion.
+     * @param length Number of characters to delete.
+     * @return The deleted text.
+     * @throws IllegalStateException If the range is outside of the document.
+     */
+    @Override
+    public String delete(int pos, int length) {
+        if (pos < 0 || length < 0 || pos + length > this.root.length) {
+            throw new IllegalStateException();
+        }
+        var left = split(this.root, pos);
+        var right = split(left[1], length);
+        var removed = new StringBuilder(length);
+        right[0].appendTo(removed, 0, length);
+        this.root = join(left[0], right[1]);
+        if (this.currentDot > this.root.length) {
+            this.currentDot = this.root.length;
+        }
+        return removed.toString();
+    }
+
+    /**
+     * Inserts a string into the document.
+     *
+     * @param pos The position to insert the string at.
+     * @param s The string to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void insert(int pos, String s) {
+        if (pos < 0 || pos > this.root.length) {
+            throw new IllegalStateException();
+        }
+        var parts = split(this.root, pos);
+        this.root = join(join(parts[0], build(s, 0, s.length())), parts[1]);
+        this.currentDot = pos + s.length();
+    }
+
+    /**
+     * Replaces a string of the document with another one.
+     *
+     * @param pos The position of the replaced string.
+     * @param deleted The string to delete.
+     * @param inserted The string to insert in its place.
+     * @throws IllegalStateException If the document doesn't have <code>deleted</code>
+     * 			at <code>pos</code>.
+     */
+    @Override
+    public void replace(int pos, String deleted, String inserted) {
+        delete(pos, deleted);
+        insert(pos, inserted);
+    }
+
+    /**
+     * Sets the dot (cursor) position of the document.
+     *
+     * @param pos The dot position to set.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void setDot(int pos) {
+        if (pos < 0 || pos > this.root.length) {
+            throw new IllegalStateException();
+        }
+        this.currentDot = pos;
+    }
+
+    /**
+     * Gets current position of the dot.
+     *
+     * @return Position of the dot
+     */
+    public int getDot() {
+        return this.currentDot;
+    }
+
+    /**
+     * Gets length of the document.
+     *
+     * @return Number of characters in the document
+     */
+    @Override
+    public int length() {
+        return this.root.length;
+    }
+
+    /**
+     * Gets fingerprint of a range of the text. Only nodes created since the last fingerprint
+     * and leaves cut by the range are hashed, the other nodes reuse their hashes.
+     *
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return Fingerprint of the range
+     * @throws IllegalStateException If the range is outside of the document
+     */
+    @Override
+    public long fingerprint(int start, int end) {
+        if (start < 0 || start > end || end > this.root.length) {
+            throw new IllegalStateException();
+        }
+        return this.root.hash(start, end);
+    }
+
+    /**
+     * Creates an immutable {@link CharSequence} view of the current text in O(1). The view
+     * shares the tree with the document, reads characters in O(log n) and creates
+     * sub sequences without copying.
+     *
+     * @return Snapshot of the document
+     */
+    @Override
+    public CharSequence snapshot() {
+        return new Snapshot(this.root);
+    }
+
+    /**
+     * Replaces the text with a snapshot in O(1) if it was taken from a rope, which shares
+     * its tree with the document again.
+     *
+     * @param snapshot The snapshot to restore
+     */
+    @Override
+    public void restore(CharSequence snapshot) {
+        if (snapshot instanceof Snapshot) {
+            this.root = ((Snapshot) snapshot).node;
+        } else {
+            var text = snapshot.toString();
+            this.root = build(text, 0, text.length());
+        }
+        this.currentDot = Math.min(this.currentDot, this.root.length);
+    }
+
+    /**
+     * Creates string from document.
+     *
+     * @return String representation of the document
+     */
+    @Override
+    public String toString() {
+        var builder = new StringBuilder(this.root.length);
+        this.root.appendTo(builder, 0, this.root.length);
+        return builder.toString();
+    }
+
+    /**
+     * Builds a balanced rope from a part of a string.
+     *
+     * @param s The string
+     * @param from Index of the first character
+     * @param to Index after the last character
+     * @return Rope with the text
+     */
+    private static Node build(String s, int from, int to) {
+        if (to - from <= MAX_LEAF_LENGTH) {
+            if (from == to) {
+                return EMPTY;
+            }
+            var chunk = new char[to - from];
+            s.getChars(from, to, chunk, 0);
+            return new Leaf(chunk);
+        }
+        var chunks = (to - from + MAX_LEAF_LENGTH - 1) / MAX_LEAF_LENGTH;
+        var middle = from + chunks / 2 * MAX_LEAF_LENGTH;
+        return new Branch(build(s, from, middle), build(s, middle, to));
+    }
+
+    /**
+     * Splits a rope at given position.
+     *
+     * @param node The rope
+     * @param pos Position to split at
+     * @return Rope before the position and rope after it
+     */
+    private static Node[] split(Node node, int pos) {
+        if (pos == 0) {
+            return new Node[] {EMPTY, node};
+        }
+        if (pos == node.length) {
+            return new Node[] {node, EMPTY};
+        }
+        if (node instanceof Leaf) {
+            var chunk = ((Leaf) node).chunk;
+            var head = new char[pos];
+            var tail = new char[chunk.length - pos];
+            System.arraycopy(chunk, 0, head, 0, pos);
+            System.arraycopy(chunk, pos, tail, 0, tail.length);
+            return new Node[] {new Leaf(head), new Leaf(tail)};
+        }
+        var branch = (Branch) node;
+        if (pos < branch.left.length) {
+            var parts = split(branch.left, pos);
+            return new Node[] {parts[0], join(parts[1], branch.right)};
+        }
+        var parts = split(branch.right, pos - branch.left.length);
+        return new Node[] {join(branch.left, parts[0]), parts[1]};
+    }
+
+    /**
+     * Concatenates two ropes, keeping the result height balanced. Small adjacent leaves
+     * are merged so that typing doesn't create a leaf per character.
+     *
+     * @param left Rope at the start
+     * @param right Rope at the end
+     * @return Concatenated rope
+     */
+    private static Node join(Node left, Node right) {
+        if (left.length == 0) {
+            return right;
+        }
+        if (right.length == 0) {
+            return left;
+        }
+        if (left.length + right.length <= MAX_LEAF_LENGTH && left instanceof Leaf && right instanceof Leaf) {
+            var chunk = new char[left.length + right.length];
+            System.arraycopy(((Leaf) left).chunk, 0, chunk, 0, left.length);
+            System.arraycopy(((Leaf) right).chunk, 0, chunk, left.length, right.length);
+            return new Leaf(chunk);
+        }
+        if (left.height > right.height + 1) {
+            var branch = (Branch) left;
+            return balance(branch.left, join(branch.right, right));
+        }
+        if (right.height > left.height + 1) {
+            var branch = (Branch) right;
+            return balance(join(left, branch.left), branch.right);
+        }
+        if (left instanceof Branch && right instanceof Leaf) {
+            var branch = (Branch) left;
+            if (branch.right instanceof Leaf && branch.right.length + right.length <= MAX_LEAF_LENGTH) {
+                return balance(branch.left, join(branch.right, right));
+            }
+        }
+        if (right instanceof Branch && left instanceof Leaf) {
+            var branch = (Branch) right;
+            if (branch.left instanceof Leaf && left.length + branch.left.length <= MAX_LEAF_LENGTH) {
+                return balance(join(left, branch.left), branch.right);
+            }
+        }
+        return new Branch(left, right);
+    }
+
+    /**
+     * Creates a branch from two ropes whose heights differ by at most two, rotating
+     * it if needed.
+     *
+     * @param left Left child
+     * @param right Right child
+     * @return Balanced rope
+     */
+    private static Node balance(Node left, Node right) {
+        if (left.height > right.height + 1) {
+            var branch = (Branch) left;
+            if (branch.left.height >= branch.right.height) {
+                return new Branch(branch.left, new Branch(branch.right, right));
+            }
+            var inner = (Branch) branch.right;
+            return new Branch(new Branch(branch.left, inner.left), new Branch(inner.right, right));
+        }
+        if (right.height > left.height + 1) {
+            var branch = (Branch) right;
+            if (branch.right.height >= branch.left.height) {
+                return new Branch(new Branch(left, branch.left), branch.right);
+            }
+            var inner = (Branch) branch.left;
+            return new Branch(new Branch(left, inner.left), new Branch(inner.right, branch.right));
+        }
+        return new Branch(left, right);
+    }
+
+    /**
+     * An immutable node of the rope.
+     */
+    private abstract static class Node {
+
+        /**
+         * Number of characters in the node.
+         */
+        final int length;
+
+        /**
+         * Height of the node, leaves having height <code>0</code>.
+         */
+        final int height;
+
+        /**
+         * Hash of the text of the node, or <code>-1</code> until it is first needed.
+         */
+        private long hash = -1;
+
+        /**
+         * Constructor.
+         *
+         * @param length Number of characters in the node
+         * @param height Height of the node
+         */
+        Node(int length, int height) {
+            this.length = length;
+            this.height = height;
+        }
+
+        /**
+         * Gets character at given position.
+         *
+         * @param pos Position of the character
+         * @return Character at the position
+         */
+        abstract char charAt(int pos);
+
+        /**
+         * Gets the hash of a part of the node, reusing the hash of the whole node once
+         * it is computed.
+         *
+         * @param from Index of the first character
+         * @param to Index after the last character
+         * @return The hash
+         */
+        long hash(int from, int to) {
+            if (from > 0 || to < this.length) {
+                return hashRange(from, to);
+            }
+            if (this.hash < 0) {
+                this.hash = hashRange(0, this.length);
+            }
+            return this.hash;
+        }
+
+        /**
+         * Computes the hash of a part of the node.
+         *
+         * @param from Index of the first character
+         * @param to Index after the last character
+         * @return The hash
+         */
+        abstract long hashRange(int from, int to);
+
+        /**
+         * Appends a part of the node to a builder.
+         *
+         * @param builder The builder
+         * @param from Index of the first character
+         * @param to Index after the last character
+         */
+        abstract void appendTo(StringBuilder builder, int from, int to);
+
+        /**
+         * Checks if the node has a part of a string at given position.
+         *
+         * @param pos Position in the node
+         * @param s The string
+         * @param from Index of the first character of the string
+         * @param to Index after the last character of the string
+         * @return If the characters are equal
+         */
+        abstract boolean matches(int pos, String s, int from, int to);
+    }
+
+    /**
+     * A leaf holding a chunk of the text.
+     */
+    private static class Leaf extends Node {
+
+        /**
+         * Characters of the leaf, never modified.
+         */
+        private final char[] chunk;
+
+        /**
+         * Constructor.
+         *
+         * @param chunk Characters of the leaf
+         */
+        Leaf(char[] chunk) {
+            super(chunk.length, 0);
+            this.chunk = chunk;
+        }
+
+        @Override
+        char charAt(int pos) {
+            return this.chunk[pos];
+        }
+
+        @Override
+        long hashRange(int from, int to) {
+            return TextHash.of(this.chunk, from, to);
+        }
+
+        @Override
+        void appendTo(StringBuilder builder, int from, int to) {
+            builder.append(this.chunk, from, to - from);
+        }
+
+        @Override
+        boolean matches(int pos, String s, int from, int to) {
+            for (int i = from; i < to; i++, pos++) {
+                if (this.chunk[pos] != s.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A branch concatenating two ropes.
+     */
+    private static class Branch extends Node {
+
+        /**
+         * Rope at the start.
+         */
+        private final Node left;
+
+        /**
+         * Rope at the end.
+         */
+        private final Node right;
+
+        /**
+         * Constructor.
+         *
+         * @param left Rope at the start
+         * @param right Rope at the end
+         */
+        Branch(Node left, Node right) {
+            super(left.length + right.length, Math.max(left.height, right.height) + 1);
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        char charAt(int pos) {
+            Node node = this;
+            while (node instanceof Branch) {
+                var branch = (Branch) node;
+                if (pos < branch.left.length) {
+                    node = branch.left;
+                } else {
+                    pos -= branch.left.length;
+                    node = branch.right;
+                }
+            }
+            return node.charAt(pos);
+        }
+
+        @Override
+        long hashRange(int from, int to) {
+            var split = this.left.length;
+            if (to <= split) {
+                return this.left.hash(from, to);
+            }
+            if (from >= split) {
+                return this.right.hash(from - split, to - split);
+            }
+            return TextHash.concat(this.left.hash(from, split), this.right.hash(0, to - split),
+                    TextHash.power(to - split));
+        }
+
+        @Override
+        void appendTo(StringBuilder builder, int from, int to) {
+            var split = this.left.length;
+            if (from < split) {
+                this.left.appendTo(builder, from, Math.min(to, split));
+            }
+            if (to > split) {
+                this.right.appendTo(builder, Math.max(from - split, 0), to - split);
+            }
+        }
+
+        @Override
+        boolean matches(int pos, String s, int from, int to) {
+            var split = this.left.length;
+            var count = to - from;
+            if (pos + count <= split) {
+                return this.left.matches(pos, s, from, to);
+            }
+            if (pos >= split) {
+                return this.right.matches(pos - split, s, from, to);
+            }
+            var middle = from + split - pos;
+            return this.left.matches(pos, s, from, middle) && this.right.matches(0, s, middle, to);
+        }
+    }
+
+    /**
+     * An immutable {@link CharSequence} view of a rope.
+     */
+    private static class Snapshot implements CharSequence {
+
+        /**
+         * Viewed rope.
+         */
+        private final Node node;
+
+        /**
+         * Constructor.
+         *
+         * @param node Viewed rope
+         */
+        Snapshot(Node node) {
+            this.node = node;
+        }
+
+        @Override
+        public int length() {
+            return this.node.length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= this.node.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            return this.node.charAt(index);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            if (start < 0 || start > end || end > this.node.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            return new Snapshot(split(split(this.node, end)[0], start)[1]);
+        }
+
+        @Override
+        public String toString() {
+            var builder = new StringBuilder(this.node.length);
+            this.node.appendTo(builder, 0, this.node.length);
+            return builder.toString();
+        }
+    }
+
+}
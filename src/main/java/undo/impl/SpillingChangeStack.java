@@ -0,0 +1,603 @@
+package undo.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import undo.Change;
+import util.HistoryStack;
+import util.RingBufferStack;
+
+/**
+ * An unbounded history stack keeping only its newest changes on the heap. When the
+ * in-memory window is full, the oldest change in it is encoded into a memory-mapped spill
+ * file instead of being dropped, and spilled changes are read back when the window runs
+ * empty. Changes that {@link ChangeCodec} can't encode stay referenced from the spill index.
+ * <p>
+ * The spill file is created in the given directory on the first spill and deleted when
+ * the stack is closed. It is split into segments, and a segment whose changes were all
+ * popped or removed is released: its mapping is dropped and its space in the file is
+ * reused by the next segment spilled into. The file is truncated once nothing is spilled.
+ * <p>
+ * The footprint of the stack only counts the heap: changes in the window, changes that
+ * couldn't be encoded and the spill index, but not the spilled changes.
+ *
+ * @author Nemanja
+ */
+public class SpillingChangeStack implements HistoryStack<Change>, MemoryFootprint, Closeable {
+
+    /**
+     * Default size of a mapped segment of the spill file.
+     */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 24;
+
+    /**
+     * Size of a mapped segment of the spill file.
+     */
+    private final int segmentSize;
+
+    /**
+     * Newest changes, kept on the heap.
+     */
+    private final HistoryStack<Change> window;
+
+    /**
+     * Directory for the spill file.
+     */
+    private final Path directory;
+
+    /**
+     * Segments holding the spilled changes, starting with the one at {@link #segmentBase}.
+     */
+    private final List<Segment> segments;
+
+    /**
+     * Released segments whose space in the file is reused first.
+     */
+    private final Deque<Segment> free;
+
+    /**
+     * Index of the first segment in {@link #segments}, counting segments of spilled data
+     * from the start of the file offsets.
+     */
+    private long segmentBase;
+
+    /**
+     * Number of segments the spill file has room for.
+     */
+    private int fileSegments;
+
+    /**
+     * Spill file channel, or <code>null</code> if nothing was spilled yet.
+     */
+    private FileChannel channel;
+
+    /**
+     * Offsets of the spilled changes, oldest first, starting at {@link #first}. Offsets
+     * only grow while changes are spilled, and {@link #segments} map them to the file.
+     */
+    private long[] offsets;
+
+    /**
+     * Encoded sizes of the spilled changes.
+     */
+    private int[] sizes;
+
+    /**
+     * Spilled changes that couldn't be encoded, aligned with {@link #offsets}.
+     */
+    private Change[] objects;
+
+    /**
+     * Index of the oldest spilled change in {@link #offsets}.
+     */
+    private int first;
+
+    /**
+     * Index after the newest spilled change in {@link #offsets}.
+     */
+    private int last;
+
+    /**
+     * Offset after the newest spilled change.
+     */
+    private long end;
+
+    /**
+     * Estimated heap retained by the changes in the window and the spilled changes that
+     * couldn't be encoded, in bytes.
+     */
+    private long retainedBytes;
+
+    /**
+     * Constructor with segments of the default size.
+     *
+     * @param windowSize Number of changes kept on the heap
+     * @param directory Directory to create the spill file in
+     */
+    public SpillingChangeStack(int windowSize, Path directory) {
+        this(windowSize, directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param windowSize Number of changes kept on the heap
+     * @param directory Directory to create the spill file in
+     * @param segmentSize Size of a mapped segment of the spill file, in bytes
+     */
+    public SpillingChangeStack(int windowSize, Path directory, int segmentSize) {
+        if (windowSize <= 0 || directory == null || segmentSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.window = new RingBufferStack<>(windowSize);
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayList<>();
+        this.free = new ArrayDeque<>();
+        this.offsets = new long[16];
+        this.sizes = new int[16];
+        this.objects = new Change[16];
+    }
+
+    /**
+     * Pushes change to top of the stack, spilling the oldest change in the window if it is full.
+     *
+     * @param change Change to be pushed
+     * @return Always <code>null</code>, since nothing is evicted
+     */
+    @Override
+    public Change push(Change change) {
+        var oldest = this.window.push(change);
+        this.retainedBytes += MemoryFootprint.of(change);
+        if (oldest != null) {
+            spill(oldest);
+        }
+        return null;
+    }
+
+    /**
+     * Removes change from top of the stack, reading it from the spill file if the window is empty.
+     *
+     * @return Removed change
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public Change pop() {
+        if (!this.window.isEmpty()) {
+            return removed(this.window.pop());
+        }
+        if (spilled() == 0) {
+            throw new NoSuchElementException();
+        }
+        var change = read(this.last - 1);
+        this.last--;
+        unreference(this.last);
+        this.end = this.offsets[this.last];
+        releaseSegments();
+        return change;
+    }
+
+    /**
+     * Gets change from top of the stack without removing it.
+     *
+     * @return Top change
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public Change peek() {
+        if (!this.window.isEmpty()) {
+            return this.window.peek();
+        }
+        if (spilled() == 0) {
+            throw new NoSuchElementException();
+        }
+        return read(this.last - 1);
+    }
+
+    /**
+     * Removes the oldest change from the bottom of the stack.
+     *
+     * @return Removed change
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public Change removeOldest() {
+        if (spilled() == 0) {
+            return removed(this.window.removeOldest());
+        }
+        var change = read(this.first);
+        unreference(this.first);
+        this.first++;
+        releaseSegments();
+        return change;
+    }
+
+    /**
+     * Gets change at given position, counting from the oldest one.
+     *
+     * @param i Position of the change, <code>0</code> being the oldest
+     * @return Change at the position
+     * @throws IndexOutOfBoundsException If there is no change at the position
+     */
+    @Override
+    public Change get(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException();
+        }
+        return i < spilled() ? read(this.first + i) : this.window.get(i - spilled());
+    }
+
+    /**
+     * Removes all changes from the stack. The spill file is kept open but truncated.
+     */
+    @Override
+    public void clear() {
+        this.window.clear();
+        Arrays.fill(this.objects, null);
+        this.retainedBytes = 0;
+        this.first = 0;
+        this.last = 0;
+        releaseSegments();
+    }
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return If there are no changes in the stack
+     */
+    @Override
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * Gets number of changes in the stack.
+     *
+     * @return Number of changes, on the heap and spilled
+     */
+    @Override
+    public int size() {
+        return this.window.size() + spilled();
+    }
+
+    /**
+     * Gets capacity of the stack, which is unbounded.
+     *
+     * @return {@link Integer#MAX_VALUE}
+     */
+    @Override
+    public int capacity() {
+        return Integer.MAX_VALUE;
+    }
+
+    /**
+     * Gets number of spilled changes.
+     *
+     * @return Number of changes in the spill file
+     */
+    public int spilled() {
+        return this.last - this.first;
+    }
+
+    /**
+     * Gets size of the spill file.
+     *
+     * @return Size in bytes, <code>0</code> if nothing was spilled yet
+     */
+    public long spillFileSize() {
+        try {
+            return this.channel == null ? 0 : this.channel.size();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Estimates heap retained by the stack, which doesn't include the spilled changes that
+     * were encoded into the spill file.
+     *
+     * @return Estimated size in bytes
+     */
+    @Override
+    public long retainedBytes() {
+        return this.retainedBytes + 16L * this.offsets.length;
+    }
+
+    /**
+     * Closes and deletes the spill file.
+     *
+     * @throws IOException If the file can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        this.window.clear();
+        Arrays.fill(this.objects, null);
+        this.retainedBytes = 0;
+        this.first = 0;
+        this.last = 0;
+        this.end = 0;
+        this.segments.clear();
+        this.free.clear();
+        this.segmentBase = 0;
+        this.fileSegments = 0;
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Appends a change to the spill file. Records never cross segment boundaries, except
+     * those larger than a segment, which are written through the channel.
+     *
+     * @param change The change to spill
+     */
+    private void spill(Change change) {
+        if (this.last == this.offsets.length) {
+            compactIndex();
+        }
+        if (!ChangeCodec.canEncode(change)) {
+            this.objects[this.last] = change;
+            this.offsets[this.last] = this.end;
+            this.sizes[this.last] = 0;
+            this.last++;
+            return;
+        }
+        var size = ChangeCodec.encodedSize(change);
+        var offset = this.end;
+        var remaining = this.segmentSize - (int) (offset % this.segmentSize);
+        if (size > remaining && size <= this.segmentSize) {
+            offset += remaining;
+        }
+        try {
+            if (size > this.segmentSize) {
+                var buffer = ByteBuffer.allocate(size);
+                ChangeCodec.encode(change, buffer);
+                buffer.flip();
+                transfer(buffer, offset, true);
+            } else {
+                ChangeCodec.encode(change, slice(offset, size));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.retainedBytes -= MemoryFootprint.of(change);
+        this.offsets[this.last] = offset;
+        this.sizes[this.last] = size;
+        this.last++;
+        this.end = offset + size;
+    }
+
+    /**
+     * Reads a spilled change.
+     *
+     * @param index Index of the change in {@link #offsets}
+     * @return The change
+     */
+    private Change read(int index) {
+        if (this.objects[index] != null) {
+            return this.objects[index];
+        }
+        var offset = this.offsets[index];
+        var size = this.sizes[index];
+        try {
+            if (size > this.segmentSize) {
+                var buffer = ByteBuffer.allocate(size);
+                transfer(buffer, offset, false);
+                buffer.flip();
+                return ChangeCodec.decode(buffer);
+            }
+            return ChangeCodec.decode(slice(offset, size));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Writes or reads a record larger than a segment through the channel, segment by segment.
+     *
+     * @param buffer Buffer holding the record to write, or to read the record into
+     * @param offset Offset of the record
+     * @param write If the record is written, or else it is read
+     * @throws IOException If the file can't be written or read
+     */
+    private void transfer(ByteBuffer buffer, long offset, boolean write) throws IOException {
+        while (buffer.hasRemaining()) {
+            var position = offset + buffer.position();
+            var inSegment = this.segmentSize - (int) (position % this.segmentSize);
+            var chunk = buffer.duplicate();
+            chunk.limit(Math.min(buffer.limit(), buffer.position() + inSegment));
+            var fileOffset = fileOffset(position);
+            var count = write ? channel().write(chunk, fileOffset) : this.channel.read(chunk, fileOffset);
+            if (count < 0) {
+                throw new IllegalStateException();
+            }
+            buffer.position(buffer.position() + count);
+        }
+    }
+
+    /**
+     * Gets a view of a record inside a mapped segment, mapping the segment if needed.
+     *
+     * @param offset Offset of the record
+     * @param size Size of the record
+     * @return Buffer positioned at the record
+     * @throws IOException If the segment can't be mapped
+     */
+    private ByteBuffer slice(long offset, int size) throws IOException {
+        var segment = segment(offset / this.segmentSize);
+        if (segment.buffer == null) {
+            segment.buffer = channel().map(FileChannel.MapMode.READ_WRITE,
+                    (long) segment.index * this.segmentSize, this.segmentSize);
+        }
+        var buffer = segment.buffer.duplicate();
+        var position = (int) (offset % this.segmentSize);
+        buffer.limit(position + size).position(position);
+        return buffer;
+    }
+
+    /**
+     * Gets the position in the spill file of an offset of spilled data.
+     *
+     * @param offset The offset
+     * @return The file position
+     */
+    private long fileOffset(long offset) {
+        return (long) segment(offset / this.segmentSize).index * this.segmentSize + offset % this.segmentSize;
+    }
+
+    /**
+     * Gets a segment of spilled data, taking segments for it and the ones before it if needed.
+     *
+     * @param number Number of the segment, counting from the start of the offsets
+     * @return The segment
+     */
+    private Segment segment(long number) {
+        if (this.segments.isEmpty()) {
+            this.segmentBase = number;
+        }
+        while (this.segmentBase + this.segments.size() <= number) {
+            var segment = this.free.poll();
+            this.segments.add(segment != null ? segment : new Segment(this.fileSegments++));
+        }
+        return this.segments.get((int) (number - this.segmentBase));
+    }
+
+    /**
+     * Releases the segments no spilled change is in anymore, or truncates the spill file if
+     * nothing is spilled.
+     */
+    private void releaseSegments() {
+        if (spilled() == 0) {
+            this.first = 0;
+            this.last = 0;
+            this.end = 0;
+            this.segments.clear();
+            this.free.clear();
+            this.segmentBase = 0;
+            this.fileSegments = 0;
+            if (this.channel != null) {
+                try {
+                    this.channel.truncate(0);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return;
+        }
+        var from = this.offsets[this.first] / this.segmentSize;
+        var to = (this.end + this.segmentSize - 1) / this.segmentSize;
+        while (!this.segments.isEmpty() && this.segmentBase + this.segments.size() > to) {
+            release(this.segments.remove(this.segments.size() - 1));
+        }
+        while (!this.segments.isEmpty() && this.segmentBase < from) {
+            release(this.segments.remove(0));
+            this.segmentBase++;
+        }
+    }
+
+    /**
+     * Drops the mapping of a segment and makes its space in the file available for reuse.
+     *
+     * @param segment The segment
+     */
+    private void release(Segment segment) {
+        segment.buffer = null;
+        this.free.push(segment);
+    }
+
+    /**
+     * Accounts for a change removed from the window.
+     *
+     * @param change The change
+     * @return The change
+     */
+    private Change removed(Change change) {
+        this.retainedBytes -= MemoryFootprint.of(change);
+        return change;
+    }
+
+    /**
+     * Drops the reference to a spilled change that couldn't be encoded, if there is one.
+     *
+     * @param index Index of the change in {@link #offsets}
+     */
+    private void unreference(int index) {
+        if (this.objects[index] != null) {
+            this.retainedBytes -= MemoryFootprint.of(this.objects[index]);
+            this.objects[index] = null;
+        }
+    }
+
+    /**
+     * Gets the spill file channel, creating the file if needed.
+     *
+     * @return The channel
+     * @throws IOException If the file can't be created
+     */
+    private FileChannel channel() throws IOException {
+        if (this.channel == null) {
+            var file = Files.createTempFile(this.directory, "undo", ".spill");
+            this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                    StandardOpenOption.DELETE_ON_CLOSE);
+        }
+        return this.channel;
+    }
+
+    /**
+     * Moves the index of spilled changes to the start of its arrays, growing them if needed.
+     */
+    private void compactIndex() {
+        var count = spilled();
+        if (count * 2 > this.offsets.length) {
+            this.offsets = Arrays.copyOf(this.offsets, this.offsets.length * 2);
+            this.sizes = Arrays.copyOf(this.sizes, this.sizes.length * 2);
+            this.objects = Arrays.copyOf(this.objects, this.objects.length * 2);
+        }
+        System.arraycopy(this.offsets, this.first, this.offsets, 0, count);
+        System.arraycopy(this.sizes, this.first, this.sizes, 0, count);
+        System.arraycopy(this.objects, this.first, this.objects, 0, count);
+        Arrays.fill(this.objects, count, this.objects.length, null);
+        this.first = 0;
+        this.last = count;
+    }
+
+    /**
+     * A segment of the spill file.
+     */
+    private static class Segment {
+
+        /**
+         * Index of the segment in the spill file.
+         */
+        private final int index;
+
+        /**
+         * Mapping of the segment, or <code>null</code> if it isn't mapped.
+         */
+        private MappedByteBuffer buffer;
+
+        /**
+         * Constructor.
+         *
+         * @param index Index of the segment in the spill file
+         */
+        private Segment(int index) {
+            this.index = index;
+        }
+    }
+
+}
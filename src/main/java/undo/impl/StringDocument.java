@@ -1,14 +1,19 @@
 package undo.impl;
 
+import java.util.Arrays;
+
 import undo.Document;
+import undo.RangeDeletable;
 import undo.UndoManager;
 
+import util.CharArrays;
+
 /**
  * An implementation of a document to be used with the {@link UndoManager}.
  *
  * @author Nemanja
  */
-public class StringDocument implements Document {
+public class StringDocument implements Document, RangeDeletable {
 
     /**
      * Default document size.
@@ -44,9 +49,7 @@ public class StringDocument implements Document {
      */
     public StringDocument(int documentSize) {
         this.text = new char[documentSize];
-        for (int i = 0; i < documentSize; i++) {
-            this.text[i] = ' ';
-        }
+        Arrays.fill(this.text, ' ');
         endCursor = 0;
     }
 
@@ -60,20 +63,60 @@ public class StringDocument implements Document {
      */
     @Override
     public void delete(int pos, String s) {
-        if(pos < 0 || pos + s.length() > this.text.length) {
+        delete(pos, (CharSequence) s);
+    }
+
+    /**
+     * Deletes a character sequence from the document, comparing strings and builders in bulk.
+     *
+     * @param pos The position to start deletion.
+     * @param s The characters to delete.
+     * @throws IllegalStateException If the document doesn't have <code>s</code>
+     * 			as <code>pos</code>.
+     */
+    @Override
+    public void delete(int pos, CharSequence s) {
+        checkRange(pos, s.length());
+        if (!CharArrays.regionMatches(this.text, pos, s, 0, s.length())) {
             throw new IllegalStateException();
         }
-        for (int i = pos, j = 0; i < pos + s.length(); i++, j++) {
-            if(this.text[i] != s.charAt(j)) {
-                throw new IllegalStateException();
-            }
-        }
-        for(int i = pos; i < pos + s.length(); i++) {
-            this.text[i] = ' ';
-        }
-        if(pos + s.length() > endCursor) {
-            endCursor = pos;
+        deleted(pos, s.length());
+    }
+
+    /**
+     * Deletes a range of a character array from the document, comparing it in bulk.
+     *
+     * @param pos The position to start deletion.
+     * @param chars Array holding the characters to delete.
+     * @param offset Index of the first character in <code>chars</code>.
+     * @param length Number of characters to delete.
+     * @throws IllegalStateException If the document doesn't have the characters
+     * 			as <code>pos</code>.
+     * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+     */
+    @Override
+    public void delete(int pos, char[] chars, int offset, int length) {
+        checkRange(pos, length);
+        if (Arrays.mismatch(this.text, pos, pos + length, chars, offset, offset + length) >= 0) {
+            throw new IllegalStateException();
         }
+        deleted(pos, length);
+    }
+
+    /**
+     * Deletes a range of the document, copying the deleted text out of the buffer in bulk.
+     *
+     * @param pos The position to start deletion.
+     * @param length Number of characters to delete.
+     * @return The deleted text.
+     * @throws IllegalStateException If the range is outside of the document.
+     */
+    @Override
+    public String delete(int pos, int length) {
+        checkRange(pos, length);
+        var removed = new String(this.text, pos, length);
+        deleted(pos, length);
+        return removed;
     }
 
     /**
@@ -86,16 +129,42 @@ public class StringDocument implements Document {
      */
     @Override
     public void insert(int pos, String s) {
-        if(pos < 0 || pos + s.length() > DEFAULT_TEXT_SIZE) {
-            throw new IllegalStateException();
-        }
-        for(int i = pos, j = 0; i < pos + s.length(); i++, j++) {
-            this.text[i] = s.charAt(j);
-        }
-        this.currentDot = pos + s.length();
-        if(this.currentDot > endCursor) {
-            endCursor = this.currentDot;
-        }
+        checkRange(pos, s.length());
+        s.getChars(0, s.length(), this.text, pos);
+        inserted(pos, s.length());
+    }
+
+    /**
+     * Inserts a character sequence into the document, copying strings and builders in bulk.
+     *
+     * @param pos The position to insert the characters at.
+     * @param s The characters to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     */
+    @Override
+    public void insert(int pos, CharSequence s) {
+        checkRange(pos, s.length());
+        CharArrays.copy(s, 0, s.length(), this.text, pos);
+        inserted(pos, s.length());
+    }
+
+    /**
+     * Inserts a range of a character array into the document, copying it in bulk.
+     *
+     * @param pos The position to insert the characters at.
+     * @param chars Array holding the characters to insert.
+     * @param offset Index of the first character in <code>chars</code>.
+     * @param length Number of characters to insert.
+     * @throws IllegalStateException If <code>pos</code> is an illegal position
+     * 			(that is, if document is shorter than that).
+     * @throws IndexOutOfBoundsException If the range is outside of <code>chars</code>.
+     */
+    @Override
+    public void insert(int pos, char[] chars, int offset, int length) {
+        checkRange(pos, length);
+        System.arraycopy(chars, offset, this.text, pos, length);
+        inserted(pos, length);
     }
 
     /**
@@ -132,4 +201,43 @@ public class StringDocument implements Document {
         return String.valueOf(this.text).stripTrailing();
     }
 
+    /**
+     * Checks that a range fits in the document buffer.
+     *
+     * @param pos Start of the range
+     * @param length Length of the range
+     * @throws IllegalStateException If the range doesn't fit
+     */
+    private void checkRange(int pos, int length) {
+        if(pos < 0 || length < 0 || pos + length > this.text.length) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Blanks deleted characters.
+     *
+     * @param pos The position deletion started at
+     * @param length Number of deleted characters
+     */
+    private void deleted(int pos, int length) {
+        Arrays.fill(this.text, pos, pos + length, ' ');
+        if(pos + length > endCursor) {
+            endCursor = pos;
+        }
+    }
+
+    /**
+     * Moves the dot and the end of the document after an insertion.
+     *
+     * @param pos The position characters were inserted at
+     * @param length Number of inserted characters
+     */
+    private void inserted(int pos, int length) {
+        this.currentDot = pos + length;
+        if(this.currentDot > endCursor) {
+            endCursor = this.currentDot;
+        }
+    }
+
 }
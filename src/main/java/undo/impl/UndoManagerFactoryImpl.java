@@ -1,10 +1,15 @@
 package undo.impl;
 
+import java.nio.file.Path;
+
 import undo.Change;
 import undo.Document;
+import undo.DocumentType;
 import undo.UndoManager;
 import undo.UndoManagerFactory;
 
+import util.RingBufferStack;
+
 /**
  * A factory implementation for {@link UndoManager}s.
  *
@@ -12,6 +17,11 @@ import undo.UndoManagerFactory;
  */
 public class UndoManagerFactoryImpl implements UndoManagerFactory {
 
+    /**
+     * Number of decompressed changes cached by a compressing undo manager.
+     */
+    private static final int COMPRESSION_CACHE_SIZE = 8;
+
     /**
      * Creates an undo manager for a {@link Document}.
      *
@@ -27,4 +37,155 @@ public class UndoManagerFactoryImpl implements UndoManagerFactory {
         return new UndoManagerImpl(doc, bufferSize);
     }
 
+    /**
+     * Creates an undo manager for a {@link Document} with a memory budget.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param bufferSize The number of {@link Change}es stored.
+     * @param maxRetainedBytes The estimated heap the stored {@link Change}es may retain, in bytes.
+     * @return The {@link UndoManager} created.
+     */
+    @Override
+    public UndoManager createUndoManager(Document doc, int bufferSize, long maxRetainedBytes) {
+        if(doc == null || bufferSize <= 0 || maxRetainedBytes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new UndoManagerImpl(doc, bufferSize, maxRetainedBytes);
+    }
+
+    /**
+     * Creates an undo manager for a {@link Document} that stores its history in
+     * {@link ChangeLog}s, keeping changes as primitive columns instead of objects.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param bufferSize The number of {@link Change}es stored.
+     * @return The {@link UndoManager} created.
+     */
+    public UndoManager createCompactUndoManager(Document doc, int bufferSize) {
+        if(doc == null || bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new UndoManagerImpl(doc, new ChangeLog(bufferSize), new ChangeLog(bufferSize), Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an undo manager for a {@link Document} that keeps the text of large changes
+     * compressed, decompressing it when the changes are undone or redone.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param bufferSize The number of {@link Change}es stored.
+     * @param threshold The text length from which {@link Change}es are compressed.
+     * @return The {@link UndoManager} created.
+     */
+    public UndoManagerImpl createCompressingUndoManager(Document doc, int bufferSize, int threshold) {
+        if(doc == null || bufferSize <= 0 || threshold < 0) {
+            throw new IllegalArgumentException();
+        }
+        var undoStack = new CompressingHistoryStack(new RingBufferStack<>(bufferSize), threshold, COMPRESSION_CACHE_SIZE);
+        var redoStack = new CompressingHistoryStack(new RingBufferStack<>(bufferSize), undoStack);
+        return new UndoManagerImpl(doc, undoStack, redoStack, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates an undo manager for a {@link Document} with unbounded history. Only the newest
+     * changes are kept on the heap, older ones are spilled into memory-mapped files that are
+     * deleted when the manager is closed.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param windowSize The number of {@link Change}es kept on the heap per stack.
+     * @param directory The directory to create the spill files in.
+     * @return The {@link UndoManager} created.
+     */
+    public UndoManagerImpl createSpillingUndoManager(Document doc, int windowSize, Path directory) {
+        if(doc == null || windowSize <= 0 || directory == null) {
+            throw new IllegalArgumentException();
+        }
+        return new UndoManagerImpl(doc, new SpillingChangeStack(windowSize, directory),
+                new SpillingChangeStack(windowSize, directory), Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a thread-safe undo manager for a {@link Document}, whose history can be
+     * read without blocking while other threads register changes.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param bufferSize The number of {@link Change}es stored.
+     * @return The {@link UndoManager} created.
+     */
+    public ConcurrentUndoManager createConcurrentUndoManager(Document doc, int bufferSize) {
+        if(doc == null || bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new ConcurrentUndoManager(doc, bufferSize);
+    }
+
+    /**
+     * Creates an undo manager for a {@link Document} running its operations in order off the
+     * calling thread, on virtual threads where the JVM supports them.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param bufferSize The number of {@link Change}es stored.
+     * @return The {@link UndoManager} created.
+     */
+    public AsyncUndoManager createAsyncUndoManager(Document doc, int bufferSize) {
+        if(doc == null || bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new AsyncUndoManager(new UndoManagerImpl(doc, bufferSize));
+    }
+
+    /**
+     * Creates an undo manager for a {@link Document} edited by other users as well, which
+     * transforms the stored changes against the remote edits reported to it.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param bufferSize The number of {@link Change}es stored.
+     * @return The {@link UndoManager} created.
+     */
+    public CollaborativeUndoManager createCollaborativeUndoManager(Document doc, int bufferSize) {
+        if(doc == null || bufferSize <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new CollaborativeUndoManager(doc, bufferSize);
+    }
+
+    /**
+     * Creates an undo manager for a {@link Document} that keeps every branch of the history
+     * instead of discarding undone changes once a new change is registered.
+     *
+     * @param doc The document to create the {@link UndoManager} for.
+     * @param maxRetainedBytes The estimated heap the stored {@link Change}es may retain, in bytes.
+     * @return The {@link UndoManager} created.
+     */
+    public UndoTreeManager createUndoTreeManager(Document doc, long maxRetainedBytes) {
+        if(doc == null || maxRetainedBytes <= 0) {
+            throw new IllegalArgumentException();
+        }
+        return new UndoTreeManager(doc, maxRetainedBytes);
+    }
+
+    /**
+     * Creates an empty {@link Document} to be managed by the {@link UndoManager}s
+     * of this factory.
+     *
+     * @param type The implementation of the document.
+     * @return The {@link Document} created.
+     */
+    @Override
+    public Document createDocument(DocumentType type) {
+        if(type == null) {
+            throw new IllegalArgumentException();
+        }
+        switch (type) {
+            case GAP_BUFFER:
+                return new GapBufferDocument();
+            case PIECE_TABLE:
+                return new PieceTableDocument();
+            case ROPE:
+                return new RopeDocument();
+            default:
+                return new StringDocument();
+        }
+    }
+
 }
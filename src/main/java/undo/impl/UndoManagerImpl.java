@@ -1,10 +1,24 @@
 package undo.impl;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
 import undo.Change;
 import undo.Document;
+import undo.Fingerprinted;
+import undo.Replaceable;
+import undo.Snapshottable;
+import undo.UndoListener;
 import undo.UndoManager;
 
-import util.FixedSizeStack;
+import util.HistoryStack;
+import util.RingBufferStack;
 
 /**
  * A manager implementation for undo and redo operations to {@link Document}s, based
@@ -12,7 +26,7 @@ import util.FixedSizeStack;
  *
  * @author Nemanja
  */
-public class UndoManagerImpl implements UndoManager {
+public class UndoManagerImpl implements UndoManager, Closeable {
 
     /**
      * Document manager is managing.
@@ -22,12 +36,123 @@ public class UndoManagerImpl implements UndoManager {
     /**
      * Stack for undo actions.
      */
-    private final FixedSizeStack<Change> undoStack;
+    private final HistoryStack<Change> undoStack;
 
     /**
      * Stack for redo actions.
      */
-    private final FixedSizeStack<Change> redoStack;
+    private final HistoryStack<Change> redoStack;
+
+    /**
+     * Maximal estimated heap retained by both stacks and the snapshots, in bytes.
+     */
+    private long maxRetainedBytes;
+
+    /**
+     * Estimated heap currently retained by the snapshots, the fingerprints and the changes in
+     * stacks that don't estimate their own footprint, in bytes.
+     */
+    private long retainedBytes;
+
+    /**
+     * Number of changes evicted from the bottom of the undo stack, the revision of its oldest change.
+     */
+    private long undoBase;
+
+    /**
+     * Compound collecting registered changes, or <code>null</code> if none is open.
+     */
+    private CompoundChange compound;
+
+    /**
+     * Number of nested compounds currently open.
+     */
+    private int compoundDepth;
+
+    /**
+     * Policy for merging consecutive typing changes, or <code>null</code> if disabled.
+     */
+    private CoalescingPolicy coalescingPolicy;
+
+    /**
+     * If the change on top of the undo stack was registered directly and may be merged with.
+     */
+    private boolean coalescible;
+
+    /**
+     * Time the change on top of the undo stack was registered, in nanoseconds.
+     */
+    private long lastRegistered;
+
+    /**
+     * Run the change on top of the undo stack is being merged in, or <code>null</code> if
+     * there is none. While a run is open, the change on the stack is the one the run started
+     * with, and it is only replaced once the run is closed.
+     */
+    private ChangeRun run;
+
+    /**
+     * Length of the text of the open run, as last charged to the memory budget.
+     */
+    private int runLength;
+
+    /**
+     * Estimated heap charged for the text the open run added to the change it started with,
+     * in bytes.
+     */
+    private long runBytes;
+
+    /**
+     * Snapshots of the document by revision.
+     */
+    private final TreeMap<Long, CharSequence> checkpoints;
+
+    /**
+     * Policy for taking snapshots of the document, or <code>null</code> if disabled.
+     */
+    private CheckpointPolicy checkpointPolicy;
+
+    /**
+     * Number of changes registered since the last snapshot.
+     */
+    private int changesSinceCheckpoint;
+
+    /**
+     * Number of characters changed since the last snapshot.
+     */
+    private long charsSinceCheckpoint;
+
+    /**
+     * Revision the document is observed at once it is known to be there, or <code>-1</code>
+     * if there is none. A change may be applied after it is registered, so the document is
+     * only observed at a later operation, or when its length shows it is at the revision.
+     */
+    private long pendingRevision;
+
+    /**
+     * Length change of the change that brought the document to the pending revision.
+     */
+    private long pendingDelta;
+
+    /**
+     * Expected length of the document at the current revision, or <code>-1</code> if unknown.
+     */
+    private long expectedLength;
+
+    /**
+     * Fingerprints of the document by revision, or <code>null</code> if they aren't recorded.
+     */
+    private TreeMap<Long, Long> fingerprints;
+
+    /**
+     * Listener notified of operations, or <code>null</code> if there is none.
+     */
+    private UndoListener listener;
+
+    /**
+     * Journal the operations are recorded in, or <code>null</code> if there is none.
+     */
+    private ChangeJournal journal;
 
     /**
      * Constructor.
@@ -36,12 +161,43 @@ public class UndoManagerImpl implements UndoManager {
      * @param bufferSize Size of buffer
      */
     public UndoManagerImpl(Document doc, int bufferSize) {
-        if (bufferSize < 0 || doc == null) {
+        this(doc, bufferSize, Long.MAX_VALUE);
+    }
+
+    /**
+     * Constructor with a memory budget. Once the changes in both stacks are estimated to
+     * retain more than the budget, the oldest changes are evicted, starting with the redo stack.
+     * The newest change on the undo stack is never evicted, so a single change larger than
+     * the budget can still be undone, and the budget is exceeded until it is evicted later.
+     *
+     * @param doc Document to be managed.
+     * @param bufferSize Size of buffer
+     * @param maxRetainedBytes Maximal estimated heap retained by the changes, in bytes
+     */
+    public UndoManagerImpl(Document doc, int bufferSize, long maxRetainedBytes) {
+        this(doc, new RingBufferStack<>(bufferSize), new RingBufferStack<>(bufferSize), maxRetainedBytes);
+    }
+
+    /**
+     * Constructor with given storage for the undo and redo stacks.
+     *
+     * @param doc Document to be managed.
+     * @param undoStack Empty stack for undo actions
+     * @param redoStack Empty stack for redo actions
+     * @param maxRetainedBytes Maximal estimated heap retained by the changes, in bytes
+     */
+    public UndoManagerImpl(Document doc, HistoryStack<Change> undoStack, HistoryStack<Change> redoStack,
+                           long maxRetainedBytes) {
+        if (doc == null || undoStack == null || redoStack == null || maxRetainedBytes < 0) {
             throw new IllegalArgumentException();
         }
         this.doc = doc;
-        this.redoStack = new FixedSizeStack<>(bufferSize);
-        this.undoStack = new FixedSizeStack<>(bufferSize);
+        this.undoStack = undoStack;
+        this.redoStack = redoStack;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.checkpoints = new TreeMap<>();
+        this.pendingRevision = -1;
+        this.expectedLength = -1;
     }
 
     /**
@@ -51,7 +207,147 @@ public class UndoManagerImpl implements UndoManager {
      */
     @Override
     public void registerChange(Change change) {
-        this.undoStack.push(change);
+        boolean coalesced;
+        if (this.listener == null) {
+            coalesced = register(change);
+        } else {
+            var start = System.nanoTime();
+            coalesced = register(change);
+            this.listener.registered(System.nanoTime() - start);
+            historyChanged();
+        }
+        if (this.journal != null) {
+            if (coalesced) {
+                this.journal.coalesced(change);
+            } else {
+                this.journal.registered(change);
+            }
+        }
+    }
+
+    /**
+     * Registers a change replayed from a {@link ChangeJournal}, merging it into the change on
+     * top of the undo stack exactly if it was merged when journaled, whatever the coalescing
+     * policy decides now.
+     *
+     * @param change The change, already applied to the document
+     * @param coalesced If the change was merged into the previous one
+     * @throws IllegalStateException If the change can't be merged into the previous one
+     */
+    void replayChange(Change change, boolean coalesced) {
+        if (this.compound != null && !coalesced) {
+            this.compound.add(change);
+            return;
+        }
+        if (coalesced && (this.compound != null || !(change instanceof ChangeImpl)
+                || !openRun() || !merge((ChangeImpl) change))) {
+            throw new IllegalStateException();
+        }
+        this.coalescible = this.coalescingPolicy != null && change instanceof ChangeImpl;
+        this.lastRegistered = System.nanoTime();
+        store(change, coalesced);
+    }
+
+    /**
+     * Sets listener notified of operations of the manager, such as {@link UndoMetrics}.
+     * Without a listener the manager doesn't measure anything.
+     *
+     * @param listener The listener, or <code>null</code> to stop notifying
+     */
+    public void setListener(UndoListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets journal registered changes, undos, redos and compounds are recorded in, for
+     * recovering the document after a crash. The journal has to be set while the document
+     * is empty and the history is too.
+     *
+     * @param journal The journal, or <code>null</code> to stop journaling
+     */
+    public void setJournal(ChangeJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * Sets policy for merging consecutive typing changes into a single change.
+     *
+     * @param coalescingPolicy The policy, or <code>null</code> to register every change as is
+     */
+    public void setCoalescingPolicy(CoalescingPolicy coalescingPolicy) {
+        this.coalescingPolicy = coalescingPolicy;
+        this.coalescible = false;
+    }
+
+    /**
+     * Sets policy for taking snapshots of the document. Deep undos and redos then restore
+     * the snapshot nearest to their target and only replay the changes from there. Has no
+     * effect unless the document is {@link Snapshottable}. Snapshots are charged to the memory
+     * budget as copies of the text and are dropped before any change is evicted.
+     * <p>
+     * A change may be applied to the document before or after it is registered. A snapshot
+     * due after a change is taken at the next operation, once the change was certainly
+     * applied, or right away if the length of the document shows it already was. A snapshot
+     * whose revision can't be told from the length of the document is skipped. The document
+     * has to be at the current revision when the policy is set.
+     *
+     * @param checkpointPolicy The policy, or <code>null</code> to drop all snapshots and take no more
+     */
+    public void setCheckpointPolicy(CheckpointPolicy checkpointPolicy) {
+        observe();
+        this.checkpointPolicy = checkpointPolicy;
+        dropCheckpoints(this.checkpoints);
+        this.changesSinceCheckpoint = 0;
+        this.charsSinceCheckpoint = 0;
+        if (checkpointPolicy != null && this.doc instanceof Snapshottable) {
+            this.expectedLength = documentLength();
+            takeCheckpoint(getRevision());
+        }
+    }
+
+    /**
+     * Sets if the fingerprint of the document is recorded with every change and checked after
+     * every undo and redo, to detect a document that diverged from its history in
+     * <code>O(log n)</code> instead of comparing its text. Has no effect unless the document
+     * is {@link Fingerprinted}.
+     * <p>
+     * A change may be applied to the document before or after it is registered. Like a
+     * snapshot, the fingerprint of a revision is recorded once the document is known to be at
+     * it, and skipped if that can't be told. The document has to be at the current revision
+     * when verification is turned on.
+     *
+     * @param verifying If fingerprints are recorded and checked
+     */
+    public void setVerifying(boolean verifying) {
+        observe();
+        if (this.fingerprints != null) {
+            dropFingerprints(this.fingerprints);
+        }
+        this.fingerprints = verifying && this.doc instanceof Fingerprinted ? new TreeMap<>() : null;
+        if (this.fingerprints != null) {
+            this.expectedLength = documentLength();
+            putFingerprint(getRevision());
+            trim();
+        }
+    }
+
+    /**
+     * Gets the fingerprint recorded for a revision, to compare it with a replica of the
+     * document at that revision.
+     *
+     * @param revision Revision returned by {@link #getRevision()}
+     * @return The fingerprint
+     * @throws IllegalStateException If no fingerprint is recorded for the revision
+     */
+    public long getFingerprint(long revision) {
+        if (revision == this.pendingRevision) {
+            observe(this.pendingDelta);
+        }
+        var fingerprint = this.fingerprints != null ? this.fingerprints.get(revision) : null;
+        if (fingerprint == null) {
+            throw new IllegalStateException();
+        }
+        return fingerprint;
     }
 
     /**
@@ -61,7 +357,7 @@ public class UndoManagerImpl implements UndoManager {
      */
     @Override
     public boolean canUndo() {
-        return !undoStack.empty();
+        return !undoStack.isEmpty() || (this.compound != null && !this.compound.isEmpty());
     }
 
     /**
@@ -69,12 +365,22 @@ public class UndoManagerImpl implements UndoManager {
      */
     @Override
     public void undo() {
-        if(!canUndo()) {
-            throw new IllegalStateException();
+        if (this.listener == null) {
+            undoChange();
+        } else {
+            var start = System.nanoTime();
+            try {
+                undoChange();
+            } catch (RuntimeException e) {
+                this.listener.failed(e);
+                throw e;
+            }
+            this.listener.undone(1, System.nanoTime() - start);
+            historyChanged();
+        }
+        if (this.journal != null) {
+            this.journal.undone(1);
         }
-        var change = this.undoStack.pop();
-        change.revert(this.doc);
-        this.redoStack.push(change);
     }
 
     /**
@@ -84,7 +390,7 @@ public class UndoManagerImpl implements UndoManager {
      */
     @Override
     public boolean canRedo() {
-        return !redoStack.empty();
+        return !redoStack.isEmpty();
     }
 
     /**
@@ -92,12 +398,929 @@ public class UndoManagerImpl implements UndoManager {
      */
     @Override
     public void redo() {
-        if(!canRedo()) {
+        if (this.listener == null) {
+            redoChange();
+        } else {
+            var start = System.nanoTime();
+            try {
+                redoChange();
+            } catch (RuntimeException e) {
+                this.listener.failed(e);
+                throw e;
+            }
+            this.listener.redone(1, System.nanoTime() - start);
+            historyChanged();
+        }
+        if (this.journal != null) {
+            this.journal.redone(1);
+        }
+    }
+
+    /**
+     * Undoes the latest changes. If the document is {@link Replaceable}, the net effect of all
+     * the changes is computed first and applied to the document in one pass, skipping
+     * insertions and deletions that cancel each other.
+     *
+     * @param n Number of changes to undo
+     * @throws IllegalArgumentException If <code>n</code> is negative
+     * @throws IllegalStateException If fewer than <code>n</code> changes can be undone,
+     *          or a change can't be reverted
+     */
+    @Override
+    public void undo(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (this.listener == null) {
+            undoChanges(n);
+        } else {
+            var start = System.nanoTime();
+            try {
+                undoChanges(n);
+            } catch (RuntimeException e) {
+                this.listener.failed(e);
+                throw e;
+            }
+            this.listener.undone(n, System.nanoTime() - start);
+            historyChanged();
+        }
+        if (this.journal != null) {
+            this.journal.undone(n);
+        }
+    }
+
+    /**
+     * Undoes the latest changes without notifying the listener.
+     *
+     * @param n Number of changes to undo
+     */
+    private void undoChanges(int n) {
+        finishCompound();
+        closeRun();
+        observe();
+        if (n > this.undoStack.size()) {
+            throw new IllegalStateException();
+        }
+        if (n <= 1) {
+            for (int i = 0; i < n; i++) {
+                undoChange();
+            }
+            return;
+        }
+        if (!restoreCheckpoint(getRevision() - n, n)) {
+            var changes = new ArrayList<Change>(n);
+            for (int i = 0; i < n; i++) {
+                changes.add(this.undoStack.get(this.undoStack.size() - 1 - i));
+            }
+            var script = EditScript.revert(this.doc, changes);
+            if (script == null
+                    || !script.applyTo(this.doc, EditScript.firstChange(changes.get(n - 1)).getOldDot())) {
+                for (int i = 0; i < n; i++) {
+                    undoChange();
+                }
+                return;
+            }
+        }
+        this.coalescible = false;
+        for (int i = 0; i < n; i++) {
+            pushRedo(popUndo());
+        }
+        moved();
+        verifyFingerprint();
+    }
+
+    /**
+     * Redoes the latest undone changes. If the document is {@link Replaceable}, the net effect
+     * of all the changes is computed first and applied to the document in one pass, skipping
+     * insertions and deletions that cancel each other.
+     *
+     * @param n Number of changes to redo
+     * @throws IllegalArgumentException If <code>n</code> is negative
+     * @throws IllegalStateException If fewer than <code>n</code> changes can be redone,
+     *          or a change can't be applied
+     */
+    @Override
+    public void redo(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException();
+        }
+        if (this.listener == null) {
+            redoChanges(n);
+        } else {
+            var start = System.nanoTime();
+            try {
+                redoChanges(n);
+            } catch (RuntimeException e) {
+                this.listener.failed(e);
+                throw e;
+            }
+            this.listener.redone(n, System.nanoTime() - start);
+            historyChanged();
+        }
+        if (this.journal != null) {
+            this.journal.redone(n);
+        }
+    }
+
+    /**
+     * Redoes the latest undone changes without notifying the listener.
+     *
+     * @param n Number of changes to redo
+     */
+    private void redoChanges(int n) {
+        finishCompound();
+        closeRun();
+        observe();
+        if (n > this.redoStack.size()) {
+            throw new IllegalStateException();
+        }
+        if (n <= 1) {
+            for (int i = 0; i < n; i++) {
+                redoChange();
+            }
+            return;
+        }
+        if (!restoreCheckpoint(getRevision() + n, n)) {
+            var changes = new ArrayList<Change>(n);
+            for (int i = 0; i < n; i++) {
+                changes.add(this.redoStack.get(this.redoStack.size() - 1 - i));
+            }
+            var script = EditScript.apply(this.doc, changes);
+            if (script == null
+                    || !script.applyTo(this.doc, EditScript.lastChange(changes.get(n - 1)).getNewDot())) {
+                for (int i = 0; i < n; i++) {
+                    redoChange();
+                }
+                return;
+            }
+        }
+        this.coalescible = false;
+        for (int i = 0; i < n; i++) {
+            pushUndo(popRedo());
+        }
+        moved();
+        verifyFingerprint();
+    }
+
+    /**
+     * Gets the revision of the document, which is the number of changes registered or redone
+     * minus the number of changes undone. An open compound counts as one change.
+     *
+     * @return The revision
+     */
+    public long getRevision() {
+        var pending = this.compound != null && !this.compound.isEmpty() ? 1 : 0;
+        return this.undoBase + this.undoStack.size() + pending;
+    }
+
+    /**
+     * Undoes or redoes changes until the document is at the given revision.
+     *
+     * @param revision Revision returned by {@link #getRevision()}
+     * @throws IllegalStateException If the revision isn't reachable through the stored changes,
+     *          or a change can't be applied or reverted
+     */
+    public void revertTo(long revision) {
+        finishCompound();
+        var current = getRevision();
+        if (revision < current - this.undoStack.size() || revision > current + this.redoStack.size()) {
             throw new IllegalStateException();
         }
+        if (revision < current) {
+            undo((int) (current - revision));
+        } else if (revision > current) {
+            redo((int) (revision - current));
+        }
+    }
+
+    /**
+     * Gets estimated heap currently retained by the changes in both stacks and the snapshots
+     * of the document.
+     *
+     * @return Estimated size in bytes
+     */
+    public long getRetainedBytes() {
+        return this.retainedBytes + footprint(this.undoStack) + footprint(this.redoStack);
+    }
+
+    /**
+     * Gets maximal estimated heap the changes in both stacks and the snapshots may retain.
+     *
+     * @return Memory budget in bytes
+     */
+    public long getMaxRetainedBytes() {
+        return this.maxRetainedBytes;
+    }
+
+    /**
+     * Changes the memory budget, evicting the oldest changes at once if the history exceeds
+     * the new one.
+     *
+     * @param maxRetainedBytes Maximal estimated heap retained by the changes, in bytes
+     * @throws IllegalArgumentException If the budget is negative
+     */
+    public void setMaxRetainedBytes(long maxRetainedBytes) {
+        if (maxRetainedBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.maxRetainedBytes = maxRetainedBytes;
+        trim();
+    }
+
+    /**
+     * Opens a compound, nesting it in the one already open.
+     */
+    @Override
+    public void beginCompound() {
+        if (this.compoundDepth++ == 0) {
+            observe();
+            this.compound = new CompoundChange();
+        }
+        if (this.journal != null) {
+            this.journal.compoundBegun();
+        }
+    }
+
+    /**
+     * Closes a compound, storing it as a single change once the outermost one is closed.
+     */
+    @Override
+    public void endCompound() {
+        if (this.compoundDepth == 0) {
+            throw new IllegalStateException();
+        }
+        if (--this.compoundDepth == 0) {
+            finishCompound();
+        }
+        if (this.journal != null) {
+            this.journal.compoundEnded();
+        }
+    }
+
+    /**
+     * Writes the undo and redo history to a channel in a compact binary format. An open
+     * compound is finished first.
+     *
+     * @param channel Channel to write to
+     * @throws IOException If the channel can't be written to
+     * @throws IllegalStateException If the history holds changes other than {@link ChangeImpl}s
+     *          and {@link CompoundChange}s
+     */
+    public void saveHistory(WritableByteChannel channel) throws IOException {
+        finishCompound();
+        closeRun();
+        HistoryFormat.write(this.undoStack, this.redoStack, channel);
+    }
+
+    /**
+     * Replaces the undo and redo history with one read from a channel. The history has to
+     * match the current state of the document. If a stack of the history holds more changes
+     * than the stacks of this manager can, only the newest ones are kept, and the oldest ones
+     * are evicted as well if the history exceeds the memory budget.
+     *
+     * @param channel Channel to read from
+     * @throws IOException If the channel can't be read or doesn't hold a valid history, in
+     *          which case the history is empty afterwards
+     */
+    public void loadHistory(ReadableByteChannel channel) throws IOException {
+        this.compound = this.compoundDepth > 0 ? new CompoundChange() : null;
+        this.coalescible = false;
+        this.run = null;
+        this.runBytes = 0;
+        this.undoBase = 0;
+        dropCheckpoints(this.checkpoints);
+        this.changesSinceCheckpoint = 0;
+        this.charsSinceCheckpoint = 0;
+        this.pendingRevision = -1;
+        this.expectedLength = observing() ? documentLength() : -1;
+        try {
+            HistoryFormat.read(channel, this.undoStack, this.redoStack);
+        } finally {
+            this.retainedBytes = 0;
+            for (var stack : List.of(this.undoStack, this.redoStack)) {
+                for (int i = 0; i < stack.size(); i++) {
+                    this.retainedBytes += footprint(stack, stack.get(i));
+                }
+            }
+            if (this.fingerprints != null) {
+                this.fingerprints.clear();
+                putFingerprint(getRevision());
+            }
+            trim();
+        }
+    }
+
+    /**
+     * Releases resources held by the undo and redo stacks, such as spill files.
+     *
+     * @throws IOException If a stack can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            if (this.undoStack instanceof Closeable) {
+                ((Closeable) this.undoStack).close();
+            }
+        } finally {
+            if (this.redoStack instanceof Closeable) {
+                ((Closeable) this.redoStack).close();
+            }
+        }
+    }
+
+    /**
+     * Pushes a change to the undo stack, evicting old changes to stay within the budget.
+     *
+     * @param change The change to push
+     */
+    private void pushUndo(Change change) {
+        var evicted = this.undoStack.push(change);
+        this.retainedBytes += footprint(this.undoStack, change);
+        if (evicted != null) {
+            evictedOldest(evicted);
+        }
+        trim();
+    }
+
+    /**
+     * Pops a change from the undo stack.
+     *
+     * @return The popped change
+     */
+    private Change popUndo() {
+        var change = this.undoStack.pop();
+        this.retainedBytes -= footprint(this.undoStack, change);
+        return change;
+    }
+
+    /**
+     * Pushes a change to the redo stack, evicting old changes to stay within the budget.
+     *
+     * @param change The change to push
+     */
+    private void pushRedo(Change change) {
+        var evicted = this.redoStack.push(change);
+        this.retainedBytes += footprint(this.redoStack, change);
+        evicted(this.redoStack, evicted);
+        trim();
+    }
+
+    /**
+     * Estimates heap retained by a change in a stack, unless the stack estimates its own
+     * footprint, as stacks storing changes in another form do.
+     *
+     * @param stack The stack
+     * @param change The change pushed to or removed from the stack
+     * @return Estimated size in bytes, <code>0</code> if the stack accounts for it
+     */
+    private static long footprint(HistoryStack<Change> stack, Change change) {
+        return stack instanceof MemoryFootprint ? 0 : MemoryFootprint.of(change);
+    }
+
+    /**
+     * Estimates heap retained by a stack that estimates its own footprint.
+     *
+     * @param stack The stack
+     * @return Estimated size in bytes, <code>0</code> if the changes in the stack are counted
+     *          one by one
+     */
+    private static long footprint(HistoryStack<Change> stack) {
+        return stack instanceof MemoryFootprint ? ((MemoryFootprint) stack).retainedBytes() : 0;
+    }
+
+    /**
+     * Pops a change from the redo stack.
+     *
+     * @return The popped change
+     */
+    private Change popRedo() {
         var change = this.redoStack.pop();
+        this.retainedBytes -= footprint(this.redoStack, change);
+        return change;
+    }
+
+    /**
+     * Drops the oldest snapshots and then evicts the oldest changes, redo stack first, until
+     * the memory budget is met. The newest change on the undo stack is kept even if it alone
+     * exceeds the budget.
+     */
+    private void trim() {
+        while (getRetainedBytes() > this.maxRetainedBytes) {
+            if (!this.checkpoints.isEmpty()) {
+                dropCheckpoints(this.checkpoints.headMap(this.checkpoints.firstKey(), true));
+            } else if (!this.redoStack.isEmpty()) {
+                evicted(this.redoStack, this.redoStack.removeOldest());
+            } else if (this.undoStack.size() > 1) {
+                evictedOldest(this.undoStack.removeOldest());
+            } else {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Accounts for a change evicted from the bottom of the undo stack, dropping the
+     * fingerprints of revisions no longer reachable.
+     *
+     * @param change The evicted change
+     */
+    private void evictedOldest(Change change) {
+        this.undoBase++;
+        evicted(this.undoStack, change);
+        if (this.fingerprints != null) {
+            dropFingerprints(this.fingerprints.headMap(this.undoBase, false));
+        }
+    }
+
+    /**
+     * Accounts for a change evicted from one of the stacks.
+     *
+     * @param stack The stack
+     * @param change The evicted change, or <code>null</code> if nothing was evicted
+     */
+    private void evicted(HistoryStack<Change> stack, Change change) {
+        if (change != null) {
+            this.retainedBytes -= footprint(stack, change);
+            if (this.listener != null) {
+                this.listener.evicted(change);
+            }
+        }
+    }
+
+    /**
+     * Registers a change without notifying the listener of the time spent.
+     *
+     * @param change The change to register
+     * @return If the change was merged into the previous one
+     */
+    private boolean register(Change change) {
+        if (this.compound == null) {
+            observe(lengthDelta(change));
+        }
+        if (this.compound != null) {
+            this.compound.add(change);
+            return false;
+        }
+        var merged = false;
+        if (this.coalescingPolicy != null) {
+            var now = System.nanoTime();
+            merged = this.coalescible && coalesce(change, now - this.lastRegistered);
+            this.coalescible = change instanceof ChangeImpl;
+            this.lastRegistered = now;
+        }
+        store(change, merged);
+        return merged;
+    }
+
+    /**
+     * Pushes a registered change, or accounts for it if it was merged into the open run.
+     *
+     * @param change The registered change
+     * @param merged If the change was merged into the open run, or else it is pushed as is
+     */
+    private void store(Change change, boolean merged) {
+        if (merged) {
+            pend(change);
+            if (this.listener != null) {
+                this.listener.coalesced();
+            }
+            return;
+        }
+        closeRun();
+        pushUndo(change);
+        pend(change);
+    }
+
+    /**
+     * Undoes the latest change without notifying the listener.
+     */
+    private void undoChange() {
+        finishCompound();
+        closeRun();
+        observe();
+        if(!canUndo()) {
+            throw new IllegalStateException();
+        }
+        this.coalescible = false;
+        var change = popUndo();
+        change.revert(this.doc);
+        pushRedo(change);
+        moved();
+        verifyFingerprint();
+    }
+
+    /**
+     * Redoes the latest undone change without notifying the listener.
+     */
+    private void redoChange() {
+        finishCompound();
+        closeRun();
+        observe();
+        if(!canRedo()) {
+            throw new IllegalStateException();
+        }
+        this.coalescible = false;
+        var change = popRedo();
         change.apply(this.doc);
-        this.undoStack.push(change);
+        pushUndo(change);
+        moved();
+        verifyFingerprint();
+    }
+
+    /**
+     * Reports the size of the history to the listener.
+     */
+    private void historyChanged() {
+        this.listener.historyChanged(this.undoStack.size(), this.redoStack.size(), getRetainedBytes());
+    }
+
+    /**
+     * Merges a change into the open run, opening one on the change on top of the undo stack
+     * if needed, if the coalescing policy allows it.
+     *
+     * @param change The change being registered
+     * @param elapsed Time since the top change was registered, in nanoseconds
+     * @return If the change was merged, or else it has to be pushed as is
+     */
+    private boolean coalesce(Change change, long elapsed) {
+        if (!(change instanceof ChangeImpl) || !openRun()) {
+            return false;
+        }
+        var next = (ChangeImpl) change;
+        return this.coalescingPolicy.canMerge(this.run, next, elapsed) && merge(next);
+    }
+
+    /**
+     * Opens a run on the change on top of the undo stack, unless one is open already.
+     *
+     * @return If a run is open, or <code>false</code> if the top change can't be merged with
+     */
+    private boolean openRun() {
+        if (this.run != null) {
+            return true;
+        }
+        if (this.undoStack.isEmpty() || !(this.undoStack.peek() instanceof ChangeImpl)) {
+            return false;
+        }
+        this.run = new ChangeRun((ChangeImpl) this.undoStack.peek());
+        this.runLength = this.run.length();
+        return true;
+    }
+
+    /**
+     * Merges a change into the open run, charging the text it adds to the memory budget.
+     *
+     * @param change The change
+     * @return If the change was merged
+     */
+    private boolean merge(ChangeImpl change) {
+        if (!this.run.add(change)) {
+            return false;
+        }
+        var added = 2L * (this.run.length() - this.runLength);
+        this.runLength = this.run.length();
+        this.runBytes += added;
+        this.retainedBytes += added;
+        trim();
+        return true;
+    }
+
+    /**
+     * Closes the open run, if any, replacing the change on top of the undo stack with the
+     * merged one.
+     */
+    private void closeRun() {
+        if (this.run == null) {
+            return;
+        }
+        var merged = this.run.toChange();
+        this.run = null;
+        this.retainedBytes -= this.runBytes;
+        this.runBytes = 0;
+        if (merged != this.undoStack.peek()) {
+            popUndo();
+            pushUndo(merged);
+        }
+    }
+
+    /**
+     * Notes that a registered change brought the document to the current revision, and
+     * observes the document right away if its length shows the change was already applied.
+     *
+     * @param change The registered change
+     */
+    private void pend(Change change) {
+        if (!observing()) {
+            return;
+        }
+        checkpoint(change);
+        var revision = getRevision();
+        if (this.fingerprints != null) {
+            dropFingerprints(this.fingerprints.tailMap(revision, true));
+            dropFingerprints(this.fingerprints.headMap(this.undoBase, false));
+        }
+        var delta = lengthDelta(change);
+        this.expectedLength = this.expectedLength < 0 || delta == Long.MIN_VALUE ? -1 : this.expectedLength + delta;
+        this.pendingRevision = revision;
+        this.pendingDelta = delta;
+        observe(delta);
+    }
+
+    /**
+     * Observes the document at the pending revision if its length shows it is there. The
+     * document is either there or one change away, so it has to have the expected length and
+     * that change has to change the length.
+     *
+     * @param delta Length change of the change the document may be away by, or
+     *          {@link Long#MIN_VALUE} if unknown
+     */
+    private void observe(long delta) {
+        if (this.pendingRevision >= 0 && this.expectedLength >= 0 && delta != 0 && delta != Long.MIN_VALUE
+                && documentLength() == this.expectedLength) {
+            settle();
+        }
+    }
+
+    /**
+     * Observes the document at the pending revision, which it is known to be at.
+     */
+    private void observe() {
+        if (this.pendingRevision >= 0) {
+            this.expectedLength = documentLength();
+            settle();
+        }
+    }
+
+    /**
+     * Takes the snapshot due at the pending revision and records its fingerprint, the
+     * document being at it.
+     */
+    private void settle() {
+        var revision = this.pendingRevision;
+        this.pendingRevision = -1;
+        if (this.fingerprints != null) {
+            putFingerprint(revision);
+            trim();
+        }
+        if (this.checkpointPolicy != null && this.doc instanceof Snapshottable
+                && this.checkpointPolicy.isDue(this.changesSinceCheckpoint, this.charsSinceCheckpoint)) {
+            takeCheckpoint(revision);
+            this.changesSinceCheckpoint = 0;
+            this.charsSinceCheckpoint = 0;
+        }
+    }
+
+    /**
+     * Updates the expected length of the document after the manager moved it through its
+     * history, which leaves it at the current revision.
+     */
+    private void moved() {
+        this.pendingRevision = -1;
+        this.expectedLength = observing() ? documentLength() : -1;
+    }
+
+    /**
+     * Checks if the document is observed at every revision.
+     *
+     * @return If snapshots are taken or fingerprints recorded
+     */
+    private boolean observing() {
+        return (this.checkpointPolicy != null && this.doc instanceof Snapshottable) || this.fingerprints != null;
+    }
+
+    /**
+     * Gets length of the document.
+     *
+     * @return Number of characters
+     */
+    private int documentLength() {
+        if (this.doc instanceof Fingerprinted) {
+            return ((Fingerprinted) this.doc).length();
+        }
+        return ((Snapshottable) this.doc).snapshot().length();
+    }
+
+    /**
+     * Gets the change of the length of the document a change makes.
+     *
+     * @param change The change
+     * @return Number of characters inserted less the number deleted, or {@link Long#MIN_VALUE}
+     *          if unknown
+     */
+    private static long lengthDelta(Change change) {
+        if (change instanceof ChangeImpl) {
+            var impl = (ChangeImpl) change;
+            var length = impl.getString().length();
+            return impl.getChangeType() == ChangeType.INSERT ? length : -length;
+        }
+        if (change instanceof CompressedChange) {
+            var length = ((CompressedChange) change).getLength();
+            return ChangeType.INSERT.toString().equals(change.getType()) ? length : -length;
+        }
+        if (change instanceof RangeDeletion) {
+            return -((RangeDeletion) change).getLength();
+        }
+        if (!(change instanceof CompoundChange)) {
+            return Long.MIN_VALUE;
+        }
+        var delta = 0L;
+        for (var child : ((CompoundChange) change).getChanges()) {
+            var childDelta = lengthDelta(child);
+            if (childDelta == Long.MIN_VALUE) {
+                return Long.MIN_VALUE;
+            }
+            delta += childDelta;
+        }
+        return delta;
+    }
+
+    /**
+     * Drops snapshots a registered change made stale and counts it towards the next one.
+     *
+     * @param change The registered change
+     */
+    private void checkpoint(Change change) {
+        if (this.checkpointPolicy == null || !(this.doc instanceof Snapshottable)) {
+            return;
+        }
+        var revision = getRevision();
+        dropCheckpoints(this.checkpoints.tailMap(revision, true));
+        dropCheckpoints(this.checkpoints.headMap(this.undoBase, false));
+        this.changesSinceCheckpoint++;
+        this.charsSinceCheckpoint += textLength(change);
+    }
+
+    /**
+     * Takes a snapshot of the document for a revision, charging it to the memory budget and
+     * dropping the oldest snapshots beyond the number the checkpoint policy allows.
+     *
+     * @param revision The revision
+     */
+    private void takeCheckpoint(long revision) {
+        var snapshot = ((Snapshottable) this.doc).snapshot();
+        this.checkpoints.put(revision, snapshot);
+        this.retainedBytes += MemoryFootprint.snapshotBytes(snapshot);
+        while (this.checkpoints.size() > this.checkpointPolicy.getMaxCheckpoints()) {
+            dropCheckpoints(this.checkpoints.headMap(this.checkpoints.firstKey(), true));
+        }
+        trim();
+    }
+
+    /**
+     * Drops snapshots, releasing the heap charged for them.
+     *
+     * @param dropped View of the snapshots to drop
+     */
+    private void dropCheckpoints(Map<Long, CharSequence> dropped) {
+        for (var snapshot : dropped.values()) {
+            this.retainedBytes -= MemoryFootprint.snapshotBytes(snapshot);
+        }
+        dropped.clear();
+    }
+
+    /**
+     * Records the fingerprint of the document for a revision, charging it to the memory budget.
+     *
+     * @param revision The revision
+     */
+    private void putFingerprint(long revision) {
+        if (this.fingerprints.put(revision, ((Fingerprinted) this.doc).fingerprint()) == null) {
+            this.retainedBytes += MemoryFootprint.FINGERPRINT_BYTES;
+        }
+    }
+
+    /**
+     * Drops recorded fingerprints, releasing their share of the memory budget.
+     *
+     * @param dropped View of the fingerprints to drop
+     */
+    private void dropFingerprints(Map<Long, Long> dropped) {
+        this.retainedBytes -= MemoryFootprint.FINGERPRINT_BYTES * dropped.size();
+        dropped.clear();
+    }
+
+    /**
+     * Checks that the document has the fingerprint recorded for the current revision, if any.
+     *
+     * @throws IllegalStateException If the document diverged from its history
+     */
+    private void verifyFingerprint() {
+        if (this.fingerprints == null) {
+            return;
+        }
+        var expected = this.fingerprints.get(getRevision());
+        if (expected != null && expected != ((Fingerprinted) this.doc).fingerprint()) {
+            throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Moves the document to a revision by restoring the nearest snapshot and replaying the
+     * changes between it and the revision, if that is shorter than the direct way.
+     *
+     * @param target Revision to move to, reachable through the stacks
+     * @param distance Number of changes between the current revision and the target
+     * @return If the document was moved
+     */
+    private boolean restoreCheckpoint(long target, int distance) {
+        var current = getRevision();
+        var floor = this.checkpoints.floorEntry(target);
+        var ceiling = this.checkpoints.ceilingEntry(target);
+        Map.Entry<Long, CharSequence> nearest = null;
+        if (floor != null && floor.getKey() >= current - this.undoStack.size()) {
+            nearest = floor;
+        }
+        if (ceiling != null && ceiling.getKey() <= current + this.redoStack.size()
+                && (nearest == null || ceiling.getKey() - target < target - nearest.getKey())) {
+            nearest = ceiling;
+        }
+        if (nearest == null || Math.abs(nearest.getKey() - target) >= distance) {
+            return false;
+        }
+        var changes = new ArrayList<Change>();
+        EditScript script;
+        if (nearest.getKey() >= target) {
+            for (long revision = nearest.getKey(); revision > target; revision--) {
+                changes.add(changeTo(revision));
+            }
+            script = EditScript.revert(this.doc, changes);
+        } else {
+            for (long revision = nearest.getKey() + 1; revision <= target; revision++) {
+                changes.add(changeTo(revision));
+            }
+            script = EditScript.apply(this.doc, changes);
+        }
+        var dotChange = target < current ? changeTo(target + 1) : changeTo(target);
+        if (script == null || !EditScript.supports(dotChange)) {
+            return false;
+        }
+        var dot = target < current
+                ? EditScript.firstChange(dotChange).getOldDot()
+                : EditScript.lastChange(dotChange).getNewDot();
+        var snapshottable = (Snapshottable) this.doc;
+        var before = snapshottable.snapshot();
+        snapshottable.restore(nearest.getValue());
+        if (!script.applyTo(this.doc, dot)) {
+            snapshottable.restore(before);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Finds the change leading to a revision. Has to be called with no compound open.
+     *
+     * @param revision Revision reachable through the stacks
+     * @return The change on the undo or redo stack
+     */
+    private Change changeTo(long revision) {
+        var current = this.undoBase + this.undoStack.size();
+        if (revision <= current) {
+            return this.undoStack.get((int) (revision - this.undoBase - 1));
+        }
+        return this.redoStack.get(this.redoStack.size() - (int) (revision - current));
+    }
+
+    /**
+     * Counts characters touched by a change.
+     *
+     * @param change The change
+     * @return Number of inserted and deleted characters, <code>0</code> if unknown
+     */
+    private static long textLength(Change change) {
+        if (change instanceof ChangeImpl) {
+            return ((ChangeImpl) change).getString().length();
+        }
+        if (change instanceof CompressedChange) {
+            return ((CompressedChange) change).getLength();
+        }
+        var length = 0L;
+        if (change instanceof CompoundChange) {
+            for (var child : ((CompoundChange) change).getChanges()) {
+                length += textLength(child);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Stores the open compound, if any. If it is finished before the outermost level is
+     * closed, the nesting levels stay open and collect later changes into a new compound.
+     */
+    private void finishCompound() {
+        if (this.compound == null) {
+            return;
+        }
+        this.coalescible = false;
+        closeRun();
+        var compound = this.compound;
+        var changes = compound.getChanges();
+        this.compound = this.compoundDepth > 0 ? new CompoundChange() : null;
+        if (!changes.isEmpty()) {
+            var change = changes.size() == 1 ? changes.get(0) : compound;
+            pushUndo(change);
+            pend(change);
+        }
     }
 
 }
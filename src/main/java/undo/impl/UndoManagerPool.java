@@ -0,0 +1,682 @@
+package undo.impl;
+
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import undo.Change;
+import undo.Document;
+import undo.UndoManager;
+
+/**
+ * A registry of undo managers for many {@link Document}s, meant for servers hosting a lot of
+ * editing sessions in one JVM.
+ * <p>
+ * Documents are matched by identity and spread over lock stripes, so sessions of different
+ * stripes never contend. A session only gets its undo and redo stacks once a change is
+ * registered. The stacks are {@link ChangeLog}s, and every stripe keeps the cleared ones of
+ * evicted and released histories, up to {@value #MAX_IDLE_STACKS}, for its next sessions to
+ * reuse. A stack belongs to one session at a time; sessions never share one.
+ * <p>
+ * The memory budget is shared by all sessions. Every stripe keeps its sessions with history
+ * in LRU order, and when the budget is exceeded, a session changing its history drops the
+ * history of the least recently used sessions of its stripe. If that isn't enough, the
+ * session trims its own history to what the other sessions leave of the budget. Sessions
+ * with an open compound are never evicted.
+ *
+ * @author Nemanja
+ */
+public class UndoManagerPool {
+
+    /**
+     * Default number of lock stripes.
+     */
+    private static final int DEFAULT_STRIPES = 64;
+
+    /**
+     * Maximal number of cleared stacks a stripe keeps for reuse.
+     */
+    private static final int MAX_IDLE_STACKS = 16;
+
+    /**
+     * Number of {@link Change}es stored per session.
+     */
+    private final int bufferSize;
+
+    /**
+     * Maximal estimated heap retained by all sessions, in bytes.
+     */
+    private final long maxRetainedBytes;
+
+    /**
+     * Estimated heap retained by all sessions, in bytes.
+     */
+    private final AtomicLong retainedBytes;
+
+    /**
+     * Lock stripes, their number being a power of two.
+     */
+    private final Stripe[] stripes;
+
+    /**
+     * Number of registered changes.
+     */
+    private final LongAdder registered;
+
+    /**
+     * Number of undone changes.
+     */
+    private final LongAdder undone;
+
+    /**
+     * Number of redone changes.
+     */
+    private final LongAdder redone;
+
+    /**
+     * Number of evicted session histories.
+     */
+    private final LongAdder evictions;
+
+    /**
+     * Time the pool was created, in nanoseconds.
+     */
+    private final long created;
+
+    /**
+     * Constructor with the default number of lock stripes.
+     *
+     * @param bufferSize Number of changes stored per session
+     * @param maxRetainedBytes Maximal estimated heap retained by all sessions, in bytes
+     */
+    public UndoManagerPool(int bufferSize, long maxRetainedBytes) {
+        this(bufferSize, maxRetainedBytes, DEFAULT_STRIPES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param bufferSize Number of changes stored per session
+     * @param maxRetainedBytes Maximal estimated heap retained by all sessions, in bytes
+     * @param stripes Number of lock stripes, rounded up to a power of two
+     */
+    public UndoManagerPool(int bufferSize, long maxRetainedBytes, int stripes) {
+        if (bufferSize <= 0 || maxRetainedBytes <= 0 || stripes <= 0 || stripes > 1 << 16) {
+            throw new IllegalArgumentException();
+        }
+        var count = Integer.highestOneBit(stripes) == stripes ? stripes : Integer.highestOneBit(stripes) << 1;
+        this.bufferSize = bufferSize;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.retainedBytes = new AtomicLong();
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.registered = new LongAdder();
+        this.undone = new LongAdder();
+        this.redone = new LongAdder();
+        this.evictions = new LongAdder();
+        this.created = System.nanoTime();
+    }
+
+    /**
+     * Gets the undo manager of a document, creating it if needed.
+     *
+     * @param doc The document
+     * @return The undo manager, the same one for as long as the document isn't released.
+     *          Once released, it throws {@link IllegalStateException} on any change.
+     */
+    public UndoManager get(Document doc) {
+        if (doc == null) {
+            throw new IllegalArgumentException();
+        }
+        var stripe = stripe(doc);
+        stripe.lock.lock();
+        try {
+            return stripe.sessions.computeIfAbsent(doc, key -> new Session(key, stripe));
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the undo manager of a document and drops its history.
+     *
+     * @param doc The document
+     * @return If the document had an undo manager
+     */
+    public boolean release(Document doc) {
+        if (doc == null) {
+            throw new IllegalArgumentException();
+        }
+        var stripe = stripe(doc);
+        stripe.lock.lock();
+        try {
+            var session = stripe.sessions.remove(doc);
+            if (session == null) {
+                return false;
+            }
+            session.drop();
+            return true;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * Collects statistics over all sessions. Each stripe is locked in turn, so the result is
+     * consistent per stripe only.
+     *
+     * @return The statistics
+     */
+    public Statistics getStatistics() {
+        var sessions = 0;
+        var active = 0;
+        var idle = 0;
+        for (var stripe : this.stripes) {
+            stripe.lock.lock();
+            try {
+                sessions += stripe.sessions.size();
+                active += stripe.lru.size();
+                idle += stripe.idleStacks.size();
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        var retained = this.retainedBytes.get();
+        return new Statistics(sessions, active, idle, retained, this.registered.sum(), this.undone.sum(),
+                this.redone.sum(), this.evictions.sum(), System.nanoTime() - this.created);
+    }
+
+    /**
+     * Finds the stripe of a document.
+     *
+     * @param doc The document
+     * @return The stripe
+     */
+    private Stripe stripe(Document doc) {
+        var hash = System.identityHashCode(doc);
+        return this.stripes[(hash ^ hash >>> 16) & (this.stripes.length - 1)];
+    }
+
+    /**
+     * A lock stripe with the sessions guarded by it.
+     */
+    private static final class Stripe {
+
+        /**
+         * Lock guarding the stripe and its sessions.
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        /**
+         * Sessions by document identity.
+         */
+        private final IdentityHashMap<Document, Session> sessions = new IdentityHashMap<>();
+
+        /**
+         * Sessions with history, the least recently used one first.
+         */
+        private final LinkedHashMap<Session, Boolean> lru = new LinkedHashMap<>(16, 0.75f, true);
+
+        /**
+         * Cleared stacks of dropped histories, kept for reuse.
+         */
+        private final ArrayDeque<ChangeLog> idleStacks = new ArrayDeque<>();
+
+        /**
+         * Takes a stack for a new history, reusing an idle one if there is any.
+         *
+         * @param capacity Capacity of a new stack
+         * @return Empty stack
+         */
+        private ChangeLog take(int capacity) {
+            var stack = this.idleStacks.pollFirst();
+            return stack != null ? stack : new ChangeLog(capacity);
+        }
+
+        /**
+         * Clears the stack of a dropped history and keeps it for reuse, unless enough
+         * stacks are kept already.
+         *
+         * @param stack The stack
+         */
+        private void recycle(ChangeLog stack) {
+            if (this.idleStacks.size() < MAX_IDLE_STACKS) {
+                stack.clear();
+                this.idleStacks.addFirst(stack);
+            }
+        }
+    }
+
+    /**
+     * The undo manager of a single document, delegating to an {@link UndoManagerImpl}
+     * that is created on the first change and dropped on eviction.
+     */
+    private final class Session implements UndoManager {
+
+        /**
+         * Document session is managing.
+         */
+        private final Document doc;
+
+        /**
+         * Stripe of the session.
+         */
+        private final Stripe stripe;
+
+        /**
+         * Manager holding the history, or <code>null</code> if the session has none.
+         */
+        private UndoManagerImpl manager;
+
+        /**
+         * Undo stack of the manager, or <code>null</code> if the session has no history.
+         */
+        private ChangeLog undoStack;
+
+        /**
+         * Redo stack of the manager, or <code>null</code> if the session has no history.
+         */
+        private ChangeLog redoStack;
+
+        /**
+         * Number of nested compounds currently open.
+         */
+        private int compoundDepth;
+
+        /**
+         * Estimated heap retained by the history, in bytes, as last accounted in the pool.
+         */
+        private long retainedBytes;
+
+        /**
+         * If the session was released, after which it can't get a history again.
+         */
+        private boolean released;
+
+        /**
+         * Constructor.
+         *
+         * @param doc Document session is managing
+         * @param stripe Stripe of the session
+         */
+        private Session(Document doc, Stripe stripe) {
+            this.doc = doc;
+            this.stripe = stripe;
+        }
+
+        /**
+         * Register change to the manager.
+         *
+         * @param change The change to register.
+         */
+        @Override
+        public void registerChange(Change change) {
+            this.stripe.lock.lock();
+            try {
+                manager().registerChange(change);
+                updated();
+                UndoManagerPool.this.registered.increment();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Check if undo is possible.
+         *
+         * @return If manager can undo action.
+         */
+        @Override
+        public boolean canUndo() {
+            this.stripe.lock.lock();
+            try {
+                return this.manager != null && this.manager.canUndo();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Undo latest action.
+         */
+        @Override
+        public void undo() {
+            this.stripe.lock.lock();
+            try {
+                if (this.manager == null) {
+                    throw new IllegalStateException();
+                }
+                try {
+                    this.manager.undo();
+                } finally {
+                    updated();
+                }
+                UndoManagerPool.this.undone.increment();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Check if redo is possible.
+         *
+         * @return If manager can redo action.
+         */
+        @Override
+        public boolean canRedo() {
+            this.stripe.lock.lock();
+            try {
+                return this.manager != null && this.manager.canRedo();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Redo latest action.
+         */
+        @Override
+        public void redo() {
+            this.stripe.lock.lock();
+            try {
+                if (this.manager == null) {
+                    throw new IllegalStateException();
+                }
+                try {
+                    this.manager.redo();
+                } finally {
+                    updated();
+                }
+                UndoManagerPool.this.redone.increment();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Opens a compound, nesting it in the one already open.
+         */
+        @Override
+        public void beginCompound() {
+            this.stripe.lock.lock();
+            try {
+                manager().beginCompound();
+                this.compoundDepth++;
+                updated();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Closes a compound, storing it as a single change once the outermost one is closed.
+         */
+        @Override
+        public void endCompound() {
+            this.stripe.lock.lock();
+            try {
+                if (this.compoundDepth == 0) {
+                    throw new IllegalStateException();
+                }
+                this.manager.endCompound();
+                this.compoundDepth--;
+                updated();
+            } finally {
+                this.stripe.lock.unlock();
+            }
+        }
+
+        /**
+         * Gets the manager holding the history, creating it if needed, with the budget the
+         * other sessions leave.
+         *
+         * @return The manager
+         * @throws IllegalStateException If the session was released
+         */
+        private UndoManagerImpl manager() {
+            if (this.released) {
+                throw new IllegalStateException();
+            }
+            var pool = UndoManagerPool.this;
+            var remaining = Math.max(0, pool.maxRetainedBytes - (pool.retainedBytes.get() - this.retainedBytes));
+            if (this.manager == null) {
+                this.undoStack = this.stripe.take(pool.bufferSize);
+                this.redoStack = this.stripe.take(pool.bufferSize);
+                this.manager = new UndoManagerImpl(this.doc, this.undoStack, this.redoStack, remaining);
+            } else {
+                this.manager.setMaxRetainedBytes(remaining);
+            }
+            return this.manager;
+        }
+
+        /**
+         * Accounts for a change of the history. If the pool exceeds its budget, evicts the
+         * least recently used histories of the stripe and then trims this history to the
+         * budget the other sessions leave.
+         */
+        private void updated() {
+            var pool = UndoManagerPool.this;
+            account();
+            this.stripe.lru.put(this, Boolean.TRUE);
+            var iterator = this.stripe.lru.keySet().iterator();
+            while (pool.retainedBytes.get() > pool.maxRetainedBytes && iterator.hasNext()) {
+                var session = iterator.next();
+                if (session != this && session.compoundDepth == 0) {
+                    iterator.remove();
+                    session.evict();
+                    pool.evictions.increment();
+                }
+            }
+            var others = pool.retainedBytes.get() - this.retainedBytes;
+            this.manager.setMaxRetainedBytes(Math.max(0, pool.maxRetainedBytes - others));
+            account();
+        }
+
+        /**
+         * Accounts for the heap currently retained by the history in the pool.
+         */
+        private void account() {
+            var retained = this.manager.getRetainedBytes();
+            UndoManagerPool.this.retainedBytes.addAndGet(retained - this.retainedBytes);
+            this.retainedBytes = retained;
+        }
+
+        /**
+         * Drops the history without touching the LRU order, handing its stacks back to the
+         * stripe.
+         */
+        private void evict() {
+            UndoManagerPool.this.retainedBytes.addAndGet(-this.retainedBytes);
+            this.retainedBytes = 0;
+            if (this.manager != null) {
+                this.stripe.recycle(this.undoStack);
+                this.stripe.recycle(this.redoStack);
+            }
+            this.manager = null;
+            this.undoStack = null;
+            this.redoStack = null;
+        }
+
+        /**
+         * Drops the history of a released session.
+         */
+        private void drop() {
+            this.stripe.lru.remove(this);
+            evict();
+            this.compoundDepth = 0;
+            this.released = true;
+        }
+    }
+
+    /**
+     * A snapshot of the pool statistics.
+     */
+    public static final class Statistics {
+
+        /**
+         * Number of sessions.
+         */
+        private final int sessions;
+
+        /**
+         * Number of sessions holding history.
+         */
+        private final int activeSessions;
+
+        /**
+         * Number of cleared stacks kept for reuse.
+         */
+        private final int idleStacks;
+
+        /**
+         * Estimated heap retained by all sessions, in bytes.
+         */
+        private final long retainedBytes;
+
+        /**
+         * Number of registered changes.
+         */
+        private final long registered;
+
+        /**
+         * Number of undone changes.
+         */
+        private final long undone;
+
+        /**
+         * Number of redone changes.
+         */
+        private final long redone;
+
+        /**
+         * Number of evicted session histories.
+         */
+        private final long evictions;
+
+        /**
+         * Time since the pool was created, in nanoseconds.
+         */
+        private final long uptime;
+
+        /**
+         * Constructor.
+         *
+         * @param sessions Number of sessions
+         * @param activeSessions Number of sessions holding history
+         * @param idleStacks Number of cleared stacks kept for reuse
+         * @param retainedBytes Estimated heap retained by all sessions, in bytes
+         * @param registered Number of registered changes
+         * @param undone Number of undone changes
+         * @param redone Number of redone changes
+         * @param evictions Number of evicted session histories
+         * @param uptime Time since the pool was created, in nanoseconds
+         */
+        private Statistics(int sessions, int activeSessions, int idleStacks, long retainedBytes, long registered,
+                           long undone, long redone, long evictions, long uptime) {
+            this.sessions = sessions;
+            this.activeSessions = activeSessions;
+            this.idleStacks = idleStacks;
+            this.retainedBytes = retainedBytes;
+            this.registered = registered;
+            this.undone = undone;
+            this.redone = redone;
+            this.evictions = evictions;
+            this.uptime = uptime;
+        }
+
+        /**
+         * Gets number of sessions.
+         *
+         * @return Number of documents with an undo manager
+         */
+        public int getSessions() {
+            return this.sessions;
+        }
+
+        /**
+         * Gets number of sessions holding history.
+         *
+         * @return Number of sessions with allocated stacks
+         */
+        public int getActiveSessions() {
+            return this.activeSessions;
+        }
+
+        /**
+         * Gets number of cleared stacks kept for reuse.
+         *
+         * @return Number of stacks not held by any session
+         */
+        public int getIdleStacks() {
+            return this.idleStacks;
+        }
+
+        /**
+         * Gets estimated heap retained by all sessions.
+         *
+         * @return Estimated size in bytes
+         */
+        public long getRetainedBytes() {
+            return this.retainedBytes;
+        }
+
+        /**
+         * Gets number of registered changes.
+         *
+         * @return Number of changes
+         */
+        public long getRegistered() {
+            return this.registered;
+        }
+
+        /**
+         * Gets number of undone changes.
+         *
+         * @return Number of changes
+         */
+        public long getUndone() {
+            return this.undone;
+        }
+
+        /**
+         * Gets number of redone changes.
+         *
+         * @return Number of changes
+         */
+        public long getRedone() {
+            return this.redone;
+        }
+
+        /**
+         * Gets number of evicted session histories.
+         *
+         * @return Number of evictions
+         */
+        public long getEvictions() {
+            return this.evictions;
+        }
+
+        /**
+         * Computes the rate of registrations, undos and redos since an earlier snapshot.
+         *
+         * @param earlier Snapshot taken before this one, or <code>null</code> for the rate
+         *          since the pool was created
+         * @return Operations per second
+         */
+        public double operationsPerSecond(Statistics earlier) {
+            var operations = this.registered + this.undone + this.redone;
+            var nanos = this.uptime;
+            if (earlier != null) {
+                operations -= earlier.registered + earlier.undone + earlier.redone;
+                nanos -= earlier.uptime;
+            }
+            return nanos > 0 ? operations * 1e9 / nanos : 0;
+        }
+    }
+
+}
@@ -0,0 +1,384 @@
+package undo.impl;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import undo.Change;
+import undo.UndoListener;
+
+import util.LatencyHistogram;
+
+/**
+ * Metrics of an undo manager, collected as its {@link UndoListener}: counters of registered,
+ * merged, undone, redone, evicted changes and failures, latency histograms of registering,
+ * undoing and redoing, and gauges of the history size.
+ * <p>
+ * Counters and histograms can be shared by managers on many threads. Gauges hold the values
+ * reported after the latest operation, so they are only meaningful for a single manager.
+ *
+ * @author Nemanja
+ */
+public class UndoMetrics implements UndoListener, UndoMetricsMXBean {
+
+    /**
+     * Number of registered changes.
+     */
+    private final LongAdder registered;
+
+    /**
+     * Number of changes merged into the previous one.
+     */
+    private final LongAdder coalesced;
+
+    /**
+     * Number of undone changes.
+     */
+    private final LongAdder undone;
+
+    /**
+     * Number of redone changes.
+     */
+    private final LongAdder redone;
+
+    /**
+     * Number of evicted changes.
+     */
+    private final LongAdder evicted;
+
+    /**
+     * Number of failed undos and redos.
+     */
+    private final LongAdder failed;
+
+    /**
+     * Time spent registering changes.
+     */
+    private final LatencyHistogram registerLatency;
+
+    /**
+     * Time spent in undos.
+     */
+    private final LatencyHistogram undoLatency;
+
+    /**
+     * Time spent in redos.
+     */
+    private final LatencyHistogram redoLatency;
+
+    /**
+     * Depth of the undo stack after the latest operation.
+     */
+    private volatile int undoDepth;
+
+    /**
+     * Depth of the redo stack after the latest operation.
+     */
+    private volatile int redoDepth;
+
+    /**
+     * Heap retained by the history after the latest operation.
+     */
+    private volatile long retainedBytes;
+
+    /**
+     * Constructor.
+     */
+    public UndoMetrics() {
+        this.registered = new LongAdder();
+        this.coalesced = new LongAdder();
+        this.undone = new LongAdder();
+        this.redone = new LongAdder();
+        this.evicted = new LongAdder();
+        this.failed = new LongAdder();
+        this.registerLatency = new LatencyHistogram();
+        this.undoLatency = new LatencyHistogram();
+        this.redoLatency = new LatencyHistogram();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server.
+     *
+     * @param name Name of the document, distinguishing the metrics from others
+     * @return Name the metrics are registered under, for unregistering them later
+     * @throws JMException If the metrics can't be registered, for example because the name is taken
+     */
+    public ObjectName register(String name) throws JMException {
+        var objectName = new ObjectName("undo:type=UndoMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /**
+     * Counts a registered change and records the time spent.
+     *
+     * @param nanos Time spent registering the change, in nanoseconds
+     */
+    @Override
+    public void registered(long nanos) {
+        this.registered.increment();
+        this.registerLatency.record(nanos);
+    }
+
+    /**
+     * Counts a change merged into the previous one.
+     */
+    @Override
+    public void coalesced() {
+        this.coalesced.increment();
+    }
+
+    /**
+     * Counts undone changes and records the time spent.
+     *
+     * @param count Number of changes undone
+     * @param nanos Time spent undoing them, in nanoseconds
+     */
+    @Override
+    public void undone(int count, long nanos) {
+        this.undone.add(count);
+        this.undoLatency.record(nanos);
+    }
+
+    /**
+     * Counts redone changes and records the time spent.
+     *
+     * @param count Number of changes redone
+     * @param nanos Time spent redoing them, in nanoseconds
+     */
+    @Override
+    public void redone(int count, long nanos) {
+        this.redone.add(count);
+        this.redoLatency.record(nanos);
+    }
+
+    /**
+     * Counts an evicted change.
+     *
+     * @param change The evicted change
+     */
+    @Override
+    public void evicted(Change change) {
+        this.evicted.increment();
+    }
+
+    /**
+     * Counts a failed undo or redo.
+     *
+     * @param e The exception
+     */
+    @Override
+    public void failed(RuntimeException e) {
+        this.failed.increment();
+    }
+
+    /**
+     * Updates the gauges.
+     *
+     * @param undoDepth Number of changes that can be undone
+     * @param redoDepth Number of changes that can be redone
+     * @param retainedBytes Estimated heap retained by the history, in bytes
+     */
+    @Override
+    public void historyChanged(int undoDepth, int redoDepth, long retainedBytes) {
+        this.undoDepth = undoDepth;
+        this.redoDepth = redoDepth;
+        this.retainedBytes = retainedBytes;
+    }
+
+    /**
+     * Gets the number of registered changes.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public long getRegistered() {
+        return this.registered.sum();
+    }
+
+    /**
+     * Gets the number of changes merged into the previous one.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public long getCoalesced() {
+        return this.coalesced.sum();
+    }
+
+    /**
+     * Gets the number of undone changes.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public long getUndone() {
+        return this.undone.sum();
+    }
+
+    /**
+     * Gets the number of redone changes.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public long getRedone() {
+        return this.redone.sum();
+    }
+
+    /**
+     * Gets the number of changes evicted from the history.
+     *
+     * @return Number of changes
+     */
+    @Override
+    public long getEvicted() {
+        return this.evicted.sum();
+    }
+
+    /**
+     * Gets the number of failed undos and redos.
+     *
+     * @return Number of failures
+     */
+    @Override
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /**
+     * Gets the number of changes that could be undone after the latest operation.
+     *
+     * @return Depth of the undo stack
+     */
+    @Override
+    public int getUndoDepth() {
+        return this.undoDepth;
+    }
+
+    /**
+     * Gets the number of changes that could be redone after the latest operation.
+     *
+     * @return Depth of the redo stack
+     */
+    @Override
+    public int getRedoDepth() {
+        return this.redoDepth;
+    }
+
+    /**
+     * Gets the estimated heap retained by the history after the latest operation.
+     *
+     * @return Retained heap, in bytes
+     */
+    @Override
+    public long getRetainedBytes() {
+        return this.retainedBytes;
+    }
+
+    /**
+     * Gets the median time spent registering a change.
+     *
+     * @return The time, in nanoseconds
+     */
+    @Override
+    public long getRegisterMedianNanos() {
+        return this.registerLatency.getPercentile(50);
+    }
+
+    /**
+     * Gets the 99th percentile of time spent registering a change.
+     *
+     * @return The time, in nanoseconds
+     */
+    @Override
+    public long getRegister99thPercentileNanos() {
+        return this.registerLatency.getPercentile(99);
+    }
+
+    /**
+     * Gets the median time spent in an undo.
+     *
+     * @return The time, in nanoseconds
+     */
+    @Override
+    public long getUndoMedianNanos() {
+        return this.undoLatency.getPercentile(50);
+    }
+
+    /**
+     * Gets the 99th percentile of time spent in an undo.
+     *
+     * @return The time, in nanoseconds
+     */
+    @Override
+    public long getUndo99thPercentileNanos() {
+        return this.undoLatency.getPercentile(99);
+    }
+
+    /**
+     * Gets the median time spent in a redo.
+     *
+     * @return The time, in nanoseconds
+     */
+    @Override
+    public long getRedoMedianNanos() {
+        return this.redoLatency.getPercentile(50);
+    }
+
+    /**
+     * Gets the 99th percentile of time spent in a redo.
+     *
+     * @return The time, in nanoseconds
+     */
+    @Override
+    public long getRedo99thPercentileNanos() {
+        return this.redoLatency.getPercentile(99);
+    }
+
+    /**
+     * Gets the histogram of time spent registering changes.
+     *
+     * @return The histogram
+     */
+    public LatencyHistogram getRegisterLatency() {
+        return this.registerLatency;
+    }
+
+    /**
+     * Gets the histogram of time spent in undos.
+     *
+     * @return The histogram
+     */
+    public LatencyHistogram getUndoLatency() {
+        return this.undoLatency;
+    }
+
+    /**
+     * Gets the histogram of time spent in redos.
+     *
+     * @return The histogram
+     */
+    public LatencyHistogram getRedoLatency() {
+        return this.redoLatency;
+    }
+
+    /**
+     * Clears all counters and latencies. Gauges keep their values.
+     */
+    @Override
+    public void reset() {
+        this.registered.reset();
+        this.coalesced.reset();
+        this.undone.reset();
+        this.redone.reset();
+        this.evicted.reset();
+        this.failed.reset();
+        this.registerLatency.reset();
+        this.undoLatency.reset();
+        this.redoLatency.reset();
+    }
+
+}
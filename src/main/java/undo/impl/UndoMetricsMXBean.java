@@ -0,0 +1,120 @@
+package undo.impl;
+
+/**
+ * Management interface of {@link UndoMetrics}, exporting them over JMX.
+ *
+ * @author Nemanja
+ */
+public interface UndoMetricsMXBean {
+
+    /**
+     * Gets the number of registered changes.
+     *
+     * @return Number of changes
+     */
+    long getRegistered();
+
+    /**
+     * Gets the number of changes merged into the previous one.
+     *
+     * @return Number of changes
+     */
+    long getCoalesced();
+
+    /**
+     * Gets the number of undone changes.
+     *
+     * @return Number of changes
+     */
+    long getUndone();
+
+    /**
+     * Gets the number of redone changes.
+     *
+     * @return Number of changes
+     */
+    long getRedone();
+
+    /**
+     * Gets the number of changes evicted from the history.
+     *
+     * @return Number of changes
+     */
+    long getEvicted();
+
+    /**
+     * Gets the number of failed undos and redos.
+     *
+     * @return Number of failures
+     */
+    long getFailed();
+
+    /**
+     * Gets the number of changes that could be undone after the latest operation.
+     *
+     * @return Depth of the undo stack
+     */
+    int getUndoDepth();
+
+    /**
+     * Gets the number of changes that could be redone after the latest operation.
+     *
+     * @return Depth of the redo stack
+     */
+    int getRedoDepth();
+
+    /**
+     * Gets the estimated heap retained by the history after the latest operation.
+     *
+     * @return Retained heap, in bytes
+     */
+    long getRetainedBytes();
+
+    /**
+     * Gets the median time spent registering a change.
+     *
+     * @return The time, in nanoseconds
+     */
+    long getRegisterMedianNanos();
+
+    /**
+     * Gets the 99th percentile of time spent registering a change.
+     *
+     * @return The time, in nanoseconds
+     */
+    long getRegister99thPercentileNanos();
+
+    /**
+     * Gets the median time spent in an undo.
+     *
+     * @return The time, in nanoseconds
+     */
+    long getUndoMedianNanos();
+
+    /**
+     * Gets the 99th percentile of time spent in an undo.
+     *
+     * @return The time, in nanoseconds
+     */
+    long getUndo99thPercentileNanos();
+
+    /**
+     * Gets the median time spent in a redo.
+     *
+     * @return The time, in nanoseconds
+     */
+    long getRedoMedianNanos();
+
+    /**
+     * Gets the 99th percentile of time spent in a redo.
+     *
+     * @return The time, in nanoseconds
+     */
+    long getRedo99thPercentileNanos();
+
+    /**
+     * Clears all counters and latencies. Gauges keep their values.
+     */
+    void reset();
+
+}
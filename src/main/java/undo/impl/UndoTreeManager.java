@@ -0,0 +1,520 @@
+package undo.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.TreeMap;
+
+import undo.Change;
+import undo.Document;
+import undo.UndoManager;
+
+/**
+ * A manager for undo and redo operations that keeps every branch of the history. Registering
+ * a change after an undo starts a new branch instead of leaving the undone changes on a redo
+ * stack they no longer fit, and every state ever reached stays reachable through
+ * {@link #goTo(long)}.
+ * <p>
+ * The history is a tree of changes sharing their common prefixes. Undo moves to the parent
+ * node, redo to the most recently visited child. Moving to any node reverts the changes up to
+ * the common ancestor and applies the ones down to the target, fused into a single
+ * {@link EditScript} where the document allows it.
+ * <p>
+ * Once the changes are estimated to retain more than the memory budget, the oldest branches
+ * off the current path are dropped first, and then the oldest changes of the current path.
+ * The change leading to the current node is never dropped, so the last change stays undoable
+ * even if it alone exceeds the budget.
+ * Leaves are kept in an eviction queue ordered by age, and depths are counted from the first
+ * root, so that each dropped node costs <code>O(log n)</code> for <code>n</code> nodes.
+ *
+ * @author Nemanja
+ */
+public class UndoTreeManager implements UndoManager {
+
+    /**
+     * Estimated heap retained by a node besides its change, in bytes.
+     */
+    private static final long NODE_BYTES = 48;
+
+    /**
+     * Document manager is managing.
+     */
+    private final Document doc;
+
+    /**
+     * Maximal estimated heap retained by the changes, in bytes.
+     */
+    private final long maxRetainedBytes;
+
+    /**
+     * Nodes by id, in the order they were created.
+     */
+    private final LinkedHashMap<Long, Node> nodes;
+
+    /**
+     * Nodes without children other than the root, by id, the oldest one first.
+     */
+    private final TreeMap<Long, Node> leaves;
+
+    /**
+     * Root node, holding no change.
+     */
+    private Node root;
+
+    /**
+     * Node of the current state of the document.
+     */
+    private Node current;
+
+    /**
+     * Id of the next created node.
+     */
+    private long nextId;
+
+    /**
+     * Estimated heap currently retained by the changes, in bytes.
+     */
+    private long retainedBytes;
+
+    /**
+     * Compound collecting registered changes, or <code>null</code> if none is open.
+     */
+    private CompoundChange compound;
+
+    /**
+     * Number of nested compounds currently open.
+     */
+    private int compoundDepth;
+
+    /**
+     * Constructor.
+     *
+     * @param doc Document to be managed.
+     * @param maxRetainedBytes Maximal estimated heap retained by the changes, in bytes
+     */
+    public UndoTreeManager(Document doc, long maxRetainedBytes) {
+        if (doc == null || maxRetainedBytes < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.doc = doc;
+        this.maxRetainedBytes = maxRetainedBytes;
+        this.nodes = new LinkedHashMap<>();
+        this.leaves = new TreeMap<>();
+        this.root = new Node(this.nextId++, null, null);
+        this.nodes.put(this.root.id, this.root);
+        this.current = this.root;
+    }
+
+    /**
+     * Register change to the manager, as a new child of the current node.
+     *
+     * @param change The change to register.
+     */
+    @Override
+    public void registerChange(Change change) {
+        if (this.compound != null) {
+            this.compound.add(change);
+            return;
+        }
+        addChild(change);
+    }
+
+    /**
+     * Check if undo is possible.
+     *
+     * @return If manager can undo action.
+     */
+    @Override
+    public boolean canUndo() {
+        return this.current != this.root || (this.compound != null && !this.compound.isEmpty());
+    }
+
+    /**
+     * Undo latest action, moving to the parent node.
+     */
+    @Override
+    public void undo() {
+        finishCompound();
+        if (this.current == this.root) {
+            throw new IllegalStateException();
+        }
+        this.current.change.revert(this.doc);
+        this.current.parent.redoChild = this.current;
+        this.current = this.current.parent;
+    }
+
+    /**
+     * Check if redo is possible.
+     *
+     * @return If manager can redo action.
+     */
+    @Override
+    public boolean canRedo() {
+        return this.current.redoChild != null;
+    }
+
+    /**
+     * Redo latest undone action, moving to the most recently visited child node.
+     */
+    @Override
+    public void redo() {
+        finishCompound();
+        if (this.current.redoChild == null) {
+            throw new IllegalStateException();
+        }
+        this.current.redoChild.change.apply(this.doc);
+        this.current = this.current.redoChild;
+    }
+
+    /**
+     * Opens a compound, nesting it in the one already open.
+     */
+    @Override
+    public void beginCompound() {
+        if (this.compoundDepth++ == 0) {
+            this.compound = new CompoundChange();
+        }
+    }
+
+    /**
+     * Closes a compound, storing it as a single change once the outermost one is closed.
+     */
+    @Override
+    public void endCompound() {
+        if (this.compoundDepth == 0) {
+            throw new IllegalStateException();
+        }
+        if (--this.compoundDepth == 0) {
+            finishCompound();
+        }
+    }
+
+    /**
+     * Undoes the latest changes, moving to an ancestor node in one step.
+     *
+     * @param n Number of changes to undo
+     * @throws IllegalArgumentException If <code>n</code> is negative
+     * @throws IllegalStateException If the current node has fewer than <code>n</code>
+     *          ancestors, or a change can't be reverted
+     */
+    @Override
+    public void undo(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException();
+        }
+        finishCompound();
+        if (n > this.current.depth - this.root.depth) {
+            throw new IllegalStateException();
+        }
+        var target = this.current;
+        for (int i = 0; i < n; i++) {
+            target = target.parent;
+        }
+        moveTo(target);
+    }
+
+    /**
+     * Redoes the latest undone changes, following the most recently visited children in one step.
+     *
+     * @param n Number of changes to redo
+     * @throws IllegalArgumentException If <code>n</code> is negative
+     * @throws IllegalStateException If fewer than <code>n</code> changes can be redone,
+     *          or a change can't be applied
+     */
+    @Override
+    public void redo(int n) {
+        if (n < 0) {
+            throw new IllegalArgumentException();
+        }
+        finishCompound();
+        var target = this.current;
+        for (int i = 0; i < n; i++) {
+            if (target.redoChild == null) {
+                throw new IllegalStateException();
+            }
+            target = target.redoChild;
+        }
+        moveTo(target);
+    }
+
+    /**
+     * Gets the id of the node of the current state. An open compound isn't a node yet.
+     *
+     * @return The node id
+     */
+    public long getCurrentId() {
+        return this.current.id;
+    }
+
+    /**
+     * Gets the ids of the children of a node, each starting a branch.
+     *
+     * @param id Id of the node
+     * @return Ids of the children, the oldest one first
+     * @throws IllegalStateException If there is no node with the id
+     */
+    public List<Long> getChildIds(long id) {
+        var node = node(id);
+        var ids = new ArrayList<Long>(node.children.size());
+        for (var child : node.children) {
+            ids.add(child.id);
+        }
+        return Collections.unmodifiableList(ids);
+    }
+
+    /**
+     * Moves the document to the state of a node, reverting the changes up to the common
+     * ancestor with the current node and applying those down to the target node.
+     *
+     * @param id Id of the node
+     * @throws IllegalStateException If there is no node with the id, or a change can't be
+     *          applied or reverted
+     */
+    public void goTo(long id) {
+        finishCompound();
+        moveTo(node(id));
+    }
+
+    /**
+     * Gets estimated heap currently retained by the changes.
+     *
+     * @return Estimated size in bytes
+     */
+    public long getRetainedBytes() {
+        return this.retainedBytes;
+    }
+
+    /**
+     * Moves the document to the state of a node.
+     *
+     * @param target The node
+     */
+    private void moveTo(Node target) {
+        var up = this.current;
+        var down = target;
+        var reverted = new ArrayList<Node>();
+        var applied = new ArrayList<Node>();
+        while (up.depth > down.depth) {
+            reverted.add(up);
+            up = up.parent;
+        }
+        while (down.depth > up.depth) {
+            applied.add(down);
+            down = down.parent;
+        }
+        while (up != down) {
+            reverted.add(up);
+            up = up.parent;
+            applied.add(down);
+            down = down.parent;
+        }
+        Collections.reverse(applied);
+        move(reverted, applied);
+        for (var node : reverted) {
+            node.parent.redoChild = node;
+        }
+        for (var node : applied) {
+            node.parent.redoChild = node;
+        }
+        this.current = target;
+    }
+
+    /**
+     * Reverts and applies the changes of a path through the tree.
+     *
+     * @param reverted Nodes to revert, in order
+     * @param applied Nodes to apply afterwards, in order
+     */
+    private void move(List<Node> reverted, List<Node> applied) {
+        var revertedChanges = new ArrayList<Change>(reverted.size());
+        for (var node : reverted) {
+            revertedChanges.add(node.change);
+        }
+        var appliedChanges = new ArrayList<Change>(applied.size());
+        for (var node : applied) {
+            appliedChanges.add(node.change);
+        }
+        if (revertedChanges.size() + appliedChanges.size() > 1) {
+            var script = EditScript.path(this.doc, revertedChanges, appliedChanges);
+            if (script != null) {
+                var dot = appliedChanges.isEmpty()
+                        ? EditScript.firstChange(revertedChanges.get(revertedChanges.size() - 1)).getOldDot()
+                        : EditScript.lastChange(appliedChanges.get(appliedChanges.size() - 1)).getNewDot();
+                if (script.applyTo(this.doc, dot)) {
+                    return;
+                }
+            }
+        }
+        for (var change : revertedChanges) {
+            change.revert(this.doc);
+        }
+        for (var change : appliedChanges) {
+            change.apply(this.doc);
+        }
+    }
+
+    /**
+     * Adds a change as a new child of the current node and moves to it.
+     *
+     * @param change The change
+     */
+    private void addChild(Change change) {
+        var child = new Node(this.nextId++, this.current, change);
+        this.current.children.add(child);
+        this.nodes.put(child.id, child);
+        this.leaves.remove(this.current.id);
+        this.leaves.put(child.id, child);
+        this.current = child;
+        this.retainedBytes += child.retainedBytes;
+        trim();
+    }
+
+    /**
+     * Drops nodes until the memory budget is met, starting with the oldest leaves off the
+     * current path, and then the oldest changes of the current path up to the one leading to
+     * the current node.
+     */
+    private void trim() {
+        while (this.retainedBytes > this.maxRetainedBytes) {
+            var oldest = this.leaves.firstEntry();
+            if (oldest != null && oldest.getValue() == this.current) {
+                oldest = this.leaves.higherEntry(oldest.getKey());
+            }
+            if (oldest == null) {
+                break;
+            }
+            var node = oldest.getValue();
+            while (node != this.root && node != this.current && node.children.isEmpty()
+                    && this.retainedBytes > this.maxRetainedBytes) {
+                var parent = node.parent;
+                remove(node);
+                node = parent;
+            }
+        }
+        while (this.retainedBytes > this.maxRetainedBytes && this.current != this.root) {
+            // only the current path is left, so the root has a single child
+            var next = this.root.children.get(0);
+            if (next == this.current) {
+                break;
+            }
+            this.nodes.remove(this.root.id);
+            this.leaves.remove(next.id);
+            this.retainedBytes -= next.retainedBytes;
+            next.change = null;
+            next.retainedBytes = 0;
+            next.parent = null;
+            this.root = next;
+        }
+    }
+
+    /**
+     * Removes a leaf node.
+     *
+     * @param node The node
+     */
+    private void remove(Node node) {
+        var parent = node.parent;
+        parent.children.remove(node);
+        if (parent.redoChild == node) {
+            parent.redoChild = parent.children.isEmpty() ? null : parent.children.get(parent.children.size() - 1);
+        }
+        this.nodes.remove(node.id);
+        this.leaves.remove(node.id);
+        if (parent.children.isEmpty() && parent != this.root) {
+            this.leaves.put(parent.id, parent);
+        }
+        this.retainedBytes -= node.retainedBytes;
+    }
+
+    /**
+     * Finds a node.
+     *
+     * @param id Id of the node
+     * @return The node
+     * @throws IllegalStateException If there is no node with the id
+     */
+    private Node node(long id) {
+        var node = this.nodes.get(id);
+        if (node == null) {
+            throw new IllegalStateException();
+        }
+        return node;
+    }
+
+    /**
+     * Stores the open compound, if any. If it is finished before the outermost level is
+     * closed, the nesting levels stay open and collect later changes into a new compound.
+     */
+    private void finishCompound() {
+        if (this.compound == null) {
+            return;
+        }
+        var compound = this.compound;
+        var changes = compound.getChanges();
+        this.compound = this.compoundDepth > 0 ? new CompoundChange() : null;
+        if (changes.size() == 1) {
+            addChild(changes.get(0));
+        } else if (!changes.isEmpty()) {
+            addChild(compound);
+        }
+    }
+
+    /**
+     * A node of the history tree.
+     */
+    private static final class Node {
+
+        /**
+         * Id of the node.
+         */
+        private final long id;
+
+        /**
+         * Branches starting at this node, the oldest one first.
+         */
+        private final List<Node> children;
+
+        /**
+         * Parent node, or <code>null</code> for the root.
+         */
+        private Node parent;
+
+        /**
+         * Change leading from the parent to this node, or <code>null</code> for the root.
+         */
+        private Change change;
+
+        /**
+         * Child redo moves to, or <code>null</code> if there is none.
+         */
+        private Node redoChild;
+
+        /**
+         * Distance from the first root, the one the manager was created with.
+         */
+        private int depth;
+
+        /**
+         * Estimated heap retained by the change, in bytes.
+         */
+        private long retainedBytes;
+
+        /**
+         * Constructor.
+         *
+         * @param id Id of the node
+         * @param parent Parent node
+         * @param change Change leading from the parent to this node
+         */
+        private Node(long id, Node parent, Change change) {
+            this.id = id;
+            this.parent = parent;
+            this.change = change;
+            this.children = new ArrayList<>(1);
+            this.depth = parent == null ? 0 : parent.depth + 1;
+            this.retainedBytes = change == null ? 0 : MemoryFootprint.of(change) + NODE_BYTES;
+        }
+    }
+
+}
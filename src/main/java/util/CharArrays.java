@@ -0,0 +1,88 @@
+package util;
+
+import java.util.Arrays;
+
+/**
+ * Bulk copying and comparing of character sequences with ranges of character arrays.
+ * Strings and string builders are copied with <code>getChars</code>, and compared by
+ * copying them in blocks of {@value #BLOCK_LENGTH} characters and calling
+ * {@link Arrays#mismatch(char[], int, int, char[], int, int)} on each block. Other
+ * sequences are read one character at a time.
+ *
+ * @author Nemanja
+ */
+public final class CharArrays {
+
+    /**
+     * Number of characters compared at a time.
+     */
+    private static final int BLOCK_LENGTH = 256;
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private CharArrays() {
+    }
+
+    /**
+     * Copies a part of a character sequence into an array.
+     *
+     * @param s The characters
+     * @param from Index of the first character to copy
+     * @param to Index after the last character to copy
+     * @param chars Array to copy to
+     * @param offset Index in <code>chars</code> to copy the first character to
+     * @throws IndexOutOfBoundsException If a range is outside of <code>s</code> or <code>chars</code>
+     */
+    public static void copy(CharSequence s, int from, int to, char[] chars, int offset) {
+        if (s instanceof String) {
+            ((String) s).getChars(from, to, chars, offset);
+        } else if (s instanceof StringBuilder) {
+            ((StringBuilder) s).getChars(from, to, chars, offset);
+        } else if (s instanceof StringBuffer) {
+            ((StringBuffer) s).getChars(from, to, chars, offset);
+        } else {
+            if (from < 0 || from > to || to > s.length() || offset < 0 || offset + to - from > chars.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            for (int i = from; i < to; i++) {
+                chars[offset++] = s.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * Checks if a range of an array holds a part of a character sequence.
+     *
+     * @param chars The array
+     * @param offset Index of the first compared character in <code>chars</code>
+     * @param s The characters
+     * @param from Index of the first compared character in <code>s</code>
+     * @param length Number of characters to compare
+     * @return If the ranges hold the same characters
+     * @throws IndexOutOfBoundsException If a range is outside of <code>s</code> or <code>chars</code>
+     */
+    public static boolean regionMatches(char[] chars, int offset, CharSequence s, int from, int length) {
+        if (!(s instanceof String || s instanceof StringBuilder || s instanceof StringBuffer)) {
+            if (offset < 0 || length < 0 || offset + length > chars.length) {
+                throw new IndexOutOfBoundsException();
+            }
+            for (int i = 0; i < length; i++) {
+                if (chars[offset + i] != s.charAt(from + i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        var block = new char[Math.min(length, BLOCK_LENGTH)];
+        for (int done = 0; done < length; done += block.length) {
+            var count = Math.min(block.length, length - done);
+            copy(s, from + done, from + done + count, block, 0);
+            if (Arrays.mismatch(chars, offset + done, offset + done + count, block, 0, count) >= 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
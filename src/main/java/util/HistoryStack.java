@@ -0,0 +1,79 @@
+package util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A stack of a fixed capacity where pushing to a full stack evicts the oldest object.
+ *
+ * @author Nemanja
+ */
+public interface HistoryStack<T> {
+
+    /**
+     * Pushes object to top of the stack, evicting the oldest object if the stack is full.
+     *
+     * @param object Object to be pushed
+     * @return Evicted object, or <code>null</code> if nothing was evicted
+     */
+    T push(T object);
+
+    /**
+     * Removes object from top of the stack.
+     *
+     * @return Removed object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    T pop();
+
+    /**
+     * Gets object from top of the stack without removing it.
+     *
+     * @return Top object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    T peek();
+
+    /**
+     * Removes the oldest object from the bottom of the stack.
+     *
+     * @return Removed object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    T removeOldest();
+
+    /**
+     * Gets object at given position, counting from the oldest one.
+     *
+     * @param i Position of the object, <code>0</code> being the oldest
+     * @return Object at the position
+     * @throws IndexOutOfBoundsException If there is no object at the position
+     */
+    T get(int i);
+
+    /**
+     * Removes all objects from the stack.
+     */
+    void clear();
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return If there are no objects in the stack
+     */
+    boolean isEmpty();
+
+    /**
+     * Gets number of objects in the stack.
+     *
+     * @return Number of objects
+     */
+    int size();
+
+    /**
+     * Gets capacity of the stack.
+     *
+     * @return Maximal number of objects
+     */
+    int capacity();
+
+}
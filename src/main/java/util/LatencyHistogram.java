@@ -0,0 +1,136 @@
+package util;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations with a bucket per power of two, which can be recorded into
+ * from many threads without contention.
+ * <p>
+ * Recording only increments a striped counter, so it is cheap enough for hot paths.
+ * Percentiles are reported as the upper bound of the bucket they fall into, which is
+ * within a factor of two of the exact value.
+ *
+ * @author Nemanja
+ */
+public class LatencyHistogram {
+
+    /**
+     * Number of buckets. Bucket <code>i</code> holds values below <code>2^i</code> that
+     * don't fit an earlier bucket, so bucket <code>0</code> only holds <code>0</code>.
+     */
+    private static final int BUCKETS = 64;
+
+    /**
+     * Counts of values in each bucket.
+     */
+    private final LongAdder[] buckets;
+
+    /**
+     * Sum of all values.
+     */
+    private final LongAdder sum;
+
+    /**
+     * Largest value.
+     */
+    private final LongAccumulator max;
+
+    /**
+     * Constructor of an empty histogram.
+     */
+    public LatencyHistogram() {
+        this.buckets = new LongAdder[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            this.buckets[i] = new LongAdder();
+        }
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as <code>0</code>.
+     *
+     * @param nanos The value, in nanoseconds
+     */
+    public void record(long nanos) {
+        var value = Math.max(nanos, 0);
+        this.buckets[BUCKETS - Long.numberOfLeadingZeros(value)].increment();
+        this.sum.add(value);
+        this.max.accumulate(value);
+    }
+
+    /**
+     * Gets the number of recorded values.
+     *
+     * @return Number of values
+     */
+    public long getCount() {
+        var count = 0L;
+        for (var bucket : this.buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Gets the mean of recorded values.
+     *
+     * @return The mean, or <code>0</code> if nothing was recorded
+     */
+    public double getMean() {
+        var count = getCount();
+        return count == 0 ? 0 : (double) this.sum.sum() / count;
+    }
+
+    /**
+     * Gets the largest recorded value.
+     *
+     * @return The largest value, or <code>0</code> if nothing was recorded
+     */
+    public long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * Gets an estimate of a percentile of recorded values.
+     *
+     * @param percentile The percentile, between <code>0</code> and <code>100</code>
+     * @return Upper bound of the bucket holding the percentile, capped by the largest value,
+     *          or <code>0</code> if nothing was recorded
+     * @throws IllegalArgumentException If the percentile is out of range
+     */
+    public long getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException();
+        }
+        var counts = new long[BUCKETS];
+        var count = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.buckets[i].sum();
+            count += counts[i];
+        }
+        var rank = Math.max((long) Math.ceil(count * percentile / 100), 1);
+        var seen = 0L;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                var bound = i == 0 ? 0 : (-1L >>> (BUCKETS - i));
+                return Math.min(bound, getMax());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Clears all recorded values. Values recorded concurrently may be lost.
+     */
+    public void reset() {
+        for (var bucket : this.buckets) {
+            bucket.reset();
+        }
+        this.sum.reset();
+        this.max.reset();
+    }
+
+}
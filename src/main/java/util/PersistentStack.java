@@ -0,0 +1,220 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable stack of a fixed capacity. Pushing and popping return a new stack sharing
+ * its nodes with the old one, so a stack can be published to other threads without copying
+ * or locking.
+ * <p>
+ * Objects past the capacity are not unlinked when pushed out, as that would need to copy
+ * the whole stack. They are only hidden, and the stack is compacted by copying its visible
+ * part once the hidden tail grows past an eighth of the capacity. A stack so keeps at most
+ * <code>capacity + capacity / 8</code> objects reachable, and a push copies at most eight
+ * nodes amortized.
+ *
+ * @author Nemanja
+ */
+public final class PersistentStack<T> {
+
+    /**
+     * Part of the capacity the hidden tail may grow to before the stack is compacted.
+     */
+    private static final int TAIL_DIVISOR = 8;
+
+    /**
+     * Top node, or <code>null</code> if no object was pushed.
+     */
+    private final Node<T> top;
+
+    /**
+     * Number of visible objects.
+     */
+    private final int size;
+
+    /**
+     * Maximal number of visible objects.
+     */
+    private final int capacity;
+
+    /**
+     * Constructor.
+     *
+     * @param top Top node
+     * @param size Number of visible objects
+     * @param capacity Maximal number of visible objects
+     */
+    private PersistentStack(Node<T> top, int size, int capacity) {
+        this.top = top;
+        this.size = size;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates an empty stack.
+     *
+     * @param capacity Maximal number of objects
+     * @return The stack
+     */
+    public static <T> PersistentStack<T> empty(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        return new PersistentStack<>(null, 0, capacity);
+    }
+
+    /**
+     * Creates a stack with an object on top, hiding the oldest object if this stack is full.
+     *
+     * @param object Object to be pushed
+     * @return The new stack
+     */
+    public PersistentStack<T> push(T object) {
+        if (this.capacity == 0) {
+            return this;
+        }
+        var node = new Node<>(object, this.top);
+        var size = Math.min(this.size + 1, this.capacity);
+        if (node.depth - size > this.capacity / TAIL_DIVISOR) {
+            node = copy(node, size);
+        }
+        return new PersistentStack<>(node, size, this.capacity);
+    }
+
+    /**
+     * Creates a stack without the top object.
+     *
+     * @return The new stack
+     * @throws NoSuchElementException If the stack is empty
+     */
+    public PersistentStack<T> pop() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        return new PersistentStack<>(this.top.next, this.size - 1, this.capacity);
+    }
+
+    /**
+     * Gets object from top of the stack.
+     *
+     * @return Top object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    public T peek() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        return this.top.value;
+    }
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return If there are no objects in the stack
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Gets number of objects in the stack.
+     *
+     * @return Number of objects
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets number of objects the stack keeps reachable, hidden ones included.
+     *
+     * @return Number of objects
+     */
+    public int retainedSize() {
+        return this.top == null ? 0 : this.top.depth;
+    }
+
+    /**
+     * Gets capacity of the stack.
+     *
+     * @return Maximal number of objects
+     */
+    public int capacity() {
+        return this.capacity;
+    }
+
+    /**
+     * Lists the objects in the stack.
+     *
+     * @return Unmodifiable list of the objects, the oldest one first
+     */
+    public List<T> toList() {
+        var list = new ArrayList<T>(this.size);
+        var node = this.top;
+        for (int i = 0; i < this.size; i++) {
+            list.add(node.value);
+            node = node.next;
+        }
+        Collections.reverse(list);
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Copies the newest nodes of a chain, dropping the rest.
+     *
+     * @param top Top node of the chain
+     * @param count Number of nodes to keep
+     * @return Top node of the copy
+     */
+    private static <T> Node<T> copy(Node<T> top, int count) {
+        @SuppressWarnings("unchecked")
+        var values = (T[]) new Object[count];
+        var node = top;
+        for (int i = 0; i < count; i++) {
+            values[i] = node.value;
+            node = node.next;
+        }
+        Node<T> copy = null;
+        for (int i = count - 1; i >= 0; i--) {
+            copy = new Node<>(values[i], copy);
+        }
+        return copy;
+    }
+
+    /**
+     * A node of the stack.
+     */
+    private static final class Node<T> {
+
+        /**
+         * Object in the node.
+         */
+        private final T value;
+
+        /**
+         * Node below this one.
+         */
+        private final Node<T> next;
+
+        /**
+         * Number of nodes in the chain starting with this one.
+         */
+        private final int depth;
+
+        /**
+         * Constructor.
+         *
+         * @param value Object in the node
+         * @param next Node below this one
+         */
+        private Node(T value, Node<T> next) {
+            this.value = value;
+            this.next = next;
+            this.depth = next == null ? 1 : next.depth + 1;
+        }
+    }
+
+}
@@ -0,0 +1,893 @@
+package util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * An index of positions in a text, kept up to date as the text is edited. Every edit costs
+ * <code>O(log n)</code> expected time for <code>n</code> positions, instead of updating each
+ * of them.
+ * <p>
+ * Positions are kept in two treaps ordered by position, one for sticky positions and one for
+ * the others. Edits split off the positions after them and tag the subtree with the shift,
+ * which is only pushed down to the positions below when they are looked up or split again.
+ * Positions are resolved by pushing the tags down the path to them.
+ * <p>
+ * A position inside deleted text collapses to the start of the deletion and remembers the
+ * version of the deletion and its offset in the deleted text, on top of what it remembers of
+ * earlier deletions that collapsed it. An insertion putting the text of the latest of them
+ * back moves it to the same offset again, and leaves it collapsed by the earlier ones. Text
+ * inserted right at a position goes before it, unless the position is sticky.
+ * <p>
+ * Positions at the same place move together, as a subtree: all of them by an edit before or
+ * after them, and by the side of an insertion right at them their stickiness puts them on.
+ * Only an insertion putting text back separates the ones it moves, which are the last sticky
+ * ones there and the first others, since positions collapsed by the same deletions are kept
+ * together and new positions are added on the other side. So an insertion takes
+ * <code>O(log n)</code> however many positions are at its place, as after a run of backspaces.
+ * <p>
+ * Markers can be given a weight, for finding the heaviest one in a range of positions, and
+ * can open a range, for finding the last range opened before a position. Subtrees keep the
+ * largest weight and whether they hold an opening marker, so both take <code>O(log n)</code>.
+ * Markers with a negative weight are left out of both.
+ *
+ * @param <T> Type of values attached to the markers
+ * @author Nemanja
+ */
+public class PositionIndex<T> {
+
+    /**
+     * Root of the treap of sticky positions, or <code>null</code> if there are none.
+     */
+    private Marker<T> stickyRoot;
+
+    /**
+     * Root of the treap of positions that aren't sticky, or <code>null</code> if there are none.
+     */
+    private Marker<T> plainRoot;
+
+    /**
+     * Number of positions in the index.
+     */
+    private int size;
+
+    /**
+     * State of the generator of treap priorities.
+     */
+    private long seed;
+
+    /**
+     * Constructor of an empty index.
+     */
+    public PositionIndex() {
+        this.seed = 0x9E3779B97F4A7C15L;
+    }
+
+    /**
+     * Adds a position to the index.
+     *
+     * @param pos The position
+     * @param sticky If text inserted right at the position goes before it, as it does at the end of a text
+     * @param opening If the position opens a range
+     * @param value Value attached to the marker
+     * @return Marker following the position, with a negative weight
+     * @throws IllegalArgumentException If the position is negative
+     */
+    public Marker<T> add(int pos, boolean sticky, boolean opening, T value) {
+        if (pos < 0) {
+            throw new IllegalArgumentException();
+        }
+        var marker = new Marker<>(pos, sticky, opening, value, nextPriority());
+        if (sticky) {
+            var parts = split(this.stickyRoot, pos, false);
+            this.stickyRoot = root(merge(merge(parts[0], marker), parts[1]));
+        } else {
+            var parts = split(this.plainRoot, pos, true);
+            this.plainRoot = root(merge(merge(parts[0], marker), parts[1]));
+        }
+        this.size++;
+        return marker;
+    }
+
+    /**
+     * Shifts the positions after inserted text.
+     *
+     * @param pos The position the text was inserted at
+     * @param length Length of the inserted text, which is the length of the deleted text if it is put back
+     * @param restores Version of the deletion the text was removed by, or <code>-1</code> for new text
+     * @throws IllegalArgumentException If the position or length is negative
+     */
+    public void insert(int pos, int length, long restores) {
+        if (pos < 0 || length < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.stickyRoot = insert(this.stickyRoot, pos, length, restores, true);
+        this.plainRoot = insert(this.plainRoot, pos, length, restores, false);
+    }
+
+    /**
+     * Shifts the positions after deleted text, collapsing the ones inside it.
+     *
+     * @param pos The position the deleted text started at
+     * @param length Length of the deleted text
+     * @param version Version of the deletion, for putting the collapsed positions back
+     * @throws IllegalArgumentException If the position or length is negative
+     */
+    public void delete(int pos, int length, long version) {
+        if (pos < 0 || length < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.stickyRoot = delete(this.stickyRoot, pos, length, version);
+        this.plainRoot = delete(this.plainRoot, pos, length, version);
+    }
+
+    /**
+     * Sets the weight of a marker.
+     *
+     * @param marker The marker
+     * @param weight The weight, negative for leaving the marker out of searches
+     */
+    public void setWeight(Marker<T> marker, long weight) {
+        marker.weight = weight;
+        for (var node = marker; node != null; node = node.parent) {
+            pull(node);
+        }
+    }
+
+    /**
+     * Finds the marker with the largest weight in a range of positions.
+     *
+     * @param from First position of the range
+     * @param to Last position of the range
+     * @return The marker, or <code>null</code> if there is none with a weight that isn't negative
+     */
+    public Marker<T> heaviest(int from, int to) {
+        var sticky = heaviest(this.stickyRoot, from, to);
+        this.stickyRoot = root(sticky[0]);
+        var plain = heaviest(this.plainRoot, from, to);
+        this.plainRoot = root(plain[0]);
+        if (sticky[1] == null || (plain[1] != null && plain[1].weight > sticky[1].weight)) {
+            return plain[1];
+        }
+        return sticky[1];
+    }
+
+    /**
+     * Finds the last opening marker before a position.
+     *
+     * @param pos The position
+     * @return The marker, or <code>null</code> if there is none with a weight that isn't negative
+     */
+    public Marker<T> lastOpening(int pos) {
+        var sticky = lastOpening(this.stickyRoot, pos);
+        this.stickyRoot = root(sticky[0]);
+        var plain = lastOpening(this.plainRoot, pos);
+        this.plainRoot = root(plain[0]);
+        if (sticky[1] == null || (plain[1] != null && plain[1].getPosition() >= sticky[1].getPosition())) {
+            return plain[1];
+        }
+        return sticky[1];
+    }
+
+    /**
+     * Gets the number of positions in the index.
+     *
+     * @return Number of positions
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Removes all positions but the given ones.
+     *
+     * @param markers Markers of the positions to keep
+     */
+    public void retain(Collection<Marker<T>> markers) {
+        var keep = new HashSet<>(markers);
+        var all = new ArrayList<Marker<T>>(this.size);
+        flatten(this.stickyRoot, all);
+        flatten(this.plainRoot, all);
+        Marker<T> sticky = null;
+        Marker<T> plain = null;
+        var count = 0;
+        for (var marker : all) {
+            if (keep.contains(marker)) {
+                if (marker.sticky) {
+                    sticky = merge(sticky, marker);
+                } else {
+                    plain = merge(plain, marker);
+                }
+                count++;
+            }
+        }
+        this.stickyRoot = root(sticky);
+        this.plainRoot = root(plain);
+        this.size = count;
+    }
+
+    /**
+     * Generates a treap priority.
+     *
+     * @return The priority
+     */
+    private int nextPriority() {
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 7;
+        this.seed ^= this.seed << 17;
+        return (int) (this.seed >>> 32);
+    }
+
+    /**
+     * Shifts the positions of a treap after inserted text.
+     *
+     * @param root Root of the treap
+     * @param pos The position the text was inserted at
+     * @param length Length of the inserted text
+     * @param restores Version of the deletion the text was removed by, or <code>-1</code> for new text
+     * @param sticky If the treap holds sticky positions
+     * @return Root of the shifted treap
+     */
+    private static <T> Marker<T> insert(Marker<T> root, int pos, int length, long restores, boolean sticky) {
+        var before = split(root, pos, false);
+        var after = split(before[1], pos, true);
+        translate(after[1], length);
+        var group = after[0];
+        if (restores >= 0) {
+            var parts = split(group, restores, !sticky);
+            var restored = parts[sticky ? 1 : 0];
+            var kept = parts[sticky ? 0 : 1];
+            restore(restored);
+            if (!sticky) {
+                translate(kept, length);
+            }
+            group = sticky ? merge(kept, restored) : merge(restored, kept);
+        } else if (!sticky) {
+            translate(group, length);
+        }
+        return root(merge(merge(before[0], group), after[1]));
+    }
+
+    /**
+     * Shifts the positions of a treap after deleted text, collapsing the ones inside it.
+     *
+     * @param root Root of the treap
+     * @param pos The position the deleted text started at
+     * @param length Length of the deleted text
+     * @param version Version of the deletion
+     * @return Root of the shifted treap
+     */
+    private static <T> Marker<T> delete(Marker<T> root, int pos, int length, long version) {
+        var before = split(root, pos, false);
+        var after = split(before[1], pos + length, true);
+        collapse(after[0], pos, version);
+        translate(after[1], -length);
+        return root(merge(merge(before[0], after[0]), after[1]));
+    }
+
+    /**
+     * Finds the marker with the largest weight in a range of positions of a treap.
+     *
+     * @param root Root of the treap
+     * @param from First position of the range
+     * @param to Last position of the range
+     * @return Root of the treap and the marker, or <code>null</code> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Marker<T>[] heaviest(Marker<T> root, int from, int to) {
+        var before = split(root, from, false);
+        var after = split(before[1], to, true);
+        var node = after[0];
+        if (node != null && node.maxWeight < 0) {
+            node = null;
+        }
+        while (node != null && node.weight != node.maxWeight) {
+            node = node.left != null && node.left.maxWeight == node.maxWeight ? node.left : node.right;
+        }
+        return (Marker<T>[]) new Marker<?>[] { merge(merge(before[0], after[0]), after[1]), node };
+    }
+
+    /**
+     * Finds the last opening marker before a position in a treap.
+     *
+     * @param root Root of the treap
+     * @param pos The position
+     * @return Root of the treap and the marker, or <code>null</code> if there is none
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Marker<T>[] lastOpening(Marker<T> root, int pos) {
+        var parts = split(root, pos, false);
+        var node = parts[0];
+        if (node != null && !node.anyOpening) {
+            node = null;
+        }
+        while (node != null) {
+            if (node.right != null && node.right.anyOpening) {
+                node = node.right;
+            } else if (node.opening && node.weight >= 0) {
+                break;
+            } else {
+                node = node.left;
+            }
+        }
+        return (Marker<T>[]) new Marker<?>[] { merge(parts[0], parts[1]), node };
+    }
+
+    /**
+     * Makes a subtree a whole treap.
+     *
+     * @param node Root of the subtree
+     * @return The subtree
+     */
+    private static <T> Marker<T> root(Marker<T> node) {
+        if (node != null) {
+            node.parent = null;
+        }
+        return node;
+    }
+
+    /**
+     * Splits a subtree by position.
+     *
+     * @param node Root of the subtree
+     * @param pos Position to split at
+     * @param inclusive If positions equal to <code>pos</code> go to the first part
+     * @return Roots of the subtrees of positions before and after <code>pos</code>
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Marker<T>[] split(Marker<T> node, int pos, boolean inclusive) {
+        if (node == null) {
+            return (Marker<T>[]) new Marker<?>[2];
+        }
+        push(node);
+        if (node.x < pos || (inclusive && node.x == pos)) {
+            var parts = split(node.right, pos, inclusive);
+            node.right = link(node, parts[0]);
+            pull(node);
+            parts[0] = node;
+            return parts;
+        }
+        var parts = split(node.left, pos, inclusive);
+        node.left = link(node, parts[1]);
+        pull(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    /**
+     * Splits positions at the same place by whether an insertion there puts them back.
+     *
+     * @param node Root of the subtree of the positions
+     * @param restores Version of the deletion the insertion puts the text of back
+     * @param restoredFirst If the positions put back come first, as they do unless they are sticky
+     * @return Roots of the subtrees of the first positions and of the others
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> Marker<T>[] split(Marker<T> node, long restores, boolean restoredFirst) {
+        if (node == null) {
+            return (Marker<T>[]) new Marker<?>[2];
+        }
+        push(node);
+        var restored = node.collapse != null && node.collapse.getVersion() == restores;
+        if (restored == restoredFirst) {
+            var parts = split(node.right, restores, restoredFirst);
+            node.right = link(node, parts[0]);
+            pull(node);
+            parts[0] = node;
+            return parts;
+        }
+        var parts = split(node.left, restores, restoredFirst);
+        node.left = link(node, parts[1]);
+        pull(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    /**
+     * Merges two subtrees, all positions of the first one being before the ones of the second.
+     *
+     * @param a Root of the first subtree
+     * @param b Root of the second subtree
+     * @return Root of the merged subtree
+     */
+    private static <T> Marker<T> merge(Marker<T> a, Marker<T> b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            push(a);
+            a.right = link(a, merge(a.right, b));
+            pull(a);
+            return a;
+        }
+        push(b);
+        b.left = link(b, merge(a, b.left));
+        pull(b);
+        return b;
+    }
+
+    /**
+     * Makes a node the parent of a subtree.
+     *
+     * @param parent The node
+     * @param child Root of the subtree
+     * @return The subtree
+     */
+    private static <T> Marker<T> link(Marker<T> parent, Marker<T> child) {
+        if (child != null) {
+            child.parent = parent;
+        }
+        return child;
+    }
+
+    /**
+     * Adds the positions of a subtree to a list in order, pushing all tags down and
+     * detaching the nodes.
+     *
+     * @param node Root of the subtree
+     * @param list The list
+     */
+    private static <T> void flatten(Marker<T> node, List<Marker<T>> list) {
+        if (node == null) {
+            return;
+        }
+        push(node);
+        flatten(node.left, list);
+        list.add(node);
+        flatten(node.right, list);
+        node.left = null;
+        node.right = null;
+        node.parent = null;
+        pull(node);
+    }
+
+    /**
+     * Shifts all positions of a subtree.
+     *
+     * @param node Root of the subtree
+     * @param delta The shift
+     */
+    private static void translate(Marker<?> node, int delta) {
+        if (node == null) {
+            return;
+        }
+        node.x += delta;
+        if (isLeaf(node)) {
+            return;
+        }
+        if (node.tagCollapsed) {
+            node.tagPos += delta;
+        } else {
+            node.tagShift += delta;
+        }
+    }
+
+    /**
+     * Collapses all positions of a subtree into one.
+     *
+     * @param node Root of the subtree
+     * @param pos The position they collapse to
+     * @param version Version of the deletion collapsing them
+     */
+    private static void collapse(Marker<?> node, int pos, long version) {
+        if (node == null) {
+            return;
+        }
+        node.collapse = new Collapse(version, node.x - pos, node.collapse);
+        node.x = pos;
+        if (isLeaf(node)) {
+            return;
+        }
+        if (node.tagCollapsed) {
+            node.tagCollapses = new Collapse(version, node.tagPos - pos, node.tagCollapses);
+        } else {
+            node.tagCollapsed = true;
+            node.tagVersion = version;
+            node.tagOffset = -pos;
+        }
+        node.tagPos = pos;
+    }
+
+    /**
+     * Puts all positions of a subtree back where the latest deletion collapsing them found
+     * them. All of them have to be collapsed by that deletion.
+     *
+     * @param node Root of the subtree
+     */
+    private static void restore(Marker<?> node) {
+        if (node == null) {
+            return;
+        }
+        node.x += node.collapse.getOffset();
+        node.collapse = node.collapse.getEarlier();
+        if (isLeaf(node)) {
+            return;
+        }
+        if (!node.tagCollapsed) {
+            node.tagRestores++;
+        } else if (node.tagCollapses != null) {
+            node.tagPos += node.tagCollapses.getOffset();
+            node.tagCollapses = node.tagCollapses.getEarlier();
+        } else {
+            node.tagCollapsed = false;
+            node.tagShift += node.tagPos + node.tagOffset;
+            node.tagPos = 0;
+        }
+    }
+
+    /**
+     * Checks if a node has no children, so that it keeps no tag.
+     *
+     * @param node The node
+     * @return If the node is a leaf
+     */
+    private static boolean isLeaf(Marker<?> node) {
+        return node.left == null && node.right == null;
+    }
+
+    /**
+     * Recomputes the largest weight of a subtree and whether it holds an opening marker.
+     *
+     * @param node Root of the subtree
+     */
+    private static void pull(Marker<?> node) {
+        node.maxWeight = node.weight;
+        node.anyOpening = node.opening && node.weight >= 0;
+        if (node.left != null) {
+            node.maxWeight = Math.max(node.maxWeight, node.left.maxWeight);
+            node.anyOpening |= node.left.anyOpening;
+        }
+        if (node.right != null) {
+            node.maxWeight = Math.max(node.maxWeight, node.right.maxWeight);
+            node.anyOpening |= node.right.anyOpening;
+        }
+    }
+
+    /**
+     * Pushes the tag of a node down to its children.
+     *
+     * @param node The node
+     */
+    private static void push(Marker<?> node) {
+        if (node.tagRestores == 0 && node.tagShift == 0 && !node.tagCollapsed) {
+            return;
+        }
+        push(node, node.left);
+        push(node, node.right);
+        node.tagRestores = 0;
+        node.tagShift = 0;
+        node.tagCollapsed = false;
+        node.tagCollapses = null;
+        node.tagPos = 0;
+    }
+
+    /**
+     * Applies the tag of a node to a child.
+     *
+     * @param node The node
+     * @param child The child, or <code>null</code>
+     */
+    private static void push(Marker<?> node, Marker<?> child) {
+        if (child == null) {
+            return;
+        }
+        for (int i = 0; i < node.tagRestores; i++) {
+            restore(child);
+        }
+        translate(child, node.tagShift);
+        if (!node.tagCollapsed) {
+            return;
+        }
+        var first = node.tagVersion;
+        child.collapse = new Collapse(first, child.x + node.tagOffset, node.tagCollapses, child.collapse);
+        if (isLeaf(child)) {
+            child.x = node.tagPos;
+            return;
+        }
+        if (child.tagCollapsed) {
+            child.tagCollapses = new Collapse(first, child.tagPos + node.tagOffset, node.tagCollapses,
+                    child.tagCollapses);
+        } else {
+            child.tagCollapsed = true;
+            child.tagVersion = first;
+            child.tagOffset = node.tagOffset;
+            child.tagCollapses = node.tagCollapses;
+        }
+        child.x = node.tagPos;
+        child.tagPos = node.tagPos;
+    }
+
+    /**
+     * A position in the index.
+     *
+     * @param <T> Type of the value attached to the marker
+     */
+    public static final class Marker<T> {
+
+        /**
+         * If text inserted right at the position goes before it.
+         */
+        private final boolean sticky;
+
+        /**
+         * If the position opens a range.
+         */
+        private final boolean opening;
+
+        /**
+         * Value attached to the marker.
+         */
+        private final T value;
+
+        /**
+         * Weight of the marker, negative if it is left out of searches.
+         */
+        private long weight;
+
+        /**
+         * Largest weight in the subtree.
+         */
+        private long maxWeight;
+
+        /**
+         * If the subtree holds an opening marker with a weight that isn't negative.
+         */
+        private boolean anyOpening;
+
+        /**
+         * Priority of the node in the treap.
+         */
+        private final int priority;
+
+        /**
+         * The position, once the tags of all ancestors are pushed down.
+         */
+        private int x;
+
+        /**
+         * Latest deletion that collapsed the position, or <code>null</code> if none did.
+         */
+        private Collapse collapse;
+
+        /**
+         * Left child in the treap.
+         */
+        private Marker<T> left;
+
+        /**
+         * Right child in the treap.
+         */
+        private Marker<T> right;
+
+        /**
+         * Parent in the treap, or <code>null</code> for the root.
+         */
+        private Marker<T> parent;
+
+        /**
+         * Number of times the positions of the children are put back, before the shift.
+         */
+        private int tagRestores;
+
+        /**
+         * Shift of the positions of the children.
+         */
+        private int tagShift;
+
+        /**
+         * If the tag for the children collapses their positions after shifting them.
+         */
+        private boolean tagCollapsed;
+
+        /**
+         * Version of the first deletion collapsing the positions of the children.
+         */
+        private long tagVersion;
+
+        /**
+         * Offset of collapsed children in the first deletion, added to their positions.
+         */
+        private int tagOffset;
+
+        /**
+         * Later deletions collapsing the positions of the children, latest first, or
+         * <code>null</code> if there are none.
+         */
+        private Collapse tagCollapses;
+
+        /**
+         * The position the children collapse to.
+         */
+        private int tagPos;
+
+        /**
+         * Constructor.
+         *
+         * @param x The position
+         * @param sticky If text inserted right at the position goes before it
+         * @param opening If the position opens a range
+         * @param value Value attached to the marker
+         * @param priority Priority of the node in the treap
+         */
+        private Marker(int x, boolean sticky, boolean opening, T value, int priority) {
+            this.x = x;
+            this.sticky = sticky;
+            this.opening = opening;
+            this.value = value;
+            this.priority = priority;
+            this.weight = -1;
+            this.maxWeight = -1;
+        }
+
+        /**
+         * Gets the current position.
+         *
+         * @return The position
+         */
+        public int getPosition() {
+            settle();
+            return this.x;
+        }
+
+        /**
+         * Gets the version of the latest deletion the position collapsed with.
+         *
+         * @return Version of the deletion, or <code>-1</code> if the position isn't collapsed
+         */
+        public long getCollapsed() {
+            settle();
+            return this.collapse == null ? -1 : this.collapse.version;
+        }
+
+        /**
+         * Gets the offset of the position in the latest deleted text it collapsed with.
+         *
+         * @return The offset
+         */
+        public int getOffset() {
+            settle();
+            return this.collapse == null ? 0 : this.collapse.offset;
+        }
+
+        /**
+         * Gets the deletions the position collapsed with and wasn't put back by.
+         *
+         * @return The latest deletion, or <code>null</code> if the position isn't collapsed
+         */
+        public Collapse getCollapse() {
+            settle();
+            return this.collapse;
+        }
+
+        /**
+         * Checks if text inserted right at the position goes before it.
+         *
+         * @return If the position is sticky
+         */
+        public boolean isSticky() {
+            return this.sticky;
+        }
+
+        /**
+         * Gets the value attached to the marker.
+         *
+         * @return The value
+         */
+        public T getValue() {
+            return this.value;
+        }
+
+        /**
+         * Gets the weight of the marker.
+         *
+         * @return The weight, negative if the marker is left out of searches
+         */
+        public long getWeight() {
+            return this.weight;
+        }
+
+        /**
+         * Pushes down the tags on the path from the root to the node.
+         */
+        private void settle() {
+            var path = new ArrayList<Marker<T>>();
+            for (var node = this.parent; node != null; node = node.parent) {
+                path.add(node);
+            }
+            for (int i = path.size() - 1; i >= 0; i--) {
+                push(path.get(i));
+            }
+        }
+    }
+
+    /**
+     * A deletion a position collapsed with, linked to the earlier ones it collapsed with.
+     * Positions collapsed together share the deletions collapsing them later, so collapsing
+     * a subtree is pushed down to its children in constant time.
+     */
+    public static final class Collapse {
+
+        /**
+         * Version of the deletion, unless later ones come first.
+         */
+        private final long version;
+
+        /**
+         * Offset of the position in the deleted text, unless later deletions come first.
+         */
+        private final int offset;
+
+        /**
+         * Later deletions coming first, shared by the positions collapsed with them, or
+         * <code>null</code>.
+         */
+        private final Collapse later;
+
+        /**
+         * Earlier deletion the position collapsed with, or <code>null</code>.
+         */
+        private final Collapse earlier;
+
+        /**
+         * Constructor.
+         *
+         * @param version Version of the deletion
+         * @param offset Offset of the position in the deleted text
+         * @param earlier Earlier deletion the position collapsed with, or <code>null</code>
+         */
+        public Collapse(long version, int offset, Collapse earlier) {
+            this(version, offset, null, earlier);
+        }
+
+        /**
+         * Constructor of a deletion with later ones coming first.
+         *
+         * @param version Version of the deletion
+         * @param offset Offset of the position in the deleted text
+         * @param later Later deletions, or <code>null</code>
+         * @param earlier Earlier deletion the position collapsed with, or <code>null</code>
+         */
+        private Collapse(long version, int offset, Collapse later, Collapse earlier) {
+            this.version = version;
+            this.offset = offset;
+            this.later = later;
+            this.earlier = earlier;
+        }
+
+        /**
+         * Gets the version of the deletion.
+         *
+         * @return The version
+         */
+        public long getVersion() {
+            return this.later == null ? this.version : this.later.getVersion();
+        }
+
+        /**
+         * Gets the offset of the position in the deleted text.
+         *
+         * @return The offset
+         */
+        public int getOffset() {
+            return this.later == null ? this.offset : this.later.getOffset();
+        }
+
+        /**
+         * Gets the earlier deletion the position collapsed with.
+         *
+         * @return The deletion, or <code>null</code> if there is none
+         */
+        public Collapse getEarlier() {
+            if (this.later == null) {
+                return this.earlier;
+            }
+            return new Collapse(this.version, this.offset, this.later.getEarlier(), this.earlier);
+        }
+    }
+
+}
@@ -0,0 +1,187 @@
+package util;
+
+import java.util.NoSuchElementException;
+
+/**
+ * A stack of a fixed capacity backed by a preallocated circular array. When the
+ * stack is full, pushing a new object evicts the oldest one in O(1).
+ * <p>
+ * The stack is not synchronized; callers that share it between threads have to
+ * provide their own locking.
+ *
+ * @author Nemanja
+ */
+public class RingBufferStack<T> implements HistoryStack<T> {
+
+    /**
+     * Preallocated storage of the stack.
+     */
+    private final Object[] elements;
+
+    /**
+     * Index of the oldest element.
+     */
+    private int head;
+
+    /**
+     * Number of elements currently in the stack.
+     */
+    private int size;
+
+    /**
+     * Constructor with given capacity.
+     *
+     * @param capacity Given capacity
+     */
+    public RingBufferStack(int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException();
+        }
+        this.elements = new Object[capacity];
+    }
+
+    /**
+     * Pushes object to top of the stack, evicting the oldest object if the stack is full.
+     *
+     * @param object Object to be pushed
+     * @return Evicted object, or <code>null</code> if nothing was evicted
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T push(T object) {
+        if (this.elements.length == 0) {
+            return object;
+        }
+        if (this.size == this.elements.length) {
+            var evicted = (T) this.elements[this.head];
+            this.elements[this.head] = object;
+            this.head = index(1);
+            return evicted;
+        }
+        this.elements[index(this.size)] = object;
+        this.size++;
+        return null;
+    }
+
+    /**
+     * Removes object from top of the stack.
+     *
+     * @return Removed object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T pop() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        var top = index(this.size - 1);
+        var object = (T) this.elements[top];
+        this.elements[top] = null;
+        this.size--;
+        return object;
+    }
+
+    /**
+     * Gets object from top of the stack without removing it.
+     *
+     * @return Top object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    public T peek() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        return get(this.size - 1);
+    }
+
+    /**
+     * Removes the oldest object from the bottom of the stack.
+     *
+     * @return Removed object
+     * @throws NoSuchElementException If the stack is empty
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T removeOldest() {
+        if (this.size == 0) {
+            throw new NoSuchElementException();
+        }
+        var object = (T) this.elements[this.head];
+        this.elements[this.head] = null;
+        this.head = index(1);
+        this.size--;
+        return object;
+    }
+
+    /**
+     * Gets object at given position, counting from the oldest one.
+     *
+     * @param i Position of the object, <code>0</code> being the oldest
+     * @return Object at the position
+     * @throws IndexOutOfBoundsException If there is no object at the position
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        if (i < 0 || i >= this.size) {
+            throw new IndexOutOfBoundsException();
+        }
+        return (T) this.elements[index(i)];
+    }
+
+    /**
+     * Removes all objects from the stack.
+     */
+    @Override
+    public void clear() {
+        for (int i = 0; i < this.size; i++) {
+            this.elements[index(i)] = null;
+        }
+        this.head = 0;
+        this.size = 0;
+    }
+
+    /**
+     * Checks if the stack is empty.
+     *
+     * @return If there are no objects in the stack
+     */
+    @Override
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Gets number of objects in the stack.
+     *
+     * @return Number of objects
+     */
+    @Override
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Gets capacity of the stack.
+     *
+     * @return Maximal number of objects
+     */
+    @Override
+    public int capacity() {
+        return this.elements.length;
+    }
+
+    /**
+     * Translates position relative to the oldest object into array index.
+     *
+     * @param offset Position relative to the oldest object
+     * @return Array index
+     */
+    private int index(int offset) {
+        var i = this.head + offset;
+        return i >= this.elements.length ? i - this.elements.length : i;
+    }
+
+}
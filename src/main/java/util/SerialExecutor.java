@@ -0,0 +1,89 @@
+package util;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An executor running its tasks one at a time, in submission order, on an underlying
+ * executor. No thread is held while the queue is empty, so many serial executors can share
+ * one pool, or one virtual thread per task.
+ *
+ * @author Nemanja
+ */
+public class SerialExecutor implements Executor {
+
+    /**
+     * Executor running the tasks.
+     */
+    private final Executor executor;
+
+    /**
+     * Tasks waiting to run. Guarded by <code>this</code>.
+     */
+    private final ArrayDeque<Runnable> tasks;
+
+    /**
+     * If a task is running or handed to the underlying executor. Guarded by <code>this</code>.
+     */
+    private boolean active;
+
+    /**
+     * Constructor.
+     *
+     * @param executor Executor running the tasks
+     */
+    public SerialExecutor(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException();
+        }
+        this.executor = executor;
+        this.tasks = new ArrayDeque<>();
+    }
+
+    /**
+     * Queues a task to run after all previously submitted ones.
+     *
+     * @param task The task
+     * @throws RejectedExecutionException If the underlying executor rejects the task
+     */
+    @Override
+    public synchronized void execute(Runnable task) {
+        if (task == null) {
+            throw new IllegalArgumentException();
+        }
+        this.tasks.add(task);
+        if (!this.active) {
+            this.active = true;
+            try {
+                this.executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                this.tasks.removeLast();
+                this.active = false;
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Runs queued tasks until the queue is empty.
+     */
+    private void drain() {
+        while (true) {
+            Runnable task;
+            synchronized (this) {
+                task = this.tasks.poll();
+                if (task == null) {
+                    this.active = false;
+                    return;
+                }
+            }
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+package util;
+
+/**
+ * Polynomial hashing of text modulo the Mersenne prime <code>2^61 - 1</code>. The base is
+ * fixed, so hashes computed by different documents and processes are comparable.
+ * <p>
+ * The hash of a concatenation follows from the hashes of its parts,
+ * <code>H(ab) = H(a) * BASE^|b| + H(b)</code>, so trees of text chunks can keep the hash of
+ * every subtree and update it along the path of an edit. A character <code>c</code>
+ * contributes <code>c + 1</code>, so leading <code>'\0'</code> characters change the hash.
+ *
+ * @author Nemanja
+ */
+public final class TextHash {
+
+    /**
+     * Modulus of the hashes, the Mersenne prime <code>2^61 - 1</code>.
+     */
+    public static final long MODULUS = (1L << 61) - 1;
+
+    /**
+     * Base of the polynomial, below the modulus.
+     */
+    public static final long BASE = 0x1ABCDEF123456789L;
+
+    /**
+     * Utility class, not to be instantiated.
+     */
+    private TextHash() {
+    }
+
+    /**
+     * Hashes a part of a character sequence.
+     *
+     * @param text The text
+     * @param from Index of the first character
+     * @param to Index after the last character
+     * @return The hash
+     */
+    public static long of(CharSequence text, int from, int to) {
+        var hash = 0L;
+        for (int i = from; i < to; i++) {
+            hash = append(hash, text.charAt(i));
+        }
+        return hash;
+    }
+
+    /**
+     * Hashes a part of a character array.
+     *
+     * @param chars The characters
+     * @param from Index of the first character
+     * @param to Index after the last character
+     * @return The hash
+     */
+    public static long of(char[] chars, int from, int to) {
+        var hash = 0L;
+        for (int i = from; i < to; i++) {
+            hash = append(hash, chars[i]);
+        }
+        return hash;
+    }
+
+    /**
+     * Gets the hash of a text followed by a character.
+     *
+     * @param hash Hash of the text
+     * @param c The character
+     * @return Hash of the longer text
+     */
+    public static long append(long hash, char c) {
+        return add(multiply(hash, BASE), c + 1);
+    }
+
+    /**
+     * Gets the hash of two texts concatenated.
+     *
+     * @param first Hash of the first text
+     * @param second Hash of the second text
+     * @param secondPower Power of the base for the length of the second text
+     * @return Hash of the concatenation
+     */
+    public static long concat(long first, long second, long secondPower) {
+        return add(multiply(first, secondPower), second);
+    }
+
+    /**
+     * Gets the hash of a range of a text from the hashes of its prefixes ending before and
+     * after the range.
+     *
+     * @param before Hash of the prefix ending before the range
+     * @param through Hash of the prefix ending after the range
+     * @param power Power of the base for the length of the range
+     * @return Hash of the range
+     */
+    public static long range(long before, long through, long power) {
+        var difference = through - multiply(before, power);
+        return difference < 0 ? difference + MODULUS : difference;
+    }
+
+    /**
+     * Raises the base to a power, for the length of a text.
+     *
+     * @param exponent The exponent
+     * @return <code>BASE^exponent</code> modulo the modulus
+     */
+    public static long power(long exponent) {
+        var result = 1L;
+        var square = BASE;
+        for (var e = exponent; e > 0; e >>>= 1) {
+            if ((e & 1) != 0) {
+                result = multiply(result, square);
+            }
+            square = multiply(square, square);
+        }
+        return result;
+    }
+
+    /**
+     * Multiplies two residues without overflow, using the full 122 bit product.
+     *
+     * @param a First residue
+     * @param b Second residue
+     * @return Product modulo the modulus
+     */
+    public static long multiply(long a, long b) {
+        var low = a * b;
+        var high = Math.multiplyHigh(a, b);
+        var sum = (low & MODULUS) + (low >>> 61) + (high << 3);
+        sum = (sum & MODULUS) + (sum >>> 61);
+        return sum >= MODULUS ? sum - MODULUS : sum;
+    }
+
+    /**
+     * Adds two residues.
+     *
+     * @param a First residue
+     * @param b Second residue
+     * @return Sum modulo the modulus
+     */
+    private static long add(long a, long b) {
+        var sum = a + b;
+        return sum >= MODULUS ? sum - MODULUS : sum;
+    }
+
+}
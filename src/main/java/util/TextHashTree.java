@@ -0,0 +1,442 @@
+package util;
+
+/**
+ * Hashes of a text kept elsewhere, split into chunks of about {@value #CHUNK_LENGTH}
+ * characters and kept up to date as the text is edited. Hashing the whole text or any range
+ * of it costs <code>O(log n + c)</code> expected time for <code>n</code> chunks of length
+ * <code>c</code>, and so does every edit.
+ * <p>
+ * Chunks are kept in a treap ordered by position, every node holding the {@link TextHash}
+ * of its subtree. Only hashes and lengths are stored; the text itself is read from the
+ * character sequence passed to each call, which has to hold the text as it is after the
+ * edit. An edit rehashes the chunks it touches, merging them with a neighbour so that
+ * typing doesn't create a chunk per character.
+ * <p>
+ * A {@link #copy()} shares all chunks with the original in <code>O(1)</code>. Chunks are
+ * changed in place only by the tree that created them, so after a copy both trees copy the
+ * <code>O(log n)</code> chunks on the paths an edit changes.
+ *
+ * @author Nemanja
+ */
+public class TextHashTree {
+
+    /**
+     * Length of chunks cut from a longer text. Edited chunks grow up to twice as long.
+     */
+    private static final int CHUNK_LENGTH = 64;
+
+    /**
+     * Root of the treap, or <code>null</code> if the text is empty.
+     */
+    private Chunk root;
+
+    /**
+     * State of the generator of treap priorities.
+     */
+    private long seed;
+
+    /**
+     * Token of the chunks this tree may change in place. Chunks of other tokens may be
+     * shared with a copy.
+     */
+    private Object owner;
+
+    /**
+     * Constructor hashing a text.
+     *
+     * @param text The text
+     */
+    public TextHashTree(CharSequence text) {
+        this.seed = 0x9E3779B97F4A7C15L;
+        this.owner = new Object();
+        this.root = build(text, 0, text.length());
+    }
+
+    /**
+     * Constructor of a copy.
+     *
+     * @param root Root of the shared treap
+     * @param seed State of the generator of treap priorities
+     */
+    private TextHashTree(Chunk root, long seed) {
+        this.root = root;
+        this.seed = seed;
+        this.owner = new Object();
+    }
+
+    /**
+     * Creates a copy of the hashes, which is updated independently of this tree.
+     *
+     * @return The copy
+     */
+    public TextHashTree copy() {
+        this.owner = new Object();
+        return new TextHashTree(this.root, this.seed);
+    }
+
+    /**
+     * Gets length of the hashed text.
+     *
+     * @return Number of characters
+     */
+    public int length() {
+        return size(this.root);
+    }
+
+    /**
+     * Updates the hashes after characters were inserted into the text.
+     *
+     * @param pos Position the characters were inserted at
+     * @param length Number of inserted characters
+     * @param text The text after the insertion
+     * @throws IllegalArgumentException If the position is outside of the text
+     */
+    public void inserted(int pos, int length, CharSequence text) {
+        if (pos < 0 || length < 0 || pos > length()) {
+            throw new IllegalArgumentException();
+        }
+        if (length == 0) {
+            return;
+        }
+        var parts = split(this.root, pos);
+        var left = parts[0];
+        Chunk touched = null;
+        Chunk right = null;
+        if (parts[1] != null) {
+            var rest = split(parts[1], first(parts[1]).length);
+            touched = rest[0];
+            right = rest[1];
+        } else if (left != null) {
+            var rest = split(left, size(left) - 1);
+            left = rest[0];
+            touched = rest[1];
+        }
+        var start = size(left);
+        this.root = merge(merge(left, build(text, start, start + size(touched) + length)), right);
+    }
+
+    /**
+     * Updates the hashes after characters were deleted from the text.
+     *
+     * @param pos Position the characters were deleted at
+     * @param length Number of deleted characters
+     * @param text The text after the deletion
+     * @throws IllegalArgumentException If the range is outside of the text
+     */
+    public void deleted(int pos, int length, CharSequence text) {
+        if (pos < 0 || length < 0 || pos + length > length()) {
+            throw new IllegalArgumentException();
+        }
+        if (length == 0) {
+            return;
+        }
+        var head = split(this.root, pos);
+        var start = size(head[0]);
+        var tail = split(head[1], pos + length - start);
+        var end = start + size(tail[0]);
+        var right = tail[1];
+        if (right != null) {
+            var rest = split(right, first(right).length);
+            end += rest[0].length;
+            right = rest[1];
+        }
+        this.root = merge(merge(head[0], build(text, start, end - length)), right);
+    }
+
+    /**
+     * Gets the hash of a range of the text.
+     *
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @param text The text
+     * @return The hash
+     * @throws IllegalArgumentException If the range is outside of the text
+     */
+    public long hash(int start, int end, CharSequence text) {
+        if (start < 0 || start > end || end > length()) {
+            throw new IllegalArgumentException();
+        }
+        if (start == 0 && end == length()) {
+            return hash(this.root);
+        }
+        return TextHash.range(prefix(start, text), prefix(end, text), TextHash.power(end - start));
+    }
+
+    /**
+     * Gets the hash of the text before a position, descending the path to it.
+     *
+     * @param pos The position
+     * @param text The text
+     * @return The hash
+     */
+    private long prefix(int pos, CharSequence text) {
+        var hash = 0L;
+        var offset = 0;
+        var node = this.root;
+        while (node != null && pos > offset) {
+            var chunkStart = offset + size(node.left);
+            if (pos <= chunkStart) {
+                node = node.left;
+                continue;
+            }
+            if (node.left != null) {
+                hash = TextHash.concat(hash, node.left.hash, node.left.power);
+            }
+            var taken = Math.min(pos - chunkStart, node.length);
+            if (taken == node.length) {
+                hash = TextHash.concat(hash, node.chunkHash, node.chunkPower);
+            } else {
+                hash = TextHash.concat(hash, TextHash.of(text, chunkStart, chunkStart + taken),
+                        TextHash.power(taken));
+            }
+            offset = chunkStart + node.length;
+            node = node.right;
+        }
+        return hash;
+    }
+
+    /**
+     * Builds a treap of chunks of a part of the text.
+     *
+     * @param text The text
+     * @param from Index of the first character
+     * @param to Index after the last character
+     * @return Root of the treap, or <code>null</code> if the part is empty
+     */
+    private Chunk build(CharSequence text, int from, int to) {
+        Chunk built = null;
+        while (to - from > 2 * CHUNK_LENGTH) {
+            built = merge(built, new Chunk(text, from, from + CHUNK_LENGTH, nextPriority(), this.owner));
+            from += CHUNK_LENGTH;
+        }
+        if (from < to) {
+            built = merge(built, new Chunk(text, from, to, nextPriority(), this.owner));
+        }
+        return built;
+    }
+
+    /**
+     * Generates a treap priority.
+     *
+     * @return The priority
+     */
+    private int nextPriority() {
+        this.seed ^= this.seed << 13;
+        this.seed ^= this.seed >>> 7;
+        this.seed ^= this.seed << 17;
+        return (int) (this.seed >>> 32);
+    }
+
+    /**
+     * Splits a subtree by position.
+     *
+     * @param node Root of the subtree
+     * @param pos Position relative to the start of the subtree
+     * @return Roots of the subtrees of chunks ending at or before <code>pos</code> and of the
+     *          ones ending after it
+     */
+    private Chunk[] split(Chunk node, int pos) {
+        if (node == null) {
+            return new Chunk[2];
+        }
+        node = own(node);
+        var end = size(node.left) + node.length;
+        if (end <= pos) {
+            var parts = split(node.right, pos - end);
+            node.right = parts[0];
+            pull(node);
+            parts[0] = node;
+            return parts;
+        }
+        var parts = split(node.left, pos);
+        node.left = parts[1];
+        pull(node);
+        parts[1] = node;
+        return parts;
+    }
+
+    /**
+     * Merges two subtrees, all chunks of the first one being before the ones of the second.
+     *
+     * @param a Root of the first subtree
+     * @param b Root of the second subtree
+     * @return Root of the merged subtree
+     */
+    private Chunk merge(Chunk a, Chunk b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            a = own(a);
+            a.right = merge(a.right, b);
+            pull(a);
+            return a;
+        }
+        b = own(b);
+        b.left = merge(a, b.left);
+        pull(b);
+        return b;
+    }
+
+    /**
+     * Gets a node this tree may change in place.
+     *
+     * @param node The node
+     * @return The node, or its copy if it may be shared with another tree
+     */
+    private Chunk own(Chunk node) {
+        return node.owner == this.owner ? node : new Chunk(node, this.owner);
+    }
+
+    /**
+     * Finds the first chunk of a subtree.
+     *
+     * @param node Root of the subtree
+     * @return The first chunk
+     */
+    private static Chunk first(Chunk node) {
+        while (node.left != null) {
+            node = node.left;
+        }
+        return node;
+    }
+
+    /**
+     * Recomputes the aggregates of a node from its chunk and its children.
+     *
+     * @param node The node
+     */
+    private static void pull(Chunk node) {
+        node.size = size(node.left) + node.length + size(node.right);
+        var hash = TextHash.concat(hash(node.left), node.chunkHash, node.chunkPower);
+        node.hash = TextHash.concat(hash, hash(node.right), power(node.right));
+        node.power = TextHash.multiply(TextHash.multiply(power(node.left), node.chunkPower), power(node.right));
+    }
+
+    /**
+     * Gets number of characters in a subtree.
+     *
+     * @param node Root of the subtree, or <code>null</code>
+     * @return Number of characters
+     */
+    private static int size(Chunk node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * Gets the hash of the text of a subtree.
+     *
+     * @param node Root of the subtree, or <code>null</code>
+     * @return The hash
+     */
+    private static long hash(Chunk node) {
+        return node == null ? 0 : node.hash;
+    }
+
+    /**
+     * Gets the power of the base for the length of a subtree.
+     *
+     * @param node Root of the subtree, or <code>null</code>
+     * @return The power
+     */
+    private static long power(Chunk node) {
+        return node == null ? 1 : node.power;
+    }
+
+    /**
+     * A chunk of the text and the root of the subtree of the chunks around it.
+     */
+    private static class Chunk {
+
+        /**
+         * Number of characters in the chunk.
+         */
+        private final int length;
+
+        /**
+         * Hash of the chunk.
+         */
+        private final long chunkHash;
+
+        /**
+         * Power of the base for the length of the chunk.
+         */
+        private final long chunkPower;
+
+        /**
+         * Priority of the node in the treap.
+         */
+        private final int priority;
+
+        /**
+         * Number of characters in the subtree.
+         */
+        private int size;
+
+        /**
+         * Hash of the text of the subtree.
+         */
+        private long hash;
+
+        /**
+         * Power of the base for the length of the subtree.
+         */
+        private long power;
+
+        /**
+         * Chunks before this one, or <code>null</code>.
+         */
+        private Chunk left;
+
+        /**
+         * Chunks after this one, or <code>null</code>.
+         */
+        private Chunk right;
+
+        /**
+         * Token of the tree that may change the node in place.
+         */
+        private final Object owner;
+
+        /**
+         * Constructor hashing a part of the text.
+         *
+         * @param text The text
+         * @param from Index of the first character
+         * @param to Index after the last character
+         * @param priority Priority of the node in the treap
+         * @param owner Token of the tree that may change the node in place
+         */
+        private Chunk(CharSequence text, int from, int to, int priority, Object owner) {
+            this.length = to - from;
+            this.chunkHash = TextHash.of(text, from, to);
+            this.chunkPower = TextHash.power(this.length);
+            this.priority = priority;
+            this.owner = owner;
+            pull(this);
+        }
+
+        /**
+         * Copy constructor.
+         *
+         * @param node The node to copy
+         * @param owner Token of the tree that may change the copy in place
+         */
+        private Chunk(Chunk node, Object owner) {
+            this.length = node.length;
+            this.chunkHash = node.chunkHash;
+            this.chunkPower = node.chunkPower;
+            this.priority = node.priority;
+            this.size = node.size;
+            this.hash = node.hash;
+            this.power = node.power;
+            this.left = node.left;
+            this.right = node.right;
+            this.owner = owner;
+        }
+    }
+
+}
@@ -1,14 +1,35 @@
 package undo.integration;
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Change;
 import undo.ChangeFactory;
 import undo.Document;
 import undo.UndoManagerFactory;
 import undo.impl.ChangeFactoryImpl;
+import undo.impl.CheckpointPolicy;
+import undo.impl.CoalescingPolicy;
+import undo.impl.GapBufferDocument;
+import undo.impl.PieceTableDocument;
+import undo.impl.RopeDocument;
 import undo.impl.StringDocument;
 import undo.impl.UndoManagerFactoryImpl;
+import undo.impl.UndoManagerImpl;
+import undo.impl.UndoMetrics;
 
 public class UndoManagerImplTest {
 
@@ -128,9 +149,221 @@ public class UndoManagerImplTest {
         // test
         assertEquals(this.document.toString(), testString1 + testString2 + testString3);
         undoManager.undo();
-        assertEquals(this.document.toString(), testString1 + " ".repeat(testString2.length()) + testString3);
+        assertEquals(this.document.toString(), testString1 + testString2);
         undoManager.undo();
         assertEquals(this.document.toString(), testString1);
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testUndoCompound() {
+        // prep
+        var undoManager = undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        this.document.insert(0, "A");
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "A", 0, 1));
+
+        // test
+        try (var compound = undoManager.compound()) {
+            for (int i = 1; i <= 5; i++) {
+                var change = this.changeFactory.createInsertion(i, "x", i, i + 1);
+                change.apply(this.document);
+                undoManager.registerChange(change);
+            }
+            compound.close();
+            assertEquals(2, ((UndoManagerImpl) undoManager).getRevision());
+        }
+        undoManager.undo();
+
+        // assert
+        assertEquals("A", this.document.toString());
+        assertTrue(undoManager.canUndo());
+        undoManager.redo();
+        assertEquals("Axxxxx", this.document.toString());
+        undoManager.undo();
+        undoManager.undo();
+        assertEquals("", this.document.toString());
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testUndoFinishesOpenCompound() {
+        // prep
+        var undoManager = undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        undoManager.beginCompound();
+        undoManager.beginCompound();
+        var change1 = this.changeFactory.createInsertion(0, "ab", 0, 2);
+        var change2 = this.changeFactory.createInsertion(2, "cd", 2, 4);
+        change1.apply(this.document);
+        undoManager.registerChange(change1);
+        undoManager.endCompound();
+        change2.apply(this.document);
+        undoManager.registerChange(change2);
+
+        // test
+        undoManager.undo();
+
+        // assert
+        assertEquals("", this.document.toString());
+        assertFalse(undoManager.canUndo());
+        var change3 = this.changeFactory.createInsertion(0, "e", 0, 1);
+        var change4 = this.changeFactory.createInsertion(1, "f", 1, 2);
+        change3.apply(this.document);
+        undoManager.registerChange(change3);
+        change4.apply(this.document);
+        undoManager.registerChange(change4);
+        undoManager.endCompound();
+        undoManager.undo();
+        assertEquals("", this.document.toString());
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testCoalesceTyping() {
+        // prep
+        var undoManager = new UndoManagerImpl(this.document, 3);
+        undoManager.setCoalescingPolicy(new CoalescingPolicy(60_000, true));
+        var text = "typing two words";
+
+        // test
+        for (int i = 0; i < text.length(); i++) {
+            var change = this.changeFactory.createInsertion(i, text.substring(i, i + 1), i, i + 1);
+            change.apply(this.document);
+            undoManager.registerChange(change);
+        }
+        var backspace = this.changeFactory.createDeletion(text.length() - 1, "s", text.length(), text.length() - 1);
+        backspace.apply(this.document);
+        undoManager.registerChange(backspace);
+
+        // assert
+        undoManager.undo();
+        assertEquals(text, this.document.toString());
+        undoManager.undo();
+        assertEquals("typing two", this.document.toString());
+        undoManager.undo();
+        assertEquals("typing", this.document.toString());
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testCoalesceLongRuns() {
+        // prep
+        this.document = new GapBufferDocument();
+        var undoManager = new UndoManagerImpl(this.document, 4);
+        undoManager.setCoalescingPolicy(new CoalescingPolicy(60_000, false));
+        var text = "abcdefghij".repeat(2000);
+
+        // test
+        for (int i = 0; i < text.length(); i++) {
+            var change = this.changeFactory.createInsertion(i, text.substring(i, i + 1), i, i + 1);
+            change.apply(this.document);
+            undoManager.registerChange(change);
+        }
+        var typed = undoManager.getRetainedBytes();
+        undoManager.undo();
+        undoManager.redo();
+        for (int i = text.length(); i > 10_000; i--) {
+            var change = this.changeFactory.createDeletion(i - 1, text.substring(i - 1, i), i, i - 1);
+            change.apply(this.document);
+            undoManager.registerChange(change);
+        }
+        for (int i = 0; i < 5000; i++) {
+            var change = this.changeFactory.createDeletion(0, text.substring(i, i + 1), 0, 0);
+            change.apply(this.document);
+            undoManager.registerChange(change);
+        }
+
+        // assert
+        assertTrue(typed >= 2L * text.length());
+        assertEquals(text.substring(5000, 10_000), this.document.toString());
+        undoManager.undo();
+        assertEquals(text.substring(0, 10_000), this.document.toString());
+        undoManager.undo();
+        assertEquals(text, this.document.toString());
+        undoManager.undo();
+        assertEquals("", this.document.toString());
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testMemoryBudgetEvictsOldest() {
+        // prep
+        var paste = "x".repeat(1000);
+        var undoManager = new UndoManagerImpl(this.document, BUFFER_SIZE, 5000);
+
+        // test
+        for (int i = 0; i < 4; i++) {
+            var change = this.changeFactory.createInsertion(i * paste.length(), paste, 0, 0);
+            change.apply(this.document);
+            undoManager.registerChange(change);
+        }
+
+        // assert
+        assertTrue(undoManager.getRetainedBytes() <= 5000);
+        assertTrue(undoManager.getRetainedBytes() > 0);
+        undoManager.undo();
+        undoManager.undo();
+        assertFalse(undoManager.canUndo());
+        assertEquals(paste + paste, this.document.toString());
+        undoManager.redo();
+        undoManager.redo();
+        assertEquals(paste.repeat(4), this.document.toString());
+    }
+
+    @Test
+    public void testOversizedChangeKeepsNewest() {
+        // prep
+        this.document = new GapBufferDocument();
+        var undoManager = new UndoManagerImpl(this.document, BUFFER_SIZE, 10000);
+        var small = this.changeFactory.createInsertion(0, "small", 0, 5);
+        small.apply(this.document);
+        undoManager.registerChange(small);
+        undoManager.undo();
+        var paste = "x".repeat(20000);
+
+        // test
+        var change = this.changeFactory.createInsertion(0, paste, 0, paste.length());
+        change.apply(this.document);
+        undoManager.registerChange(change);
+
+        // assert
+        assertFalse(undoManager.canRedo());
+        assertTrue(undoManager.canUndo());
+        undoManager.undo();
+        assertEquals("", this.document.toString());
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testCompactHistory() {
+        // prep
+        var undoManager = new UndoManagerFactoryImpl().createCompactUndoManager(this.document, 2);
+        var change1 = this.changeFactory.createInsertion(0, "TEST1", 0, 5);
+        var change2 = this.changeFactory.createInsertion(5, "TEST2", 5, 10);
+        var change3 = this.changeFactory.createInsertion(10, "TEST3", 10, 15);
+
+        // test
+        for (var change : new Change[] {change1, change2, change3}) {
+            change.apply(this.document);
+            undoManager.registerChange(change);
+        }
+        undoManager.undo();
+        undoManager.undo();
+        undoManager.redo();
+
+        // assert
+        assertEquals("TEST1TEST2", this.document.toString());
+        undoManager.redo();
+        assertEquals("TEST1TEST2TEST3", this.document.toString());
+        assertFalse(undoManager.canRedo());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalEndCompound() {
+        // prep
+        var undoManager = undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+
+        // test
+        undoManager.endCompound();
     }
 
     @Test(expected = IllegalStateException.class)
@@ -171,4 +404,568 @@ public class UndoManagerImplTest {
         undoManager.undo();
     }
 
+    @Test
+    public void testSaveAndLoadHistory() throws IOException {
+        // prepare
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        var texts = new String[] {"ascii", "\u010Dvor", "\u65E5\u672C", "\uD83D\uDE00"};
+        var pos = 0;
+        for (var text : texts) {
+            undoManager.registerChange(this.changeFactory.createInsertion(pos, text, pos, pos + text.length()));
+            this.document.insert(pos, text);
+            pos += text.length();
+        }
+        undoManager.beginCompound();
+        undoManager.registerChange(this.changeFactory.createDeletion(0, "ascii", 5, 0));
+        this.document.delete(0, "ascii");
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "ASCII", 0, 5));
+        this.document.insert(0, "ASCII");
+        undoManager.endCompound();
+        undoManager.undo();
+        var output = new ByteArrayOutputStream();
+
+        // test
+        undoManager.saveHistory(Channels.newChannel(output));
+        var loaded = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        loaded.loadHistory(Channels.newChannel(new ByteArrayInputStream(output.toByteArray())));
+
+        // assert
+        assertEquals(undoManager.getRetainedBytes(), loaded.getRetainedBytes());
+        loaded.redo();
+        assertEquals("ASCII\u010Dvor\u65E5\u672C\uD83D\uDE00", this.document.toString());
+        for (int i = 0; i < 5; i++) {
+            loaded.undo();
+        }
+        assertFalse(loaded.canUndo());
+        assertEquals("", this.document.toString());
+    }
+
+    @Test
+    public void testLoadCorruptedHistory() throws IOException {
+        // prepare
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "TEST", 0, 4));
+        var output = new ByteArrayOutputStream();
+        undoManager.saveHistory(Channels.newChannel(output));
+        var bytes = output.toByteArray();
+        var truncated = Arrays.copyOf(bytes, bytes.length - 2);
+
+        // test
+        try {
+            undoManager.loadHistory(Channels.newChannel(new ByteArrayInputStream(truncated)));
+            fail();
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+
+        // assert
+        assertFalse(undoManager.canUndo());
+        assertEquals(0, undoManager.getRetainedBytes());
+    }
+
+    @Test(expected = StreamCorruptedException.class)
+    public void testLoadForeignData() throws IOException {
+        // prepare
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+
+        // test
+        undoManager.loadHistory(Channels.newChannel(new ByteArrayInputStream("not a history".getBytes())));
+    }
+
+    @Test
+    public void testLoadForeignDataClearsHistory() throws IOException {
+        // prepare
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "TEST", 0, 4));
+
+        // test
+        try {
+            undoManager.loadHistory(Channels.newChannel(new ByteArrayInputStream("not a history".getBytes())));
+            fail();
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+
+        // assert
+        assertFalse(undoManager.canUndo());
+        assertEquals(0, undoManager.getRetainedBytes());
+    }
+
+    @Test
+    public void testLoadTruncatedHistoryFile() throws IOException {
+        // prepare
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "TEST", 0, 4));
+        undoManager.registerChange(this.changeFactory.createInsertion(4, "MORE", 4, 8));
+        var file = Files.createTempFile("history", ".undo");
+        try {
+            try (var channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                undoManager.saveHistory(channel);
+                channel.truncate(channel.size() - 3);
+            }
+
+            // test
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                undoManager.loadHistory(channel);
+                fail();
+            } catch (StreamCorruptedException e) {
+                // expected
+            }
+        } finally {
+            Files.delete(file);
+        }
+
+        // assert
+        assertFalse(undoManager.canUndo());
+        assertEquals(0, undoManager.getRetainedBytes());
+    }
+
+    @Test
+    public void testLoadNegativeTextLength() throws IOException {
+        // one stack with one insertion of UTF-16 text, length -2
+        assertCorrupted(0x01, 0x09, 0x00, 0x00, 0x00, 0x00, 0xFE, 0xFF, 0xFF, 0xFF, 0x0F, 0x00);
+    }
+
+    @Test
+    public void testLoadNegativeCompoundCount() throws IOException {
+        // one stack with one compound of -1 changes
+        assertCorrupted(0x01, 0x06, 0x02, 0xFF, 0xFF, 0xFF, 0xFF, 0x0F, 0x00);
+    }
+
+    @Test
+    public void testLoadOversizedRecord() throws IOException {
+        // one stack with one record of 2^31 - 1 bytes
+        assertCorrupted(0x01, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0x00, 0x00);
+    }
+
+    @Test
+    public void testLoadOversizedCompoundCount() throws IOException {
+        // one stack with one compound of 2^31 - 1 changes
+        assertCorrupted(0x01, 0x06, 0x02, 0xFF, 0xFF, 0xFF, 0xFF, 0x07, 0x00);
+    }
+
+    @Test
+    public void testLoadOversizedStackCount() throws IOException {
+        // one stack of 2^31 - 1 records
+        var header = new byte[] { 'U', 'N', 'D', 'O', 1, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07 };
+        var file = Files.createTempFile("history", ".undo");
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        try {
+            Files.write(file, header);
+
+            // test
+            try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                undoManager.loadHistory(channel);
+                fail();
+            } catch (StreamCorruptedException e) {
+                // expected
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Loads a history with the given stacks and checks that it's rejected as corrupted.
+     *
+     * @param stacks Bytes following the header of the history
+     * @throws IOException If the history can't be read
+     */
+    private void assertCorrupted(int... stacks) throws IOException {
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "TEST", 0, 4));
+        var bytes = new byte[5 + stacks.length];
+        bytes[0] = 'U';
+        bytes[1] = 'N';
+        bytes[2] = 'D';
+        bytes[3] = 'O';
+        bytes[4] = 1;
+        for (int i = 0; i < stacks.length; i++) {
+            bytes[5 + i] = (byte) stacks[i];
+        }
+        try {
+            undoManager.loadHistory(Channels.newChannel(new ByteArrayInputStream(bytes)));
+            fail();
+        } catch (StreamCorruptedException e) {
+            // expected
+        }
+        assertFalse(undoManager.canUndo());
+        assertEquals(0, undoManager.getRetainedBytes());
+    }
+
+    @Test
+    public void testBatchUndoRedo() {
+        // prepare
+        var document = new PieceTableDocument("Hello world");
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(document, BUFFER_SIZE);
+        var states = new ArrayList<String>();
+        states.add(document.toString());
+        var changes = new Change[] {
+                this.changeFactory.createInsertion(5, ",", 5, 6),
+                this.changeFactory.createInsertion(6, " big", 6, 10),
+                this.changeFactory.createDeletion(7, "bi", 9, 7),
+                this.changeFactory.createDeletion(0, "Hello", 5, 0),
+                this.changeFactory.createInsertion(0, "Bye", 0, 3),
+                this.changeFactory.createDeletion(4, " g", 6, 4),
+        };
+        for (var change : changes) {
+            undoManager.registerChange(change);
+            change.apply(document);
+            states.add(document.toString());
+        }
+        assertEquals("Bye, world", document.toString());
+
+        // test
+        undoManager.undo(4);
+
+        // assert
+        assertEquals(states.get(2), document.toString());
+        assertEquals(2, undoManager.getRevision());
+        undoManager.redo(3);
+        assertEquals(states.get(5), document.toString());
+        undoManager.revertTo(0);
+        assertEquals(states.get(0), document.toString());
+        undoManager.revertTo(6);
+        assertEquals(states.get(6), document.toString());
+    }
+
+    @Test
+    public void testBatchRedoScalesLikeSteps() {
+        // prepare
+        var steps = 320_000;
+        var document = new RopeDocument();
+        var undoManager = new UndoManagerImpl(document, steps, Long.MAX_VALUE);
+        for (int i = 0; i < steps; i++) {
+            var change = this.changeFactory.createInsertion(i, "x", i, i + 1);
+            undoManager.registerChange(change);
+            change.apply(document);
+        }
+        var batch = Long.MAX_VALUE;
+        var loop = Long.MAX_VALUE;
+
+        // test
+        for (int round = 0; round < 5; round++) {
+            undoManager.undo(steps);
+            var start = System.nanoTime();
+            undoManager.redo(steps);
+            batch = Math.min(batch, System.nanoTime() - start);
+            undoManager.undo(steps);
+            start = System.nanoTime();
+            for (int i = 0; i < steps; i++) {
+                undoManager.redo();
+            }
+            loop = Math.min(loop, System.nanoTime() - start);
+        }
+
+        // assert
+        assertEquals(steps, document.length());
+        assertTrue(batch <= loop);
+    }
+
+    @Test
+    public void testBatchUndoTouchesDocumentOnce() {
+        // prepare
+        var document = Mockito.spy(new RopeDocument("text"));
+        var undoManager = undoFactory.createUndoManager(document, 1000);
+        for (int i = 0; i < 500; i++) {
+            var change = this.changeFactory.createInsertion(i, "x", i, i + 1);
+            undoManager.registerChange(change);
+            change.apply(document);
+        }
+        Mockito.reset(document);
+
+        // test
+        undoManager.undo(500);
+
+        // assert
+        assertEquals("text", document.toString());
+        Mockito.verify(document).replace(0, "x".repeat(500), "");
+        Mockito.verify(document).replace(Mockito.anyInt(), Mockito.anyString(), Mockito.anyString());
+        Mockito.verify(document).setDot(0);
+        assertTrue(undoManager.canRedo());
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testRejectedBatchUndoFallsBackToSteps() {
+        // prepare
+        var document = new RopeDocument("text");
+        var undoManager = undoFactory.createUndoManager(document, 1000);
+        var first = this.changeFactory.createInsertion(0, "a", 0, 1);
+        var second = this.changeFactory.createInsertion(5, "b", 5, 6);
+        for (var change : List.of(first, second)) {
+            undoManager.registerChange(change);
+            change.apply(document);
+        }
+        document.delete(0, "a");
+        document.insert(0, "z");
+
+        // test
+        try {
+            undoManager.undo(2);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // assert
+        assertEquals("ztext", document.toString());
+        assertTrue(undoManager.canRedo());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testBatchUndoTooMany() {
+        // prepare
+        var undoManager = undoFactory.createUndoManager(this.document, BUFFER_SIZE);
+        undoManager.registerChange(this.changeFactory.createInsertion(0, "TEST", 0, 4));
+        this.document.insert(0, "TEST");
+
+        // test
+        undoManager.undo(2);
+    }
+
+    @Test
+    public void testDeepUndoRestoresCheckpoint() {
+        // prepare
+        var document = Mockito.spy(new RopeDocument());
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(document, 1000);
+        undoManager.setCheckpointPolicy(new CheckpointPolicy(100, Long.MAX_VALUE));
+        var states = new ArrayList<String>();
+        states.add(document.toString());
+        for (int i = 0; i < 1000; i++) {
+            var change = i % 7 == 6
+                    ? this.changeFactory.createDeletion(i / 2, document.toString().substring(i / 2, i / 2 + 1), i / 2 + 1, i / 2)
+                    : this.changeFactory.createInsertion(i / 2, String.valueOf((char) ('a' + i % 26)), i / 2, i / 2 + 1);
+            change.apply(document);
+            undoManager.registerChange(change);
+            states.add(document.toString());
+        }
+        Mockito.reset(document);
+
+        // test
+        undoManager.undo(897);
+
+        // assert
+        assertEquals(states.get(103), document.toString());
+        Mockito.verify(document).restore(Mockito.any(CharSequence.class));
+        undoManager.redo(795);
+        assertEquals(states.get(898), document.toString());
+        undoManager.revertTo(1000);
+        assertEquals(states.get(1000), document.toString());
+        undoManager.revertTo(0);
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void testCheckpointsWhenRegisteredBeforeApplied() {
+        // prepare
+        var document = Mockito.spy(new RopeDocument());
+        var undoManager = new UndoManagerImpl(document, BUFFER_SIZE);
+        undoManager.setCheckpointPolicy(new CheckpointPolicy(2, 1000));
+        var states = new ArrayList<String>();
+        states.add(document.toString());
+        for (char c = 'a'; c <= 'h'; c++) {
+            var change = this.changeFactory.createInsertion(document.length(), String.valueOf(c),
+                    document.length(), document.length() + 1);
+            undoManager.registerChange(change);
+            change.apply(document);
+            states.add(document.toString());
+        }
+        Mockito.reset(document);
+
+        // test
+        undoManager.undo(5);
+
+        // assert
+        assertEquals(states.get(3), document.toString());
+        Mockito.verify(document).restore(Mockito.any(CharSequence.class));
+        undoManager.redo(5);
+        assertEquals(states.get(8), document.toString());
+        undoManager.undo(7);
+        assertEquals(states.get(1), document.toString());
+    }
+
+    @Test
+    public void testCheckpointsChargedToBudget() {
+        // prepare
+        var probe = new UndoManagerImpl(Mockito.mock(Document.class), 100);
+        var cappedDocument = new RopeDocument();
+        var capped = new UndoManagerImpl(cappedDocument, 100);
+        capped.setCheckpointPolicy(new CheckpointPolicy(1, Long.MAX_VALUE, 2));
+        var document = new RopeDocument();
+        var undoManager = new UndoManagerImpl(document, 100, 400);
+        undoManager.setCheckpointPolicy(new CheckpointPolicy(1, Long.MAX_VALUE));
+
+        // test
+        for (int i = 0; i < 5; i++) {
+            var change = this.changeFactory.createInsertion(i, "a", i, i + 1);
+            probe.registerChange(change);
+            change.apply(cappedDocument);
+            capped.registerChange(change);
+            change.apply(document);
+            undoManager.registerChange(change);
+        }
+
+        // assert
+        var changeBytes = probe.getRetainedBytes();
+        assertEquals(changeBytes + (40 + 2 * 4) + (40 + 2 * 5), capped.getRetainedBytes());
+        assertEquals(changeBytes, undoManager.getRetainedBytes());
+        undoManager.undo(5);
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void testVerifyingWhenRegisteredBeforeApplied() {
+        // prepare
+        var document = new PieceTableDocument();
+        var undoManager = new UndoManagerImpl(document, BUFFER_SIZE);
+        undoManager.setVerifying(true);
+        for (var word : Arrays.asList("one ", "two ", "three ")) {
+            var change = this.changeFactory.createInsertion(document.length(), word, document.length(),
+                    document.length() + word.length());
+            undoManager.registerChange(change);
+            change.apply(document);
+        }
+
+        // test
+        undoManager.undo(2);
+        undoManager.redo();
+        undoManager.undo();
+
+        // assert
+        assertEquals("one ", document.toString());
+        assertEquals(new RopeDocument("one two ").fingerprint(), undoManager.getFingerprint(2));
+        assertEquals(new RopeDocument("one two three ").fingerprint(), undoManager.getFingerprint(3));
+        document.insert(0, "x");
+        try {
+            undoManager.redo();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testFingerprintsChargedToBudget() {
+        // prepare
+        var document = new PieceTableDocument();
+        var probe = new UndoManagerImpl(new PieceTableDocument(), BUFFER_SIZE);
+        var undoManager = new UndoManagerImpl(document, BUFFER_SIZE);
+        undoManager.setVerifying(true);
+        var words = Arrays.asList("one ", "two ", "six ");
+        for (var word : words) {
+            var change = this.changeFactory.createInsertion(document.length(), word, document.length(),
+                    document.length() + word.length());
+            change.apply(document);
+            probe.registerChange(change);
+            undoManager.registerChange(change);
+        }
+        var changeBytes = probe.getRetainedBytes();
+        assertEquals(changeBytes + 4 * 72, undoManager.getRetainedBytes());
+
+        // test
+        undoManager.setMaxRetainedBytes(undoManager.getRetainedBytes() - 1);
+
+        // assert
+        assertEquals(2 * changeBytes / 3 + 3 * 72, undoManager.getRetainedBytes());
+        undoManager.setVerifying(false);
+        assertEquals(2 * changeBytes / 3, undoManager.getRetainedBytes());
+    }
+
+    @Test
+    public void testVerifyingDetectsDivergence() {
+        // prepare
+        var document = new PieceTableDocument();
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(document, BUFFER_SIZE);
+        undoManager.setVerifying(true);
+        for (var word : Arrays.asList("one ", "two ", "three ")) {
+            var change = this.changeFactory.createInsertion(document.length(), word, document.length(),
+                    document.length() + word.length());
+            change.apply(document);
+            undoManager.registerChange(change);
+        }
+        undoManager.undo(2);
+        undoManager.redo();
+        var replica = new RopeDocument("one two ");
+        assertEquals(replica.fingerprint(), undoManager.getFingerprint(2));
+
+        // test
+        document.insert(0, "x");
+        try {
+            undoManager.undo();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // assert
+        assertEquals(0, document.mismatch(new RopeDocument("one ")));
+    }
+
+    @Test
+    public void testMetrics() {
+        // prepare
+        var document = new RopeDocument();
+        var undoManager = (UndoManagerImpl) undoFactory.createUndoManager(document, 2);
+        var metrics = new UndoMetrics();
+        undoManager.setListener(metrics);
+        for (int i = 0; i < 3; i++) {
+            var change = this.changeFactory.createInsertion(i, "x", i, i + 1);
+            change.apply(document);
+            undoManager.registerChange(change);
+        }
+
+        // test
+        undoManager.undo(2);
+        undoManager.redo();
+        undoManager.redo();
+        try {
+            undoManager.redo();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // assert
+        assertEquals("xxx", document.toString());
+        assertEquals(3, metrics.getRegistered());
+        assertEquals(1, metrics.getEvicted());
+        assertEquals(2, metrics.getUndone());
+        assertEquals(2, metrics.getRedone());
+        assertEquals(1, metrics.getFailed());
+        assertEquals(2, metrics.getUndoDepth());
+        assertEquals(0, metrics.getRedoDepth());
+        assertEquals(undoManager.getRetainedBytes(), metrics.getRetainedBytes());
+        assertEquals(1, metrics.getUndoLatency().getCount());
+        assertEquals(3, metrics.getRegisterLatency().getCount());
+    }
+
+    @Test
+    public void testCompressedHistoryRoundTrip() throws IOException {
+        // prepare
+        var document = new RopeDocument();
+        var undoManager = new UndoManagerFactoryImpl().createCompressingUndoManager(document, BUFFER_SIZE, 64);
+        var paste = "2024-01-01 INFO request handled\n".repeat(100);
+        var pasteChange = this.changeFactory.createInsertion(0, paste, 0, paste.length());
+        pasteChange.apply(document);
+        undoManager.registerChange(pasteChange);
+        var typed = this.changeFactory.createInsertion(paste.length(), "!", paste.length(), paste.length() + 1);
+        typed.apply(document);
+        undoManager.registerChange(typed);
+        var out = new ByteArrayOutputStream();
+
+        // test
+        undoManager.undo(2);
+        undoManager.redo(2);
+        undoManager.saveHistory(Channels.newChannel(out));
+
+        // assert
+        assertEquals(paste + "!", document.toString());
+        assertTrue(undoManager.getRetainedBytes() < paste.length());
+        var loaded = new UndoManagerImpl(document, BUFFER_SIZE);
+        loaded.loadHistory(Channels.newChannel(new ByteArrayInputStream(out.toByteArray())));
+        loaded.undo(2);
+        assertEquals("", document.toString());
+    }
+
 }
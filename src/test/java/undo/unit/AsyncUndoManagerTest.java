@@ -0,0 +1,201 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+import org.mockito.Mockito;
+import undo.Change;
+import undo.UndoManager;
+import undo.impl.AsyncUndoManager;
+
+public class AsyncUndoManagerTest {
+
+    private UndoManager delegate;
+
+    private Queue<Runnable> tasks;
+
+    private AsyncUndoManager undoManager;
+
+    @Before
+    public void init() {
+        this.delegate = Mockito.mock(UndoManager.class);
+        this.tasks = new ArrayDeque<>();
+        this.undoManager = new AsyncUndoManager(this.delegate, this.tasks::add);
+    }
+
+    @Test
+    public void testRepeatedUndoCoalesced() {
+        // prep
+        var first = this.undoManager.undoAsync();
+        var second = this.undoManager.undoAsync();
+        var third = this.undoManager.undoAsync();
+
+        // test
+        runTasks();
+
+        // assert
+        Mockito.verify(this.delegate).undo(3);
+        Mockito.verify(this.delegate, Mockito.never()).undo();
+        assertTrue(first.isDone() && second.isDone() && third.isDone());
+    }
+
+    @Test
+    public void testRedoCancelsQueuedUndo() {
+        // prep
+        this.undoManager.undoAsync();
+        this.undoManager.undoAsync();
+        var redo = this.undoManager.redoAsync();
+
+        // test
+        runTasks();
+
+        // assert
+        Mockito.verify(this.delegate).undo(1);
+        Mockito.verify(this.delegate, Mockito.never()).redo(Mockito.anyInt());
+        assertTrue(redo.isDone());
+    }
+
+    @Test
+    public void testRegisterChangeClosesBatch() {
+        // prep
+        var change = Mockito.mock(Change.class);
+        this.undoManager.undoAsync();
+        this.undoManager.registerChange(change);
+        this.undoManager.undoAsync();
+
+        // test
+        runTasks();
+
+        // assert
+        InOrder order = Mockito.inOrder(this.delegate);
+        order.verify(this.delegate).undo(1);
+        order.verify(this.delegate).registerChange(change);
+        order.verify(this.delegate).undo(1);
+    }
+
+    @Test
+    public void testCancelPending() {
+        // prep
+        var undo = this.undoManager.undoAsync();
+        this.undoManager.undoAsync();
+
+        // test
+        assertTrue(this.undoManager.cancelPending());
+        runTasks();
+
+        // assert
+        Mockito.verify(this.delegate, Mockito.never()).undo(Mockito.anyInt());
+        assertTrue(undo.isCompletedExceptionally());
+        assertFalse(this.undoManager.cancelPending());
+        try {
+            undo.join();
+            fail();
+        } catch (CompletionException e) {
+            assertTrue(e.getCause() instanceof CancellationException);
+        }
+    }
+
+    @Test
+    public void testFailedUndo() {
+        // prep
+        Mockito.doThrow(new IllegalStateException()).when(this.delegate).undo(1);
+
+        // test
+        var undo = this.undoManager.undoAsync();
+        runTasks();
+
+        // assert
+        assertTrue(undo.isCompletedExceptionally());
+        this.undoManager.undoAsync();
+        Mockito.doNothing().when(this.delegate).undo(1);
+        runTasks();
+        Mockito.verify(this.delegate, Mockito.times(2)).undo(1);
+    }
+
+    @Test
+    public void testUndoClampedToAvailableChanges() {
+        // prep
+        Mockito.doThrow(new IllegalStateException()).when(this.delegate).undo(5);
+        Mockito.when(this.delegate.canUndo()).thenReturn(true, true, true, false);
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(this.undoManager.undoAsync());
+        }
+
+        // test
+        runTasks();
+
+        // assert
+        Mockito.verify(this.delegate, Mockito.times(3)).undo();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i >= 3, futures.get(i).isCompletedExceptionally());
+        }
+    }
+
+    @Test
+    public void testStatePublished() {
+        // prep
+        Mockito.when(this.delegate.canUndo()).thenReturn(true);
+        this.undoManager.registerChange(Mockito.mock(Change.class));
+        assertFalse(this.undoManager.canUndo());
+
+        // test
+        runTasks();
+
+        // assert
+        assertTrue(this.undoManager.canUndo());
+        assertFalse(this.undoManager.canRedo());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testSyncUndoRethrows() {
+        // prep
+        Mockito.doThrow(new IllegalStateException()).when(this.delegate).undo(1);
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var undoManager = new AsyncUndoManager(this.delegate, executor);
+
+            // test
+            undoManager.undo();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testDefaultExecutorStartsVirtualThreads() throws Exception {
+        // prep
+        Assume.assumeTrue(Boolean.getBoolean("undo.virtualThreads"));
+        var thread = new AtomicReference<Thread>();
+        Mockito.doAnswer(invocation -> {
+            thread.set(Thread.currentThread());
+            return null;
+        }).when(this.delegate).undo(1);
+        var undoManager = new AsyncUndoManager(this.delegate);
+
+        // test
+        undoManager.undo();
+
+        // assert
+        assertEquals(true, Thread.class.getMethod("isVirtual").invoke(thread.get()));
+    }
+
+    private void runTasks() {
+        while (!this.tasks.isEmpty()) {
+            this.tasks.poll().run();
+        }
+    }
+
+}
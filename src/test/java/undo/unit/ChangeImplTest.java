@@ -0,0 +1,88 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import undo.impl.ChangeFactoryImpl;
+import undo.impl.ChangeImpl;
+import undo.impl.CompoundChange;
+import undo.impl.ChangeType;
+import undo.impl.GapBufferDocument;
+
+public class ChangeImplTest {
+
+    @Test
+    public void testCompoundFusesTyping() {
+        // prep
+        var compound = new CompoundChange();
+
+        // test
+        compound.add(new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT));
+        compound.add(new ChangeImpl(1, "b", 1, 2, ChangeType.INSERT));
+        compound.add(new ChangeImpl(1, "x", 2, 2, ChangeType.INSERT));
+        compound.add(new ChangeImpl(2, "b", 2, 2, ChangeType.DELETE));
+
+        // assert
+        assertEquals(1, compound.getChanges().size());
+        var change = (ChangeImpl) compound.getChanges().get(0);
+        assertEquals("ax", change.getString());
+        assertEquals(0, change.getOldDot());
+        assertEquals(2, change.getNewDot());
+    }
+
+    @Test
+    public void testCompoundFusesBackspace() {
+        // prep
+        var compound = new CompoundChange();
+
+        // test
+        compound.add(new ChangeImpl(5, "d", 6, 5, ChangeType.DELETE));
+        compound.add(new ChangeImpl(3, "bc", 5, 3, ChangeType.DELETE));
+        compound.add(new ChangeImpl(3, "ef", 3, 3, ChangeType.DELETE));
+
+        // assert
+        assertEquals(1, compound.getChanges().size());
+        var change = (ChangeImpl) compound.getChanges().get(0);
+        assertEquals(3, change.getPos());
+        assertEquals("bcdef", change.getString());
+    }
+
+    @Test
+    public void testCompoundKeepsUnrelatedChanges() {
+        // prep
+        var compound = new CompoundChange();
+        var document = new GapBufferDocument();
+        document.insert(0, "hello world");
+
+        // test
+        compound.add(new ChangeImpl(0, "hello", 0, 0, ChangeType.DELETE));
+        compound.add(new ChangeImpl(1, "!", 0, 2, ChangeType.INSERT));
+        compound.apply(document);
+
+        // assert
+        assertEquals(2, compound.getChanges().size());
+        assertEquals(" !world", document.toString());
+        assertEquals(2, document.getDot());
+        compound.revert(document);
+        assertEquals("hello world", document.toString());
+        assertEquals(0, document.getDot());
+    }
+
+    @Test
+    public void testFactorySharesTypedCharacters() {
+        // prep
+        var factory = new ChangeFactoryImpl();
+        var buffer = "ab".toCharArray();
+
+        // test
+        var first = (ChangeImpl) factory.createInsertion(0, buffer, 1, 1, 0, 1);
+        var second = (ChangeImpl) factory.createInsertion(1, new StringBuilder("b"), 1, 2);
+        var word = (ChangeImpl) factory.createDeletion(0, buffer, 0, 2, 2, 0);
+
+        // assert
+        assertSame(first.getString(), second.getString());
+        assertEquals("b", first.getString());
+        assertEquals("ab", word.getString());
+        assertEquals(ChangeType.DELETE, word.getChangeType());
+    }
+}
@@ -0,0 +1,262 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import undo.Change;
+import undo.Document;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeJournal;
+import undo.impl.ChangeType;
+import undo.impl.CoalescingPolicy;
+import undo.impl.GapBufferDocument;
+import undo.impl.RangeDeletion;
+import undo.impl.UndoManagerImpl;
+
+public class ChangeJournalTest {
+
+    private Path directory;
+
+    private GapBufferDocument document;
+
+    private UndoManagerImpl undoManager;
+
+    private ChangeJournal journal;
+
+    @Before
+    public void init() throws IOException {
+        this.directory = Files.createTempDirectory("journal");
+        this.document = new GapBufferDocument();
+        this.undoManager = new UndoManagerImpl(this.document, 10);
+        this.journal = new ChangeJournal(this.directory, 256, 5, 1024);
+        this.undoManager.setJournal(this.journal);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        try {
+            this.journal.close();
+        } catch (IOException e) {
+            // failures are asserted by the tests
+        }
+        try (var files = Files.walk(this.directory)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        // prep
+        register(new ChangeImpl(0, "Hello", 0, 5, ChangeType.INSERT));
+        this.undoManager.beginCompound();
+        register(new ChangeImpl(5, ",", 5, 6, ChangeType.INSERT));
+        register(new ChangeImpl(6, " world", 6, 12, ChangeType.INSERT));
+        this.undoManager.endCompound();
+        register(new ChangeImpl(0, "Hello", 0, 0, ChangeType.DELETE));
+        this.undoManager.undo();
+        this.undoManager.undo(2);
+        this.undoManager.redo();
+
+        // test
+        this.journal.flush();
+        var document = new GapBufferDocument();
+        var undoManager = new UndoManagerImpl(document, 10);
+        var count = ChangeJournal.replay(this.directory, document, undoManager);
+
+        // assert
+        assertEquals(9, count);
+        assertEquals("Hello", document.toString());
+        undoManager.redo();
+        assertEquals("Hello, world", document.toString());
+        undoManager.redo();
+        assertEquals(", world", document.toString());
+        assertFalse(undoManager.canRedo());
+    }
+
+    @Test
+    public void testSegmentsAndTornTail() throws IOException {
+        // prep
+        var text = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            register(new ChangeImpl(i, "x", i, i + 1, ChangeType.INSERT));
+            text.append('x');
+        }
+        this.journal.close();
+        List<Path> segments;
+        try (var files = Files.list(this.directory)) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        var last = segments.get(segments.size() - 1);
+        Files.write(last, new byte[] { 0, 0, 0, 9, 1, 2 }, StandardOpenOption.APPEND);
+
+        // test
+        var document = new GapBufferDocument();
+        var count = ChangeJournal.replay(this.directory, document, new UndoManagerImpl(document, 10));
+
+        // assert
+        assertTrue(segments.size() > 1);
+        assertEquals(100, count);
+        assertEquals(text.toString(), document.toString());
+    }
+
+    @Test
+    public void testDamagedSegmentStopsReplay() throws IOException {
+        // prep
+        for (int i = 0; i < 100; i++) {
+            register(new ChangeImpl(i, "x", i, i + 1, ChangeType.INSERT));
+        }
+        this.journal.close();
+        List<Path> segments;
+        try (var files = Files.list(this.directory)) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        var first = Files.readAllBytes(segments.get(0));
+        first[first.length - 1] ^= 1;
+        Files.write(segments.get(0), first);
+
+        // test
+        var document = new GapBufferDocument();
+        var count = ChangeJournal.replay(this.directory, document, new UndoManagerImpl(document, 10));
+
+        // assert
+        assertTrue(segments.size() > 2);
+        assertTrue(count < 100);
+        assertEquals("x".repeat((int) count), document.toString());
+    }
+
+    @Test
+    public void testTornSessionFollowedByNewSession() throws IOException {
+        // prep
+        register(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+        this.journal.close();
+        List<Path> segments;
+        try (var files = Files.list(this.directory)) {
+            segments = files.sorted().collect(Collectors.toList());
+        }
+        Files.write(segments.get(0), new byte[] { 0, 0, 0, 9, 1, 2 }, StandardOpenOption.APPEND);
+        this.journal = new ChangeJournal(this.directory);
+        this.undoManager.setJournal(this.journal);
+
+        // test
+        register(new ChangeImpl(3, "def", 3, 6, ChangeType.INSERT));
+        this.journal.flush();
+
+        // assert
+        var document = new GapBufferDocument();
+        assertEquals(2, ChangeJournal.replay(this.directory, document, new UndoManagerImpl(document, 10)));
+        assertEquals("abcdef", document.toString());
+    }
+
+    @Test
+    public void testRangeDeletionJournaled() throws IOException {
+        // prep
+        register(new ChangeImpl(0, "Hello, world", 0, 12, ChangeType.INSERT));
+        register(new RangeDeletion(5, 7, 12, 5, 4));
+
+        // test
+        this.journal.flush();
+        var document = new GapBufferDocument();
+        var undoManager = new UndoManagerImpl(document, 10);
+        var count = ChangeJournal.replay(this.directory, document, undoManager);
+
+        // assert
+        assertEquals(2, count);
+        assertEquals("Hello", document.toString());
+        undoManager.undo();
+        assertEquals("Hello, world", document.toString());
+    }
+
+    @Test
+    public void testCoalescedChangesReplayAsJournaled() throws IOException {
+        // prep
+        this.undoManager.setCoalescingPolicy(new CoalescingPolicy(0, false));
+        register(new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT));
+        register(new ChangeImpl(1, "b", 1, 2, ChangeType.INSERT));
+        this.undoManager.setCoalescingPolicy(new CoalescingPolicy(3_600_000, false));
+        register(new ChangeImpl(2, "c", 2, 3, ChangeType.INSERT));
+        register(new ChangeImpl(3, "d", 3, 4, ChangeType.INSERT));
+
+        // test
+        this.journal.flush();
+        var document = new GapBufferDocument();
+        var undoManager = new UndoManagerImpl(document, 10);
+        undoManager.setCoalescingPolicy(new CoalescingPolicy(3_600_000, false));
+        ChangeJournal.replay(this.directory, document, undoManager);
+
+        // assert
+        assertEquals("abcd", document.toString());
+        undoManager.undo();
+        assertEquals("ab", document.toString());
+        undoManager.undo();
+        assertEquals("a", document.toString());
+        undoManager.undo();
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testReopenedJournalStartsNewSegment() throws IOException {
+        // prep
+        register(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+        this.journal.close();
+        this.journal = new ChangeJournal(this.directory);
+        this.undoManager.setJournal(this.journal);
+
+        // test
+        register(new ChangeImpl(3, "def", 3, 6, ChangeType.INSERT));
+        this.undoManager.undo();
+        this.journal.flush();
+
+        // assert
+        var document = new GapBufferDocument();
+        assertEquals(3, ChangeJournal.replay(this.directory, document, new UndoManagerImpl(document, 10)));
+        assertEquals("abc", document.toString());
+    }
+
+    @Test
+    public void testUnencodableChangeStopsJournal() {
+        // prep
+        var change = new Change() {
+            @Override
+            public String getType() {
+                return "custom";
+            }
+
+            @Override
+            public void apply(Document doc) {
+            }
+
+            @Override
+            public void revert(Document doc) {
+            }
+        };
+
+        // test
+        this.undoManager.registerChange(change);
+
+        // assert
+        try {
+            this.journal.flush();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private void register(Change change) {
+        change.apply(this.document);
+        this.undoManager.registerChange(change);
+    }
+
+}
@@ -0,0 +1,93 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Change;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeLog;
+import undo.impl.ChangeType;
+
+public class ChangeLogTest {
+
+    @Test
+    public void testPushAndPop() {
+        // prep
+        var log = new ChangeLog(4);
+
+        // test
+        log.push(new ChangeImpl(0, "hello", 0, 5, ChangeType.INSERT));
+        log.push(new ChangeImpl(2, "ll", 5, 2, ChangeType.DELETE));
+
+        // assert
+        assertEquals(7, log.textLength());
+        var change = (ChangeImpl) log.pop();
+        assertEquals(2, change.getPos());
+        assertEquals("ll", change.getString());
+        assertEquals(5, change.getOldDot());
+        assertEquals(2, change.getNewDot());
+        assertEquals(ChangeType.DELETE, change.getChangeType());
+        assertEquals("hello", ((ChangeImpl) log.pop()).getString());
+        assertTrue(log.isEmpty());
+        assertEquals(0, log.textLength());
+    }
+
+    @Test
+    public void testTopChangeKeptAsObject() {
+        // prep
+        var log = new ChangeLog(4);
+        var first = new ChangeImpl(0, "first", 0, 5, ChangeType.INSERT);
+        var second = new ChangeImpl(5, "second", 5, 11, ChangeType.INSERT);
+        log.push(first);
+        log.push(second);
+
+        // test
+        var popped = log.pop();
+
+        // assert
+        assertSame(second, popped);
+        var top = log.peek();
+        assertEquals("first", ((ChangeImpl) top).getString());
+        assertSame(top, log.peek());
+        assertSame(top, log.get(0));
+        assertSame(top, log.pop());
+    }
+
+    @Test
+    public void testEvictionReclaimsArena() {
+        // prep
+        var log = new ChangeLog(3);
+
+        // test
+        Change evicted = null;
+        for (int i = 0; i < 1000; i++) {
+            evicted = log.push(new ChangeImpl(i, "text" + i, i, i, ChangeType.INSERT));
+        }
+
+        // assert
+        assertEquals(3, log.size());
+        assertEquals("text996", ((ChangeImpl) evicted).getString());
+        assertEquals("text997", ((ChangeImpl) log.get(0)).getString());
+        assertEquals("text999", ((ChangeImpl) log.peek()).getString());
+        assertEquals(21, log.textLength());
+    }
+
+    @Test
+    public void testStoresOtherChangesAsObjects() {
+        // prep
+        var log = new ChangeLog(2);
+        var change = Mockito.mock(Change.class);
+
+        // test
+        log.push(new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT));
+        log.push(change);
+        log.push(new ChangeImpl(1, "b", 1, 2, ChangeType.INSERT));
+
+        // assert
+        assertSame(change, log.removeOldest());
+        assertEquals("b", ((ChangeImpl) log.pop()).getString());
+        assertTrue(log.isEmpty());
+    }
+
+}
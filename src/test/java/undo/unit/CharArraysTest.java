@@ -0,0 +1,55 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.nio.CharBuffer;
+
+import org.junit.Test;
+import util.CharArrays;
+
+public class CharArraysTest {
+
+    @Test
+    public void testRegionMatches() {
+        // prep
+        var text = "abcdefghij".repeat(60);
+        var chars = ("--" + text).toCharArray();
+        var changed = new StringBuilder(text);
+        changed.setCharAt(599, 'x');
+
+        // test
+        var matches = CharArrays.regionMatches(chars, 2, text, 0, text.length());
+        var tail = CharArrays.regionMatches(chars, 302, new StringBuffer(text), 300, 300);
+        var mismatch = CharArrays.regionMatches(chars, 2, changed, 0, text.length());
+        var other = CharArrays.regionMatches(chars, 2, CharBuffer.wrap(text), 0, 10);
+
+        // assert
+        assertTrue(matches);
+        assertTrue(tail);
+        assertFalse(mismatch);
+        assertTrue(other);
+        assertFalse(CharArrays.regionMatches(chars, 3, CharBuffer.wrap(text), 0, 10));
+        assertTrue(CharArrays.regionMatches(chars, 0, "", 0, 0));
+    }
+
+    @Test
+    public void testCopy() {
+        // prep
+        var chars = new char[8];
+
+        // test
+        CharArrays.copy("hello", 1, 4, chars, 0);
+        CharArrays.copy(new StringBuilder("ab"), 0, 2, chars, 3);
+        CharArrays.copy(CharBuffer.wrap("xyz"), 1, 3, chars, 5);
+
+        // assert
+        assertEquals("ellabyz", new String(chars, 0, 7));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testCopyOutOfRange() {
+        // test
+        CharArrays.copy(CharBuffer.wrap("xyz"), 1, 4, new char[8], 0);
+    }
+
+}
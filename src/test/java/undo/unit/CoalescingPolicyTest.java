@@ -0,0 +1,63 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeType;
+import undo.impl.CoalescingPolicy;
+
+public class CoalescingPolicyTest {
+
+    private static final long WINDOW_MILLIS = 1000;
+
+    @Test
+    public void testMergeContiguousInsertions() {
+        // prep
+        var policy = new CoalescingPolicy(WINDOW_MILLIS, false);
+        var previous = new ChangeImpl(0, "ab", 0, 2, ChangeType.INSERT);
+
+        // assert
+        assertTrue(policy.canMerge(previous, new ChangeImpl(2, "c", 2, 3, ChangeType.INSERT), 0));
+        assertFalse(policy.canMerge(previous, new ChangeImpl(1, "c", 1, 2, ChangeType.INSERT), 0));
+        assertFalse(policy.canMerge(previous, new ChangeImpl(1, "b", 2, 1, ChangeType.DELETE), 0));
+    }
+
+    @Test
+    public void testMergeDeletionRuns() {
+        // prep
+        var policy = new CoalescingPolicy(WINDOW_MILLIS, false);
+        var previous = new ChangeImpl(4, "e", 5, 4, ChangeType.DELETE);
+
+        // assert
+        assertTrue(policy.canMerge(previous, new ChangeImpl(3, "d", 4, 3, ChangeType.DELETE), 0));
+        assertTrue(policy.canMerge(previous, new ChangeImpl(4, "f", 4, 4, ChangeType.DELETE), 0));
+        assertFalse(policy.canMerge(previous, new ChangeImpl(2, "c", 3, 2, ChangeType.DELETE), 0));
+    }
+
+    @Test
+    public void testTimeWindow() {
+        // prep
+        var policy = new CoalescingPolicy(WINDOW_MILLIS, false);
+        var previous = new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT);
+        var next = new ChangeImpl(1, "b", 1, 2, ChangeType.INSERT);
+
+        // assert
+        assertTrue(policy.canMerge(previous, next, 999_000_000L));
+        assertFalse(policy.canMerge(previous, next, 1_001_000_000L));
+    }
+
+    @Test
+    public void testWordBoundary() {
+        // prep
+        var policy = new CoalescingPolicy(WINDOW_MILLIS, true);
+        var word = new ChangeImpl(0, "hello ", 0, 6, ChangeType.INSERT);
+
+        // assert
+        assertFalse(policy.canMerge(word, new ChangeImpl(6, "w", 6, 7, ChangeType.INSERT), 0));
+        assertTrue(policy.canMerge(word, new ChangeImpl(6, " ", 6, 7, ChangeType.INSERT), 0));
+        assertTrue(new CoalescingPolicy(WINDOW_MILLIS, false)
+                .canMerge(word, new ChangeImpl(6, "w", 6, 7, ChangeType.INSERT), 0));
+    }
+
+}
@@ -0,0 +1,319 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import undo.Change;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeType;
+import undo.impl.CollaborativeUndoManager;
+import undo.impl.RangeDeletion;
+import undo.impl.RopeDocument;
+import undo.impl.StringDocument;
+
+public class CollaborativeUndoManagerTest {
+
+    private static final int BUFFER_SIZE = 10;
+
+    private RopeDocument document;
+
+    private CollaborativeUndoManager undoManager;
+
+    @Before
+    public void init() {
+        this.document = new RopeDocument();
+        this.undoManager = new CollaborativeUndoManager(this.document, BUFFER_SIZE);
+    }
+
+    @Test
+    public void testUndoAfterRemoteInsertBefore() {
+        // prep
+        local(new ChangeImpl(0, "hello", 0, 5, ChangeType.INSERT));
+        remoteInsert(0, "XX");
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals("XX", this.document.toString());
+        assertEquals(2, this.document.getDot());
+        this.undoManager.redo();
+        assertEquals("XXhello", this.document.toString());
+    }
+
+    @Test
+    public void testUndoAfterRemoteDeleteBefore() {
+        // prep
+        remoteInsert(0, "remote ");
+        local(new ChangeImpl(7, "local", 7, 12, ChangeType.INSERT));
+        local(new ChangeImpl(7, "lo", 9, 7, ChangeType.DELETE));
+        remoteDelete(0, 3);
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals("ote local", this.document.toString());
+        this.undoManager.undo();
+        assertEquals("ote ", this.document.toString());
+    }
+
+    @Test
+    public void testRangeDeletionTakenAsDeletion() {
+        // prep
+        local(new ChangeImpl(0, "hello world", 0, 11, ChangeType.INSERT));
+        local(new RangeDeletion(5, 6, 11, 5, 16));
+        remoteInsert(0, ">");
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals(">hello world", this.document.toString());
+        this.undoManager.redo();
+        assertEquals(">hello", this.document.toString());
+    }
+
+    @Test
+    public void testRemoteInsertAtEndOfLocalText() {
+        // prep
+        local(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+        remoteInsert(3, "!");
+        remoteInsert(0, "?");
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals("?!", this.document.toString());
+    }
+
+    @Test
+    public void testEditedEntryDropped() {
+        // prep
+        local(new ChangeImpl(0, "first ", 0, 6, ChangeType.INSERT));
+        local(new ChangeImpl(6, "second", 6, 12, ChangeType.INSERT));
+        remoteInsert(9, "-");
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals("sec-ond", this.document.toString());
+        assertFalse(this.undoManager.canUndo());
+    }
+
+    @Test
+    public void testReplacedTextDropped() {
+        // prep
+        local(new ChangeImpl(0, "AB", 0, 2, ChangeType.INSERT));
+        local(new ChangeImpl(2, "hello", 2, 7, ChangeType.INSERT));
+        remoteDelete(3, 1);
+        remoteInsert(4, "X");
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals("hlXlo", this.document.toString());
+        assertFalse(this.undoManager.canUndo());
+    }
+
+    @Test
+    public void testNestedDeletionsUndoneInOrder() {
+        // prep
+        local(new ChangeImpl(0, "hello", 0, 5, ChangeType.INSERT));
+        local(new ChangeImpl(2, "XY", 2, 4, ChangeType.INSERT));
+        local(new ChangeImpl(2, "XY", 4, 2, ChangeType.DELETE));
+        local(new ChangeImpl(0, "hello", 5, 0, ChangeType.DELETE));
+
+        // test
+        for (int i = 0; i < 4; i++) {
+            this.undoManager.undo();
+        }
+
+        // assert
+        assertEquals("", this.document.toString());
+        assertFalse(this.undoManager.canUndo());
+        this.undoManager.redo();
+        this.undoManager.redo();
+        assertEquals("heXYllo", this.document.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testNothingLeftToUndo() {
+        // prep
+        local(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+        remoteDelete(1, 1);
+
+        // test
+        this.undoManager.undo();
+    }
+
+    @Test
+    public void testCompoundEditingItsOwnText() {
+        // prep
+        this.undoManager.beginCompound();
+        local(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+        local(new ChangeImpl(1, "b", 2, 1, ChangeType.DELETE));
+        this.undoManager.endCompound();
+        remoteInsert(0, "Z");
+        remoteInsert(3, "Y");
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals("ZY", this.document.toString());
+        this.undoManager.redo();
+        assertEquals("ZacY", this.document.toString());
+    }
+
+    @Test
+    public void testUndoKeepsCompoundOpen() {
+        // prep
+        var compound = this.undoManager.compound();
+        local(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        local(new ChangeImpl(0, "d", 0, 1, ChangeType.INSERT));
+        local(new ChangeImpl(1, "e", 1, 2, ChangeType.INSERT));
+        compound.close();
+        this.undoManager.undo();
+        assertEquals("", this.document.toString());
+        assertFalse(this.undoManager.canUndo());
+    }
+
+    @Test
+    public void testLongRemoteSession() {
+        // prep
+        var random = new Random(7);
+        local(new ChangeImpl(0, "[mine]", 0, 6, ChangeType.INSERT));
+        var mine = 0;
+        for (int i = 0; i < 10000; i++) {
+            var length = this.document.length();
+            if (random.nextBoolean() || length == 6) {
+                var pos = random.nextInt(length + 1);
+                pos = pos > mine && pos < mine + 6 ? mine : pos;
+                remoteInsert(pos, "r");
+                mine += pos <= mine ? 1 : 0;
+            } else {
+                var pos = random.nextInt(length);
+                if (pos >= mine && pos < mine + 6) {
+                    continue;
+                }
+                remoteDelete(pos, 1);
+                mine -= pos < mine ? 1 : 0;
+            }
+        }
+        var expected = new StringBuilder(this.document.toString()).delete(mine, mine + 6).toString();
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals(expected, this.document.toString());
+    }
+
+    @Test
+    public void testLargeHistory() {
+        // prep
+        this.undoManager = new CollaborativeUndoManager(this.document, 200000);
+        for (int i = 0; i < 200000; i++) {
+            local(new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT));
+            remoteInsert(this.document.length(), "r");
+        }
+
+        // test
+        for (int i = 0; i < 200000; i++) {
+            this.undoManager.undo();
+        }
+
+        // assert
+        assertEquals("r".repeat(200000), this.document.toString());
+    }
+
+    @Test
+    public void testUndoInRangeKeepsLaterEdits() {
+        // prep
+        local(new ChangeImpl(0, "one ", 0, 4, ChangeType.INSERT));
+        local(new ChangeImpl(4, "two ", 4, 8, ChangeType.INSERT));
+        local(new ChangeImpl(8, "three", 8, 13, ChangeType.INSERT));
+        remoteInsert(0, ">");
+
+        // test
+        this.undoManager.undoInRange(6, 7);
+
+        // assert
+        assertEquals(">one three", this.document.toString());
+        this.undoManager.undo();
+        assertEquals(">one two three", this.document.toString());
+        this.undoManager.undo();
+        assertEquals(">one two ", this.document.toString());
+    }
+
+    @Test
+    public void testUndoInRangeInsideText() {
+        // prep
+        local(new ChangeImpl(0, "abcdefgh", 0, 8, ChangeType.INSERT));
+        local(new ChangeImpl(8, "!", 8, 9, ChangeType.INSERT));
+
+        // test
+        this.undoManager.undoInRange(3, 4);
+
+        // assert
+        assertEquals("!", this.document.toString());
+    }
+
+    @Test
+    public void testUndoInRangeOfDeletion() {
+        // prep
+        local(new ChangeImpl(0, "hello world", 0, 11, ChangeType.INSERT));
+        local(new ChangeImpl(5, " world", 11, 5, ChangeType.DELETE));
+        local(new ChangeImpl(0, "> ", 0, 2, ChangeType.INSERT));
+
+        // test
+        this.undoManager.undoInRange(7, 7);
+
+        // assert
+        assertEquals("> hello world", this.document.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testUndoInRangeNothingTouched() {
+        // prep
+        local(new ChangeImpl(0, "abc", 0, 3, ChangeType.INSERT));
+        remoteInsert(3, "remote");
+
+        // test
+        this.undoManager.undoInRange(6, 8);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverwritingDocumentRejected() {
+        // test
+        new CollaborativeUndoManager(new StringDocument(), BUFFER_SIZE);
+    }
+
+    private void local(Change change) {
+        change.apply(this.document);
+        this.undoManager.registerChange(change);
+    }
+
+    private void remoteInsert(int pos, String s) {
+        this.document.insert(pos, s);
+        this.undoManager.remoteInsert(pos, s.length());
+    }
+
+    private void remoteDelete(int pos, int length) {
+        this.document.delete(pos, this.document.toString().substring(pos, pos + length));
+        this.undoManager.remoteDelete(pos, length);
+    }
+
+}
@@ -0,0 +1,132 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import undo.Change;
+import undo.Document;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeType;
+import undo.impl.CompressedChange;
+import undo.impl.CompressingHistoryStack;
+import undo.impl.GapBufferDocument;
+import util.RingBufferStack;
+
+public class CompressingHistoryStackTest {
+
+    private static final int THRESHOLD = 256;
+
+    private static final String PASTE = "{\"level\":\"info\",\"msg\":\"ok\"}\n".repeat(200);
+
+    private CompressingHistoryStack stack;
+
+    @Before
+    public void init() {
+        this.stack = new CompressingHistoryStack(new RingBufferStack<>(10), THRESHOLD, 2);
+    }
+
+    @Test
+    public void testSmallChangeKept() {
+        // prep
+        var change = new ChangeImpl(0, "typed", 0, 5, ChangeType.INSERT);
+
+        // test
+        this.stack.push(change);
+
+        // assert
+        assertSame(change, this.stack.peek());
+    }
+
+    @Test
+    public void testLargeChangeCompressed() {
+        // prep
+        var document = new GapBufferDocument();
+        var change = new ChangeImpl(0, PASTE, 0, PASTE.length(), ChangeType.INSERT);
+        change.apply(document);
+
+        // test
+        this.stack.push(change);
+
+        // assert
+        var stored = this.stack.pop();
+        assertTrue(stored instanceof CompressedChange);
+        assertEquals(PASTE.length(), ((CompressedChange) stored).getLength());
+        stored.revert(document);
+        assertEquals("", document.toString());
+        stored.apply(document);
+        assertEquals(PASTE, document.toString());
+    }
+
+    @Test
+    public void testFootprintCountsStoredChanges() {
+        // prep
+        var small = new ChangeImpl(0, "typed", 0, 5, ChangeType.INSERT);
+        var large = new ChangeImpl(5, PASTE, 5, 5 + PASTE.length(), ChangeType.INSERT);
+
+        // test
+        this.stack.push(small);
+        this.stack.push(large);
+
+        // assert
+        var stored = this.stack.peek();
+        assertEquals(small.retainedBytes() + ((CompressedChange) stored).retainedBytes(), this.stack.retainedBytes());
+        assertTrue(this.stack.retainedBytes() < large.retainedBytes());
+        this.stack.pop();
+        assertEquals(small.retainedBytes(), this.stack.retainedBytes());
+        this.stack.removeOldest();
+        assertEquals(0, this.stack.retainedBytes());
+    }
+
+    @Test
+    public void testRepeatedUndoUsesCache() {
+        // prep
+        var document = Mockito.mock(Document.class);
+        this.stack.push(new ChangeImpl(0, PASTE, 0, PASTE.length(), ChangeType.INSERT));
+        var stored = this.stack.peek();
+
+        // test
+        stored.revert(document);
+        stored.apply(document);
+
+        // assert
+        var texts = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(document).delete(Mockito.eq(0), texts.capture());
+        Mockito.verify(document).insert(Mockito.eq(0), Mockito.same(texts.getValue()));
+    }
+
+    @Test
+    public void testIncompressibleChangeKept() {
+        // prep
+        var text = new StringBuilder();
+        for (int i = 0; i < THRESHOLD; i++) {
+            text.append((char) (0x4E00 + (i * 7919) % 20000));
+        }
+        var change = new ChangeImpl(0, text.toString(), 0, THRESHOLD, ChangeType.INSERT);
+
+        // test
+        this.stack.push(change);
+
+        // assert
+        assertSame(change, this.stack.peek());
+    }
+
+    @Test
+    public void testSharedStackDoesNotCompressAgain() {
+        // prep
+        var redoStack = new CompressingHistoryStack(new RingBufferStack<>(10), this.stack);
+        this.stack.push(new ChangeImpl(0, PASTE, 0, PASTE.length(), ChangeType.INSERT));
+        Change stored = this.stack.pop();
+
+        // test
+        redoStack.push(stored);
+
+        // assert
+        assertSame(stored, redoStack.peek());
+        assertEquals(1, redoStack.size());
+        assertTrue(this.stack.isEmpty());
+    }
+
+}
@@ -0,0 +1,178 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Change;
+import undo.Document;
+import undo.impl.ConcurrentUndoManager;
+
+public class ConcurrentUndoManagerTest {
+
+    private static final int BUFFER_SIZE = 10;
+
+    private ConcurrentUndoManager undoManager;
+
+    private int applied;
+
+    @Before
+    public void init() {
+        this.undoManager = new ConcurrentUndoManager(Mockito.mock(Document.class), BUFFER_SIZE);
+    }
+
+    @Test
+    public void testUndoRedo() {
+        // prep
+        var first = Mockito.mock(Change.class);
+        var second = Mockito.mock(Change.class);
+        this.undoManager.registerChange(first);
+        this.undoManager.registerChange(second);
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        Mockito.verify(second).revert(Mockito.any(Document.class));
+        assertTrue(this.undoManager.canUndo());
+        assertTrue(this.undoManager.canRedo());
+        this.undoManager.redo();
+        Mockito.verify(second).apply(Mockito.any(Document.class));
+        assertFalse(this.undoManager.canRedo());
+    }
+
+    @Test
+    public void testHistoryIsSnapshot() {
+        // prep
+        var change = Mockito.mock(Change.class);
+        this.undoManager.registerChange(change);
+        var history = this.undoManager.getHistory();
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        assertEquals(List.of(change), history.getUndoChanges());
+        assertTrue(history.getRedoChanges().isEmpty());
+        assertEquals(List.of(change), this.undoManager.getHistory().getRedoChanges());
+        assertTrue(this.undoManager.getHistory().getRevision() > history.getRevision());
+    }
+
+    @Test
+    public void testFailedUndoKeepsHistory() {
+        // prep
+        var change = Mockito.mock(Change.class);
+        Mockito.doThrow(new IllegalStateException()).when(change).revert(Mockito.any(Document.class));
+        this.undoManager.registerChange(change);
+
+        // test
+        try {
+            this.undoManager.undo();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // assert
+        assertTrue(this.undoManager.canUndo());
+        assertFalse(this.undoManager.canRedo());
+    }
+
+    @Test
+    public void testCompoundIsUndoable() {
+        // prep
+        this.undoManager.beginCompound();
+
+        // test
+        this.undoManager.registerChange(Mockito.mock(Change.class));
+
+        // assert
+        assertTrue(this.undoManager.canUndo());
+        assertTrue(this.undoManager.getHistory().getUndoChanges().isEmpty());
+        this.undoManager.endCompound();
+        assertEquals(1, this.undoManager.getHistory().getUndoChanges().size());
+    }
+
+    @Test
+    public void testUndoKeepsCompoundOpen() {
+        // prep
+        var compound = this.undoManager.compound();
+        this.undoManager.registerChange(Mockito.mock(Change.class));
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        this.undoManager.registerChange(Mockito.mock(Change.class));
+        this.undoManager.registerChange(Mockito.mock(Change.class));
+        assertTrue(this.undoManager.getHistory().getUndoChanges().isEmpty());
+        compound.close();
+        assertEquals(1, this.undoManager.getHistory().getUndoChanges().size());
+        assertEquals(1, this.undoManager.getHistory().getRedoChanges().size());
+    }
+
+    @Test
+    public void testConcurrentUndoRedo() throws InterruptedException {
+        // prep
+        var undoManager = new ConcurrentUndoManager(Mockito.mock(Document.class), 100000);
+        var start = new CountDownLatch(1);
+        var threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < 10000; i++) {
+                    undoManager.registerChange(new CountingChange());
+                    try {
+                        if (i % 3 == 0) {
+                            undoManager.undo();
+                        } else if (i % 3 == 1) {
+                            undoManager.redo();
+                        }
+                    } catch (IllegalStateException e) {
+                        // another thread emptied the stack first
+                    }
+                }
+            }));
+        }
+
+        // test
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (var thread : threads) {
+            thread.join();
+        }
+
+        // assert
+        var history = undoManager.getHistory();
+        assertEquals(40000, history.getUndoChanges().size() + history.getRedoChanges().size());
+        assertEquals(-history.getRedoChanges().size(), this.applied);
+    }
+
+    private class CountingChange implements Change {
+
+        @Override
+        public String getType() {
+            return "COUNTING";
+        }
+
+        @Override
+        public void apply(Document doc) {
+            applied++;
+        }
+
+        @Override
+        public void revert(Document doc) {
+            applied--;
+        }
+    }
+
+}
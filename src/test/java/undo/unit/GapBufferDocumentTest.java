@@ -0,0 +1,198 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import undo.impl.GapBufferDocument;
+
+public class GapBufferDocumentTest {
+
+    private GapBufferDocument document;
+
+    @Before
+    public void init() {
+        this.document = new GapBufferDocument();
+    }
+
+    @Test
+    public void testInsertShiftsText() {
+        // prep
+        this.document.insert(0, "held");
+
+        // test
+        this.document.insert(2, "llo wor");
+
+        // assert
+        assertEquals("hello world", this.document.toString());
+        assertEquals(9, this.document.getDot());
+    }
+
+    @Test
+    public void testDeleteShiftsText() {
+        // prep
+        this.document.insert(0, "hello world");
+
+        // test
+        this.document.delete(2, "llo wor");
+
+        // assert
+        assertEquals("held", this.document.toString());
+        assertEquals(4, this.document.length());
+    }
+
+    @Test
+    public void testTypingAtDot() {
+        // prep
+        var expected = new StringBuilder();
+
+        // test
+        for (int i = 0; i < 5000; i++) {
+            var c = String.valueOf((char) ('a' + i % 26));
+            this.document.insert(this.document.getDot(), c);
+            expected.append(c);
+        }
+
+        // assert
+        assertEquals(expected.toString(), this.document.toString());
+    }
+
+    @Test
+    public void testRandomEdits() {
+        // prep
+        var random = new Random(7);
+        var expected = new StringBuilder();
+
+        // test
+        for (int i = 0; i < 2000; i++) {
+            if (expected.length() > 0 && random.nextInt(3) == 0) {
+                var pos = random.nextInt(expected.length());
+                var end = Math.min(expected.length(), pos + random.nextInt(10));
+                this.document.delete(pos, expected.substring(pos, end));
+                expected.delete(pos, end);
+            } else {
+                var pos = random.nextInt(expected.length() + 1);
+                var s = Integer.toString(random.nextInt(100000));
+                this.document.insert(pos, s);
+                expected.insert(pos, s);
+            }
+        }
+
+        // assert
+        assertEquals(expected.toString(), this.document.toString());
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        // prep
+        this.document.insert(0, "hello");
+
+        // test
+        var snapshot = this.document.snapshot();
+        this.document.insert(5, " world");
+        this.document.delete(0, "he");
+
+        // assert
+        assertEquals("hello", snapshot.toString());
+        assertEquals("ell", snapshot.subSequence(1, 4).toString());
+        assertEquals('o', snapshot.charAt(4));
+        assertEquals("llo world", this.document.toString());
+    }
+
+    @Test
+    public void testRestoreKeepsFingerprints() {
+        // prep
+        this.document.insert(0, "hello world, ".repeat(50));
+        var fingerprint = this.document.fingerprint();
+        var snapshot = this.document.snapshot();
+        this.document.delete(0, "hello");
+        this.document.insert(100, "changed");
+
+        // test
+        this.document.restore(snapshot);
+        var restored = this.document.fingerprint();
+        this.document.insert(7, "big ");
+
+        // assert
+        assertEquals(fingerprint, restored);
+        assertEquals("hello world, ".repeat(50), snapshot.toString());
+        var expected = new GapBufferDocument();
+        expected.insert(0, this.document.toString());
+        assertEquals(expected.fingerprint(), this.document.fingerprint());
+        this.document.restore(snapshot);
+        assertEquals(fingerprint, this.document.fingerprint());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalInsert() {
+        // test
+        this.document.insert(1, "test");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDeleteIllegalString() {
+        // prep
+        this.document.insert(0, "test");
+
+        // test
+        this.document.delete(1, "test");
+    }
+
+    @Test
+    public void testDeleteLongStringAcrossGap() {
+        // prep
+        var text = "0123456789".repeat(100);
+        this.document.insert(0, text);
+        this.document.insert(500, "|");
+        var deleted = text.substring(200, 500) + "|" + text.substring(500, 900);
+        var wrong = deleted.substring(0, 650) + "x" + deleted.substring(651);
+
+        // test
+        try {
+            this.document.delete(200, wrong);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        this.document.delete(200, new StringBuilder(deleted));
+
+        // assert
+        assertEquals(text.substring(0, 200) + text.substring(900), this.document.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalSetDot() {
+        // prep
+        this.document.insert(0, "test");
+
+        // test
+        this.document.setDot(5);
+    }
+
+    @Test
+    public void testCharRangeEditsAcrossGap() {
+        // prep
+        var chars = "--hello world--".toCharArray();
+        this.document.insert(0, chars, 2, 11);
+        this.document.setDot(0);
+        this.document.insert(5, new StringBuilder(","));
+
+        // test
+        this.document.delete(3, "lo, w".toCharArray(), 0, 5);
+
+        // assert
+        assertEquals("helorld", this.document.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCharRangeDeleteMismatch() {
+        // prep
+        this.document.insert(0, "hello");
+        this.document.insert(2, "-");
+
+        // test
+        this.document.delete(1, "e-k".toCharArray(), 0, 3);
+    }
+}
@@ -0,0 +1,76 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import util.LatencyHistogram;
+
+public class LatencyHistogramTest {
+
+    private LatencyHistogram histogram;
+
+    @Before
+    public void init() {
+        this.histogram = new LatencyHistogram();
+    }
+
+    @Test
+    public void testEmpty() {
+        // assert
+        assertEquals(0, this.histogram.getCount());
+        assertEquals(0, this.histogram.getPercentile(99));
+        assertEquals(0, this.histogram.getMax());
+        assertEquals(0, this.histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testPercentiles() {
+        // prep
+        for (int i = 0; i < 99; i++) {
+            this.histogram.record(100);
+        }
+
+        // test
+        this.histogram.record(5000);
+
+        // assert
+        assertEquals(100, this.histogram.getCount());
+        assertEquals(127, this.histogram.getPercentile(50));
+        assertEquals(127, this.histogram.getPercentile(99));
+        assertEquals(5000, this.histogram.getPercentile(100));
+        assertEquals(5000, this.histogram.getMax());
+        assertEquals(149, this.histogram.getMean(), 0);
+    }
+
+    @Test
+    public void testBounds() {
+        // test
+        this.histogram.record(-5);
+        this.histogram.record(Long.MAX_VALUE);
+
+        // assert
+        assertEquals(0, this.histogram.getPercentile(50));
+        assertEquals(Long.MAX_VALUE, this.histogram.getPercentile(100));
+    }
+
+    @Test
+    public void testReset() {
+        // prep
+        this.histogram.record(10);
+
+        // test
+        this.histogram.reset();
+
+        // assert
+        assertEquals(0, this.histogram.getCount());
+        assertEquals(0, this.histogram.getMax());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidPercentile() {
+        // test
+        this.histogram.getPercentile(101);
+    }
+
+}
@@ -0,0 +1,77 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import util.PersistentStack;
+
+public class PersistentStackTest {
+
+    @Test
+    public void testPushAndPopKeepOldVersions() {
+        // prep
+        var empty = PersistentStack.<String>empty(3);
+
+        // test
+        var one = empty.push("a");
+        var two = one.push("b");
+        var popped = two.pop();
+
+        // assert
+        assertTrue(empty.isEmpty());
+        assertEquals("a", one.peek());
+        assertEquals(2, two.size());
+        assertEquals("b", two.peek());
+        assertEquals("a", popped.peek());
+        assertEquals(1, popped.size());
+    }
+
+    @Test
+    public void testPushHidesOldest() {
+        // prep
+        var stack = PersistentStack.<Integer>empty(3);
+
+        // test
+        for (int i = 0; i < 100; i++) {
+            stack = stack.push(i);
+        }
+
+        // assert
+        assertEquals(3, stack.size());
+        assertEquals(List.of(97, 98, 99), stack.toList());
+        stack = stack.pop().pop().pop();
+        assertTrue(stack.isEmpty());
+        assertEquals(List.of(42), stack.push(42).toList());
+    }
+
+    @Test
+    public void testHiddenTailReleased() {
+        // prep
+        var stack = PersistentStack.<Integer>empty(80);
+        var maxRetained = 0;
+
+        // test
+        for (int i = 0; i < 1000; i++) {
+            stack = stack.push(i);
+            if (i % 7 == 0) {
+                stack = stack.pop();
+            }
+            maxRetained = Math.max(maxRetained, stack.retainedSize());
+        }
+
+        // assert
+        assertEquals(80, stack.size());
+        assertEquals(999, stack.peek().intValue());
+        assertTrue(maxRetained <= 90);
+        assertEquals(1, PersistentStack.<Integer>empty(1).push(1).push(2).push(3).retainedSize());
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testPopEmpty() {
+        PersistentStack.empty(3).pop();
+    }
+
+}
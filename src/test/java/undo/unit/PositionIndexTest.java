@@ -0,0 +1,244 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import util.PositionIndex;
+
+public class PositionIndexTest {
+
+    private PositionIndex<String> index;
+
+    @Before
+    public void init() {
+        this.index = new PositionIndex<>();
+    }
+
+    @Test
+    public void testInsertShiftsPositionsAfter() {
+        // prep
+        var before = this.index.add(2, false, false, null);
+        var at = this.index.add(5, false, false, null);
+        var stickyAt = this.index.add(5, true, false, null);
+        var after = this.index.add(9, true, false, null);
+
+        // test
+        this.index.insert(5, 3, -1);
+
+        // assert
+        assertEquals(2, before.getPosition());
+        assertEquals(8, at.getPosition());
+        assertEquals(5, stickyAt.getPosition());
+        assertEquals(12, after.getPosition());
+    }
+
+    @Test
+    public void testDeleteCollapsesPositionsInside() {
+        // prep
+        var inside = this.index.add(6, false, false, null);
+        var end = this.index.add(8, true, false, null);
+        var after = this.index.add(10, false, false, null);
+
+        // test
+        this.index.delete(4, 4, 7);
+
+        // assert
+        assertEquals(4, inside.getPosition());
+        assertEquals(7, inside.getCollapsed());
+        assertEquals(2, inside.getOffset());
+        assertEquals(4, end.getPosition());
+        assertEquals(4, end.getOffset());
+        assertEquals(6, after.getPosition());
+        assertEquals(-1, after.getCollapsed());
+    }
+
+    @Test
+    public void testRestoringInsertPutsPositionsBack() {
+        // prep
+        var start = this.index.add(3, false, false, null);
+        var inside = this.index.add(5, false, false, null);
+        var end = this.index.add(7, true, false, null);
+        this.index.delete(3, 4, 0);
+        this.index.insert(0, 2, -1);
+
+        // test
+        this.index.insert(5, 4, 0);
+
+        // assert
+        assertEquals(5, start.getPosition());
+        assertEquals(7, inside.getPosition());
+        assertEquals(9, end.getPosition());
+        assertEquals(-1, inside.getCollapsed());
+    }
+
+    @Test
+    public void testRetain() {
+        // prep
+        var kept = this.index.add(4, false, false, null);
+        this.index.add(2, false, false, null);
+        this.index.add(6, true, false, null);
+        this.index.insert(0, 1, -1);
+
+        // test
+        this.index.retain(List.of(kept));
+        this.index.insert(0, 1, -1);
+
+        // assert
+        assertEquals(1, this.index.size());
+        assertEquals(6, kept.getPosition());
+    }
+
+    @Test
+    public void testHeaviest() {
+        // prep
+        var light = this.index.add(3, false, false, "light");
+        var heavy = this.index.add(5, false, false, "heavy");
+        var outside = this.index.add(9, false, false, "outside");
+        var ignored = this.index.add(4, false, false, "ignored");
+        this.index.setWeight(light, 1);
+        this.index.setWeight(heavy, 2);
+        this.index.setWeight(outside, 3);
+        this.index.setWeight(ignored, 4);
+        this.index.setWeight(ignored, -1);
+
+        // test
+        var found = this.index.heaviest(3, 5);
+
+        // assert
+        assertSame(heavy, found);
+        assertEquals("heavy", found.getValue());
+        assertNull(this.index.heaviest(6, 8));
+        assertEquals(5, heavy.getPosition());
+    }
+
+    @Test
+    public void testLastOpening() {
+        // prep
+        var first = this.index.add(1, false, true, "first");
+        var second = this.index.add(4, false, true, "second");
+        var closing = this.index.add(6, true, false, "closing");
+        var ignored = this.index.add(5, false, true, "ignored");
+        this.index.setWeight(first, 1);
+        this.index.setWeight(second, 1);
+        this.index.setWeight(closing, 1);
+
+        // test
+        var found = this.index.lastOpening(7);
+
+        // assert
+        assertSame(second, found);
+        assertSame(first, this.index.lastOpening(4));
+        assertNull(this.index.lastOpening(1));
+        assertEquals(-1, ignored.getWeight());
+    }
+
+    @Test
+    public void testNestedCollapsesPutBackInOrder() {
+        // prep
+        var start = this.index.add(2, false, false, null);
+        var end = this.index.add(4, true, false, null);
+        this.index.delete(2, 2, 0);
+        var added = this.index.add(2, false, false, null);
+        this.index.delete(0, 5, 1);
+
+        // test
+        this.index.insert(0, 5, 1);
+        var afterFirst = new int[] { start.getPosition(), end.getPosition(), added.getPosition() };
+        this.index.insert(2, 2, 0);
+
+        // assert
+        assertArrayEquals(new int[] { 2, 2, 2 }, afterFirst);
+        assertEquals(2, start.getPosition());
+        assertEquals(4, end.getPosition());
+        assertEquals(-1, end.getCollapsed());
+        assertEquals(4, added.getPosition());
+    }
+
+    @Test
+    public void testMatchesShiftingEachPosition() {
+        // prep
+        var random = new Random(11);
+        var markers = new ArrayList<PositionIndex.Marker<String>>();
+        var expected = new ArrayList<Point>();
+        var deletions = new ArrayList<int[]>();
+
+        // test
+        for (int version = 0; version < 5000; version++) {
+            var pos = random.nextInt(200);
+            var length = random.nextInt(8);
+            if (random.nextInt(4) == 0) {
+                var sticky = random.nextBoolean();
+                markers.add(this.index.add(pos, sticky, false, null));
+                expected.add(new Point(pos, sticky));
+            } else if (random.nextBoolean()) {
+                this.index.delete(pos, length + 1, version);
+                deletions.add(new int[] { version, length + 1 });
+                for (var point : expected) {
+                    point.shift(version, pos, -length - 1, -1);
+                }
+            } else {
+                var restores = -1;
+                if (random.nextBoolean() && !deletions.isEmpty()) {
+                    var deletion = deletions.get(random.nextInt(deletions.size()));
+                    restores = deletion[0];
+                    length = deletion[1];
+                }
+                this.index.insert(pos, length, restores);
+                for (var point : expected) {
+                    point.shift(version, pos, length, restores);
+                }
+            }
+        }
+
+        // assert
+        for (int i = 0; i < markers.size(); i++) {
+            assertEquals(expected.get(i).x, markers.get(i).getPosition());
+            var collapse = markers.get(i).getCollapse();
+            for (var frame : expected.get(i).collapses) {
+                assertEquals(frame[0], collapse.getVersion());
+                assertEquals(frame[1], collapse.getOffset());
+                collapse = collapse.getEarlier();
+            }
+            assertNull(collapse);
+        }
+    }
+
+    private static final class Point {
+
+        private final boolean sticky;
+
+        private final Deque<long[]> collapses;
+
+        private int x;
+
+        private Point(int x, boolean sticky) {
+            this.x = x;
+            this.sticky = sticky;
+            this.collapses = new ArrayDeque<>();
+        }
+
+        private void shift(long version, int pos, int delta, long restores) {
+            if (delta < 0) {
+                if (this.x >= pos && this.x <= pos - delta) {
+                    this.collapses.push(new long[] { version, this.x - pos });
+                    this.x = pos;
+                } else if (this.x > pos) {
+                    this.x += delta;
+                }
+            } else if (restores >= 0 && !this.collapses.isEmpty() && this.collapses.peek()[0] == restores
+                    && this.x == pos) {
+                this.x += this.collapses.pop()[1];
+            } else if (this.x > pos || (this.x == pos && !this.sticky)) {
+                this.x += delta;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,145 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Document;
+import undo.RangeDeletable;
+import undo.impl.ChangeFactoryImpl;
+import undo.impl.CompressedText;
+import undo.impl.GapBufferDocument;
+import undo.impl.PieceTableDocument;
+import undo.impl.RangeDeletion;
+import undo.impl.RopeDocument;
+import undo.impl.StringDocument;
+import undo.impl.UndoManagerImpl;
+
+public class RangeDeletionTest {
+
+    @Test
+    public void testDeleteRangeInEveryDocument() {
+        for (var document : new Document[] {new StringDocument(), new GapBufferDocument(),
+                new PieceTableDocument(), new RopeDocument()}) {
+            // prep
+            document.insert(0, "hello world");
+
+            // test
+            var removed = ((RangeDeletable) document).delete(3, 6);
+
+            // assert
+            assertEquals("lo wor", removed);
+            assertEquals(document.getClass().getSimpleName(), "helld", document.toString().replace(" ", ""));
+        }
+    }
+
+    @Test
+    public void testApplyCapturesText() {
+        // prep
+        var document = new RopeDocument("undo manager");
+        var change = new ChangeFactoryImpl().createRangeDeletion(4, 8, 12, 4);
+
+        // test
+        change.apply(document);
+
+        // assert
+        assertEquals("undo", document.toString());
+        assertEquals(" manager", ((RangeDeletion) change).getString());
+        change.revert(document);
+        assertEquals("undo manager", document.toString());
+        assertEquals(12, document.getDot());
+    }
+
+    @Test
+    public void testLargeCutIsCompressed() {
+        // prep
+        var text = "All work and no play makes Jack a dull boy. ".repeat(1000);
+        var document = new GapBufferDocument();
+        document.insert(0, text);
+        var undoManager = new UndoManagerImpl(document, 10);
+        var change = new RangeDeletion(0, text.length(), text.length(), 0, CompressedText.DEFAULT_THRESHOLD);
+
+        // test
+        change.apply(document);
+        undoManager.registerChange(change);
+
+        // assert
+        assertTrue(change.isCompressed());
+        assertTrue(undoManager.getRetainedBytes() < text.length() / 10);
+        undoManager.undo();
+        assertEquals(text, document.toString());
+        undoManager.redo();
+        assertEquals("", document.toString());
+    }
+
+    @Test
+    public void testIncompressibleTextKeptPlain() {
+        // prep
+        var text = new StringBuilder();
+        var random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            text.append((char) (0x4E00 + random.nextInt(20000)));
+        }
+
+        // test
+        var stored = CompressedText.of(text.toString(), 16);
+
+        // assert
+        assertFalse(stored.isCompressed());
+        assertEquals(text.toString(), stored.toString());
+        assertEquals(text.length(), stored.length());
+    }
+
+    @Test
+    public void testRedoChecksCapturedText() {
+        // prep
+        var document = new GapBufferDocument();
+        document.insert(0, "undo manager");
+        var change = new RangeDeletion(4, 8, 12, 4, 16);
+        change.apply(document);
+        change.revert(document);
+        document.delete(5, "m");
+        document.insert(5, "M");
+
+        // test
+        try {
+            change.apply(document);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // assert
+        assertEquals("undo Manager", document.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testRevertBeforeApply() {
+        // test
+        new RangeDeletion(0, 1, 1, 0, 16).revert(Mockito.mock(Document.class));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testDocumentWithoutRangeDeletion() {
+        // prep
+        var document = new Document() {
+            @Override
+            public void delete(int pos, String s) {
+            }
+
+            @Override
+            public void insert(int pos, String s) {
+            }
+
+            @Override
+            public void setDot(int pos) {
+            }
+        };
+
+        // test
+        new RangeDeletion(0, 1, 1, 0, 16).apply(document);
+    }
+
+}
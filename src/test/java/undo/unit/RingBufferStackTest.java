@@ -0,0 +1,101 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.NoSuchElementException;
+
+import org.junit.Test;
+import util.RingBufferStack;
+
+public class RingBufferStackTest {
+
+    @Test
+    public void testPushAndPop() {
+        // prep
+        var stack = new RingBufferStack<String>(3);
+
+        // test
+        stack.push("a");
+        stack.push("b");
+
+        // assert
+        assertEquals(2, stack.size());
+        assertEquals("b", stack.pop());
+        assertEquals("a", stack.pop());
+        assertTrue(stack.isEmpty());
+    }
+
+    @Test
+    public void testPushEvictsOldest() {
+        // prep
+        var stack = new RingBufferStack<String>(2);
+        stack.push("a");
+        stack.push("b");
+
+        // test
+        var evicted = stack.push("c");
+
+        // assert
+        assertEquals("a", evicted);
+        assertEquals(2, stack.size());
+        assertEquals("b", stack.get(0));
+        assertEquals("c", stack.peek());
+        assertEquals("c", stack.pop());
+        assertEquals("b", stack.pop());
+    }
+
+    @Test
+    public void testWrapAround() {
+        // prep
+        var stack = new RingBufferStack<Integer>(3);
+
+        // test
+        for (int i = 0; i < 10; i++) {
+            stack.push(i);
+        }
+        stack.pop();
+        stack.push(42);
+
+        // assert
+        assertEquals(Integer.valueOf(7), stack.removeOldest());
+        assertEquals(Integer.valueOf(8), stack.get(0));
+        assertEquals(Integer.valueOf(42), stack.peek());
+    }
+
+    @Test
+    public void testZeroCapacity() {
+        // prep
+        var stack = new RingBufferStack<String>(0);
+
+        // test
+        var evicted = stack.push("a");
+
+        // assert
+        assertEquals("a", evicted);
+        assertTrue(stack.isEmpty());
+    }
+
+    @Test
+    public void testClear() {
+        // prep
+        var stack = new RingBufferStack<String>(2);
+        stack.push("a");
+        stack.push("b");
+        stack.push("c");
+
+        // test
+        stack.clear();
+        stack.push("d");
+
+        // assert
+        assertEquals(1, stack.size());
+        assertEquals("d", stack.get(0));
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testIllegalPop() {
+        // test
+        new RingBufferStack<String>(2).pop();
+    }
+
+}
@@ -0,0 +1,151 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import undo.impl.RopeDocument;
+
+public class RopeDocumentTest {
+
+    private RopeDocument document;
+
+    @Before
+    public void init() {
+        this.document = new RopeDocument();
+    }
+
+    @Test
+    public void testInsertShiftsText() {
+        // prep
+        this.document.insert(0, "held");
+
+        // test
+        this.document.insert(2, "llo wor");
+
+        // assert
+        assertEquals("hello world", this.document.toString());
+        assertEquals(9, this.document.getDot());
+    }
+
+    @Test
+    public void testDeleteShiftsText() {
+        // prep
+        this.document.insert(0, "hello world");
+
+        // test
+        this.document.delete(2, "llo wor");
+
+        // assert
+        assertEquals("held", this.document.toString());
+        assertEquals(4, this.document.length());
+    }
+
+    @Test
+    public void testTypingAtDot() {
+        // prep
+        var expected = new StringBuilder();
+
+        // test
+        for (int i = 0; i < 5000; i++) {
+            var c = String.valueOf((char) ('a' + i % 26));
+            this.document.insert(this.document.getDot(), c);
+            expected.append(c);
+        }
+
+        // assert
+        assertEquals(expected.toString(), this.document.toString());
+    }
+
+    @Test
+    public void testRandomEdits() {
+        // prep
+        var random = new Random(7);
+        var expected = new StringBuilder();
+
+        // test
+        for (int i = 0; i < 2000; i++) {
+            if (expected.length() > 0 && random.nextInt(3) == 0) {
+                var pos = random.nextInt(expected.length());
+                var end = Math.min(expected.length(), pos + random.nextInt(10));
+                this.document.delete(pos, expected.substring(pos, end));
+                expected.delete(pos, end);
+            } else {
+                var pos = random.nextInt(expected.length() + 1);
+                var s = Integer.toString(random.nextInt(100000));
+                this.document.insert(pos, s);
+                expected.insert(pos, s);
+            }
+        }
+
+        // assert
+        assertEquals(expected.toString(), this.document.toString());
+    }
+
+    @Test
+    public void testSnapshotIsImmutable() {
+        // prep
+        this.document.insert(0, "hello");
+
+        // test
+        var snapshot = this.document.snapshot();
+        this.document.insert(5, " world");
+        this.document.delete(0, "he");
+
+        // assert
+        assertEquals("hello", snapshot.toString());
+        assertEquals("ell", snapshot.subSequence(1, 4).toString());
+        assertEquals('o', snapshot.charAt(4));
+        assertEquals("llo world", this.document.toString());
+    }
+
+    @Test
+    public void testLargeText() {
+        // prep
+        var text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append(i % 10);
+        }
+        this.document = new RopeDocument(text.toString());
+
+        // test
+        this.document.insert(50000, "middle");
+        this.document.delete(99990, "4567890123");
+        text.insert(50000, "middle");
+        text.delete(99990, 100000);
+
+        // assert
+        assertEquals(text.toString(), this.document.toString());
+        var view = this.document.snapshot();
+        assertEquals(text.length(), view.length());
+        assertEquals("9middle0", view.subSequence(49999, 50007).toString());
+        assertEquals('m', view.subSequence(40000, 60000).charAt(10000));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalInsert() {
+        // test
+        this.document.insert(1, "test");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testDeleteIllegalString() {
+        // prep
+        this.document.insert(0, "test");
+
+        // test
+        this.document.delete(1, "test");
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIllegalSetDot() {
+        // prep
+        this.document.insert(0, "test");
+
+        // test
+        this.document.setDot(5);
+    }
+
+}
@@ -0,0 +1,164 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Change;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeType;
+import undo.impl.CompoundChange;
+import undo.impl.SpillingChangeStack;
+
+public class SpillingChangeStackTest {
+
+    private Path directory;
+
+    private SpillingChangeStack stack;
+
+    @Before
+    public void init() throws IOException {
+        this.directory = Files.createTempDirectory("spill");
+        this.stack = new SpillingChangeStack(4, this.directory);
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        this.stack.close();
+        Files.delete(this.directory);
+    }
+
+    @Test
+    public void testSpillAndPageBack() {
+        // test
+        for (int i = 0; i < 100; i++) {
+            assertNull(this.stack.push(new ChangeImpl(i, "text" + i, i, i + 1, ChangeType.INSERT)));
+        }
+
+        // assert
+        assertEquals(100, this.stack.size());
+        assertEquals(96, this.stack.spilled());
+        assertEquals("text10", ((ChangeImpl) this.stack.get(10)).getString());
+        for (int i = 99; i >= 0; i--) {
+            var change = (ChangeImpl) this.stack.pop();
+            assertEquals(i, change.getPos());
+            assertEquals("text" + i, change.getString());
+            assertEquals(i + 1, change.getNewDot());
+        }
+        assertTrue(this.stack.isEmpty());
+    }
+
+    @Test
+    public void testSpillCompoundAndOpaqueChanges() {
+        // prep
+        var compound = new CompoundChange();
+        compound.add(new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT));
+        compound.add(new ChangeImpl(5, "b", 1, 5, ChangeType.DELETE));
+        var opaque = Mockito.mock(Change.class);
+
+        // test
+        this.stack.push(compound);
+        this.stack.push(opaque);
+        for (int i = 0; i < 4; i++) {
+            this.stack.push(new ChangeImpl(i, "x", i, i, ChangeType.INSERT));
+        }
+
+        // assert
+        assertEquals(2, this.stack.spilled());
+        assertSame(opaque, this.stack.get(1));
+        var restored = (CompoundChange) this.stack.removeOldest();
+        assertEquals(2, restored.getChanges().size());
+        assertEquals("b", ((ChangeImpl) restored.getChanges().get(1)).getString());
+        assertSame(opaque, this.stack.removeOldest());
+        assertEquals(4, this.stack.size());
+    }
+
+    @Test
+    public void testRemoveOldestReusesFileSpace() throws IOException {
+        // prep
+        var stack = new SpillingChangeStack(4, this.directory, 64);
+
+        // test
+        for (int i = 0; i < 1000; i++) {
+            stack.push(new ChangeImpl(i, "text" + i, i, i + 1, ChangeType.INSERT));
+            if (stack.size() > 20) {
+                stack.removeOldest();
+            }
+        }
+
+        // assert
+        assertTrue(stack.spillFileSize() <= 16 * 64);
+        assertEquals(980, ((ChangeImpl) stack.get(0)).getPos());
+        for (int i = 999; i >= 980; i--) {
+            assertEquals("text" + i, ((ChangeImpl) stack.pop()).getString());
+        }
+        assertEquals(0, stack.spillFileSize());
+        stack.close();
+    }
+
+    @Test
+    public void testRecordsLargerThanSegment() throws IOException {
+        // prep
+        var stack = new SpillingChangeStack(1, this.directory, 64);
+        var text = "0123456789".repeat(50);
+
+        // test
+        stack.push(new ChangeImpl(0, "small", 0, 5, ChangeType.INSERT));
+        stack.push(new ChangeImpl(5, text, 5, 505, ChangeType.INSERT));
+        stack.push(new ChangeImpl(505, "x", 505, 506, ChangeType.INSERT));
+        stack.removeOldest();
+
+        // assert
+        assertEquals(1, stack.spilled());
+        stack.pop();
+        assertEquals(text, ((ChangeImpl) stack.pop()).getString());
+        assertTrue(stack.isEmpty());
+        stack.close();
+    }
+
+    @Test
+    public void testFootprintCountsOnlyHeap() {
+        // prep
+        var change = new ChangeImpl(0, "x".repeat(100), 0, 100, ChangeType.INSERT);
+        var empty = this.stack.retainedBytes();
+
+        // test
+        for (int i = 0; i < 12; i++) {
+            this.stack.push(change);
+        }
+
+        // assert
+        assertEquals(empty + 4 * change.retainedBytes(), this.stack.retainedBytes());
+        for (int i = 0; i < 12; i++) {
+            this.stack.pop();
+        }
+        assertEquals(empty, this.stack.retainedBytes());
+    }
+
+    @Test
+    public void testInterleavedPushAndPop() {
+        // test
+        for (int i = 0; i < 10; i++) {
+            this.stack.push(new ChangeImpl(i, "a", 0, 0, ChangeType.INSERT));
+        }
+        for (int i = 0; i < 8; i++) {
+            this.stack.pop();
+        }
+        for (int i = 10; i < 20; i++) {
+            this.stack.push(new ChangeImpl(i, "b", 0, 0, ChangeType.INSERT));
+        }
+
+        // assert
+        assertEquals(12, this.stack.size());
+        assertEquals(1, ((ChangeImpl) this.stack.get(1)).getPos());
+        assertEquals(10, ((ChangeImpl) this.stack.get(2)).getPos());
+        assertEquals(19, ((ChangeImpl) this.stack.peek()).getPos());
+    }
+
+}
@@ -129,4 +129,26 @@ public class StringDocumentTest {
         this.document.setDot(testString.length() + 1);
     }
 
+    @Test
+    public void testCharRangeInsertAndDelete() {
+        // prep
+        var chars = "xxtestxx".toCharArray();
+        this.document.insert(0, new StringBuilder("ab"));
+
+        // test
+        this.document.insert(2, chars, 2, 4);
+        this.document.delete(2, chars, 2, 2);
+
+        // assert
+        assertEquals("ab  st", this.document.toString());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCharRangeDeleteMismatch() {
+        // prep
+        this.document.insert(0, "test");
+
+        // test
+        this.document.delete(0, "tent".toCharArray(), 0, 4);
+    }
 }
@@ -0,0 +1,166 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import undo.Document;
+import undo.Fingerprinted;
+import undo.impl.GapBufferDocument;
+import undo.impl.PieceTableDocument;
+import undo.impl.RopeDocument;
+import util.TextHash;
+import util.TextHashTree;
+
+public class TextHashTreeTest {
+
+    private StringBuilder text;
+
+    private TextHashTree tree;
+
+    @Before
+    public void init() {
+        this.text = new StringBuilder("initial text");
+        this.tree = new TextHashTree(this.text);
+    }
+
+    @Test
+    public void testMatchesHashingText() {
+        // prep
+        var random = new Random(5);
+
+        // test
+        for (int i = 0; i < 3000; i++) {
+            var pos = random.nextInt(this.text.length() + 1);
+            if (random.nextInt(3) == 0 && pos < this.text.length()) {
+                var length = 1 + random.nextInt(Math.min(300, this.text.length() - pos));
+                this.text.delete(pos, pos + length);
+                this.tree.deleted(pos, length, this.text);
+            } else {
+                var inserted = randomText(random, random.nextInt(10) == 0 ? 500 : 3);
+                this.text.insert(pos, inserted);
+                this.tree.inserted(pos, inserted.length(), this.text);
+            }
+            var start = random.nextInt(this.text.length() + 1);
+            var end = start + random.nextInt(this.text.length() - start + 1);
+            assertEquals(TextHash.of(this.text, start, end), this.tree.hash(start, end, this.text));
+        }
+
+        // assert
+        assertEquals(this.text.length(), this.tree.length());
+        assertEquals(TextHash.of(this.text, 0, this.text.length()), this.tree.hash(0, this.text.length(), this.text));
+    }
+
+    @Test
+    public void testConcat() {
+        // prep
+        var first = "Hello, ";
+        var second = "world";
+
+        // test
+        var hash = TextHash.concat(TextHash.of(first, 0, first.length()), TextHash.of(second, 0, second.length()),
+                TextHash.power(second.length()));
+
+        // assert
+        assertEquals(TextHash.of(first + second, 0, 12), hash);
+        assertNotEquals(TextHash.of("\0a", 0, 2), TextHash.of("a", 0, 1));
+    }
+
+    @Test
+    public void testDocumentsAgree() {
+        // prep
+        var random = new Random(8);
+        this.text.setLength(0);
+        var documents = List.of(new GapBufferDocument(), new RopeDocument(), new PieceTableDocument());
+        for (var document : documents) {
+            ((Fingerprinted) document).fingerprint();
+        }
+
+        // test
+        for (int i = 0; i < 2000; i++) {
+            var pos = random.nextInt(this.text.length() + 1);
+            if (random.nextBoolean() && pos < this.text.length()) {
+                var length = 1 + random.nextInt(Math.min(20, this.text.length() - pos));
+                var deleted = this.text.substring(pos, pos + length);
+                this.text.delete(pos, pos + length);
+                for (var document : documents) {
+                    document.delete(pos, deleted);
+                }
+            } else {
+                var inserted = randomText(random, random.nextInt(50) == 0 ? 1500 : 2);
+                this.text.insert(pos, inserted);
+                for (var document : documents) {
+                    document.insert(pos, inserted);
+                }
+            }
+        }
+
+        // assert
+        var expected = TextHash.of(this.text, 0, this.text.length());
+        for (Document document : documents) {
+            assertEquals(expected, ((Fingerprinted) document).fingerprint());
+            assertEquals(TextHash.of(this.text, 100, 700), ((Fingerprinted) document).fingerprint(100, 700));
+        }
+    }
+
+    @Test
+    public void testMismatch() {
+        // prep
+        var text = "abcdefghij".repeat(100);
+        var rope = new RopeDocument(text);
+        var pieces = new PieceTableDocument(text);
+        var buffer = new GapBufferDocument();
+        buffer.insert(0, text);
+
+        // test
+        pieces.delete(637, "h");
+        pieces.insert(637, "H");
+
+        // assert
+        assertEquals(-1, rope.mismatch(buffer));
+        assertEquals(637, rope.mismatch(pieces));
+        assertEquals(637, pieces.mismatch(buffer));
+        buffer.delete(990, "abcdefghij");
+        assertEquals(990, rope.mismatch(buffer));
+    }
+
+    @Test
+    public void testCopyIsIndependent() {
+        // prep
+        var random = new Random(11);
+        this.text.setLength(0);
+        this.text.append("abcdefghij".repeat(200));
+        this.tree = new TextHashTree(this.text);
+        var copiedText = new StringBuilder(this.text);
+
+        // test
+        var copy = this.tree.copy();
+        for (int i = 0; i < 500; i++) {
+            var pos = random.nextInt(this.text.length() + 1);
+            var inserted = randomText(random, 5);
+            this.text.insert(pos, inserted);
+            this.tree.inserted(pos, inserted.length(), this.text);
+            pos = random.nextInt(copiedText.length());
+            copiedText.deleteCharAt(pos);
+            copy.deleted(pos, 1, copiedText);
+        }
+
+        // assert
+        assertEquals(TextHash.of(this.text, 0, this.text.length()), this.tree.hash(0, this.text.length(), this.text));
+        assertEquals(TextHash.of(copiedText, 0, copiedText.length()), copy.hash(0, copiedText.length(), copiedText));
+        assertEquals(TextHash.of(copiedText, 10, 700), copy.hash(10, 700, copiedText));
+    }
+
+    private static String randomText(Random random, int maxLength) {
+        var builder = new StringBuilder();
+        var length = 1 + random.nextInt(maxLength);
+        for (int i = 0; i < length; i++) {
+            builder.append((char) ('a' + random.nextInt(4)));
+        }
+        return builder.toString();
+    }
+
+}
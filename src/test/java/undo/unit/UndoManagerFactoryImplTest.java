@@ -3,10 +3,15 @@ package undo.unit;
 import org.junit.Before;
 import org.junit.Test;
 import undo.Document;
+import undo.DocumentType;
+import undo.impl.GapBufferDocument;
+import undo.impl.PieceTableDocument;
+import undo.impl.RopeDocument;
 import undo.impl.StringDocument;
 import undo.impl.UndoManagerFactoryImpl;
 
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNotNull;
 
 public class UndoManagerFactoryImplTest {
@@ -60,5 +65,37 @@ public class UndoManagerFactoryImplTest {
 		undoManagerFactory.createUndoManager(null, -10);
 	}
 
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateUndoManagerIllegalMemoryBudget() {
+		// prep
+		var undoManagerFactory = new UndoManagerFactoryImpl();
+
+		// test
+		undoManagerFactory.createUndoManager(this.document, 10, 0);
+	}
+
+	@Test
+	public void testCreateDocument() {
+		// prep
+		var undoManagerFactory = new UndoManagerFactoryImpl();
+
+		// test
+		var gapBuffer = undoManagerFactory.createDocument(DocumentType.GAP_BUFFER);
+		var pieceTable = undoManagerFactory.createDocument(DocumentType.PIECE_TABLE);
+		var rope = undoManagerFactory.createDocument(DocumentType.ROPE);
+		var string = undoManagerFactory.createDocument(DocumentType.STRING);
+
+		// assert
+		assertTrue(gapBuffer instanceof GapBufferDocument);
+		assertTrue(pieceTable instanceof PieceTableDocument);
+		assertTrue(rope instanceof RopeDocument);
+		assertTrue(string instanceof StringDocument);
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testCreateDocumentWithoutType() {
+		// test
+		new UndoManagerFactoryImpl().createDocument(null);
+	}
 
 }
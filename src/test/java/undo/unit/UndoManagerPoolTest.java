@@ -0,0 +1,202 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Document;
+import undo.UndoManager;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeType;
+import undo.impl.MemoryFootprint;
+import undo.impl.UndoManagerPool;
+
+public class UndoManagerPoolTest {
+
+    private static final int BUFFER_SIZE = 10;
+
+    private ChangeImpl change;
+
+    @Before
+    public void init() {
+        this.change = new ChangeImpl(0, "text", 0, 4, ChangeType.INSERT);
+    }
+
+    @Test
+    public void testSessionPerDocument() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, Long.MAX_VALUE);
+        var first = Mockito.mock(Document.class);
+        var second = Mockito.mock(Document.class);
+
+        // test
+        var manager = pool.get(first);
+        manager.registerChange(this.change);
+
+        // assert
+        assertSame(manager, pool.get(first));
+        assertNotSame(manager, pool.get(second));
+        assertTrue(manager.canUndo());
+        assertFalse(pool.get(second).canUndo());
+        var statistics = pool.getStatistics();
+        assertEquals(2, statistics.getSessions());
+        assertEquals(1, statistics.getActiveSessions());
+        assertEquals(1, statistics.getRegistered());
+        assertEquals(this.change.retainedBytes(), statistics.getRetainedBytes());
+    }
+
+    @Test
+    public void testEvictLeastRecentlyUsed() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, 2 * MemoryFootprint.of(this.change), 1);
+        var first = pool.get(Mockito.mock(Document.class));
+        var second = pool.get(Mockito.mock(Document.class));
+        var third = pool.get(Mockito.mock(Document.class));
+        first.registerChange(this.change);
+        second.registerChange(this.change);
+        first.undo();
+
+        // test
+        third.registerChange(this.change);
+
+        // assert
+        assertTrue(first.canRedo());
+        assertFalse(second.canUndo());
+        assertTrue(third.canUndo());
+        var statistics = pool.getStatistics();
+        assertEquals(1, statistics.getEvictions());
+        assertEquals(2, statistics.getActiveSessions());
+        assertEquals(1, statistics.getUndone());
+    }
+
+    @Test
+    public void testEvictedStacksReused() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, 2 * MemoryFootprint.of(this.change), 1);
+        var first = pool.get(Mockito.mock(Document.class));
+        var second = pool.get(Mockito.mock(Document.class));
+        var third = pool.get(Mockito.mock(Document.class));
+        var fourth = pool.get(Mockito.mock(Document.class));
+        first.registerChange(this.change);
+        first.registerChange(new ChangeImpl(4, "more", 4, 8, ChangeType.INSERT));
+        first.undo();
+        second.registerChange(this.change);
+        assertEquals(2, pool.getStatistics().getIdleStacks());
+
+        // test
+        third.registerChange(this.change);
+        fourth.registerChange(this.change);
+
+        // assert
+        assertFalse(first.canUndo());
+        assertFalse(first.canRedo());
+        assertFalse(second.canUndo());
+        assertEquals(2, pool.getStatistics().getIdleStacks());
+        assertFalse(third.canRedo());
+        third.undo();
+        assertFalse(third.canUndo());
+        assertTrue(third.canRedo());
+        assertTrue(fourth.canUndo());
+    }
+
+    @Test
+    public void testOpenCompoundIsNotEvicted() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, MemoryFootprint.of(this.change) - 1, 1);
+        var first = pool.get(Mockito.mock(Document.class));
+        var second = pool.get(Mockito.mock(Document.class));
+        first.beginCompound();
+        first.registerChange(this.change);
+
+        // test
+        second.registerChange(this.change);
+
+        // assert
+        assertEquals(0, pool.getStatistics().getEvictions());
+        first.endCompound();
+        assertTrue(first.canUndo());
+        assertFalse(second.canUndo());
+    }
+
+    @Test
+    public void testSessionTrimsItsOwnHistory() {
+        // prep
+        var budget = 2 * MemoryFootprint.of(this.change);
+        var pool = new UndoManagerPool(BUFFER_SIZE, budget, 1);
+        var manager = pool.get(Mockito.mock(Document.class));
+
+        // test
+        for (int i = 0; i < 5; i++) {
+            manager.registerChange(this.change);
+        }
+
+        // assert
+        assertEquals(budget, pool.getStatistics().getRetainedBytes());
+        manager.undo();
+        manager.undo();
+        assertFalse(manager.canUndo());
+    }
+
+    @Test
+    public void testBudgetSharedByStripes() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, 32 * MemoryFootprint.of(this.change));
+        var managers = new UndoManager[32];
+        for (int i = 0; i < managers.length; i++) {
+            managers[i] = pool.get(Mockito.mock(Document.class));
+        }
+
+        // test
+        for (var manager : managers) {
+            manager.registerChange(this.change);
+        }
+
+        // assert
+        for (var manager : managers) {
+            assertTrue(manager.canUndo());
+        }
+        assertEquals(0, pool.getStatistics().getEvictions());
+    }
+
+    @Test
+    public void testReleasedSessionStaysEmpty() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, Long.MAX_VALUE);
+        var doc = Mockito.mock(Document.class);
+        var manager = pool.get(doc);
+        pool.release(doc);
+
+        // test
+        try {
+            manager.registerChange(this.change);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        // assert
+        assertFalse(manager.canUndo());
+        assertEquals(0, pool.getStatistics().getActiveSessions());
+        assertEquals(0, pool.getStatistics().getRetainedBytes());
+    }
+
+    @Test
+    public void testRelease() {
+        // prep
+        var pool = new UndoManagerPool(BUFFER_SIZE, Long.MAX_VALUE);
+        var doc = Mockito.mock(Document.class);
+        var manager = pool.get(doc);
+        manager.registerChange(this.change);
+
+        // test
+        var released = pool.release(doc);
+
+        // assert
+        assertTrue(released);
+        assertFalse(pool.release(doc));
+        assertNotSame(manager, pool.get(doc));
+        assertEquals(0, pool.getStatistics().getRetainedBytes());
+    }
+
+}
@@ -0,0 +1,165 @@
+package undo.unit;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import undo.Change;
+import undo.Document;
+import undo.impl.ChangeImpl;
+import undo.impl.ChangeType;
+import undo.impl.PieceTableDocument;
+import undo.impl.UndoTreeManager;
+
+public class UndoTreeManagerTest {
+
+    private Document document;
+
+    private UndoTreeManager undoManager;
+
+    @Before
+    public void init() {
+        this.document = new PieceTableDocument("base");
+        this.undoManager = new UndoTreeManager(this.document, Long.MAX_VALUE);
+    }
+
+    @Test
+    public void testNewChangeStartsBranch() {
+        // prep
+        perform(new ChangeImpl(4, " one", 4, 8, ChangeType.INSERT));
+        var first = this.undoManager.getCurrentId();
+        this.undoManager.undo();
+
+        // test
+        perform(new ChangeImpl(0, "two ", 0, 4, ChangeType.INSERT));
+
+        // assert
+        assertFalse(this.undoManager.canRedo());
+        assertEquals("two base", this.document.toString());
+        assertEquals(2, this.undoManager.getChildIds(0).size());
+        this.undoManager.goTo(first);
+        assertEquals("base one", this.document.toString());
+        this.undoManager.undo();
+        this.undoManager.redo();
+        assertEquals("base one", this.document.toString());
+    }
+
+    @Test
+    public void testGoToAcrossBranches() {
+        // prep
+        perform(new ChangeImpl(4, "!", 4, 5, ChangeType.INSERT));
+        perform(new ChangeImpl(0, "b", 1, 0, ChangeType.DELETE));
+        perform(new ChangeImpl(0, "c", 0, 1, ChangeType.INSERT));
+        var left = this.undoManager.getCurrentId();
+        this.undoManager.undo(2);
+        perform(new ChangeImpl(5, "?", 5, 6, ChangeType.INSERT));
+        perform(new ChangeImpl(0, "B", 0, 1, ChangeType.INSERT));
+        var right = this.undoManager.getCurrentId();
+
+        // test
+        this.undoManager.goTo(left);
+
+        // assert
+        assertEquals("case!", this.document.toString());
+        this.undoManager.goTo(right);
+        assertEquals("Bbase!?", this.document.toString());
+        this.undoManager.undo(3);
+        assertEquals("base", this.document.toString());
+        this.undoManager.redo(3);
+        assertEquals("Bbase!?", this.document.toString());
+    }
+
+    @Test
+    public void testTrimDropsOtherBranchesFirst() {
+        // prep
+        var change = new ChangeImpl(0, "x", 0, 1, ChangeType.INSERT);
+        var probe = new UndoTreeManager(Mockito.mock(Document.class), Long.MAX_VALUE);
+        probe.registerChange(change);
+        var budget = 3 * probe.getRetainedBytes();
+        var undoManager = new UndoTreeManager(Mockito.mock(Document.class), budget);
+        undoManager.registerChange(change);
+        undoManager.undo();
+        undoManager.registerChange(new ChangeImpl(0, "y", 0, 1, ChangeType.INSERT));
+        var kept = undoManager.getCurrentId();
+        undoManager.registerChange(new ChangeImpl(1, "z", 1, 2, ChangeType.INSERT));
+
+        // test
+        undoManager.registerChange(new ChangeImpl(2, "w", 2, 3, ChangeType.INSERT));
+
+        // assert
+        assertEquals(List.of(kept), undoManager.getChildIds(0));
+        assertEquals(budget, undoManager.getRetainedBytes());
+    }
+
+    @Test
+    public void testTrimPromotesRootAlongLongPath() {
+        // prep
+        var change = new ChangeImpl(0, "x", 0, 1, ChangeType.INSERT);
+        var probe = new UndoTreeManager(Mockito.mock(Document.class), Long.MAX_VALUE);
+        probe.registerChange(change);
+        var undoManager = new UndoTreeManager(Mockito.mock(Document.class), 3 * probe.getRetainedBytes());
+
+        // test
+        for (int i = 0; i < 10000; i++) {
+            undoManager.registerChange(new ChangeImpl(i, "x", i, i + 1, ChangeType.INSERT));
+        }
+
+        // assert
+        assertEquals(3 * probe.getRetainedBytes(), undoManager.getRetainedBytes());
+        try {
+            undoManager.undo(4);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        undoManager.undo(3);
+        assertFalse(undoManager.canUndo());
+    }
+
+    @Test
+    public void testTrimKeepsNewestChange() {
+        // prep
+        this.undoManager = new UndoTreeManager(this.document, 1);
+        perform(new ChangeImpl(4, " one", 4, 8, ChangeType.INSERT));
+        var first = this.undoManager.getCurrentId();
+        assertTrue(this.undoManager.canUndo());
+
+        // test
+        perform(new ChangeImpl(8, " two", 8, 12, ChangeType.INSERT));
+
+        // assert
+        assertEquals(List.of(this.undoManager.getCurrentId()), this.undoManager.getChildIds(first));
+        this.undoManager.undo();
+        assertEquals("base one", this.document.toString());
+        assertFalse(this.undoManager.canUndo());
+        this.undoManager.redo();
+        assertEquals("base one two", this.document.toString());
+    }
+
+    @Test
+    public void testUndoKeepsCompoundOpen() {
+        // prep
+        var compound = this.undoManager.compound();
+        perform(new ChangeImpl(4, "!", 4, 5, ChangeType.INSERT));
+
+        // test
+        this.undoManager.undo();
+
+        // assert
+        perform(new ChangeImpl(0, "a", 0, 1, ChangeType.INSERT));
+        perform(new ChangeImpl(1, "b", 1, 2, ChangeType.INSERT));
+        compound.close();
+        this.undoManager.undo();
+        assertEquals("base", this.document.toString());
+        assertFalse(this.undoManager.canUndo());
+    }
+
+    private void perform(Change change) {
+        this.undoManager.registerChange(change);
+        change.apply(this.document);
+    }
+
+}